@@ -0,0 +1,95 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.RawBsonDocument;
+import org.bson.UuidRepresentation;
+import org.bson.codecs.Codec;
+import org.mongojack.JacksonCodecRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import umm3601.todos.Todo;
+import umm3601.todos.TodoCodec;
+import umm3601.user.User;
+import umm3601.user.UserCodec;
+
+/**
+ * Times turning result sets of raw BSON (what the driver gets back from
+ * Mongo) into todos and users, with our own codecs (`TodoCodec` and
+ * `UserCodec`) and with MongoJack's, which is what the controllers used
+ * before.
+ *
+ * Run with the `gc` profiler (the default in `build.gradle`), the
+ * `gc.alloc.rate.norm` lines show how much garbage each codec makes per
+ * result set, which is most of the difference between them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@SuppressWarnings({"VisibilityModifier"})
+public class CodecBenchmark {
+
+  @Param({"100", "1000", "10000"})
+  public int size;
+
+  private final Codec<Todo> todoCodec = new TodoCodec();
+  private final Codec<User> userCodec = new UserCodec();
+  private Codec<Todo> jacksonTodoCodec;
+  private Codec<User> jacksonUserCodec;
+  private List<RawBsonDocument> todos;
+  private List<RawBsonDocument> users;
+
+  @Setup
+  public void setup() {
+    JacksonCodecRegistry jackson = JacksonCodecRegistry.withDefaultObjectMapper(UuidRepresentation.STANDARD);
+    jackson.addCodecForClass(Todo.class);
+    jackson.addCodecForClass(User.class);
+    jacksonTodoCodec = jackson.get(Todo.class);
+    jacksonUserCodec = jackson.get(User.class);
+
+    todos = new ArrayList<>(size);
+    for (Todo todo : Samples.todos(size)) {
+      todos.add(new RawBsonDocument(todo, todoCodec));
+    }
+    users = new ArrayList<>(size);
+    for (User user : Samples.users(size)) {
+      users.add(new RawBsonDocument(user, userCodec));
+    }
+  }
+
+  private static <T> void decodeAll(List<RawBsonDocument> documents, Codec<T> codec, Blackhole blackhole) {
+    for (RawBsonDocument document : documents) {
+      blackhole.consume(document.decode(codec));
+    }
+  }
+
+  @Benchmark
+  public void ourTodoCodec(Blackhole blackhole) {
+    decodeAll(todos, todoCodec, blackhole);
+  }
+
+  @Benchmark
+  public void mongoJackTodoCodec(Blackhole blackhole) {
+    decodeAll(todos, jacksonTodoCodec, blackhole);
+  }
+
+  @Benchmark
+  public void ourUserCodec(Blackhole blackhole) {
+    decodeAll(users, userCodec, blackhole);
+  }
+
+  @Benchmark
+  public void mongoJackUserCodec(Blackhole blackhole) {
+    decodeAll(users, jacksonUserCodec, blackhole);
+  }
+}
@@ -0,0 +1,116 @@
+package umm3601;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import io.javalin.json.JavalinJackson;
+
+/**
+ * Times gzipping a `GET /api/todos` response at different compression
+ * levels, to see what each level's savings cost in CPU. `Server` uses
+ * level 6. Besides the time per response, `gzip` reports
+ * `compressedBytes`, the size of the gzipped response, and
+ * `compressedPercent`, that size as a percentage of the JSON's.
+ *
+ * `sendCachedResponse` is what a hit in `CompressedJsonCache` costs
+ * instead: just copying the already compressed bytes (gzipped at the
+ * default level, as the cache does them).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@SuppressWarnings({"MagicNumber", "VisibilityModifier"})
+public class CompressionBenchmark {
+
+  @Param({"100", "1000", "10000"})
+  public int size;
+
+  /**
+   * The compression level `gzip` uses. This is its own state, so that
+   * only `gzip` is run at each level.
+   */
+  @State(Scope.Benchmark)
+  @SuppressWarnings({"VisibilityModifier"})
+  public static class GzipLevel {
+    @Param({"1", "6", "9"})
+    public int level;
+  }
+
+  /**
+   * How well `gzip` compressed the response. The public fields are what
+   * JMH reports, once per iteration.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @SuppressWarnings({"VisibilityModifier"})
+  public static class Compressed {
+    public long compressedBytes;
+    public double compressedPercent;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      compressedBytes = 0;
+      compressedPercent = 0;
+    }
+
+    void record(int jsonBytes, int gzippedBytes) {
+      compressedBytes = gzippedBytes;
+      compressedPercent = 100.0 * gzippedBytes / jsonBytes;
+    }
+  }
+
+  private byte[] json;
+  private byte[] compressed;
+  private final OutputStream response = OutputStream.nullOutputStream();
+
+  @Setup
+  public void setup() throws IOException {
+    json = new JavalinJackson().toJsonString(Samples.todos(size), List.class).getBytes(StandardCharsets.UTF_8);
+    ByteArrayOutputStream out = new ByteArrayOutputStream(json.length / 4);
+    try (OutputStream gzip = new GZIPOutputStream(out)) {
+      gzip.write(json);
+    }
+    compressed = out.toByteArray();
+  }
+
+  @Benchmark
+  public byte[] gzip(GzipLevel level, Compressed counters) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(json.length / 4);
+    try (OutputStream gzip = new LeveledGzipOutputStream(out, level.level)) {
+      gzip.write(json);
+    }
+    counters.record(json.length, out.size());
+    return out.toByteArray();
+  }
+
+  @Benchmark
+  public void sendCachedResponse() throws IOException {
+    response.write(compressed);
+  }
+
+  /**
+   * A `GZIPOutputStream` with a compression level other than the default.
+   */
+  private static final class LeveledGzipOutputStream extends GZIPOutputStream {
+    LeveledGzipOutputStream(OutputStream out, int level) throws IOException {
+      super(out);
+      def.setLevel(level);
+    }
+  }
+}
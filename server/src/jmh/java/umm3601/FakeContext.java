@@ -0,0 +1,109 @@
+package umm3601;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.javalin.http.Context;
+import io.javalin.json.JavalinJackson;
+import io.javalin.validation.BodyValidator;
+import io.javalin.validation.Validation;
+import io.javalin.validation.Validator;
+
+/**
+ * A `Context` for benchmarks, which knows its query parameters and body
+ * and nothing else.
+ *
+ * The specs use Mockito mocks for this, but a mock's bookkeeping costs
+ * more than the code we're trying to time, so this answers just the
+ * handful of methods the benchmarked code calls, and fails loudly if it
+ * calls anything else.
+ */
+public final class FakeContext implements InvocationHandler {
+
+  private static final Validation VALIDATION = new Validation();
+  private static final JavalinJackson JSON = new JavalinJackson();
+
+  private final Map<String, List<String>> queryParams;
+  private final String body;
+
+  private FakeContext(Map<String, List<String>> queryParams, String body) {
+    this.queryParams = queryParams;
+    this.body = body;
+  }
+
+  /**
+   * A context for a request with the given query string.
+   *
+   * @param queryString the query string, like `owner=fry&status=complete`
+   * @return the context
+   */
+  public static Context withQuery(String queryString) {
+    Map<String, List<String>> params = new HashMap<>();
+    for (String pair : queryString.split("&")) {
+      if (!pair.isEmpty()) {
+        String[] keyAndValue = pair.split("=", 2);
+        params.computeIfAbsent(decode(keyAndValue[0]), key -> new ArrayList<>())
+          .add(keyAndValue.length > 1 ? decode(keyAndValue[1]) : "");
+      }
+    }
+    return create(new FakeContext(params, ""));
+  }
+
+  /**
+   * A context for a request with the given body.
+   *
+   * @param body the body, e.g., a JSON object
+   * @return the context
+   */
+  public static Context withBody(String body) {
+    return create(new FakeContext(Collections.emptyMap(), body));
+  }
+
+  private static Context create(FakeContext handler) {
+    return (Context) Proxy.newProxyInstance(
+      FakeContext.class.getClassLoader(), new Class<?>[] {Context.class}, handler);
+  }
+
+  private static String decode(String str) {
+    return URLDecoder.decode(str, StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) {
+    switch (method.getName()) {
+      case "queryParamMap":
+        return queryParams;
+      case "queryParam":
+        return queryParam((String) args[0]);
+      case "queryParamAsClass":
+        return validator((String) args[0], (Class<?>) args[1]);
+      case "body":
+        return body;
+      case "bodyValidator":
+        return bodyValidator((Class<?>) args[0]);
+      default:
+        throw new UnsupportedOperationException("Benchmark contexts don't support " + method.getName());
+    }
+  }
+
+  private String queryParam(String key) {
+    List<String> values = queryParams.get(key);
+    return values == null || values.isEmpty() ? null : values.get(0);
+  }
+
+  private <T> Validator<T> validator(String key, Class<T> clazz) {
+    return VALIDATION.validator(key, clazz, queryParam(key));
+  }
+
+  private <T> BodyValidator<T> bodyValidator(Class<T> clazz) {
+    return new BodyValidator<>(body, clazz, () -> JSON.fromJsonString(body, clazz));
+  }
+}
@@ -0,0 +1,145 @@
+package umm3601;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import io.javalin.json.JavalinJackson;
+import umm3601.todos.Todo;
+import umm3601.user.User;
+
+/**
+ * Times turning lists of todos and users into JSON, the way Javalin does
+ * for `ctx.json()` (build the whole response as a string, then send it)
+ * and for `ctx.writeJsonStream()` (write each item to the response as we
+ * go, which is what `?stream=true` does).
+ *
+ * Besides the time per response, this reports:
+ *
+ *   - `firstByteMicros`, the average time until the first byte of a
+ *     response reaches it (its time to first byte), which for a
+ *     materialized response is nearly all of the time, and for a
+ *     streamed one is just the first buffer's worth;
+ *   - with the `gc` profiler (the default in `build.gradle`; add
+ *     `-prof gc` when running the benchmarks jar by hand), the
+ *     `gc.alloc.rate.norm` lines, which are how much heap each approach
+ *     allocates per response;
+ *   - `largestWriteBytes`, the largest single write to the response. It's
+ *     only a rough guide to how much of the response is on the heap at
+ *     once (all of it, when we materialize, and about one Jackson buffer
+ *     when we stream), since it doesn't see Jackson's own buffers.
+ *
+ * The 100,000 item lists (tens of megabytes of JSON) are where these
+ * differences start to matter. (That streaming also only holds one
+ * cursor batch of documents at a time needs a real database to see, so
+ * isn't measured here.)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@SuppressWarnings({"VisibilityModifier"})
+public class JsonSerializationBenchmark {
+
+  @Param({"10", "100", "1000", "10000", "100000"})
+  public int size;
+
+  /**
+   * Stands in for the servlet response, keeping track of how long each
+   * response took to get its first byte here (from when `start()` was
+   * called), and of the largest single write to it. The public fields are
+   * what JMH reports, once per iteration.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @SuppressWarnings({"VisibilityModifier"})
+  public static class Response extends OutputStream {
+    private static final double NANOS_PER_MICRO = TimeUnit.MICROSECONDS.toNanos(1);
+
+    public double firstByteMicros;
+    public long largestWriteBytes;
+
+    private long started;
+    private boolean written;
+    private long firstByteNanos;
+    private long responses;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      firstByteMicros = 0;
+      largestWriteBytes = 0;
+      firstByteNanos = 0;
+      responses = 0;
+    }
+
+    /**
+     * Start timing a new response.
+     */
+    void start() {
+      written = false;
+      started = System.nanoTime();
+    }
+
+    @Override
+    public void write(int b) {
+      write(null, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      if (!written) {
+        written = true;
+        firstByteNanos += System.nanoTime() - started;
+        responses++;
+        firstByteMicros = firstByteNanos / NANOS_PER_MICRO / responses;
+      }
+      largestWriteBytes = Math.max(largestWriteBytes, len);
+    }
+  }
+
+  private final JavalinJackson json = new JavalinJackson();
+  private List<Todo> todos;
+  private List<User> users;
+
+  @Setup
+  public void setup() {
+    todos = Samples.todos(size);
+    users = Samples.users(size);
+  }
+
+  @Benchmark
+  public void materializeTodos(Response response) throws IOException {
+    response.start();
+    response.write(json.toJsonString(todos, List.class).getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Benchmark
+  public void streamTodos(Response response) {
+    response.start();
+    json.writeToOutputStream(todos.stream(), response);
+  }
+
+  @Benchmark
+  public void materializeUsers(Response response) throws IOException {
+    response.start();
+    response.write(json.toJsonString(users, List.class).getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Benchmark
+  public void streamUsers(Response response) {
+    response.start();
+    json.writeToOutputStream(users.stream(), response);
+  }
+}
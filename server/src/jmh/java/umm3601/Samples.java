@@ -0,0 +1,81 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.bson.types.ObjectId;
+
+import umm3601.todos.Todo;
+import umm3601.user.User;
+
+/**
+ * Made-up todos and users for the benchmarks, shaped like the ones in the
+ * seed data. They're made from a fixed seed, so every run (and every fork)
+ * benchmarks the same data.
+ */
+public final class Samples {
+
+  private static final long SEED = 3601;
+  private static final String[] OWNERS = {"Blanche", "Fry", "Barry", "Workman", "Dawn", "Roberta"};
+  private static final String[] CATEGORIES = {"video games", "homework", "category", "software design"};
+  private static final String[] COMPANIES = {"OHMNET", "IBM", "FROLIX", "PLASMOS", "BITREX"};
+  private static final String[] ROLES = {"admin", "editor", "viewer"};
+  private static final String[] WORDS = (
+    "lorem ipsum dolor sit amet consectetur adipiscing elit sed do eiusmod tempor incididunt ut labore "
+    + "et dolore magna aliqua ut enim ad minim veniam quis nostrud exercitation ullamco laboris nisi").split(" ");
+  private static final int MAX_BODY_WORDS = 40;
+  private static final int MIN_AGE = 18;
+  private static final int AGE_RANGE = 60;
+
+  private Samples() {
+  }
+
+  /**
+   * Make some todos.
+   *
+   * @param count how many to make
+   * @return the todos
+   */
+  public static List<Todo> todos(int count) {
+    Random random = new Random(SEED);
+    List<Todo> todos = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      Todo todo = new Todo();
+      todo._id = new ObjectId().toHexString();
+      todo.owner = OWNERS[random.nextInt(OWNERS.length)];
+      todo.status = random.nextBoolean();
+      todo.category = CATEGORIES[random.nextInt(CATEGORIES.length)];
+      StringBuilder body = new StringBuilder();
+      for (int words = 1 + random.nextInt(MAX_BODY_WORDS); words > 0; words--) {
+        body.append(WORDS[random.nextInt(WORDS.length)]).append(words > 1 ? " " : ".");
+      }
+      todo.body = body.toString();
+      todos.add(todo);
+    }
+    return todos;
+  }
+
+  /**
+   * Make some users.
+   *
+   * @param count how many to make
+   * @return the users
+   */
+  public static List<User> users(int count) {
+    Random random = new Random(SEED);
+    List<User> users = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      User user = new User();
+      user._id = new ObjectId().toHexString();
+      user.name = OWNERS[random.nextInt(OWNERS.length)] + " " + WORDS[random.nextInt(WORDS.length)];
+      user.age = MIN_AGE + random.nextInt(AGE_RANGE);
+      user.company = COMPANIES[random.nextInt(COMPANIES.length)];
+      user.email = user.name.replace(' ', '.').toLowerCase() + "@" + user.company.toLowerCase() + ".com";
+      user.role = ROLES[random.nextInt(ROLES.length)];
+      user.avatar = "https://gravatar.com/avatar/" + Integer.toHexString(user.email.hashCode()) + "?d=identicon";
+      users.add(user);
+    }
+    return users;
+  }
+}
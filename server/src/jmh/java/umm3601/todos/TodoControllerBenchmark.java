@@ -0,0 +1,89 @@
+package umm3601.todos;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonDocument;
+import org.bson.conversions.Bson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import io.javalin.http.Context;
+import umm3601.FakeContext;
+
+/**
+ * Times the per-request work `TodoController` does before it ever talks
+ * to Mongo: turning query parameters into a filter and a sort, and
+ * checking the body of a new todo.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TodoControllerBenchmark {
+
+  /**
+   * The query string of a `GET /api/todos` request.
+   */
+  @State(Scope.Benchmark)
+  @SuppressWarnings({"VisibilityModifier"})
+  public static class Query {
+    @Param({
+      "",
+      "status=complete",
+      "owner=fry&status=incomplete",
+      "owner=fry&status=complete&category=homework&orderBy=category&sortorder=desc",
+      "body=ipsum",
+    })
+    public String query;
+
+    private Context ctx;
+
+    @Setup
+    public void setup() {
+      ctx = FakeContext.withQuery(query);
+    }
+  }
+
+  /**
+   * The body of a `POST /api/todos` request.
+   */
+  @State(Scope.Benchmark)
+  public static class NewTodo {
+    private Context ctx = FakeContext.withBody("""
+      {
+        "owner": "Fry",
+        "status": false,
+        "body": "Sit in on the homework group and actually do some of it this time",
+        "category": "homework"
+      }
+      """);
+  }
+
+  @Benchmark
+  public Bson constructFilter(Query query) {
+    return TodoController.constructFilter(query.ctx);
+  }
+
+  /**
+   * The filter as the driver will send it; building the `Bson` above is
+   * lazy, so this is where most of the work actually happens.
+   */
+  @Benchmark
+  public BsonDocument renderFilter(Query query) {
+    return TodoController.constructFilter(query.ctx).toBsonDocument();
+  }
+
+  @Benchmark
+  public BsonDocument constructSortingOrder(Query query) {
+    return TodoController.constructSortingOrder(query.ctx).toBsonDocument();
+  }
+
+  @Benchmark
+  public Todo validateNewTodo(NewTodo newTodo) {
+    return TodoController.validatedTodo(newTodo.ctx);
+  }
+}
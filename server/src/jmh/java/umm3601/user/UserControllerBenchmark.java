@@ -0,0 +1,115 @@
+package umm3601.user;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+
+import io.javalin.http.Context;
+import umm3601.FakeContext;
+
+/**
+ * Times the per-request work `UserController` does before (or besides)
+ * talking to Mongo: turning query parameters into a filter and a sort,
+ * checking the body of a new user, and making its avatar URL.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UserControllerBenchmark {
+
+  /**
+   * The query string of a `GET /api/users` request.
+   */
+  @State(Scope.Benchmark)
+  @SuppressWarnings({"VisibilityModifier"})
+  public static class Query {
+    @Param({
+      "",
+      "age=25",
+      "company=ohmnet&role=admin",
+      "age=25&company=ohmnet&role=admin&sortby=age&sortorder=desc",
+    })
+    public String query;
+
+    private Context ctx;
+
+    @Setup
+    public void setup() {
+      ctx = FakeContext.withQuery(query);
+    }
+  }
+
+  /**
+   * The body of a `POST /api/users` request.
+   */
+  @State(Scope.Benchmark)
+  public static class NewUser {
+    private Context ctx = FakeContext.withBody("""
+      {
+        "name": "Test User",
+        "age": 25,
+        "company": "testers",
+        "email": "test@example.com",
+        "role": "viewer"
+      }
+      """);
+  }
+
+  /**
+   * A controller, for the avatar methods. Creating it doesn't talk to the
+   * database, and neither do they, so Mongo doesn't need to be running.
+   */
+  @State(Scope.Benchmark)
+  public static class Avatars {
+    private MongoClient mongoClient;
+    private UserController userController;
+
+    @Setup
+    public void setup() {
+      mongoClient = MongoClients.create();
+      userController = new UserController(mongoClient.getDatabase("benchmark"));
+    }
+
+    @TearDown
+    public void teardown() {
+      mongoClient.close();
+    }
+  }
+
+  @Benchmark
+  public BsonDocument renderFilter(Query query) {
+    return UserController.constructFilter(query.ctx).toBsonDocument();
+  }
+
+  @Benchmark
+  public BsonDocument constructSortingOrder(Query query) {
+    return UserController.constructSortingOrder(query.ctx).toBsonDocument();
+  }
+
+  @Benchmark
+  public User validateNewUser(NewUser newUser) {
+    return UserController.validatedUser(newUser.ctx);
+  }
+
+  @Benchmark
+  public String md5(Avatars avatars) throws NoSuchAlgorithmException {
+    return avatars.userController.md5("Test@Example.com");
+  }
+
+  @Benchmark
+  public String generateAvatar(Avatars avatars) {
+    return avatars.userController.generateAvatar("Test@Example.com");
+  }
+}
@@ -0,0 +1,111 @@
+package umm3601;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+import org.bson.BsonBinaryReader;
+import org.bson.RawBsonDocument;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriter;
+import org.bson.json.JsonWriterSettings;
+
+import io.javalin.http.ContentType;
+import io.javalin.http.Context;
+
+/**
+ * Turns documents, as the raw BSON bytes the driver got from Mongo,
+ * straight into JSON, without first turning them into `Todo`s or `User`s
+ * (or `Document`s) and then having Javalin's mapper turn those into JSON.
+ *
+ * The JSON is what the clients would get from the mapper: `ObjectId`s are
+ * written as their hex strings, and numbers as plain JSON numbers. The
+ * one difference is that we write exactly the fields that are stored, so
+ * a document missing a field doesn't get a `null` (or `0`) for it.
+ */
+public final class BsonJson {
+
+  static final JsonWriterSettings SETTINGS = JsonWriterSettings.builder()
+    .outputMode(JsonMode.RELAXED)
+    .objectIdConverter((id, writer) -> writer.writeString(id.toHexString()))
+    .build();
+
+  private BsonJson() {
+  }
+
+  /**
+   * Write a document as a JSON object.
+   *
+   * @param document the document
+   * @param out where to write the JSON
+   */
+  public static void writeDocument(RawBsonDocument document, Writer out) {
+    try (BsonBinaryReader reader = new BsonBinaryReader(document.getByteBuffer().asNIO())) {
+      new JsonWriter(out, SETTINGS).pipe(reader);
+    }
+  }
+
+  /**
+   * Write some documents as a JSON array, one at a time. If they're the
+   * results of a query, that means only one cursor batch is held at once;
+   * the cursor is closed when we're done, even if writing fails.
+   *
+   * @param documents the documents
+   * @param out where to write the JSON
+   */
+  public static void writeArray(Iterable<RawBsonDocument> documents, Writer out) {
+    Iterator<RawBsonDocument> iterator = documents.iterator();
+    try {
+      out.write('[');
+      boolean first = true;
+      while (iterator.hasNext()) {
+        if (!first) {
+          out.write(',');
+        }
+        writeDocument(iterator.next(), out);
+        first = false;
+      }
+      out.write(']');
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      if (iterator instanceof Closeable cursor) {
+        closeQuietly(cursor);
+      }
+    }
+  }
+
+  private static void closeQuietly(Closeable cursor) {
+    try {
+      cursor.close();
+    } catch (IOException e) {
+      // We're already done with it (or already failing).
+    }
+  }
+
+  /**
+   * Set the response to be the JSON written by `body`, which is written
+   * to the response as it's produced (and compressed by Javalin, if the
+   * client accepts that). The status should be set before calling this,
+   * since the response is committed as soon as we start writing.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param body writes the JSON
+   */
+  public static void send(Context ctx, Consumer<Writer> body) {
+    ctx.contentType(ContentType.APPLICATION_JSON);
+    Writer out = new BufferedWriter(new OutputStreamWriter(ctx.outputStream(), StandardCharsets.UTF_8));
+    body.accept(out);
+    try {
+      out.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
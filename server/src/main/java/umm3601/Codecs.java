@@ -0,0 +1,178 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonReader;
+import org.bson.BsonValue;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.types.ObjectId;
+
+import com.mongodb.MongoClientSettings;
+
+/**
+ * Helpers for the hand-written BSON codecs (`TodoCodec` and `UserCodec`)
+ * that turn documents straight into our model objects, without going
+ * through Jackson the way MongoJack does.
+ *
+ * Our models store their `_id`s as hex strings, but Mongo stores them as
+ * `ObjectId`s, so the codecs convert between the two here.
+ */
+public final class Codecs {
+
+  private Codecs() {
+  }
+
+  /**
+   * A registry that uses the given codecs for their classes, and the
+   * driver's default codecs (for `Document`, `Bson` filters, and so on)
+   * for everything else.
+   *
+   * @param codecs the codecs for our model classes
+   * @return a registry to give to `MongoCollection#withCodecRegistry()`
+   */
+  public static CodecRegistry registryWith(Codec<?>... codecs) {
+    return CodecRegistries.fromRegistries(
+      CodecRegistries.fromCodecs(codecs),
+      MongoClientSettings.getDefaultCodecRegistry());
+  }
+
+  /**
+   * Read an `_id` as a hex string, whether it was stored as an `ObjectId`
+   * or (by something other than this server) as a string.
+   *
+   * @param reader the reader, positioned at the `_id`'s value
+   * @return the id as a string
+   */
+  public static String readId(BsonReader reader) {
+    if (reader.getCurrentBsonType() == BsonType.OBJECT_ID) {
+      return reader.readObjectId().toHexString();
+    }
+    return readString(reader);
+  }
+
+  /**
+   * Write an `_id` as an `ObjectId`, if there is one.
+   *
+   * @param writer the writer, inside the document
+   * @param id the id as a hex string, or `null`
+   */
+  public static void writeId(BsonWriter writer, String id) {
+    if (id != null) {
+      writer.writeObjectId("_id", new ObjectId(id));
+    }
+  }
+
+  /**
+   * Read a string that might be `null` (or missing entirely, in which case
+   * we never get here and the field is left `null`). Like Jackson, we also
+   * take numbers and booleans, and turn them into strings.
+   *
+   * @param reader the reader, positioned at the string's value
+   * @return the string, or `null`
+   */
+  public static String readString(BsonReader reader) {
+    switch (reader.getCurrentBsonType()) {
+      case NULL:
+        reader.readNull();
+        return null;
+      case INT32:
+        return String.valueOf(reader.readInt32());
+      case INT64:
+        return String.valueOf(reader.readInt64());
+      case DOUBLE:
+        return String.valueOf(reader.readDouble());
+      case BOOLEAN:
+        return String.valueOf(reader.readBoolean());
+      default:
+        return reader.readString();
+    }
+  }
+
+  /**
+   * Write a string field, writing a BSON `null` if the string is `null`
+   * (which is what MongoJack does).
+   *
+   * @param writer the writer, inside the document
+   * @param name the field's name
+   * @param value the string, or `null`
+   */
+  public static void writeString(BsonWriter writer, String name, String value) {
+    if (value == null) {
+      writer.writeNull(name);
+    } else {
+      writer.writeString(name, value);
+    }
+  }
+
+  /**
+   * Read a whole number, however it was stored: the shell stores numbers
+   * as doubles unless told otherwise, so seeded data may not be `int32`s.
+   *
+   * @param reader the reader, positioned at the number's value
+   * @return the number as an `int`
+   */
+  public static int readInt(BsonReader reader) {
+    switch (reader.getCurrentBsonType()) {
+      case INT64:
+        return (int) reader.readInt64();
+      case DOUBLE:
+        return (int) reader.readDouble();
+      case STRING:
+        return Integer.parseInt(reader.readString().trim());
+      case NULL:
+        reader.readNull();
+        return 0;
+      default:
+        return reader.readInt32();
+    }
+  }
+
+  /**
+   * Read a boolean, however it was stored: some of our data has
+   * `"true"` and `"false"` strings, which Jackson (and so MongoJack)
+   * read as booleans, and so do we. Numbers are `true` unless they're 0.
+   *
+   * @param reader the reader, positioned at the boolean's value
+   * @return the boolean
+   */
+  public static boolean readBoolean(BsonReader reader) {
+    switch (reader.getCurrentBsonType()) {
+      case STRING:
+        return Boolean.parseBoolean(reader.readString().trim());
+      case INT32:
+        return reader.readInt32() != 0;
+      case INT64:
+        return reader.readInt64() != 0;
+      case NULL:
+        reader.readNull();
+        return false;
+      default:
+        return reader.readBoolean();
+    }
+  }
+
+  /**
+   * Read a JSON array of documents (in Mongo's Extended JSON, like the
+   * seed files in `database/seed`) with one of our codecs.
+   *
+   * @param json the JSON array
+   * @param codec the codec for the documents' class
+   * @param <T> the documents' class
+   * @return the documents
+   */
+  public static <T> List<T> readJsonArray(String json, Codec<T> codec) {
+    List<T> documents = new ArrayList<>();
+    for (BsonValue document : BsonArray.parse(json)) {
+      documents.add(codec.decode(new BsonDocumentReader(document.asDocument()), DecoderContext.builder().build()));
+    }
+    return documents;
+  }
+}
@@ -0,0 +1,148 @@
+package umm3601;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+import io.javalin.http.HttpStatus;
+
+/**
+ * A version number for a collection, used to answer conditional GETs
+ * without going to the database.
+ *
+ * Controllers call `changed()` whenever they write to the collection, and
+ * call `notModified(ctx, resource)` at the start of a GET that reads it.
+ * That sets an `ETag` built from the collection's version and the request's
+ * (normalized) query parameters, and if the request's `If-None-Match` already
+ * holds that tag, it sets the status to 304 (Not Modified) and returns `true`,
+ * so the handler can return without querying or serializing anything.
+ *
+ * Each `CollectionVersion` starts from a random epoch, so tags handed out
+ * before a restart never match afterwards. This only sees writes made
+ * through this server; anything else that writes to the collection won't
+ * change the tags until the server is restarted.
+ */
+public class CollectionVersion {
+
+  private static final int TAG_HASH_BYTES = 12;
+
+  private final String epoch = Long.toHexString(new SecureRandom().nextLong());
+  private final AtomicLong version = new AtomicLong();
+
+  /**
+   * Record that the collection has changed, so that every tag handed out
+   * so far becomes stale.
+   */
+  public void changed() {
+    version.incrementAndGet();
+  }
+
+  public long version() {
+    return version.get();
+  }
+
+  /**
+   * Tag the response to a GET of the given resource, and check whether the
+   * client already has the current version of it.
+   *
+   * @param ctx a Javalin HTTP context for a GET
+   * @param resource identifies what is being read, e.g., the route and any
+   *   path parameters; the query parameters are added to it here
+   * @return `true` if the response has been set to 304 (Not Modified) and
+   *   the handler has nothing more to do
+   */
+  public boolean notModified(Context ctx, String resource) {
+    String tag = entityTag(ctx, resource);
+    ctx.header(Header.ETAG, tag);
+    if (matches(ctx.header(Header.IF_NONE_MATCH), tag)) {
+      ctx.status(HttpStatus.NOT_MODIFIED);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Build the entity tag for a GET of the given resource (with the request's
+   * query parameters) at the current version.
+   *
+   * @param ctx a Javalin HTTP context for a GET
+   * @param resource identifies what is being read, as in `notModified`
+   * @return the tag
+   */
+  public String entityTag(Context ctx, String resource) {
+    return entityTag(resource, ctx.queryParamMap());
+  }
+
+  /**
+   * The key to cache (or share) a response under, for a query of the given
+   * resource at the current version.
+   *
+   * Unlike `entityTag`, which is built from the query parameters as they
+   * were written, this takes the normalized query (say, `TodoQuery#key()`),
+   * so requests that are written differently but ask for the same thing
+   * (like `?status=true` and `?status=complete`) share a cached response.
+   *
+   * @param resource identifies what is being read, as in `notModified`
+   * @param query the normalized query
+   * @return the key
+   */
+  public String cacheKey(String resource, String query) {
+    return version.get() + " " + resource + " " + query;
+  }
+
+  /**
+   * Build the (weak) entity tag for a resource and query at the current version.
+   *
+   * The query parameters are sorted by name, so the same query always gets
+   * the same tag no matter what order its parameters were written in.
+   */
+  String entityTag(String resource, Map<String, List<String>> queryParams) {
+    StringBuilder query = new StringBuilder(resource);
+    for (Map.Entry<String, List<String>> param : new TreeMap<>(queryParams).entrySet()) {
+      query.append('\n').append(param.getKey()).append('=').append(String.join("\u0000", param.getValue()));
+    }
+    return "W/\"" + epoch + "-" + version.get() + "-" + hash(query.toString()) + "\"";
+  }
+
+  private static String hash(String query) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(query.getBytes(StandardCharsets.UTF_8));
+      return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, TAG_HASH_BYTES));
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-256.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Does an `If-None-Match` header match the given tag? The header can be
+   * `*` or a comma-separated list of tags, and (as the spec requires for
+   * `If-None-Match`) tags are compared weakly, i.e., ignoring any `W/`.
+   */
+  private static boolean matches(String ifNoneMatch, String tag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    String opaqueTag = withoutWeakPrefix(tag);
+    for (String candidate : ifNoneMatch.split(",")) {
+      String trimmed = candidate.trim();
+      if (trimmed.equals("*") || withoutWeakPrefix(trimmed).equals(opaqueTag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String withoutWeakPrefix(String tag) {
+    return tag.startsWith("W/") ? tag.substring(2) : tag;
+  }
+}
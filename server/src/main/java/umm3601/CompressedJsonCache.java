@@ -0,0 +1,389 @@
+package umm3601;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+import io.javalin.http.ContentType;
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+import io.javalin.json.JsonMapper;
+
+/**
+ * A bounded cache of JSON responses, for list endpoints whose (large)
+ * responses are asked for over and over again.
+ *
+ * Each response is kept as the JSON text it was serialized to and, if
+ * it's big enough to be worth it, gzipped as well. Javalin compresses
+ * responses on its own (see `Server#configureJavalin()`), but it does that
+ * from scratch on every request; for a response we've already got, this
+ * just writes the cached bytes (gzipped or not, depending on what the
+ * client accepts), so repeated identical queries cost neither a database
+ * query, nor serialization, nor compression.
+ *
+ * Entries are keyed by the version of the underlying collection and the
+ * normalized query (see `CollectionVersion#cacheKey()`), so `?status=true`
+ * and `?status=complete` share an entry, and a write never has to find and
+ * remove the entries it makes stale; they just stop being asked for.
+ * Writers call `invalidateAll()` anyway, so the stale entries don't take
+ * up room until they're evicted. Entries can also be given a time to live,
+ * which bounds how stale a response can get when something other than
+ * this server writes to the collection.
+ *
+ * Identical requests that arrive together (say, from a dashboard that
+ * refreshes a dozen widgets at once) all miss the cache at the same time.
+ * They share one call of `body` (see `SingleFlight`), and the one cached
+ * copy of its result, instead of each running the same query.
+ */
+public class CompressedJsonCache {
+
+  // Responses smaller than this aren't worth compressing; it's the
+  // same threshold Javalin uses.
+  static final int MIN_COMPRESSED_BYTES = 1500;
+  private static final String GZIP = "gzip";
+  private static final double PERCENT = 100.0;
+
+  private final long maxBytes;
+  private final LruCache<String, CachedJson> responses;
+  // Responses that are being computed, by their keys.
+  private final SingleFlight<String, CachedJson> inFlight = new SingleFlight<>();
+
+  /**
+   * Construct a cache that holds roughly `maxBytes` of responses.
+   *
+   * @param maxBytes the maximum total size of the cached responses
+   */
+  public CompressedJsonCache(long maxBytes) {
+    this(maxBytes, null);
+  }
+
+  /**
+   * Construct a cache that holds roughly `maxBytes` of responses, each for
+   * at most `ttl`.
+   *
+   * @param maxBytes the maximum total size of the cached responses
+   * @param ttl how long a response is kept, or `null` to keep it until
+   *   it's evicted or invalidated
+   */
+  public CompressedJsonCache(long maxBytes, Duration ttl) {
+    this.maxBytes = maxBytes;
+    responses = new LruCache<>(maxBytes, CachedJson::weight, ttl);
+  }
+
+  /**
+   * Set the response to be the given value as JSON, served from (or added
+   * to) the cache. Concurrent requests with the same `key` share one call
+   * of `body`, and are all sent the same bytes.
+   *
+   * The response status should be set before calling this, since writing
+   * gzipped bytes commits the response.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param key identifies the response: the version of the data and the
+   *   normalized query (see `CollectionVersion#cacheKey()`). Requests that
+   *   would get different responses must have different keys.
+   * @param body computes the value to send as JSON; only called on a miss,
+   *   and only by one of the requests with the same key at a time
+   */
+  public void json(Context ctx, String key, Supplier<?> body) {
+    if (sendCached(ctx, key)) {
+      return;
+    }
+    JsonMapper mapper = ctx.jsonMapper();
+    send(ctx, inFlight.run(key, () -> {
+      Object value = body.get();
+      return cache(key, mapper.toJsonString(value, value.getClass()));
+    }));
+  }
+
+  /**
+   * Send the cached response with the given key, if there is one. This is
+   * the first half of `json`, for callers (like async handlers) that can't
+   * compute the response synchronously.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param key identifies the response, as in `json`
+   * @return `true` if the response was sent from the cache
+   */
+  public boolean sendCached(Context ctx, String key) {
+    CachedJson cached = responses.getIfPresent(key);
+    if (cached == null) {
+      return false;
+    }
+    send(ctx, cached);
+    return true;
+  }
+
+  /**
+   * Cache and send a freshly computed response as JSON. This is the second
+   * half of `json`, for when `sendCached` didn't send anything.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param key identifies the response, as in `json`
+   * @param value the value to send as JSON
+   */
+  public void send(Context ctx, String key, Object value) {
+    send(ctx, cache(key, ctx.jsonMapper().toJsonString(value, value.getClass())));
+  }
+
+  /**
+   * Like `json`, but for a response that's written as JSON text by `body`
+   * (see `BsonJson`), rather than a value for Javalin's mapper to turn
+   * into JSON.
+   *
+   * The JSON is encoded as UTF-8 as it's written, straight into the bytes
+   * that are cached (and sent), so it's never held as a `String`. If it
+   * turns out to be too big to ever fit in the cache, what's been written
+   * so far is sent, and the rest is written straight to the response (as
+   * `BsonJson#send()` does), instead of being held. Requests that were
+   * waiting to share it then write their own.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param key identifies the response, as in `json`
+   * @param body writes the JSON; only called on a miss, and only by one of
+   *   the requests with the same key at a time
+   */
+  public void writeJson(Context ctx, String key, Consumer<Writer> body) {
+    if (sendCached(ctx, key)) {
+      return;
+    }
+    boolean[] sentAlready = {false};
+    CachedJson written = inFlight.run(key, () -> {
+      ResponseBuffer buffer = new ResponseBuffer(ctx, maxBytes);
+      Writer out = new OutputStreamWriter(buffer, StandardCharsets.UTF_8);
+      body.accept(out);
+      try {
+        out.flush();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      if (buffer.spilled()) {
+        sentAlready[0] = true;
+        return null;
+      }
+      return cache(key, new CachedJson(buffer.bytes()));
+    });
+    if (written != null) {
+      send(ctx, written);
+    } else if (!sentAlready[0]) {
+      BsonJson.send(ctx, body);
+    }
+  }
+
+  private CachedJson cache(String key, String json) {
+    return cache(key, new CachedJson(json));
+  }
+
+  private CachedJson cache(String key, CachedJson response) {
+    responses.put(key, response);
+    return response;
+  }
+
+  /**
+   * Send a cached response: gzipped if the client accepts that and it was
+   * worth compressing, and as plain JSON otherwise.
+   */
+  private static void send(Context ctx, CachedJson response) {
+    ctx.header(Header.VARY, Header.ACCEPT_ENCODING);
+    if (response.gzipped != null && acceptsGzip(ctx.header(Header.ACCEPT_ENCODING))) {
+      writeGzipped(ctx, response.gzipped);
+      return;
+    }
+    ctx.contentType(ContentType.APPLICATION_JSON);
+    ctx.result(response.plain);
+  }
+
+  /**
+   * Write already gzipped bytes straight to the servlet response, so
+   * Javalin doesn't try to compress them again.
+   */
+  private static void writeGzipped(Context ctx, byte[] gzippedJson) {
+    ctx.res().setContentType(ContentType.JSON);
+    ctx.res().setHeader(Header.CONTENT_ENCODING, GZIP);
+    ctx.res().setContentLength(gzippedJson.length);
+    try {
+      ctx.res().getOutputStream().write(gzippedJson);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  static byte[] gzip(String json) {
+    return gzip(json.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static byte[] gzip(byte[] bytes) {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4);
+    try (OutputStream out = new GZIPOutputStream(compressed)) {
+      out.write(bytes);
+    } catch (IOException e) {
+      // Only possible if the in-memory stream fails, which it can't.
+      throw new UncheckedIOException(e);
+    }
+    return compressed.toByteArray();
+  }
+
+  /**
+   * Does an `Accept-Encoding` header allow gzip? It does if it lists
+   * `gzip` (or `*`) without a quality of zero.
+   */
+  static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.split(";");
+      String name = parts[0].trim();
+      if (name.equalsIgnoreCase(GZIP) || name.equals("*")) {
+        return parts.length < 2 || !parts[1].trim().matches("q=0(\\.0*)?");
+      }
+    }
+    return false;
+  }
+
+  public int size() {
+    return responses.size();
+  }
+
+  public long bytes() {
+    return responses.weight();
+  }
+
+  public long hits() {
+    return responses.hits();
+  }
+
+  public long misses() {
+    return responses.misses();
+  }
+
+  public long sharedResponses() {
+    return inFlight.shared();
+  }
+
+  /**
+   * The fraction of lookups that were served from the cache.
+   *
+   * @return the hit ratio, or 0 if there haven't been any lookups
+   */
+  public double hitRatio() {
+    long hits = hits();
+    long lookups = hits + misses();
+    return lookups == 0 ? 0 : (double) hits / lookups;
+  }
+
+  /**
+   * Drop every cached response, because the data they were made from has
+   * changed.
+   */
+  public void invalidateAll() {
+    responses.invalidateAll();
+  }
+
+  /**
+   * Add gauges for how big the cache is and how well it's doing, and
+   * counters for what's happened to it.
+   *
+   * @param metrics the metrics to add the gauges and counters to
+   * @param name what the responses are, like `todos`, which starts their names
+   */
+  public void addGauges(Metrics metrics, String name) {
+    String prefix = name + "_response_cache_";
+    metrics.gauge(prefix + "bytes", "Bytes of " + name + " responses cached, plain and gzipped",
+      responses::weight);
+    metrics.gauge(prefix + "entries", "Responses for " + name + " cached", responses::size);
+    metrics.counter(prefix + "hits", "Requests for " + name + " served from the cache", responses::hits);
+    metrics.counter(prefix + "misses", "Requests for " + name + " that weren't in the cache", responses::misses);
+    metrics.gauge(prefix + "hit_ratio_percent", "Percentage of requests for " + name + " served from the cache",
+      () -> Math.round(PERCENT * hitRatio()));
+    metrics.counter(prefix + "evictions", "Cached " + name + " responses evicted to make room",
+      responses::evictions);
+    metrics.counter(prefix + "expirations", "Cached " + name + " responses dropped for being too old",
+      responses::expirations);
+    metrics.counter(prefix + "shared", "Requests for " + name + " that shared another's query",
+      inFlight::shared);
+  }
+
+  /**
+   * Holds the bytes of a response being written, until there are more of
+   * them than `limit`. Then it starts the response (as JSON) with the bytes
+   * it's holding, and writes the rest straight to it.
+   */
+  private static final class ResponseBuffer extends OutputStream {
+    private final Context ctx;
+    private final long limit;
+    private ByteArrayOutputStream held = new ByteArrayOutputStream();
+    // The response, once we've started writing to it.
+    private OutputStream response;
+
+    ResponseBuffer(Context ctx, long limit) {
+      this.ctx = ctx;
+      this.limit = limit;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      if (response == null && (long) held.size() + length > limit) {
+        ctx.contentType(ContentType.APPLICATION_JSON);
+        response = ctx.outputStream();
+        held.writeTo(response);
+        held = null;
+      }
+      if (response == null) {
+        held.write(bytes, offset, length);
+      } else {
+        response.write(bytes, offset, length);
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (response != null) {
+        response.flush();
+      }
+    }
+
+    boolean spilled() {
+      return response != null;
+    }
+
+    byte[] bytes() {
+      return held.toByteArray();
+    }
+  }
+
+  /**
+   * One cached response: its JSON, and the same JSON gzipped (or `null`
+   * if it's too small to be worth compressing).
+   */
+  private static final class CachedJson {
+    private final byte[] plain;
+    private final byte[] gzipped;
+
+    CachedJson(String json) {
+      this(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    CachedJson(byte[] json) {
+      plain = json;
+      gzipped = plain.length < MIN_COMPRESSED_BYTES ? null : gzip(plain);
+    }
+
+    long weight() {
+      return plain.length + (gzipped == null ? 0 : gzipped.length);
+    }
+  }
+}
@@ -1,6 +1,10 @@
 package umm3601;
 
+import java.util.concurrent.CompletableFuture;
+
 import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
 
 /**
  * Interface for classes that can add routes to a Javalin server.
@@ -18,10 +22,24 @@ import io.javalin.Javalin;
  * allows us to add routes to the server without having to modify the `Server`,
  * and without having the server know about any specific controller implementations.
  *
- * Note that this interface definition is _complete_ and you shouldn't need to
- * add anything to it. You just need to make sure that any new controllers
- * you implement also implement this interface, providing their own `addRoutes()`
- * method.
+ * Any new controllers you implement just need to implement this interface,
+ * providing their own `addRoutes()` method. The other hooks have default
+ * implementations that do nothing, and a controller overrides the ones it
+ * needs:
+ *
+ *   - `declareIndexes()` tells the server which database indexes its
+ *     queries depend on, so they can be created at startup.
+ *   - `addGauges()` adds its own gauges and counters (like how well its
+ *     caches are doing) to the server's metrics.
+ *   - `useDatabaseGate()` hands it the `DatabaseGate` to take around its
+ *     blocking database calls, if the server is limiting them.
+ *
+ * The `Server` calls all of these at startup, before any requests come in.
+ *
+ * Routes can be handled by ordinary (blocking) handlers, or by async
+ * handlers: an `AsyncHandler` returns a future instead of setting the
+ * response before it returns, and `Controller.async()` turns one into an
+ * ordinary `Handler` that Javalin can route to.
  */
 public interface Controller {
   /**
@@ -35,4 +53,72 @@ public interface Controller {
    * @param server The Javalin server to add routes to
    */
   void addRoutes(Javalin server);
+
+  /**
+   * Declare the database indexes (and query shapes) this controller needs.
+   *
+   * The `Server` calls this on every controller at startup, and then
+   * creates any of the declared indexes that are missing. The default
+   * implementation declares nothing, for controllers that don't use the
+   * database.
+   *
+   * @param registry The registry to declare indexes and query shapes in
+   */
+  default void declareIndexes(IndexRegistry registry) {
+  }
+
+  /**
+   * Add this controller's gauges and counters (like how well its caches
+   * are doing) to the server's metrics.
+   *
+   * The `Server` calls this on every controller at startup. The default
+   * implementation adds nothing.
+   *
+   * @param metrics The metrics to add gauges to
+   */
+  default void addGauges(Metrics metrics) {
+  }
+
+  /**
+   * Run this controller's (blocking) database calls through `gate`, so
+   * only so many requests use the database at once.
+   *
+   * The `Server` calls this on every controller at startup, before
+   * `addRoutes()`, if it's limiting database requests. The default
+   * implementation ignores the gate.
+   *
+   * @param gate The gate to take around database calls
+   */
+  default void useDatabaseGate(DatabaseGate gate) {
+  }
+
+  /**
+   * A handler that starts its work (e.g., an async database query) and
+   * returns right away, with a future that completes once it has set the
+   * response.
+   */
+  @FunctionalInterface
+  interface AsyncHandler {
+    CompletableFuture<?> handle(Context ctx) throws Exception;
+  }
+
+  /**
+   * Turn an async handler into one that can be added to the server, e.g.,
+   * `server.get("/api/things", Controller.async(this::getThingsAsync))`.
+   *
+   * Javalin releases the request's thread while the future is running, and
+   * sends the response when it completes. Anything the handler throws before
+   * returning its future (like a `BadRequestResponse` for an illegal query
+   * parameter) is handled just as it would be for a blocking handler, and so
+   * is an exception that the future fails with.
+   *
+   * @param handler the async handler
+   * @return a Javalin handler that runs the async handler
+   */
+  static Handler async(AsyncHandler handler) {
+    return ctx -> {
+      CompletableFuture<?> response = handler.handle(ctx);
+      ctx.future(() -> response);
+    };
+  }
 }
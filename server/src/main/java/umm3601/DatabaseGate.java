@@ -0,0 +1,111 @@
+package umm3601;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import io.javalin.http.ServiceUnavailableResponse;
+
+/**
+ * Caps the number of requests that can be using the database at once.
+ *
+ * With virtual threads there's no longer a thread pool limiting how many
+ * requests we work on at a time, so a burst of requests would all pile
+ * into the Mongo driver's connection pool and wait there. Controllers
+ * instead run their (blocking) repository and driver calls through
+ * `call()` or `run()` (see `Controller#useDatabaseGate()`), so at most as
+ * many requests as the driver has connections are ever talking to the
+ * database, and the rest wait (in arrival order) here. Work that can't get
+ * in within the timeout is turned away with a 503 (Service Unavailable)
+ * rather than queueing forever.
+ *
+ * Only the database calls hold a permit, not the whole request, so
+ * requests that are answered without the database (a 304, a cached
+ * response, or the owner suggestions kept in memory) never wait here.
+ * Async reads don't go through the gate either, since they don't hold a
+ * thread while they wait for a connection.
+ */
+public class DatabaseGate {
+
+  // A gate with no limit, for controllers that aren't given one.
+  public static final DatabaseGate UNLIMITED = new DatabaseGate(0, 0);
+
+  // `null` if there's no limit.
+  private final Semaphore permits;
+  private final int maxRequests;
+  private final long timeoutMillis;
+
+  /**
+   * Construct a gate that lets `maxRequests` requests through at once.
+   *
+   * @param maxRequests how many requests can use the database at once;
+   *   usually the size of the driver's connection pool, or 0 for no limit
+   * @param timeoutMillis how long a request waits to get in before it's
+   *   turned away
+   */
+  public DatabaseGate(int maxRequests, long timeoutMillis) {
+    this.permits = maxRequests > 0 ? new Semaphore(maxRequests, true) : null;
+    this.maxRequests = maxRequests;
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * Do some work that uses the database, once there's room for it, and
+   * make room for the next request as soon as it's done (or has failed).
+   *
+   * @param <T> the type of the work's result
+   * @param work the database calls
+   * @return the result of the work
+   * @throws ServiceUnavailableResponse if there wasn't room within the timeout
+   */
+  public <T> T call(Supplier<T> work) {
+    if (permits == null) {
+      return work.get();
+    }
+    enter();
+    try {
+      return work.get();
+    } finally {
+      permits.release();
+    }
+  }
+
+  /**
+   * Like `call()`, for work that doesn't return anything, like writing
+   * the results of a query to the response as they're read.
+   *
+   * @param work the database calls
+   * @throws ServiceUnavailableResponse if there wasn't room within the timeout
+   */
+  public void run(Runnable work) {
+    call(() -> {
+      work.run();
+      return null;
+    });
+  }
+
+  private void enter() {
+    try {
+      if (permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+        return;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    throw new ServiceUnavailableResponse("The server is too busy to handle this request; please try again");
+  }
+
+  /**
+   * How many requests are using the database right now.
+   */
+  public int inFlight() {
+    return permits == null ? 0 : maxRequests - permits.availablePermits();
+  }
+
+  /**
+   * (An estimate of) how many requests are waiting to get in.
+   */
+  public int waiting() {
+    return permits == null ? 0 : permits.getQueueLength();
+  }
+}
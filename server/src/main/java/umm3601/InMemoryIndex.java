@@ -0,0 +1,136 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * A secondary index for the in-memory repositories: the ids of the items
+ * with each value of one of their fields, kept in the order the items
+ * were added.
+ *
+ * It isn't thread-safe on its own; the repositories only use it while
+ * holding their locks.
+ *
+ * @param <K> the type of the indexed field
+ */
+public class InMemoryIndex<K> {
+
+  private final Map<K, Set<String>> ids = new HashMap<>();
+
+  /**
+   * Record that the item with the given id has the given value (which
+   * may be `null`).
+   *
+   * @param key the item's value of the indexed field
+   * @param id the item's id
+   */
+  public void add(K key, String id) {
+    ids.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(id);
+  }
+
+  /**
+   * Forget the item with the given id, which had the given value.
+   *
+   * @param key the item's value of the indexed field
+   * @param id the item's id
+   */
+  public void remove(K key, String id) {
+    Set<String> withKey = ids.get(key);
+    if (withKey != null) {
+      withKey.remove(id);
+      if (withKey.isEmpty()) {
+        ids.remove(key);
+      }
+    }
+  }
+
+  /**
+   * The ids of the items with exactly the given value.
+   *
+   * @param key the value
+   * @return the ids (which mustn't be changed), in the order the items were added
+   */
+  public Set<String> get(K key) {
+    return ids.getOrDefault(key, Collections.emptySet());
+  }
+
+  /**
+   * The ids of the items whose (non-`null`) value passes a test. Each
+   * distinct value is only tested once, however many items have it.
+   *
+   * @param test the test
+   * @return the ids
+   */
+  public Set<String> matching(Predicate<K> test) {
+    Set<String> matches = new HashSet<>();
+    for (Map.Entry<K, Set<String>> entry : ids.entrySet()) {
+      if (entry.getKey() != null && test.test(entry.getKey())) {
+        matches.addAll(entry.getValue());
+      }
+    }
+    return matches;
+  }
+
+  /**
+   * Every distinct value, with the ids of the items that have it.
+   *
+   * @return the values and ids (which mustn't be changed)
+   */
+  public Set<Map.Entry<K, Set<String>>> entries() {
+    return Collections.unmodifiableMap(ids).entrySet();
+  }
+
+  /**
+   * The ids that are in every one of the given sets, found by checking
+   * the smallest set against the others.
+   *
+   * @param sets the sets of ids (at least one)
+   * @return the ids in all of them
+   */
+  public static Collection<String> intersect(List<Set<String>> sets) {
+    List<Set<String>> bySize = new ArrayList<>(sets);
+    bySize.sort(Comparator.comparingInt(Set::size));
+    if (bySize.size() == 1) {
+      return bySize.get(0);
+    }
+    List<String> ids = new ArrayList<>();
+    for (String id : bySize.get(0)) {
+      boolean inAll = true;
+      for (int i = 1; i < bySize.size() && inAll; i++) {
+        inAll = bySize.get(i).contains(id);
+      }
+      if (inAll) {
+        ids.add(id);
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * Compare two values of a field the way Mongo sorts them: missing
+   * (`null`) values come first.
+   *
+   * @param a one value
+   * @param b the other value, of the same type
+   * @return negative, zero, or positive, as `a` sorts before, with, or after `b`
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public static int compareValues(Object a, Object b) {
+    if (a == null || b == null) {
+      if (a == b) {
+        return 0;
+      }
+      return a == null ? -1 : 1;
+    }
+    return ((Comparable) a).compareTo(b);
+  }
+}
@@ -0,0 +1,195 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.IndexModel;
+
+/**
+ * A place for controllers to declare the indexes their queries need, so
+ * that the `Server` can make sure they all exist when it starts up.
+ *
+ * Controllers declare two things (see `Controller#declareIndexes()`):
+ *
+ *   - The indexes they want on each collection, as `IndexModel`s.
+ *   - The "query shapes" they issue, i.e., the sets of fields they
+ *     filter and sort on together, and which of those fields they match
+ *     with a regular expression.
+ *
+ * `reconcile()` then creates any missing indexes (one collection per
+ * thread, so collections are built in parallel), and logs a warning for
+ * every declared query shape that still isn't served by the leading
+ * fields of some index on its collection. Reconciling never drops an
+ * index, since other tools (or people) may have created it on purpose.
+ */
+public class IndexRegistry {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(IndexRegistry.class);
+
+  // Everything is keyed by the collection's full namespace (`db.collection`),
+  // so two controllers that share a collection share its declarations.
+  private final Map<String, MongoCollection<?>> collections = new LinkedHashMap<>();
+  private final Map<String, List<IndexModel>> indexes = new LinkedHashMap<>();
+  private final Map<String, List<QueryShape>> queryShapes = new LinkedHashMap<>();
+
+  /**
+   * The fields a query filters and sorts on, split into the ones an index
+   * can seek on and the ones it matches with a regular expression.
+   */
+  private static final class QueryShape {
+    private final Set<String> fields;
+    private final Set<String> regexFields;
+
+    QueryShape(List<String> fields, List<String> regexFields) {
+      this.fields = new LinkedHashSet<>(fields);
+      this.regexFields = new LinkedHashSet<>(regexFields);
+    }
+
+    @Override
+    public String toString() {
+      Set<String> all = new LinkedHashSet<>(fields);
+      all.addAll(regexFields);
+      return all.toString();
+    }
+  }
+
+  /**
+   * Declare indexes that should exist on a collection.
+   *
+   * @param collection the collection the indexes belong to
+   * @param models the indexes to create if they don't already exist
+   */
+  public void declareIndexes(MongoCollection<?> collection, IndexModel... models) {
+    String namespace = register(collection);
+    indexes.computeIfAbsent(namespace, ns -> new ArrayList<>()).addAll(List.of(models));
+  }
+
+  /**
+   * Declare a set of fields that a controller filters and/or sorts on
+   * together in a single query.
+   *
+   * @param collection the collection being queried
+   * @param fields the fields used together in the query
+   */
+  public void declareQueryShape(MongoCollection<?> collection, String... fields) {
+    declareQueryShape(collection, new QueryShape(List.of(fields), List.of()));
+  }
+
+  /**
+   * Declare a query shape in which some of the fields are matched with
+   * an unanchored or case-insensitive regular expression. Mongo can't
+   * seek an index on such a field (it has to scan all of the index's
+   * entries, if it uses the index at all), so only the other fields
+   * count when deciding whether an index serves the shape, and a shape
+   * with no other fields is always reported.
+   *
+   * @param collection the collection being queried
+   * @param regexFields the fields matched with a regular expression
+   * @param fields the other fields used together with them in the query
+   */
+  public void declareRegexQueryShape(MongoCollection<?> collection, List<String> regexFields, String... fields) {
+    declareQueryShape(collection, new QueryShape(List.of(fields), regexFields));
+  }
+
+  private void declareQueryShape(MongoCollection<?> collection, QueryShape shape) {
+    String namespace = register(collection);
+    queryShapes.computeIfAbsent(namespace, ns -> new ArrayList<>()).add(shape);
+  }
+
+  private String register(MongoCollection<?> collection) {
+    String namespace = collection.getNamespace().getFullName();
+    collections.putIfAbsent(namespace, collection);
+    return namespace;
+  }
+
+  /**
+   * Create all the declared indexes, and report any declared query shapes
+   * that aren't covered by an index.
+   *
+   * A failure to create the indexes on one collection (e.g., because an
+   * index with the same keys but different options already exists) is
+   * logged and doesn't stop the other collections from being reconciled.
+   *
+   * @return a description of each query shape that isn't served by an index
+   */
+  public List<String> reconcile() {
+    if (collections.isEmpty()) {
+      return List.of();
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(collections.size());
+    try {
+      List<CompletableFuture<List<String>>> reconciled = new ArrayList<>();
+      for (String namespace : collections.keySet()) {
+        reconciled.add(CompletableFuture.supplyAsync(() -> reconcile(namespace), pool));
+      }
+
+      List<String> unindexed = new ArrayList<>();
+      for (CompletableFuture<List<String>> result : reconciled) {
+        unindexed.addAll(result.join());
+      }
+      return unindexed;
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private List<String> reconcile(String namespace) {
+    MongoCollection<?> collection = collections.get(namespace);
+    List<IndexModel> models = indexes.getOrDefault(namespace, List.of());
+    if (!models.isEmpty()) {
+      try {
+        List<String> created = collection.createIndexes(models);
+        LOGGER.info("Indexes on {}: {}", namespace, created);
+      } catch (RuntimeException e) {
+        LOGGER.error("Couldn't create the declared indexes on " + namespace, e);
+      }
+    }
+
+    // The leading fields of each index that now exists on the collection.
+    List<List<String>> indexPrefixes = new ArrayList<>();
+    for (Document index : collection.listIndexes()) {
+      List<String> keys = new ArrayList<>();
+      for (Object key : ((Map<?, ?>) index.get("key")).keySet()) {
+        keys.add(key.toString());
+      }
+      indexPrefixes.add(keys);
+    }
+
+    List<String> unindexed = new ArrayList<>();
+    for (QueryShape shape : queryShapes.getOrDefault(namespace, List.of())) {
+      if (shape.fields.isEmpty() || !isCovered(shape.fields, indexPrefixes)) {
+        String description = namespace + " " + shape;
+        LOGGER.warn("No index serves queries on {}", description);
+        unindexed.add(description);
+      }
+    }
+    return unindexed;
+  }
+
+  /**
+   * A query shape is covered by an index if its fields are exactly the
+   * first fields of the index (in any order), since Mongo can then use
+   * that index for equality matches on all of them.
+   */
+  private static boolean isCovered(Set<String> shape, List<List<String>> indexPrefixes) {
+    for (List<String> keys : indexPrefixes) {
+      if (keys.size() >= shape.size() && shape.containsAll(keys.subList(0, shape.size()))) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,285 @@
+package umm3601;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * A bounded, read-through, least-recently-used cache.
+ *
+ * Every entry has a weight (by default 1, so the bound is just a number of
+ * entries, but a weigher can be supplied to bound the approximate number of
+ * bytes held instead). When adding an entry takes the total weight over the
+ * maximum, the least recently used entries are evicted until it fits again.
+ *
+ * Lookups go through `get(key, loader)`: on a miss, the loader is called
+ * (without holding the cache's lock, since it's usually a database call) and
+ * a non-null result is cached. `invalidate(key)` should be called whenever
+ * the underlying data for a key changes. A value loaded concurrently with an
+ * invalidation is returned to its caller but not cached, so an invalidation
+ * can't be undone by a slow load that started before it.
+ *
+ * Entries can also be given a time to live, after which they're treated
+ * as missing (and removed), for data that can change without the cache
+ * being told, like a collection that something other than this server
+ * writes to.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the cached values
+ */
+public class LruCache<K, V> {
+
+  private static final int INITIAL_CAPACITY = 16;
+  private static final float LOAD_FACTOR = 0.75f;
+
+  private final long maxWeight;
+  private final ToLongFunction<V> weigher;
+  // How long, in nanoseconds, entries live for (or 0 for ever), and the
+  // clock they're timed with.
+  private final long ttlNanos;
+  private final LongSupplier nanoClock;
+
+  // A `LinkedHashMap` in access order keeps the least recently used
+  // entry first, so eviction just walks from the front.
+  private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+  private long weight;
+  private long invalidations;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder expirations = new LongAdder();
+
+  /**
+   * Construct a cache that holds at most `maxEntries` entries.
+   *
+   * @param maxEntries the maximum number of entries to keep
+   */
+  public LruCache(long maxEntries) {
+    this(maxEntries, value -> 1);
+  }
+
+  /**
+   * Construct a cache whose entries' total weight is at most `maxWeight`.
+   *
+   * @param maxWeight the maximum total weight of the entries to keep
+   * @param weigher computes the weight of a value (e.g., its approximate size in bytes)
+   */
+  public LruCache(long maxWeight, ToLongFunction<V> weigher) {
+    this(maxWeight, weigher, null);
+  }
+
+  /**
+   * Construct a cache whose entries' total weight is at most `maxWeight`,
+   * and whose entries are dropped once they're older than `ttl`.
+   *
+   * @param maxWeight the maximum total weight of the entries to keep
+   * @param weigher computes the weight of a value (e.g., its approximate size in bytes)
+   * @param ttl how long an entry lives after it's added, or `null` (or
+   *   zero) for ever
+   */
+  public LruCache(long maxWeight, ToLongFunction<V> weigher, Duration ttl) {
+    this(maxWeight, weigher, ttl, System::nanoTime);
+  }
+
+  LruCache(long maxWeight, ToLongFunction<V> weigher, Duration ttl, LongSupplier nanoClock) {
+    this.maxWeight = maxWeight;
+    this.weigher = weigher;
+    this.ttlNanos = ttl == null ? 0 : ttl.toNanos();
+    this.nanoClock = nanoClock;
+  }
+
+  /**
+   * Get the value for a key, loading (and caching) it on a miss.
+   *
+   * @param key the key to look up
+   * @param loader computes the value for the key on a miss; may return `null`,
+   *   in which case nothing is cached
+   * @return the cached or loaded value, or `null` if the loader returned `null`
+   */
+  public V get(K key, Function<K, V> loader) {
+    long invalidationsBeforeLoad;
+    synchronized (this) {
+      V cached = live(key);
+      if (cached != null) {
+        hits.increment();
+        return cached;
+      }
+      invalidationsBeforeLoad = invalidations;
+    }
+
+    misses.increment();
+    V loaded = loader.apply(key);
+    if (loaded != null) {
+      synchronized (this) {
+        if (invalidations == invalidationsBeforeLoad) {
+          insert(key, loaded);
+        }
+      }
+    }
+    return loaded;
+  }
+
+  /**
+   * Get the value for a key, loading (and caching) it asynchronously on a miss.
+   *
+   * This works just like `get`, except that the loader returns a future
+   * (e.g., of an async database query), and the value is cached when (and
+   * if) that future completes with a non-null value.
+   *
+   * @param key the key to look up
+   * @param loader starts loading the value for the key on a miss
+   * @return a future of the cached or loaded value (or `null`)
+   */
+  public CompletableFuture<V> getAsync(K key, Function<K, CompletableFuture<V>> loader) {
+    long invalidationsBeforeLoad;
+    synchronized (this) {
+      V cached = live(key);
+      if (cached != null) {
+        hits.increment();
+        return CompletableFuture.completedFuture(cached);
+      }
+      invalidationsBeforeLoad = invalidations;
+    }
+
+    misses.increment();
+    return loader.apply(key).thenApply(loaded -> {
+      if (loaded != null) {
+        synchronized (this) {
+          if (invalidations == invalidationsBeforeLoad) {
+            insert(key, loaded);
+          }
+        }
+      }
+      return loaded;
+    });
+  }
+
+  /**
+   * Get the value for a key if it's in the cache, without loading it.
+   *
+   * @param key the key to look up
+   * @return the cached value, or `null` on a miss
+   */
+  public synchronized V getIfPresent(K key) {
+    V cached = live(key);
+    if (cached == null) {
+      misses.increment();
+    } else {
+      hits.increment();
+    }
+    return cached;
+  }
+
+  /**
+   * Add (or replace) the value for a key, evicting least recently used
+   * entries as needed. This is for values the caller has just computed
+   * after a miss in `getIfPresent`; read-through lookups should use `get`.
+   *
+   * @param key the key to cache the value under
+   * @param value the value to cache
+   */
+  public synchronized void put(K key, V value) {
+    insert(key, value);
+  }
+
+  /**
+   * The value for a key, unless it's missing or has expired (in which case
+   * it's removed). Callers must hold the lock.
+   */
+  private V live(K key) {
+    Entry<V> entry = entries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    // Compare the difference, since `nanoTime()` can wrap around.
+    if (ttlNanos > 0 && nanoClock.getAsLong() - entry.expiresAt > 0) {
+      entries.remove(key);
+      weight -= weigher.applyAsLong(entry.value);
+      expirations.increment();
+      return null;
+    }
+    return entry.value;
+  }
+
+  private void insert(K key, V value) {
+    long expiresAt = ttlNanos > 0 ? nanoClock.getAsLong() + ttlNanos : 0;
+    Entry<V> previous = entries.put(key, new Entry<>(value, expiresAt));
+    if (previous != null) {
+      weight -= weigher.applyAsLong(previous.value);
+    }
+    weight += weigher.applyAsLong(value);
+
+    Iterator<Map.Entry<K, Entry<V>>> leastRecentlyUsed = entries.entrySet().iterator();
+    while (weight > maxWeight && leastRecentlyUsed.hasNext()) {
+      weight -= weigher.applyAsLong(leastRecentlyUsed.next().getValue().value);
+      leastRecentlyUsed.remove();
+      evictions.increment();
+    }
+  }
+
+  /**
+   * Remove a key from the cache, so the next `get` goes to the loader.
+   *
+   * @param key the key whose underlying data has changed
+   */
+  public synchronized void invalidate(K key) {
+    invalidations++;
+    Entry<V> removed = entries.remove(key);
+    if (removed != null) {
+      weight -= weigher.applyAsLong(removed.value);
+    }
+  }
+
+  /**
+   * Remove everything from the cache.
+   */
+  public synchronized void invalidateAll() {
+    invalidations++;
+    entries.clear();
+    weight = 0;
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized long weight() {
+    return weight;
+  }
+
+  public long hits() {
+    return hits.sum();
+  }
+
+  public long misses() {
+    return misses.sum();
+  }
+
+  public long evictions() {
+    return evictions.sum();
+  }
+
+  public long expirations() {
+    return expirations.sum();
+  }
+
+  /**
+   * A cached value, and when (on `nanoClock`) it expires.
+   */
+  private static final class Entry<V> {
+    private final V value;
+    private final long expiresAt;
+
+    Entry(V value, long expiresAt) {
+      this.value = value;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
@@ -1,31 +1,100 @@
 package umm3601;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoDatabase;
 
+import umm3601.todos.InMemoryTodoRepository;
+import umm3601.todos.MongoTodoRepository;
+import umm3601.todos.SnapshotTodoRepository;
+import umm3601.todos.Todo;
+import umm3601.todos.TodoCodec;
 import umm3601.todos.TodoController;
+import umm3601.todos.TodoRepository;
+import umm3601.user.InMemoryUserRepository;
+import umm3601.user.MongoUserRepository;
+import umm3601.user.User;
+import umm3601.user.UserCodec;
 import umm3601.user.UserController;
 
 public class Main {
 
-  public static void main(String[] args) {
+  private static final Logger LOGGER = LoggerFactory.getLogger(Main.class);
+
+  // The default (approximate) size, in bytes, of each controller's
+  // cache of items looked up by id.
+  static final long DEFAULT_ID_CACHE_BYTES = 16L * 1024 * 1024;
+
+  // How often (in seconds) a todo snapshot checks Mongo for new todos, by default.
+  static final long DEFAULT_SNAPSHOT_REFRESH_SECONDS = 10;
+
+  // How often (in seconds) the users-by-company summary is checked against
+  // the users, by default.
+  static final long DEFAULT_COMPANY_RECONCILE_SECONDS = 300;
+
+  public static void main(String[] args) throws IOException {
     // Get the MongoDB address and database name from environment variables and
     // if they aren't set, use the defaults of "localhost" and "dev".
     String mongoAddr = Main.getEnvOrDefault("MONGO_ADDR", "localhost");
     String databaseName = Main.getEnvOrDefault("MONGO_DB", "dev");
 
+    // How many connections to open to Mongo (`MONGO_POOL_SIZE`), and whether
+    // to handle requests on virtual threads (`VIRTUAL_THREADS=true`). Either
+    // way, only as many requests as there are connections use the database
+    // at once.
+    int poolSize = Integer.parseInt(
+      Main.getEnvOrDefault("MONGO_POOL_SIZE", String.valueOf(Server.DEFAULT_MONGO_POOL_SIZE)));
+    boolean useVirtualThreads = Boolean.parseBoolean(Main.getEnvOrDefault("VIRTUAL_THREADS", "false"));
+
+    // Request, thread pool, and connection pool metrics, served at `/metrics`.
+    Metrics metrics = new Metrics();
+    // Mongo commands that take at least `SLOW_QUERY_MILLIS` milliseconds are logged.
+    SlowQueryLogger slowQueries = new SlowQueryLogger(Long.parseLong(
+      Main.getEnvOrDefault("SLOW_QUERY_MILLIS", String.valueOf(SlowQueryLogger.DEFAULT_THRESHOLD_MILLIS))));
+
+    // With `STORAGE=memory`, the todos and users are kept in memory (with
+    // their own indexes) rather than in Mongo, so no database is needed.
+    // They start out empty, or with the seed data in `SEED_DIR` (say,
+    // `../database/seed`).
+    if (Main.getEnvOrDefault("STORAGE", "mongo").equals("memory")) {
+      Controller[] controllers = Main.getInMemoryControllers(System.getenv("SEED_DIR"));
+      new Server(null, controllers, useVirtualThreads, 0, metrics, slowQueries).startServer();
+      return;
+    }
+
     // Set up the MongoDB client
-    MongoClient mongoClient = Server.configureDatabase(mongoAddr);
+    MongoClient mongoClient = Server.configureDatabase(mongoAddr, poolSize, metrics.mongoPoolListener(),
+      slowQueries);
     // Get the database
     MongoDatabase database = mongoClient.getDatabase(databaseName);
 
+    // With `ASYNC_READS=true`, the plain todo and user reads go through the
+    // reactive driver instead, so they don't hold a thread while they wait.
+    com.mongodb.reactivestreams.client.MongoDatabase asyncDatabase = null;
+    if (Boolean.parseBoolean(Main.getEnvOrDefault("ASYNC_READS", "false"))) {
+      com.mongodb.reactivestreams.client.MongoClient asyncClient = Server.configureAsyncDatabase(mongoAddr, poolSize,
+        metrics.mongoPoolListener(), slowQueries);
+      Runtime.getRuntime().addShutdownHook(new Thread(asyncClient::close));
+      asyncDatabase = asyncClient.getDatabase(databaseName);
+    }
+
     // The implementations of `Controller` used for the server. These will presumably
     // be one or more controllers, each of which implements the `Controller` interface.
     // You'll add your own controllers in `getControllers` as you create them.
-    final Controller[] controllers = Main.getControllers(database);
+    final Controller[] controllers = Main.getControllers(database, asyncDatabase);
 
     // Construct the server
-    Server server = new Server(mongoClient, controllers);
+    Server server = new Server(mongoClient, controllers, useVirtualThreads, poolSize, metrics, slowQueries);
 
     // Start the server
     server.startServer();
@@ -52,19 +121,157 @@ public class Main {
    *
    * @param database The MongoDB database object used by the controllers
    *               to access the database.
+   * @param asyncDatabase The same database through the reactive driver, or
+   *               `null` if the controllers should only use blocking reads.
    * @return An array of implementations of `Controller` for the server.
+   * @throws IOException if there's a Todo snapshot file that can't be opened
    */
-  static Controller[] getControllers(MongoDatabase database) {
+  static Controller[] getControllers(MongoDatabase database,
+      com.mongodb.reactivestreams.client.MongoDatabase asyncDatabase) throws IOException {
+    long idCacheBytes = Main.idCacheBytes();
+
+    // With `RAW_READS=true`, the plain reads pass the BSON from Mongo
+    // straight through to the response as JSON, instead of making `Todo`s
+    // and `User`s out of it (see `BsonJson`). These reads are blocking, so
+    // they're used instead of the async ones even with `ASYNC_READS=true`.
+    boolean rawReads = Boolean.parseBoolean(Main.getEnvOrDefault("RAW_READS", "false"));
+
+    // With `TODO_SNAPSHOT` set to a file, the todos are read from a
+    // memory-mapped snapshot of them in that file (see
+    // `SnapshotTodoRepository`) instead of from Mongo, which is checked for
+    // new todos every `TODO_SNAPSHOT_REFRESH_SECONDS` seconds.
+    String snapshotFile = System.getenv("TODO_SNAPSHOT");
+    TodoController todoController;
+    if (snapshotFile == null) {
+      todoController = new TodoController(database, TodoController.newTodoCache(idCacheBytes), asyncDatabase, rawReads);
+    } else {
+      long refreshSeconds = Long.parseLong(Main.getEnvOrDefault("TODO_SNAPSHOT_REFRESH_SECONDS",
+        String.valueOf(DEFAULT_SNAPSHOT_REFRESH_SECONDS)));
+      todoController = Main.snapshotTodoController(new MongoTodoRepository(database), Path.of(snapshotFile),
+        refreshSeconds, idCacheBytes);
+    }
+
+    // The users-by-company summary is kept up to date as users are added
+    // and deleted through the server, and is also rebuilt from the users
+    // every `COMPANY_RECONCILE_SECONDS` seconds, in case they weren't.
+    long reconcileSeconds = Long.parseLong(Main.getEnvOrDefault("COMPANY_RECONCILE_SECONDS",
+      String.valueOf(DEFAULT_COMPANY_RECONCILE_SECONDS)));
+    Main.reconcileCompanySummaryEvery(database, reconcileSeconds);
+
     Controller[] controllers = new Controller[] {
       // You would add additional controllers here, as you create them,
       // although you need to make sure that each of your new controllers implements
       // the `Controller` interface.
       //
       // You can also remove this UserController once you don't need it.
-      new UserController(database),
-      new TodoController(database)
+      new UserController(database, UserController.newUserCache(idCacheBytes), asyncDatabase, rawReads),
+      todoController
     };
     return controllers;
   }
 
+  /**
+   * Make a `TodoController` that reads from a snapshot of the todos in
+   * `source`, and keep the snapshot up to date.
+   *
+   * Whatever is already in the snapshot file is served straight away, and
+   * a background thread then has the controller bring in the todos that
+   * were added since it was last refreshed (and keeps doing so every
+   * `refreshSeconds`), so the controller knows about them too (see
+   * `TodoController#refreshTodos()`). The snapshot is written out to disk
+   * when the server shuts down.
+   *
+   * @param source where the todos are kept
+   * @param path the snapshot file
+   * @param refreshSeconds how often to check for new todos
+   * @param idCacheBytes the size of the controller's cache of todos by id
+   * @return the controller
+   * @throws IOException if the snapshot file can't be opened
+   */
+  static TodoController snapshotTodoController(TodoRepository source, Path path, long refreshSeconds,
+      long idCacheBytes) throws IOException {
+    SnapshotTodoRepository snapshot = new SnapshotTodoRepository(source, path);
+    TodoController controller = new TodoController(snapshot, TodoController.newTodoCache(idCacheBytes));
+    ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "todo-snapshot-refresh");
+      thread.setDaemon(true);
+      return thread;
+    });
+    refresher.scheduleWithFixedDelay(() -> {
+      // An exception would cancel the later refreshes, so it's just logged.
+      try {
+        controller.refreshTodos();
+      } catch (RuntimeException e) {
+        LOGGER.warn("Couldn't refresh the todo snapshot", e);
+      }
+    }, 0, refreshSeconds, TimeUnit.SECONDS);
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      refresher.shutdownNow();
+      try {
+        snapshot.close();
+      } catch (IOException e) {
+        LOGGER.warn("Couldn't close the todo snapshot", e);
+      }
+    }));
+    return controller;
+  }
+
+  /**
+   * Reconcile the users-by-company summary with the users (see
+   * `MongoUserRepository#reconcileCompanySummary()`) every `seconds`
+   * seconds, on a background thread. The first reconcile is left until
+   * `seconds` have passed, since the summary is also reconciled when the
+   * `UserController` is made.
+   *
+   * @param database the database containing user data
+   * @param seconds how often to reconcile the summary
+   */
+  static void reconcileCompanySummaryEvery(MongoDatabase database, long seconds) {
+    ScheduledExecutorService reconciler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "company-summary-reconcile");
+      thread.setDaemon(true);
+      return thread;
+    });
+    reconciler.scheduleWithFixedDelay(() -> {
+      // An exception would cancel the later reconciles, so it's just logged.
+      try {
+        MongoUserRepository.reconcileCompanySummary(database);
+      } catch (RuntimeException e) {
+        LOGGER.warn("Couldn't reconcile the users by company summary", e);
+      }
+    }, seconds, seconds, TimeUnit.SECONDS);
+    Runtime.getRuntime().addShutdownHook(new Thread(reconciler::shutdownNow));
+  }
+
+  /**
+   * Get the controllers for a server that keeps its todos and users in
+   * memory (see `InMemoryTodoRepository` and `InMemoryUserRepository`).
+   *
+   * @param seedDir A directory with `todos.json` and `users.json` files (like
+   *               the ones in `database/seed`) to load, or `null` to start empty
+   * @return An array of implementations of `Controller` for the server.
+   * @throws IOException if the seed files can't be read
+   */
+  static Controller[] getInMemoryControllers(String seedDir) throws IOException {
+    List<Todo> todos = List.of();
+    List<User> users = List.of();
+    if (seedDir != null) {
+      todos = Codecs.readJsonArray(Files.readString(Path.of(seedDir, "todos.json")), new TodoCodec());
+      users = Codecs.readJsonArray(Files.readString(Path.of(seedDir, "users.json")), new UserCodec());
+    }
+
+    long idCacheBytes = Main.idCacheBytes();
+    return new Controller[] {
+      new UserController(new InMemoryUserRepository(users), UserController.newUserCache(idCacheBytes)),
+      new TodoController(new InMemoryTodoRepository(todos), TodoController.newTodoCache(idCacheBytes))
+    };
+  }
+
+  /**
+   * How much memory to give each controller's by-id cache, set with the
+   * `ID_CACHE_BYTES` environment variable. Setting it to 0 turns the caches off.
+   */
+  private static long idCacheBytes() {
+    return Long.parseLong(Main.getEnvOrDefault("ID_CACHE_BYTES", String.valueOf(DEFAULT_ID_CACHE_BYTES)));
+  }
 }
@@ -0,0 +1,292 @@
+package umm3601;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+
+/**
+ * Request and resource metrics for the server, served (by `Server`) in
+ * Prometheus' text format at `/metrics`.
+ *
+ * For every route (e.g., `GET /api/todos/{id}`) this counts requests by
+ * response status, and keeps a histogram of how long they took. It also
+ * reports some gauges: the number of requests in flight, how busy Jetty's
+ * thread pool is, and how busy the Mongo connection pool is (see
+ * `MongoPoolMetrics`). Anyone else (like the `DatabaseGate`) can add
+ * gauges of their own with `gauge()`, and counters (values that only ever
+ * go up, like cache hits, which Prometheus' `rate()` needs) with
+ * `counter()`.
+ *
+ * Recording a request happens on every request, so it only bumps
+ * `LongAdder`s (which don't lock, and spread contended updates over
+ * several cells) that were created the first time the route (and status)
+ * was seen; all the formatting work happens when `/metrics` is scraped.
+ */
+public class Metrics {
+
+  // The upper bounds, in seconds, of the latency histogram's buckets.
+  // These are the Prometheus client libraries' defaults.
+  static final double[] LATENCY_BUCKETS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+  // The route we record requests that didn't match any endpoint (404s) under,
+  // so that requests for random paths don't each get metrics of their own.
+  static final String UNMATCHED_ROUTE = "unmatched";
+
+  // The content type of Prometheus' text format.
+  static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  // HTTP status codes are all less than this.
+  private static final int MAX_STATUS = 600;
+  private static final double MILLIS_PER_SECOND = 1000.0;
+
+  private final Map<HandlerType, Map<String, RouteMetrics>> routes = new ConcurrentHashMap<>();
+  private final LongAdder inFlight = new LongAdder();
+  private final List<Reading> readings = new CopyOnWriteArrayList<>();
+  private final MongoPoolMetrics mongoPool = new MongoPoolMetrics();
+
+  /**
+   * Construct an (empty) set of metrics, with the in-flight request and
+   * Mongo connection pool gauges.
+   */
+  public Metrics() {
+    gauge("http_requests_in_flight", "Requests currently being handled", inFlight::sum);
+    mongoPool.addGauges(this);
+  }
+
+  /**
+   * The listener to give to the Mongo client(s), to track their connection pools.
+   */
+  public MongoPoolMetrics mongoPoolListener() {
+    return mongoPool;
+  }
+
+  /**
+   * Add a gauge, whose value is read whenever the metrics are scraped.
+   *
+   * @param name the metric's name
+   * @param help a description of the metric
+   * @param value reads the metric's current value
+   */
+  public void gauge(String name, String help, LongSupplier value) {
+    readings.add(new Reading(name, "gauge", help, value));
+  }
+
+  /**
+   * Add a counter, whose value is read whenever the metrics are scraped.
+   * The value should only ever go up (until the server restarts), and
+   * the metric is reported as `name` with `_total` on the end.
+   *
+   * @param name the metric's name, without the `_total`
+   * @param help a description of the metric
+   * @param value reads the metric's current value
+   */
+  public void counter(String name, String help, LongSupplier value) {
+    readings.add(new Reading(name + "_total", "counter", help, value));
+  }
+
+  /**
+   * Add gauges for how many threads Jetty's thread pool has, and how many
+   * of them are busy.
+   *
+   * @param threadPool the Jetty server's thread pool
+   */
+  public void threadPool(QueuedThreadPool threadPool) {
+    gauge("jetty_threads", "Threads in Jetty's thread pool", threadPool::getThreads);
+    gauge("jetty_threads_busy", "Threads in Jetty's thread pool that are busy", threadPool::getBusyThreads);
+    gauge("jetty_threads_idle", "Threads in Jetty's thread pool that are idle", threadPool::getIdleThreads);
+    gauge("jetty_threads_max", "The most threads Jetty's thread pool can have", threadPool::getMaxThreads);
+    gauge("jetty_queue_size", "Jobs waiting for a thread from Jetty's thread pool", threadPool::getQueueSize);
+  }
+
+  /**
+   * Note that a request has started (a "before" handler).
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void requestStarted(Context ctx) {
+    inFlight.increment();
+  }
+
+  /**
+   * Record a request that has finished (a request logger).
+   *
+   * @param ctx a Javalin HTTP context
+   * @param millis how long the request took, in milliseconds
+   */
+  public void requestFinished(Context ctx, Float millis) {
+    inFlight.decrement();
+    routeMetrics(ctx.method(), route(ctx)).record(ctx.statusCode(), millis / MILLIS_PER_SECOND);
+  }
+
+  /**
+   * The path of the endpoint that handled a request, like `/api/todos/{id}`.
+   */
+  private static String route(Context ctx) {
+    String path;
+    try {
+      path = ctx.endpointHandlerPath();
+    } catch (IllegalStateException e) {
+      // Javalin won't give us a path if no endpoint was ever reached.
+      return UNMATCHED_ROUTE;
+    }
+    return path == null || path.isEmpty() ? UNMATCHED_ROUTE : path;
+  }
+
+  private RouteMetrics routeMetrics(HandlerType method, String route) {
+    // Check with `get()` first, since `computeIfAbsent()` would have to
+    // create its lambdas on every call.
+    Map<String, RouteMetrics> methodRoutes = routes.get(method);
+    if (methodRoutes == null) {
+      methodRoutes = routes.computeIfAbsent(method, m -> new ConcurrentHashMap<>());
+    }
+    RouteMetrics metrics = methodRoutes.get(route);
+    if (metrics == null) {
+      metrics = methodRoutes.computeIfAbsent(route, r -> new RouteMetrics());
+    }
+    return metrics;
+  }
+
+  /**
+   * Serve the metrics (the `/metrics` endpoint).
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void serve(Context ctx) {
+    ctx.contentType(CONTENT_TYPE);
+    ctx.result(render());
+  }
+
+  /**
+   * The metrics in Prometheus' text format.
+   */
+  String render() {
+    StringBuilder out = new StringBuilder();
+
+    // Sort the routes, so the output doesn't jump around between scrapes.
+    Map<String, RouteMetrics> sorted = new TreeMap<>();
+    routes.forEach((method, methodRoutes) -> methodRoutes.forEach((route, metrics) -> {
+      sorted.put(route + " " + method.name(), metrics);
+    }));
+
+    header(out, "http_requests_total", "counter", "Requests handled, by route and response status");
+    sorted.forEach((key, metrics) -> {
+      for (int status = 0; status < MAX_STATUS; status++) {
+        LongAdder count = metrics.statuses.get(status);
+        if (count != null) {
+          sample(out, "http_requests_total", labels(key) + ",status=\"" + status + "\"", count.sum());
+        }
+      }
+    });
+
+    header(out, "http_request_duration_seconds", "histogram", "How long requests took, by route");
+    sorted.forEach((key, metrics) -> {
+      String labels = labels(key);
+      long cumulative = 0;
+      for (int bucket = 0; bucket < LATENCY_BUCKETS.length; bucket++) {
+        cumulative += metrics.buckets[bucket].sum();
+        sample(out, "http_request_duration_seconds_bucket",
+          labels + ",le=\"" + LATENCY_BUCKETS[bucket] + "\"", cumulative);
+      }
+      cumulative += metrics.buckets[LATENCY_BUCKETS.length].sum();
+      sample(out, "http_request_duration_seconds_bucket", labels + ",le=\"+Inf\"", cumulative);
+      out.append("http_request_duration_seconds_sum{").append(labels).append("} ")
+        .append(metrics.seconds.sum()).append('\n');
+      sample(out, "http_request_duration_seconds_count", labels, cumulative);
+    });
+
+    for (Reading reading : readings) {
+      header(out, reading.name, reading.type, reading.help);
+      out.append(reading.name).append(' ').append(reading.value.getAsLong()).append('\n');
+    }
+    return out.toString();
+  }
+
+  private static void header(StringBuilder out, String name, String type, String help) {
+    out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  private static void sample(StringBuilder out, String name, String labels, long value) {
+    out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+  }
+
+  /**
+   * The `method` and `route` labels for a key of the form "route METHOD".
+   */
+  private static String labels(String key) {
+    int space = key.lastIndexOf(' ');
+    return "method=\"" + key.substring(space + 1) + "\",route=\"" + escape(key.substring(0, space)) + "\"";
+  }
+
+  /**
+   * Escape a label value the way Prometheus' text format wants.
+   */
+  static String escape(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  /**
+   * The counts and latencies for one route.
+   */
+  private static final class RouteMetrics {
+    // Requests by status code; each counter is created the first time
+    // we see its status.
+    private final AtomicReferenceArray<LongAdder> statuses = new AtomicReferenceArray<>(MAX_STATUS);
+    // Requests by latency bucket; these counts aren't cumulative (the
+    // output is), and the last one is for requests slower than all the
+    // `LATENCY_BUCKETS`.
+    private final LongAdder[] buckets = new LongAdder[LATENCY_BUCKETS.length + 1];
+    private final DoubleAdder seconds = new DoubleAdder();
+
+    RouteMetrics() {
+      for (int i = 0; i < buckets.length; i++) {
+        buckets[i] = new LongAdder();
+      }
+    }
+
+    void record(int status, double elapsedSeconds) {
+      int index = status >= 0 && status < MAX_STATUS ? status : 0;
+      LongAdder count = statuses.get(index);
+      if (count == null) {
+        statuses.compareAndSet(index, null, new LongAdder());
+        count = statuses.get(index);
+      }
+      count.increment();
+
+      int bucket = 0;
+      while (bucket < LATENCY_BUCKETS.length && elapsedSeconds > LATENCY_BUCKETS[bucket]) {
+        bucket++;
+      }
+      buckets[bucket].increment();
+      seconds.add(elapsedSeconds);
+    }
+  }
+
+  /**
+   * A gauge or counter, read when the metrics are scraped.
+   */
+  private static final class Reading {
+    private final String name;
+    private final String type;
+    private final String help;
+    private final LongSupplier value;
+
+    Reading(String name, String type, String help, LongSupplier value) {
+      this.name = name;
+      this.type = type;
+      this.help = help;
+      this.value = value;
+    }
+  }
+}
@@ -0,0 +1,72 @@
+package umm3601;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionClosedEvent;
+import com.mongodb.event.ConnectionCreatedEvent;
+import com.mongodb.event.ConnectionPoolListener;
+
+/**
+ * Tracks how busy the Mongo driver's connection pool is, from the events
+ * the driver sends its `ConnectionPoolListener`s.
+ *
+ * The driver calls these on its own threads, on every query, so they
+ * just bump `LongAdder`s; `Metrics` reads them when it's scraped.
+ */
+public class MongoPoolMetrics implements ConnectionPoolListener {
+
+  private final LongAdder open = new LongAdder();
+  private final LongAdder checkedOut = new LongAdder();
+  private final LongAdder waiting = new LongAdder();
+  private final LongAdder checkOutFailures = new LongAdder();
+
+  @Override
+  public void connectionCreated(ConnectionCreatedEvent event) {
+    open.increment();
+  }
+
+  @Override
+  public void connectionClosed(ConnectionClosedEvent event) {
+    open.decrement();
+  }
+
+  @Override
+  public void connectionCheckOutStarted(ConnectionCheckOutStartedEvent event) {
+    waiting.increment();
+  }
+
+  @Override
+  public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+    waiting.decrement();
+    checkedOut.increment();
+  }
+
+  @Override
+  public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+    waiting.decrement();
+    checkOutFailures.increment();
+  }
+
+  @Override
+  public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+    checkedOut.decrement();
+  }
+
+  /**
+   * Add gauges (and a counter of failed checkouts) for the connection
+   * pool to some metrics.
+   *
+   * @param metrics the metrics to add them to
+   */
+  void addGauges(Metrics metrics) {
+    metrics.gauge("mongodb_pool_connections", "Open connections to Mongo", open::sum);
+    metrics.gauge("mongodb_pool_connections_checked_out", "Connections to Mongo in use", checkedOut::sum);
+    metrics.gauge("mongodb_pool_wait_queue", "Operations waiting for a connection to Mongo", waiting::sum);
+    metrics.counter("mongodb_pool_checkout_failures", "Operations that couldn't get a connection to Mongo",
+      checkOutFailures::sum);
+  }
+}
@@ -0,0 +1,69 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Turns the `Publisher`s returned by the reactive Mongo driver into
+ * `CompletableFuture`s, which are what Javalin's `ctx.future()` wants.
+ *
+ * Our queries return (at most) a bounded list of results that we're going
+ * to send as a single JSON response anyway, so we just ask for everything
+ * up front and complete the future with the whole list.
+ */
+public final class Publishers {
+
+  /**
+   * Collect everything a publisher emits.
+   *
+   * @param <T> the type of the items
+   * @param publisher the publisher (e.g., a `FindPublisher`) to subscribe to
+   * @return a future of the list of items, which fails if the publisher does
+   */
+  public static <T> CompletableFuture<List<T>> toList(Publisher<T> publisher) {
+    Collector<T> collector = new Collector<>();
+    publisher.subscribe(collector);
+    return collector.result;
+  }
+
+  /**
+   * Get the first thing a publisher emits.
+   *
+   * @param <T> the type of the items
+   * @param publisher the publisher (e.g., `FindPublisher.first()`) to subscribe to
+   * @return a future of the first item, or of `null` if there wasn't one
+   */
+  public static <T> CompletableFuture<T> first(Publisher<T> publisher) {
+    return toList(publisher).thenApply(items -> items.isEmpty() ? null : items.get(0));
+  }
+
+  private static final class Collector<T> implements Subscriber<T> {
+    private final List<T> items = new ArrayList<>();
+    private final CompletableFuture<List<T>> result = new CompletableFuture<>();
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+      subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(T item) {
+      items.add(item);
+    }
+
+    @Override
+    public void onError(Throwable error) {
+      result.completeExceptionally(error);
+    }
+
+    @Override
+    public void onComplete() {
+      result.complete(items);
+    }
+  }
+}
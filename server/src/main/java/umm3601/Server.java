@@ -1,13 +1,18 @@
 package umm3601;
 
 import java.util.Arrays;
+import java.util.List;
 
 import com.mongodb.MongoClientSettings;
 import com.mongodb.ServerAddress;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
+import com.mongodb.connection.ConnectionPoolSettings;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.ConnectionPoolListener;
 
 import org.bson.UuidRepresentation;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 import io.javalin.Javalin;
 import io.javalin.http.InternalServerErrorResponse;
@@ -18,15 +23,40 @@ import io.javalin.http.InternalServerErrorResponse;
 public class Server {
 
   // The port that the server should run on.
-  private static final int SERVER_PORT = 4567;
+  static final int SERVER_PORT = 4567;
 
-  // The `mongoClient` field is used to access the MongoDB
+  // Gzip's default level, which gets most of the savings of the higher
+  // levels for a fraction of the CPU.
+  private static final int GZIP_LEVEL = 6;
+
+  // The Mongo driver's default connection pool size.
+  static final int DEFAULT_MONGO_POOL_SIZE = 100;
+
+  // How long a request waits for a turn at the database before we give
+  // up on it (see `DatabaseGate`).
+  private static final long DATABASE_WAIT_MILLIS = 10_000;
+
+  // The `mongoClient` field is used to access the MongoDB, or `null` if
+  // the controllers keep their data in memory instead.
   private final MongoClient mongoClient;
 
   // The `controllers` field is an array of all the `Controller` implementations
   // for the server. This is used to add routes to the server.
   private Controller[] controllers;
 
+  // Whether requests are handled on virtual threads instead of Jetty's
+  // (platform) thread pool.
+  private final boolean useVirtualThreads;
+
+  // Limits how many requests use the database at once, or `null` for no limit.
+  private final DatabaseGate databaseGate;
+
+  // The request, thread pool, and connection pool metrics served at `/metrics`.
+  private final Metrics metrics;
+
+  // Logs slow Mongo commands, with the route of the request that sent them.
+  private final SlowQueryLogger slowQueries;
+
   /**
    * Construct a `Server` object that we'll use (via `startServer()`) to configure
    * and start the server.
@@ -35,7 +65,49 @@ public class Server {
    * @param controllers The implementations of `Controller` used for this server
    */
   public Server(MongoClient mongoClient, Controller[] controllers) {
+    this(mongoClient, controllers, false, 0);
+  }
+
+  /**
+   * Construct a `Server` object that we'll use (via `startServer()`) to configure
+   * and start the server.
+   *
+   * @param mongoClient The MongoDB client object used to access to the database
+   * @param controllers The implementations of `Controller` used for this server
+   * @param useVirtualThreads Whether to handle each request on its own virtual thread
+   * @param maxDatabaseRequests The most requests that can use the database at once
+   *   (usually the size of the Mongo connection pool), or 0 for no limit
+   */
+  public Server(MongoClient mongoClient, Controller[] controllers, boolean useVirtualThreads,
+      int maxDatabaseRequests) {
+    this(mongoClient, controllers, useVirtualThreads, maxDatabaseRequests, new Metrics(),
+      new SlowQueryLogger(SlowQueryLogger.DEFAULT_THRESHOLD_MILLIS));
+  }
+
+  /**
+   * Construct a `Server` object that we'll use (via `startServer()`) to configure
+   * and start the server.
+   *
+   * @param mongoClient The MongoDB client object used to access to the database, or
+   *   `null` if the controllers keep their data in memory
+   * @param controllers The implementations of `Controller` used for this server
+   * @param useVirtualThreads Whether to handle each request on its own virtual thread
+   * @param maxDatabaseRequests The most requests that can use the database at once
+   *   (usually the size of the Mongo connection pool), or 0 for no limit
+   * @param metrics The metrics to record requests in, and serve at `/metrics`; its
+   *   `mongoPoolListener()` should already have been given to the Mongo client
+   * @param slowQueries The slow query log, which should already have been given to
+   *   the Mongo client as a command listener
+   */
+  public Server(MongoClient mongoClient, Controller[] controllers, boolean useVirtualThreads,
+      int maxDatabaseRequests, Metrics metrics, SlowQueryLogger slowQueries) {
     this.mongoClient = mongoClient;
+    this.useVirtualThreads = useVirtualThreads;
+    this.metrics = metrics;
+    this.slowQueries = slowQueries;
+    this.databaseGate = maxDatabaseRequests > 0
+      ? new DatabaseGate(maxDatabaseRequests, DATABASE_WAIT_MILLIS)
+      : null;
     // This is what is known as a "defensive copy". We make a copy of
     // the array so that if the caller modifies the array after passing
     // it in, we don't have to worry about it. If we didn't do this,
@@ -60,10 +132,29 @@ public class Server {
    * @return The MongoDB client object
    */
   static MongoClient configureDatabase(String mongoAddr) {
+    return configureDatabase(mongoAddr, DEFAULT_MONGO_POOL_SIZE, null, null);
+  }
+
+  /**
+   * Setup the MongoDB database connection, with a connection pool of the given size.
+   *
+   * @param mongoAddr The address of the MongoDB server
+   * @param poolSize The most connections the client will open to the server
+   * @param poolListener A listener (see `Metrics#mongoPoolListener()`) to tell about
+   *   the connection pool's activity, or `null` for none
+   * @param commandListener A listener (see `SlowQueryLogger`) to tell about every
+   *   command sent to the server, or `null` for none
+   *
+   * @return The MongoDB client object
+   */
+  static MongoClient configureDatabase(String mongoAddr, int poolSize, ConnectionPoolListener poolListener,
+      CommandListener commandListener) {
     // Setup the MongoDB client object with the information we set earlier
     MongoClient mongoClient = MongoClients.create(MongoClientSettings
       .builder()
       .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+      .applyToConnectionPoolSettings(builder -> configurePool(builder, poolSize, poolListener))
+      .commandListenerList(commandListeners(commandListener))
       // Old versions of the mongodb-driver-sync package encoded UUID values (universally unique identifiers) in
       // a non-standard way. This option says to use the standard encoding.
       // See: https://studio3t.com/knowledge-base/articles/mongodb-best-practices-uuid-data/
@@ -73,6 +164,42 @@ public class Server {
     return mongoClient;
   }
 
+  /**
+   * Setup a second connection to the MongoDB database, through the reactive
+   * driver, for controllers that serve some reads asynchronously.
+   *
+   * @param mongoAddr The address of the MongoDB server
+   * @param poolSize The most connections the client will open to the server
+   * @param poolListener A listener to tell about the connection pool's activity,
+   *   or `null` for none
+   * @param commandListener A listener to tell about every command sent to the
+   *   server, or `null` for none
+   *
+   * @return The reactive MongoDB client object
+   */
+  static com.mongodb.reactivestreams.client.MongoClient configureAsyncDatabase(String mongoAddr, int poolSize,
+      ConnectionPoolListener poolListener, CommandListener commandListener) {
+    return com.mongodb.reactivestreams.client.MongoClients.create(MongoClientSettings
+      .builder()
+      .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+      .applyToConnectionPoolSettings(builder -> configurePool(builder, poolSize, poolListener))
+      .commandListenerList(commandListeners(commandListener))
+      .uuidRepresentation(UuidRepresentation.STANDARD)
+      .build());
+  }
+
+  private static void configurePool(ConnectionPoolSettings.Builder builder, int poolSize,
+      ConnectionPoolListener poolListener) {
+    builder.maxSize(poolSize);
+    if (poolListener != null) {
+      builder.addConnectionPoolListener(poolListener);
+    }
+  }
+
+  private static List<CommandListener> commandListeners(CommandListener commandListener) {
+    return commandListener == null ? List.of() : List.of(commandListener);
+  }
+
   /**
    * Configure and start the server.
    *
@@ -83,14 +210,37 @@ public class Server {
   void startServer() {
     Javalin javalin = configureJavalin();
     setupRoutes(javalin);
+    reconcileIndexes();
     javalin.start(SERVER_PORT);
   }
 
+  /**
+   * Make sure every index the controllers declare exists before we
+   * start serving requests.
+   *
+   * Each collection's indexes are created on their own thread, so a
+   * large collection doesn't hold up the others. Any query shape that
+   * still isn't served by an index afterwards is logged as a warning
+   * by the `IndexRegistry`.
+   */
+  private void reconcileIndexes() {
+    IndexRegistry registry = new IndexRegistry();
+    for (Controller controller : controllers) {
+      controller.declareIndexes(registry);
+    }
+    registry.reconcile();
+  }
+
   /**
    * Configure the Javalin server. This includes
    *
    * - Adding a route overview plugin to make it easier to see what routes
    *   are available.
+   * - Compressing large responses.
+   * - Optionally running requests on virtual threads, and limiting how many
+   *   of them use the database at once.
+   * - Recording metrics for every request, and serving them at `/metrics`.
+   * - Noting which request each Mongo command is sent for, for the slow query log.
    * - Setting it up to shut down gracefully if it's killed or if the
    *   JVM is shut down.
    * - Setting up a handler for uncaught exceptions to return an HTTP 500
@@ -113,9 +263,51 @@ public class Server {
      * what HTTP methods they use. (Replace `localhost` and `4567` with whatever server
      * and  port you're actually using, if they are different.)
      */
-    Javalin server = Javalin.create(config ->
-      config.bundledPlugins.enableRouteOverview("/api")
-    );
+    Javalin server = Javalin.create(config -> {
+      config.bundledPlugins.enableRouteOverview("/api");
+      // Gzip responses (of at least 1500 bytes) for clients that accept it.
+      // Brotli would need the native brotli4j library, which we don't ship.
+      // The big list endpoints also keep their serialized (and gzipped)
+      // responses around (see `CompressedJsonCache`), so repeats aren't
+      // serialized or compressed again.
+      config.http.gzipOnlyCompression(GZIP_LEVEL);
+      // Every request gets its own (cheap) virtual thread, so requests that
+      // are blocked on Mongo don't tie up a scarce platform thread.
+      config.useVirtualThreads = useVirtualThreads;
+      // The request logger runs once every request is done (even if it
+      // failed), and is told how long it took, so it's where we record it.
+      config.requestLogger.http(metrics::requestFinished);
+      config.jetty.modifyServer(jetty -> {
+        if (jetty.getThreadPool() instanceof QueuedThreadPool threadPool) {
+          metrics.threadPool(threadPool);
+        }
+      });
+    });
+
+    // This is registered first so requests waiting at the `databaseGate`
+    // count as in flight.
+    server.before(metrics::requestStarted);
+    server.get("/metrics", metrics::serve);
+    slowQueries.addGauges(metrics);
+    for (Controller controller : controllers) {
+      controller.addGauges(metrics);
+    }
+
+    // Let the slow query log know which request each command is for.
+    server.beforeMatched("/api/*", slowQueries::requestStarted);
+    server.after("/api/*", slowQueries::requestFinished);
+
+    // Keep the number of requests using the database at once within
+    // what the connection pool can actually serve. The controllers take
+    // the gate around their database calls, so requests they can answer
+    // without the database never wait for it.
+    if (databaseGate != null) {
+      for (Controller controller : controllers) {
+        controller.useDatabaseGate(databaseGate);
+      }
+      metrics.gauge("database_gate_in_flight", "Requests using the database", databaseGate::inFlight);
+      metrics.gauge("database_gate_waiting", "Requests waiting to use the database", databaseGate::waiting);
+    }
 
     // Configure the MongoDB client and the Javalin server to shut down gracefully.
     configureShutdowns(server);
@@ -155,6 +347,10 @@ public class Server {
      * life of the server, the only way to do this is to wait for
      * these events and close it then.
      */
+    if (mongoClient == null) {
+      // The data is all in memory (see `Main`), so there's no client to close.
+      return;
+    }
     server.events(event -> {
       event.serverStartFailed(mongoClient::close);
       event.serverStopped(mongoClient::close);
@@ -0,0 +1,97 @@
+package umm3601;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Makes concurrent calls for the same key share a single piece of work.
+ *
+ * The first call of `run(key, work)` for a key does the work; calls for
+ * that key that arrive while it's still running wait for it and get the
+ * same result (or the same exception), rather than doing the work again.
+ * Once the work is done the key is forgotten, so nothing is cached: the
+ * next call for the key does the work afresh. (That's what `LruCache` and
+ * `CompressedJsonCache` are for.)
+ *
+ * Waiting calls block their threads, which is cheap on virtual threads
+ * (see `Server`), and on platform threads still beats each of them
+ * running the same query.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the results
+ */
+public class SingleFlight<K, V> {
+
+  private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+  private final LongAdder calls = new LongAdder();
+  private final LongAdder shared = new LongAdder();
+
+  /**
+   * Do the work for the key, or wait for (and share the result of) the
+   * same work if another call for the key is already doing it.
+   *
+   * @param key identifies the work; calls with equal keys must do the same work
+   * @param work does the work, if no other call for the key is already
+   * @return the result of the work
+   */
+  public V run(K key, Supplier<V> work) {
+    calls.increment();
+    CompletableFuture<V> flight = new CompletableFuture<>();
+    CompletableFuture<V> running = inFlight.putIfAbsent(key, flight);
+    if (running != null) {
+      shared.increment();
+      return await(running);
+    }
+
+    try {
+      V result = work.get();
+      flight.complete(result);
+      return result;
+    } catch (RuntimeException | Error e) {
+      flight.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, flight);
+    }
+  }
+
+  /**
+   * Wait for another call's work, and throw what it threw (rather than
+   * the `CompletionException` wrapped around it) if it failed.
+   */
+  private static <V> V await(CompletableFuture<V> flight) {
+    try {
+      return flight.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      if (e.getCause() instanceof Error cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * How many calls there have been.
+   *
+   * @return the number of calls of `run()`
+   */
+  public long calls() {
+    return calls.sum();
+  }
+
+  /**
+   * How many calls shared another call's work instead of doing their own.
+   *
+   * @return the number of shared calls
+   */
+  public long shared() {
+    return shared.sum();
+  }
+}
@@ -0,0 +1,274 @@
+package umm3601;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+
+import io.javalin.http.Context;
+
+/**
+ * Times every command the Mongo driver sends, and logs the ones that take
+ * longer than a threshold, along with what they were doing and which
+ * request they were doing it for.
+ *
+ * Each logged command includes the _shape_ of its filter (or pipeline),
+ * which is the filter with its values replaced by `"?"`. So a todo query
+ * like `?owner=fry&status=complete` is logged as
+ * `{"$and": [{"status": "?"}, {"owner": "?"}]}`; that's what tells us
+ * which index it could use (see `IndexRegistry`), and it doesn't put
+ * users' search terms in the log.
+ *
+ * The route of a command comes from one of two places:
+ *
+ *   - The reactive driver sends commands (like its `getMore`s) from its
+ *     own threads, so the async handlers pass the route along with the
+ *     query, as its comment (see `route()`), which is sent with the
+ *     command (and its `getMore`s).
+ *   - The blocking driver calls `commandStarted()` on the thread that runs
+ *     the query, which is the thread handling the request, so the `Server`
+ *     tells us the route of each request as it starts (with
+ *     `requestStarted()`), and we keep it in a thread local.
+ *
+ * A command with neither (say, one the driver sends on its own thread for
+ * a query without a comment) is logged with no route, rather than with
+ * whatever route its thread last handled.
+ */
+public class SlowQueryLogger implements CommandListener {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SlowQueryLogger.class);
+
+  // Commands taking at least this long (in milliseconds) are logged, unless
+  // told otherwise (with `SLOW_QUERY_MILLIS` in `Main`).
+  static final long DEFAULT_THRESHOLD_MILLIS = 100;
+
+  // What we log as the route of a command sent outside of any request.
+  static final String NO_ROUTE = "none";
+
+  // Replaces every value in a shape.
+  private static final BsonString PLACEHOLDER = new BsonString("?");
+
+  private final long thresholdNanos;
+  private final Consumer<String> log;
+
+  // The commands the driver has started but not yet finished, by request id.
+  private final Map<Integer, StartedCommand> started = new ConcurrentHashMap<>();
+  private final ThreadLocal<String> currentRoute = new ThreadLocal<>();
+
+  private final LongAdder commands = new LongAdder();
+  private final LongAdder slowCommands = new LongAdder();
+
+  /**
+   * Construct a listener that logs (as warnings) commands that take at
+   * least `thresholdMillis` milliseconds.
+   *
+   * @param thresholdMillis the shortest time, in milliseconds, that counts as slow
+   */
+  public SlowQueryLogger(long thresholdMillis) {
+    this(thresholdMillis, LOGGER::warn);
+  }
+
+  SlowQueryLogger(long thresholdMillis, Consumer<String> log) {
+    this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    this.log = log;
+  }
+
+  /**
+   * Remember the route of the request this thread is handling (a
+   * "before matched" handler, since the route, like `/api/todos/{id}`,
+   * isn't known until the request has been matched to an endpoint). We log
+   * the route rather than the path, so ids and the like aren't logged.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void requestStarted(Context ctx) {
+    currentRoute.set(route(ctx));
+  }
+
+  /**
+   * The route of a request, like `GET /api/todos/{id}`, as it's logged.
+   * Async handlers give this to their queries as their comment (with,
+   * e.g., `FindPublisher#comment()`), so their commands are logged with
+   * the right route whichever thread sends them.
+   *
+   * @param ctx a Javalin HTTP context, once it's been matched to an endpoint
+   * @return the route
+   */
+  public static String route(Context ctx) {
+    return ctx.method().name() + " " + ctx.endpointHandlerPath();
+  }
+
+  /**
+   * Forget the route of the request this thread was handling (an "after" handler).
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void requestFinished(Context ctx) {
+    currentRoute.remove();
+  }
+
+  @Override
+  public void commandStarted(CommandStartedEvent event) {
+    // The command document is only ours for the length of this call, so
+    // we copy out what we might log now, rather than when it's done.
+    BsonDocument command = event.getCommand();
+    BsonValue target = command.isEmpty() ? null : command.get(command.getFirstKey());
+    BsonValue sort = command.get("sort");
+    BsonValue comment = command.get("comment");
+    String route = comment != null && comment.isString() ? comment.asString().getValue() : currentRoute.get();
+    started.put(event.getRequestId(), new StartedCommand(
+      event.getCommandName(),
+      target != null && target.isString() ? target.asString().getValue() : null,
+      shapeOf(command),
+      sort != null && sort.isDocument() ? sort.asDocument().clone() : null,
+      route == null ? NO_ROUTE : route));
+  }
+
+  @Override
+  public void commandSucceeded(CommandSucceededEvent event) {
+    StartedCommand command = started.remove(event.getRequestId());
+    long elapsedNanos = event.getElapsedTime(TimeUnit.NANOSECONDS);
+    if (finished(command, elapsedNanos)) {
+      log.accept(describe(command, elapsedNanos) + ", " + documentsReturned(event.getResponse()) + " docs returned");
+    }
+  }
+
+  @Override
+  public void commandFailed(CommandFailedEvent event) {
+    StartedCommand command = started.remove(event.getRequestId());
+    long elapsedNanos = event.getElapsedTime(TimeUnit.NANOSECONDS);
+    if (finished(command, elapsedNanos)) {
+      log.accept(describe(command, elapsedNanos) + ", failed with " + event.getThrowable());
+    }
+  }
+
+  /**
+   * Count a finished command, and decide whether it should be logged.
+   */
+  private boolean finished(StartedCommand command, long elapsedNanos) {
+    commands.increment();
+    if (command == null || elapsedNanos < thresholdNanos) {
+      return false;
+    }
+    slowCommands.increment();
+    return true;
+  }
+
+  private static String describe(StartedCommand command, long elapsedNanos) {
+    StringBuilder description = new StringBuilder("Slow Mongo command: ")
+      .append(command.name);
+    if (command.collection != null) {
+      description.append(' ').append(command.collection);
+    }
+    description.append(" took ").append(TimeUnit.NANOSECONDS.toMillis(elapsedNanos)).append(" ms")
+      .append(" (route ").append(command.route).append(')');
+    if (command.shape != null) {
+      description.append(", shape ").append(command.shape.toJson());
+    }
+    if (command.sort != null) {
+      description.append(", sort ").append(command.sort.toJson());
+    }
+    return description.toString();
+  }
+
+  /**
+   * The filter (or pipeline, or query) shape of a command, or `null` if it
+   * doesn't have one.
+   */
+  static BsonDocument shapeOf(BsonDocument command) {
+    for (String key : new String[] {"filter", "pipeline", "query"}) {
+      if (command.containsKey(key)) {
+        return new BsonDocument(key, shape(command.get(key)));
+      }
+    }
+    return null;
+  }
+
+  /**
+   * A copy of a value with the same structure (document keys, and the
+   * documents in arrays), but with every other value replaced by `"?"`.
+   * The `$sort`, `$project`, and `$group` stages of a pipeline are kept as
+   * they are, since they're part of the query's shape, not its data.
+   */
+  static BsonValue shape(BsonValue value) {
+    if (value.isDocument()) {
+      BsonDocument shaped = new BsonDocument();
+      value.asDocument().forEach((key, field) -> {
+        boolean keepAsIs = field.isDocument()
+          && (key.equals("$sort") || key.equals("$project") || key.equals("$group"));
+        shaped.put(key, keepAsIs ? field.asDocument().clone() : shape(field));
+      });
+      return shaped;
+    }
+    if (value.isArray() && value.asArray().stream().anyMatch(BsonValue::isDocument)) {
+      BsonArray shaped = new BsonArray();
+      value.asArray().forEach(element -> shaped.add(shape(element)));
+      return shaped;
+    }
+    // Scalars, and arrays of them (like the values of an `$in`).
+    return PLACEHOLDER;
+  }
+
+  /**
+   * How many documents a command's response sent back: the size of the
+   * cursor's batch for `find`, `aggregate`, and `getMore`, or `n` for
+   * `count` and writes.
+   */
+  static int documentsReturned(BsonDocument response) {
+    BsonDocument cursor = response.getDocument("cursor", null);
+    if (cursor != null) {
+      for (String batch : new String[] {"firstBatch", "nextBatch"}) {
+        if (cursor.containsKey(batch)) {
+          return cursor.getArray(batch).size();
+        }
+      }
+    }
+    BsonValue count = response.get("n");
+    return count != null && count.isNumber() ? count.asNumber().intValue() : 0;
+  }
+
+  /**
+   * Add counters for how many commands have finished, and how many of them
+   * were slow, to some metrics.
+   *
+   * @param metrics the metrics to add the counters to
+   */
+  public void addGauges(Metrics metrics) {
+    metrics.counter("mongodb_commands", "Commands sent to Mongo", commands::sum);
+    metrics.counter("mongodb_commands_slow", "Commands sent to Mongo that were slow enough to log",
+      slowCommands::sum);
+  }
+
+  /**
+   * What we keep about a command while it's running.
+   */
+  private static final class StartedCommand {
+    private final String name;
+    // The collection the command was run on, if it was.
+    private final String collection;
+    private final BsonDocument shape;
+    private final BsonDocument sort;
+    private final String route;
+
+    StartedCommand(String name, String collection, BsonDocument shape, BsonDocument sort, String route) {
+      this.name = name;
+      this.collection = collection;
+      this.shape = shape;
+      this.sort = sort;
+      this.route = route;
+    }
+  }
+}
@@ -0,0 +1,362 @@
+package umm3601.todos;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.bson.types.ObjectId;
+
+import umm3601.InMemoryIndex;
+
+/**
+ * Keeps Todos on the heap, with secondary indexes on `status`, `owner`,
+ * and `category`, so it can answer `TodoQuery`s without a database.
+ *
+ * Each index maps every value of its field to the ids of the Todos with
+ * that value. A filter on `status` is a single lookup; the `owner` and
+ * `category` filters are patterns, so they're checked against each
+ * distinct owner (or category) once, rather than against every Todo.
+ * When there's more than one filter, we start from the smallest set of
+ * matching ids and check those against the rest.
+ *
+ * Body searches can't use an index here. They stand in for Mongo's text
+ * search by matching Todos whose bodies contain any of the searched-for
+ * words (ignoring case), and rank them by how many of the words they
+ * contain; there's no stemming, and no phrases or negated words.
+ *
+ * Many requests can read at once, but writes wait for them to finish (and
+ * hold off new ones), so a reader never sees a half-updated index. The
+ * stored Todos are handed out as they are, so callers mustn't change them.
+ */
+public class InMemoryTodoRepository implements TodoRepository {
+
+  private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  // Every Todo, by id, in the order they were added.
+  private final Map<String, Todo> byId = new LinkedHashMap<>();
+  private final InMemoryIndex<Boolean> byStatus = new InMemoryIndex<>();
+  private final InMemoryIndex<String> byOwner = new InMemoryIndex<>();
+  private final InMemoryIndex<String> byCategory = new InMemoryIndex<>();
+
+  /**
+   * An empty repository.
+   */
+  public InMemoryTodoRepository() {
+  }
+
+  /**
+   * A repository that starts out with the given Todos.
+   *
+   * @param todos the Todos to start with
+   */
+  public InMemoryTodoRepository(Collection<Todo> todos) {
+    insertAll(new ArrayList<>(todos));
+  }
+
+  /**
+   * How many Todos there are.
+   *
+   * @return the number of Todos
+   */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return byId.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public Todo findById(String id) {
+    lock.readLock().lock();
+    try {
+      return byId.get(id);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public List<Todo> find(TodoQuery query) {
+    lock.readLock().lock();
+    try {
+      return matching(query);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Since the Todos are already in memory, this is just `find()` as a stream.
+   */
+  @Override
+  public Stream<Todo> stream(TodoQuery query) {
+    return find(query).stream();
+  }
+
+  private List<Todo> matching(TodoQuery query) {
+    List<Todo> candidates = new ArrayList<>();
+    for (String id : candidates(query)) {
+      candidates.add(byId.get(id));
+    }
+    return select(candidates, query);
+  }
+
+  /**
+   * The Todos (out of some that already pass the query's `status`, `owner`,
+   * and `category` filters) that pass the rest of the query: its body
+   * search and page boundary. They come back in the query's order, and
+   * cut off at its limit.
+   *
+   * @param candidates Todos that pass the query's indexed filters
+   * @param query the query
+   * @return the Todos the query asked for
+   */
+  static List<Todo> select(List<Todo> candidates, TodoQuery query) {
+    List<Todo> todos = new ArrayList<>();
+    Map<String, Integer> scores = new HashMap<>();
+    Set<String> searchedWords = query.bodySearch() == null ? null : words(query.bodySearch());
+
+    for (Todo todo : candidates) {
+      if (searchedWords != null) {
+        int score = score(todo.body, searchedWords);
+        if (score == 0) {
+          continue;
+        }
+        scores.put(todo._id, score);
+      }
+      if (query.paged() && query.afterId() != null && !isAfter(todo, query)) {
+        continue;
+      }
+      todos.add(todo);
+    }
+
+    if (query.byRelevance()) {
+      todos.sort(Comparator.<Todo>comparingInt(todo -> scores.get(todo._id)).reversed()
+        .thenComparing(todo -> todo._id));
+    } else {
+      todos.sort(order(query.sortBy(), query.descending()));
+    }
+    if (query.limit() > 0 && todos.size() > query.limit()) {
+      return new ArrayList<>(todos.subList(0, query.limit()));
+    }
+    return todos;
+  }
+
+  /**
+   * The ids of the Todos that pass the query's indexed filters.
+   */
+  private Collection<String> candidates(TodoQuery query) {
+    List<Set<String>> matches = new ArrayList<>();
+    if (query.status() != null) {
+      matches.add(byStatus.get(query.status()));
+    }
+    if (query.owner() != null) {
+      // Like Mongo's (unanchored) `$regex`.
+      matches.add(byOwner.matching(owner -> query.owner().matcher(owner).find()));
+    }
+    if (query.category() != null) {
+      matches.add(byCategory.matching(category -> query.category().matcher(category).find()));
+    }
+    return matches.isEmpty() ? byId.keySet() : InMemoryIndex.intersect(matches);
+  }
+
+  static Set<String> words(String text) {
+    Set<String> words = new HashSet<>();
+    for (String word : NON_WORD.split(text.toLowerCase(Locale.ROOT))) {
+      if (!word.isEmpty()) {
+        words.add(word);
+      }
+    }
+    return words;
+  }
+
+  // How many of the searched-for words a Todo's body contains.
+  static int score(String body, Set<String> searchedWords) {
+    if (body == null) {
+      return 0;
+    }
+    int score = 0;
+    for (String word : words(body)) {
+      if (searchedWords.contains(word)) {
+        score++;
+      }
+    }
+    return score;
+  }
+
+  /**
+   * Whether the Todo comes strictly after the query's page boundary, in
+   * the query's order.
+   */
+  private static boolean isAfter(Todo todo, TodoQuery query) {
+    Object afterKey = query.afterKey() instanceof ObjectId id ? id.toHexString() : query.afterKey();
+    int byKey = InMemoryIndex.compareValues(sortValue(todo, query.sortBy()), afterKey);
+    if (byKey == 0) {
+      byKey = todo._id.compareTo(query.afterId());
+    }
+    return query.descending() ? byKey < 0 : byKey > 0;
+  }
+
+  /**
+   * The order Mongo would sort by: the sort key (with missing values
+   * first), then `_id` to break ties, both reversed when descending.
+   */
+  private static Comparator<Todo> order(String sortBy, boolean descending) {
+    Comparator<Todo> order = (a, b) -> InMemoryIndex.compareValues(sortValue(a, sortBy), sortValue(b, sortBy));
+    order = order.thenComparing(todo -> todo._id);
+    return descending ? order.reversed() : order;
+  }
+
+  /**
+   * The field a Todo is sorted by. Ids are compared as hex strings, which
+   * sort the same way as the `ObjectId`s they stand for. Fields Todos
+   * don't have are missing (`null`) for every Todo, as they would be in
+   * Mongo.
+   */
+  private static Comparable<?> sortValue(Todo todo, String sortBy) {
+    switch (sortBy) {
+      case "_id":
+        return todo._id;
+      case TodoController.OWNER_KEY:
+        return todo.owner;
+      case TodoController.CATEGORY_KEY:
+        return todo.category;
+      case TodoController.BODY_CONTAINS_KEY:
+        return todo.body;
+      case TodoController.STATUS_KEY:
+        return todo.status;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Adds a copy of the Todo, so changing it afterwards doesn't leave the
+   * indexes out of date, and gives the Todo its new id.
+   *
+   * @throws IllegalArgumentException if the Todo's id isn't a legal
+   *   `ObjectId`, or is already taken
+   */
+  @Override
+  public void insert(Todo todo) {
+    lock.writeLock().lock();
+    try {
+      add(todo);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public Map<Integer, String> insertAll(List<Todo> todos) {
+    Map<Integer, String> errors = new HashMap<>();
+    lock.writeLock().lock();
+    try {
+      for (int i = 0; i < todos.size(); i++) {
+        try {
+          add(todos.get(i));
+        } catch (IllegalArgumentException e) {
+          errors.put(i, e.getMessage());
+        }
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+    return errors;
+  }
+
+  private void add(Todo todo) {
+    if (todo._id == null) {
+      todo._id = new ObjectId().toHexString();
+    } else if (!ObjectId.isValid(todo._id)) {
+      throw new IllegalArgumentException("Todo id " + todo._id + " isn't a legal Mongo Object ID");
+    } else if (byId.containsKey(todo._id)) {
+      throw new IllegalArgumentException("There is already a Todo with id " + todo._id);
+    }
+
+    Todo stored = new Todo();
+    stored._id = todo._id;
+    stored.body = todo.body;
+    stored.status = todo.status;
+    stored.owner = todo.owner;
+    stored.category = todo.category;
+
+    byId.put(stored._id, stored);
+    byStatus.add(stored.status, stored._id);
+    byOwner.add(stored.owner, stored._id);
+    byCategory.add(stored.category, stored._id);
+  }
+
+  /**
+   * Built from the `category` index: a category's count is the size of its
+   * set of ids, and since the sets keep the order the Todos were added in,
+   * its most recent Todos are the last ones in the set.
+   */
+  @Override
+  public List<TodoByCategory> categories(String sortBy, boolean descending) {
+    List<TodoByCategory> categories = new ArrayList<>();
+    lock.readLock().lock();
+    try {
+      for (Map.Entry<String, Set<String>> entry : byCategory.entries()) {
+        TodoByCategory category = new TodoByCategory();
+        category._id = entry.getKey();
+        category.count = entry.getValue().size();
+        category.todos = new ArrayList<>();
+        int skip = Math.max(0, category.count - TodoController.CATEGORY_PREVIEW_SIZE);
+        for (String id : entry.getValue()) {
+          if (skip > 0) {
+            skip--;
+            continue;
+          }
+          TodoIdBody preview = new TodoIdBody();
+          preview._id = id;
+          preview.body = byId.get(id).body;
+          category.todos.add(preview);
+        }
+        categories.add(category);
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    Comparator<TodoByCategory> order = "count".equals(sortBy)
+      ? Comparator.comparingInt(category -> category.count)
+      : (a, b) -> InMemoryIndex.compareValues(a._id, b._id);
+    order = order.thenComparing((a, b) -> InMemoryIndex.compareValues(a._id, b._id));
+    categories.sort(descending ? order.reversed() : order);
+    return categories;
+  }
+
+  /**
+   * Read straight off the `owner` index.
+   */
+  @Override
+  public Map<String, Integer> ownerCounts() {
+    Map<String, Integer> counts = new HashMap<>();
+    lock.readLock().lock();
+    try {
+      for (Map.Entry<String, Set<String>> entry : byOwner.entries()) {
+        if (entry.getKey() != null) {
+          counts.put(entry.getKey(), entry.getValue().size());
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    return counts;
+  }
+}
@@ -0,0 +1,251 @@
+package umm3601.todos;
+
+import static com.mongodb.client.model.Filters.eq;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.bson.types.ObjectId;
+import org.mongojack.JacksonMongoCollection;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.PushOptions;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+
+import umm3601.Codecs;
+import umm3601.IndexRegistry;
+
+/**
+ * Keeps Todos in Mongo's `todos` collection, along with the
+ * `todosByCategory` summary of them.
+ */
+public class MongoTodoRepository implements TodoRepository {
+
+  static final String CATEGORY_SUMMARY_COLLECTION = "todosByCategory";
+
+  // Read and written with `TodoCodec`, rather than through MongoJack.
+  private final MongoCollection<Todo> todoCollection;
+
+  // The `todosByCategory` summary collection, which is kept up to date as
+  // Todos are added instead of being recomputed on every request. We write
+  // to it as plain documents, and read it back as `TodoByCategory`s.
+  private final MongoCollection<Document> categorySummary;
+  private final JacksonMongoCollection<TodoByCategory> categorySummaryReader;
+
+  /**
+   * Keep Todos in the given database.
+   *
+   * @param database the database containing Todo data
+   */
+  public MongoTodoRepository(MongoDatabase database) {
+    todoCollection = database.getCollection("todos", Todo.class)
+      .withCodecRegistry(Codecs.registryWith(new TodoCodec()));
+
+    categorySummary = database.getCollection(CATEGORY_SUMMARY_COLLECTION);
+    categorySummaryReader = JacksonMongoCollection.builder().build(
+        database,
+        CATEGORY_SUMMARY_COLLECTION,
+        TodoByCategory.class,
+        UuidRepresentation.STANDARD);
+    if (categorySummary.find().first() == null) {
+      rebuildCategorySummary(database);
+    }
+  }
+
+  /**
+   * Recompute the whole `todosByCategory` summary from the `todos` collection.
+   *
+   * This is the only time we run a `$group` over all the Todos; it happens
+   * when a repository is created and there's no summary yet (say, the
+   * database was just seeded), so the summary starts out correct even if
+   * the Todos were added by something other than this server. After that,
+   * `recordInCategorySummary` keeps it up to date. The Todos are sorted by
+   * `_id` first, so `$lastN` keeps the newest ones, the same as the
+   * `$slice` in `recordInCategorySummary`. `$out` replaces the old summary
+   * in one step, so readers never see a half-built one.
+   *
+   * @param database the database containing Todo data
+   */
+  private void rebuildCategorySummary(MongoDatabase database) {
+    database.getCollection("todos").aggregate(List.of(
+      new Document("$sort", new Document("_id", 1)),
+      new Document("$group", new Document("_id", "$category")
+        .append("count", new Document("$sum", 1))
+        .append("todos", new Document("$lastN", new Document("n", TodoController.CATEGORY_PREVIEW_SIZE)
+          .append("input", new Document("_id", "$_id").append("body", "$body"))))),
+      new Document("$out", CATEGORY_SUMMARY_COLLECTION)
+    )).toCollection();
+  }
+
+  /**
+   * Add newly inserted Todos to the `todosByCategory` summary.
+   *
+   * Each category gets a single upsert that bumps its count and pushes
+   * the new Todos onto its (bounded) list of recent Todos, so the cost
+   * depends on the number of new Todos, not the size of the collection.
+   *
+   * @param added Todos that were just inserted into the database
+   */
+  private void recordInCategorySummary(List<Todo> added) {
+    Map<String, List<Document>> byCategory = new HashMap<>();
+    for (Todo todo : added) {
+      byCategory.computeIfAbsent(todo.category, category -> new ArrayList<>())
+        .add(new Document("_id", new ObjectId(todo._id)).append("body", todo.body));
+    }
+
+    List<UpdateOneModel<Document>> updates = new ArrayList<>();
+    for (Map.Entry<String, List<Document>> category : byCategory.entrySet()) {
+      updates.add(new UpdateOneModel<>(
+        eq("_id", category.getKey()),
+        Updates.combine(
+          Updates.inc("count", category.getValue().size()),
+          Updates.pushEach("todos", category.getValue(),
+            new PushOptions().slice(-TodoController.CATEGORY_PREVIEW_SIZE))),
+        new UpdateOptions().upsert(true)));
+    }
+    if (!updates.isEmpty()) {
+      categorySummary.bulkWrite(updates);
+    }
+  }
+
+  @Override
+  public Todo findById(String id) {
+    return todoCollection.find(eq("_id", new ObjectId(id))).first();
+  }
+
+  private FindIterable<Todo> query(TodoQuery query) {
+    return todoCollection
+      .find(query.filter())
+      .sort(query.sort())
+      .limit(query.limit());
+  }
+
+  @Override
+  public List<Todo> find(TodoQuery query) {
+    return query(query).into(new ArrayList<>());
+  }
+
+  /**
+   * The Todos come off a Mongo cursor, `TodoController.STREAM_BATCH_SIZE`
+   * at a time, and closing the stream closes the cursor.
+   */
+  @Override
+  public Stream<Todo> stream(TodoQuery query) {
+    MongoCursor<Todo> cursor = query(query).batchSize(TodoController.STREAM_BATCH_SIZE).cursor();
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED), false)
+      .onClose(cursor::close);
+  }
+
+  @Override
+  public void insert(Todo todo) {
+    todoCollection.insertOne(todo);
+    recordInCategorySummary(List.of(todo));
+  }
+
+  /**
+   * The Todos are written with one unordered `insertMany`, so a Todo that
+   * can't be written (a duplicate `_id`, say) doesn't stop the rest.
+   */
+  @Override
+  public Map<Integer, String> insertAll(List<Todo> todos) {
+    Map<Integer, String> writeErrors = new HashMap<>();
+    if (todos.isEmpty()) {
+      return writeErrors;
+    }
+    try {
+      todoCollection.insertMany(todos, new InsertManyOptions().ordered(false));
+    } catch (MongoBulkWriteException e) {
+      for (BulkWriteError error : e.getWriteErrors()) {
+        writeErrors.put(error.getIndex(), error.getMessage());
+      }
+    }
+    List<Todo> added = new ArrayList<>();
+    for (int i = 0; i < todos.size(); i++) {
+      if (!writeErrors.containsKey(i)) {
+        added.add(todos.get(i));
+      }
+    }
+    recordInCategorySummary(added);
+    return writeErrors;
+  }
+
+  /**
+   * This is read straight from the `todosByCategory` summary collection, so
+   * it costs the same no matter how many Todos there are.
+   */
+  @Override
+  public List<TodoByCategory> categories(String sortBy, boolean descending) {
+    return categorySummaryReader
+      .find()
+      .sort(descending ? Sorts.descending(sortBy) : Sorts.ascending(sortBy))
+      .into(new ArrayList<>());
+  }
+
+  /**
+   * One `$group` over the owners, which the `{owner, _id}` index can serve.
+   */
+  @Override
+  public Map<String, Integer> ownerCounts() {
+    Map<String, Integer> counts = new HashMap<>();
+    for (Document owner : todoCollection.aggregate(List.of(
+        new Document("$group", new Document("_id", "$" + TodoController.OWNER_KEY)
+          .append("count", new Document("$sum", 1)))), Document.class)) {
+      if (owner.get("_id") instanceof String name) {
+        counts.put(name, ((Number) owner.get("count")).intValue());
+      }
+    }
+    return counts;
+  }
+
+  /**
+   * Declare the indexes that `TodoQuery` relies on.
+   *
+   *   - `{status, category, owner}` serves filtering on status, alone or
+   *     along with category and owner.
+   *   - `{owner, _id}` serves the default ordering (by owner), including
+   *     the `_id` tiebreaker used for pagination.
+   *   - The text index on `body` serves body searches.
+   *
+   * Owner and category are matched with case-insensitive regular
+   * expressions, which no index can seek on, so filtering on either of
+   * them without a status scans the collection (and is reported as
+   * unindexed when the server starts).
+   *
+   * @param registry the registry to declare the indexes in
+   */
+  @Override
+  public void declareIndexes(IndexRegistry registry) {
+    registry.declareIndexes(todoCollection,
+      new IndexModel(Indexes.ascending(TodoController.STATUS_KEY, TodoController.CATEGORY_KEY,
+        TodoController.OWNER_KEY)),
+      new IndexModel(Indexes.ascending(TodoController.OWNER_KEY, "_id")),
+      new IndexModel(Indexes.text(TodoController.BODY_CONTAINS_KEY)));
+
+    registry.declareQueryShape(todoCollection, TodoController.STATUS_KEY);
+    registry.declareRegexQueryShape(todoCollection, List.of(TodoController.CATEGORY_KEY),
+      TodoController.STATUS_KEY);
+    registry.declareRegexQueryShape(todoCollection, List.of(TodoController.CATEGORY_KEY, TodoController.OWNER_KEY),
+      TodoController.STATUS_KEY);
+    registry.declareRegexQueryShape(todoCollection, List.of(TodoController.OWNER_KEY));
+    registry.declareRegexQueryShape(todoCollection, List.of(TodoController.CATEGORY_KEY));
+  }
+}
@@ -0,0 +1,12 @@
+package umm3601.todos;
+
+/**
+ * One suggestion from `GET /api/todos/owners`: an owner, and how many
+ * Todos they have.
+ */
+@SuppressWarnings("checkstyle:visibilitymodifier")
+public class OwnerCount {
+
+  public String owner;
+  public int count;
+}
@@ -0,0 +1,108 @@
+package umm3601.todos;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The distinct Todo owners, with how many Todos each has, arranged by name
+ * (ignoring case) in a prefix tree, so the owners whose names start with
+ * some text can be found without looking at any of the others.
+ *
+ * Each node is one character further along a (lower case) name, and holds
+ * the owners whose names end there. Finding the owners with a prefix walks
+ * down one node per character of the prefix, and then visits the nodes
+ * below it in order, stopping as soon as it has found enough owners, so it
+ * costs about the same however many owners there are.
+ *
+ * The children and owners of each node are kept in concurrent skip lists,
+ * which keep them in order and can be read while they're being added to,
+ * so lookups never wait on (or for) a lock. A lookup that runs alongside
+ * an `add()` may or may not see the new owner (or count), but never sees
+ * a half-added one.
+ */
+public class OwnerTrie {
+
+  private final Node root = new Node();
+
+  /**
+   * A node of the tree: the owners whose (lower case) names are the path
+   * to it, and the nodes one character further along.
+   */
+  private static final class Node {
+    private final ConcurrentSkipListMap<Character, Node> children = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<String, Integer> owners = new ConcurrentSkipListMap<>();
+  }
+
+  /**
+   * Count one more Todo for the owner.
+   *
+   * @param owner the owner of a newly added Todo; `null` and empty owners
+   *   are ignored
+   */
+  public void add(String owner) {
+    add(owner, 1);
+  }
+
+  /**
+   * Count some more Todos for the owner.
+   *
+   * @param owner the owner of the Todos; `null` and empty owners are ignored
+   * @param todos how many more Todos the owner has
+   */
+  public void add(String owner, int todos) {
+    if (owner == null || owner.isEmpty()) {
+      return;
+    }
+    Node node = root;
+    for (char c : owner.toLowerCase(Locale.ROOT).toCharArray()) {
+      node = node.children.computeIfAbsent(c, key -> new Node());
+    }
+    node.owners.merge(owner, todos, Integer::sum);
+  }
+
+  /**
+   * The owners whose names start with `prefix` (ignoring case), in
+   * alphabetical order, with how many Todos each has.
+   *
+   * @param prefix the start of the names; the empty string matches everyone
+   * @param limit the most owners to return
+   * @return at most `limit` owners
+   */
+  public List<OwnerCount> withPrefix(String prefix, int limit) {
+    List<OwnerCount> found = new ArrayList<>();
+    Node node = root;
+    for (char c : prefix.toLowerCase(Locale.ROOT).toCharArray()) {
+      node = node.children.get(c);
+      if (node == null) {
+        return found;
+      }
+    }
+    collect(node, limit, found);
+    return found;
+  }
+
+  /**
+   * Add the owners at and below the node to `found`, in order, until it
+   * holds `limit` owners.
+   */
+  private static void collect(Node node, int limit, List<OwnerCount> found) {
+    for (Map.Entry<String, Integer> owner : node.owners.entrySet()) {
+      if (found.size() >= limit) {
+        return;
+      }
+      OwnerCount suggestion = new OwnerCount();
+      suggestion.owner = owner.getKey();
+      suggestion.count = owner.getValue();
+      found.add(suggestion);
+    }
+    for (Node child : node.children.values()) {
+      if (found.size() >= limit) {
+        return;
+      }
+      collect(child, limit, found);
+    }
+  }
+}
@@ -0,0 +1,869 @@
+package umm3601.todos;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.stream.Stream;
+
+import org.bson.types.ObjectId;
+
+import umm3601.IndexRegistry;
+
+/**
+ * Keeps a copy of every Todo in a memory-mapped file, and answers reads
+ * from it, so the Todos don't live on the heap (or have to be fetched
+ * from Mongo) between requests. Writes, and the category summary, go to
+ * another repository (the `source`, normally a `MongoTodoRepository`),
+ * and `refresh()` copies in the Todos the source has that the snapshot
+ * doesn't yet. The `TodoController` runs the refreshes (see
+ * `TodoController#refreshTodos()`), so it hears about the Todos that
+ * other servers add, and not just the ones added through it.
+ *
+ * The file is a short header followed by one record per Todo:
+ *
+ *   - the header has a magic number, the format version, where the last
+ *     complete record ends, and the id `refresh()` has read up to;
+ *   - each record is its length, the Todo's 12-byte id, its status (one
+ *     byte), and its owner, category, and body (each a length, or -1 when
+ *     missing, followed by that many bytes of UTF-8).
+ *
+ * Records are only ever appended, and the header's end is moved past a
+ * record after the record is written, so a half-written record (from a
+ * crash, say) is just ignored. Reopening the file gives a warm start: it
+ * only has to be scanned once to rebuild the index by id, and `refresh()`
+ * then only asks the source for Todos added since the last refresh.
+ *
+ * The index by id is an open-addressing table of record offsets in an
+ * `int[]`, which compares ids against the bytes in the file, so it takes
+ * one `int` per Todo rather than a map entry (and strings) per Todo.
+ * Filtering by status is a single byte read, and only the fields a query
+ * filters on are read before deciding whether a Todo matches. The Todos
+ * that match are then sorted (and cut off at the query's limit) by their
+ * record offsets alone, comparing the bytes of the field they're sorted
+ * by in the file, so a `Todo` is only made for the Todos a request
+ * actually returns. Going through the records allocates nothing per
+ * record, with two exceptions: a body search still decodes the body of
+ * each Todo that passes the other filters, and splits it into words, to
+ * score it; and the heap of matches grows (by doubling) when a query
+ * without a limit matches more Todos than it has room for. Beyond that,
+ * each `find()` makes a fixed handful of objects (see `Scan`) and the
+ * Todos it returns.
+ *
+ * Todos are never changed or deleted in this app, so appending (and
+ * skipping ids we already have) is all a refresh has to do. Since the
+ * file is addressed with `int`s, it holds at most 2GB of Todos.
+ */
+public class SnapshotTodoRepository implements TodoRepository, Closeable {
+
+  // "TODO" in ASCII.
+  static final int MAGIC = 0x544f444f;
+  static final int FORMAT_VERSION = 1;
+  static final int HEADER_BYTES = 32;
+  // How many Todos to ask the source for at a time when refreshing.
+  static final int REFRESH_BATCH_SIZE = 1000;
+  // `ObjectId`s are made by the clients, so a Todo can be added a little
+  // after others with later ids. Each refresh starts this many seconds
+  // before the last id it saw, so it picks those up too.
+  static final int REFRESH_OVERLAP_SECONDS = 60;
+
+  private static final int VERSION_OFFSET = 4;
+  private static final int END_OFFSET = 8;
+  private static final int HAS_CURSOR_OFFSET = 12;
+  private static final int CURSOR_OFFSET = 13;
+  private static final int ID_BYTES = 12;
+  // The length of a record and of its string fields.
+  private static final int LENGTH_BYTES = Integer.BYTES;
+  private static final int MISSING = -1;
+  private static final int INITIAL_FILE_BYTES = 1024 * 1024;
+  private static final int INITIAL_INDEX_SLOTS = 1024;
+  private static final int HASH_MULTIPLIER = 31;
+  // What a `find()` starts out with room for: the chars of a string it
+  // matches, and the matches it keeps.
+  private static final int INITIAL_CHARS = 64;
+  private static final int INITIAL_KEPT = 64;
+  // Where a record's sort key starts, when it's sorted by `_id`.
+  private static final int NO_KEY = -1;
+  // The first bytes of the UTF-8 for U+E000 to U+FFFF and for the
+  // characters past U+FFFF, and a byte past the first byte of any character.
+  private static final int UTF8_E000 = 0xEE;
+  private static final int UTF8_10000 = 0xF0;
+  private static final int UTF8_PAST_FIRST_BYTES = 0xF8;
+
+  private final TodoRepository source;
+  private final FileChannel channel;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  // The whole file, remapped (larger) when it fills up.
+  private MappedByteBuffer file;
+  // Where the last complete record ends.
+  private int end;
+  // The last id `refresh()` read from the source, or `null` before the first refresh.
+  private ObjectId cursor;
+
+  // The index by id: each slot is the offset of a record, or 0 if it's
+  // empty (no record starts at 0, since the header is there).
+  private int[] slots = new int[INITIAL_INDEX_SLOTS];
+  private int size;
+
+  // How many records have been made into `Todo`s.
+  private final LongAdder decoded = new LongAdder();
+
+  /**
+   * Open (or create) a snapshot file of the Todos in `source`. An existing
+   * snapshot is served straight away; call `refresh()` to bring it up to
+   * date.
+   *
+   * @param source where Todos are written, and read from when refreshing
+   * @param path the snapshot file
+   * @throws IOException if the file can't be opened, or isn't a snapshot
+   *   in this format
+   */
+  public SnapshotTodoRepository(TodoRepository source, Path path) throws IOException {
+    this.source = source;
+    channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+    if (channel.size() < HEADER_BYTES) {
+      file = channel.map(FileChannel.MapMode.READ_WRITE, 0, INITIAL_FILE_BYTES);
+      file.putInt(0, MAGIC);
+      file.putInt(VERSION_OFFSET, FORMAT_VERSION);
+      file.putInt(END_OFFSET, HEADER_BYTES);
+      file.put(HAS_CURSOR_OFFSET, (byte) 0);
+    } else {
+      file = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+      if (file.getInt(0) != MAGIC || file.getInt(VERSION_OFFSET) != FORMAT_VERSION) {
+        channel.close();
+        throw new IOException(path + " isn't a Todo snapshot in this format; delete it to start a new one");
+      }
+    }
+
+    end = file.getInt(END_OFFSET);
+    if (file.get(HAS_CURSOR_OFFSET) == 1) {
+      cursor = new ObjectId(file.slice(CURSOR_OFFSET, ID_BYTES));
+    }
+    for (int record = HEADER_BYTES; record < end; record = nextRecord(record)) {
+      index(record);
+    }
+  }
+
+  /**
+   * How many Todos there are in the snapshot.
+   *
+   * @return the number of Todos
+   */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return size;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Copy the Todos that have been added to the source since the last
+   * refresh into the snapshot (see `refresh(Consumer)`).
+   *
+   * @return how many Todos were new to the snapshot
+   */
+  public int refresh() {
+    return refresh(todo -> { });
+  }
+
+  /**
+   * Copy the Todos that have been added to the source since the last
+   * refresh into the snapshot, `REFRESH_BATCH_SIZE` at a time, in the
+   * order of their ids. Reads carry on (from the snapshot) while this
+   * waits on the source, and `added` is called (without holding the lock)
+   * with each Todo that was new to the snapshot, a batch at a time.
+   *
+   * @param added called with each Todo that was new to the snapshot
+   * @return how many Todos were new to the snapshot
+   */
+  @Override
+  public synchronized int refresh(Consumer<Todo> added) {
+    ObjectId from = null;
+    if (cursor != null) {
+      long seconds = Math.max(0L, cursor.getTimestamp() - (long) REFRESH_OVERLAP_SECONDS);
+      // The smallest id made in that second.
+      from = new ObjectId(String.format("%08x%016x", seconds, 0));
+    }
+
+    int count = 0;
+    while (true) {
+      List<Todo> batch = source.find(TodoQuery.inIdOrder()
+        .page(REFRESH_BATCH_SIZE, from, from == null ? null : from.toHexString()));
+      if (batch.isEmpty()) {
+        break;
+      }
+      List<Todo> appended = new ArrayList<>();
+      lock.writeLock().lock();
+      try {
+        for (Todo todo : batch) {
+          if (append(todo)) {
+            appended.add(todo);
+          }
+          ObjectId id = new ObjectId(todo._id);
+          if (cursor == null || id.compareTo(cursor) > 0) {
+            cursor = id;
+          }
+        }
+        file.put(CURSOR_OFFSET, cursor.toByteArray());
+        file.put(HAS_CURSOR_OFFSET, (byte) 1);
+      } finally {
+        lock.writeLock().unlock();
+      }
+      appended.forEach(added);
+      count += appended.size();
+      if (batch.size() < REFRESH_BATCH_SIZE) {
+        break;
+      }
+      from = new ObjectId(batch.get(batch.size() - 1)._id);
+    }
+    lock.readLock().lock();
+    try {
+      file.force();
+    } finally {
+      lock.readLock().unlock();
+    }
+    return count;
+  }
+
+  @Override
+  public Todo findById(String id) {
+    byte[] key = new ObjectId(id).toByteArray();
+    lock.readLock().lock();
+    try {
+      int record = slots[slotOf(key)];
+      return record == 0 ? null : decode(record);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * How many records have been made into `Todo`s, by all the reads so far.
+   *
+   * @return the number of Todos decoded from the snapshot
+   */
+  public long decoded() {
+    return decoded.sum();
+  }
+
+  /**
+   * Answers the query the same way `InMemoryTodoRepository` does, but
+   * keeps just the offsets of the matching records (see `Scan`). With a
+   * limit, only the best `limit` of those are kept (in a heap with the
+   * worst of them on top), and only the ones returned are decoded.
+   */
+  @Override
+  public List<Todo> find(TodoQuery query) {
+    Set<String> searchedWords = query.bodySearch() == null ? null : InMemoryTodoRepository.words(query.bodySearch());
+    lock.readLock().lock();
+    try {
+      Scan scan = new Scan(query);
+      for (int record = HEADER_BYTES; record < end; record = nextRecord(record)) {
+        if (!scan.passesFilters(record)) {
+          continue;
+        }
+        int score = 0;
+        if (searchedWords != null) {
+          score = InMemoryTodoRepository.score(readString(bodyOf(record)), searchedWords);
+          if (score == 0) {
+            continue;
+          }
+        }
+        long match = ((long) score << Integer.SIZE) | record;
+        if (scan.isAfter(match)) {
+          scan.keep(match);
+        }
+      }
+
+      scan.sort();
+      List<Todo> todos = new ArrayList<>(scan.count());
+      for (int i = 0; i < scan.count(); i++) {
+        todos.add(decode(scan.record(i)));
+      }
+      return todos;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * One `find()`'s pass over the records. The filters and sort keys are
+   * read straight from the file: strings are matched by decoding them
+   * into a `CharBuffer` the scan reuses, and sorted by comparing their
+   * bytes. Each match is a `long`, with its body search score in the high
+   * half and its record offset in the low half, so keeping one (in a heap
+   * of `long`s) doesn't allocate either. The buffer and the heap only
+   * grow, to the longest string matched and to the number of matches kept.
+   *
+   * A scan reads the file, so it can only be used while holding the read lock.
+   */
+  private final class Scan {
+    private final TodoQuery query;
+    // The file, with a position and limit of our own, to decode strings from.
+    private final ByteBuffer view = file.duplicate();
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private CharBuffer chars = CharBuffer.allocate(INITIAL_CHARS);
+    // `null` when the query doesn't filter on the field.
+    private final Matcher owner;
+    private final Matcher category;
+    // The page boundary, or `null` if the query isn't paged (or is on its
+    // first page). A string key is kept the way the file stores strings.
+    private final byte[] afterId;
+    private final ByteBuffer afterKey;
+
+    private long[] kept;
+    private int size;
+
+    Scan(TodoQuery query) {
+      this.query = query;
+      owner = query.owner() == null ? null : query.owner().matcher("");
+      category = query.category() == null ? null : query.category().matcher("");
+      boolean paged = query.paged() && query.afterId() != null;
+      afterId = paged ? new ObjectId(query.afterId()).toByteArray() : null;
+      afterKey = paged ? stringField(query.afterKey() instanceof String key ? key : null) : null;
+      kept = new long[query.limit() > 0 ? Math.min(query.limit(), INITIAL_KEPT) : INITIAL_KEPT];
+    }
+
+    /**
+     * Whether the record passes the query's `status`, `owner`, and
+     * `category` filters, reading only the fields the query filters on.
+     */
+    boolean passesFilters(int record) {
+      int status = record + LENGTH_BYTES + ID_BYTES;
+      if (query.status() != null && (file.get(status) == 1) != query.status()) {
+        return false;
+      }
+      int ownerAt = status + 1;
+      if (owner != null && !matches(owner, ownerAt)) {
+        return false;
+      }
+      return category == null || matches(category, nextString(ownerAt));
+    }
+
+    // Like Mongo, a missing value doesn't match any pattern.
+    private boolean matches(Matcher matcher, int at) {
+      int length = file.getInt(at);
+      if (length == MISSING) {
+        return false;
+      }
+      // UTF-8 never takes fewer bytes than UTF-16 takes chars.
+      if (length > chars.capacity()) {
+        chars = CharBuffer.allocate(Math.max(length, 2 * chars.capacity()));
+      }
+      chars.clear();
+      view.limit(at + LENGTH_BYTES + length).position(at + LENGTH_BYTES);
+      decoder.reset();
+      decoder.decode(view, chars, true);
+      decoder.flush(chars);
+      chars.flip();
+      return matcher.reset(chars).find();
+    }
+
+    /**
+     * Whether the match comes strictly after the query's page boundary,
+     * in the query's order (always, when there is no boundary).
+     */
+    boolean isAfter(long match) {
+      if (afterId == null) {
+        return true;
+      }
+      int record = (int) match;
+      int byKey;
+      int key = keyOf(record);
+      if (TodoController.STATUS_KEY.equals(query.sortBy())) {
+        byKey = Integer.compare(file.get(key), Boolean.TRUE.equals(query.afterKey()) ? 1 : 0);
+      } else if (key == NO_KEY) {
+        // Sorting by `_id` has no key of its own; the ids are compared below.
+        byKey = 0;
+      } else {
+        byKey = compareStrings(file, key, afterKey, 0);
+      }
+      if (byKey == 0) {
+        byKey = compareId(record, afterId);
+      }
+      return query.descending() ? byKey < 0 : byKey > 0;
+    }
+
+    /**
+     * The order `InMemoryTodoRepository` (and Mongo) would return the
+     * matches in: by relevance, or by the sort key (missing values first),
+     * and then by id, reversed when descending.
+     */
+    private int compare(long a, long b) {
+      int recordA = (int) a;
+      int recordB = (int) b;
+      if (query.byRelevance()) {
+        int byScore = Integer.compare((int) (b >>> Integer.SIZE), (int) (a >>> Integer.SIZE));
+        return byScore != 0 ? byScore : compareIds(recordA, recordB);
+      }
+      int order = compareKeys(recordA, recordB);
+      if (order == 0) {
+        order = compareIds(recordA, recordB);
+      }
+      return query.descending() ? -order : order;
+    }
+
+    private int compareKeys(int a, int b) {
+      int keyA = keyOf(a);
+      if (keyA == NO_KEY) {
+        return 0;
+      }
+      int keyB = keyOf(b);
+      if (TodoController.STATUS_KEY.equals(query.sortBy())) {
+        return Byte.compare(file.get(keyA), file.get(keyB));
+      }
+      return compareStrings(file, keyA, file, keyB);
+    }
+
+    /**
+     * Where the field the query sorts by starts in the record, or
+     * `NO_KEY` for `_id` (whose order `compareIds` gives).
+     */
+    private int keyOf(int record) {
+      int status = record + LENGTH_BYTES + ID_BYTES;
+      switch (query.sortBy()) {
+        case TodoController.STATUS_KEY:
+          return status;
+        case TodoController.OWNER_KEY:
+          return status + 1;
+        case TodoController.CATEGORY_KEY:
+          return nextString(status + 1);
+        case TodoController.BODY_CONTAINS_KEY:
+          return bodyOf(record);
+        default:
+          return NO_KEY;
+      }
+    }
+
+    /**
+     * Keep the match, if it's one of the best `limit` so far (or always,
+     * if the query has no limit).
+     */
+    void keep(long match) {
+      if (query.limit() > 0 && size == query.limit()) {
+        if (compare(match, kept[0]) >= 0) {
+          return;
+        }
+        kept[0] = match;
+        siftDown(0, size);
+        return;
+      }
+      if (size == kept.length) {
+        kept = Arrays.copyOf(kept, 2 * kept.length);
+      }
+      kept[size] = match;
+      siftUp(size);
+      size++;
+    }
+
+    /**
+     * Put the kept matches in the query's order (a heap sort, since the
+     * worst of them is already on top).
+     */
+    void sort() {
+      for (int last = size - 1; last > 0; last--) {
+        swap(0, last);
+        siftDown(0, last);
+      }
+    }
+
+    int count() {
+      return size;
+    }
+
+    int record(int i) {
+      return (int) kept[i];
+    }
+
+    private void siftUp(int i) {
+      while (i > 0) {
+        int parent = (i - 1) / 2;
+        if (compare(kept[parent], kept[i]) >= 0) {
+          return;
+        }
+        swap(parent, i);
+        i = parent;
+      }
+    }
+
+    // Sift down within the first `heapSize` matches.
+    private void siftDown(int i, int heapSize) {
+      while (true) {
+        int worst = i;
+        int left = 2 * i + 1;
+        int right = left + 1;
+        if (left < heapSize && compare(kept[left], kept[worst]) > 0) {
+          worst = left;
+        }
+        if (right < heapSize && compare(kept[right], kept[worst]) > 0) {
+          worst = right;
+        }
+        if (worst == i) {
+          return;
+        }
+        swap(i, worst);
+        i = worst;
+      }
+    }
+
+    private void swap(int i, int j) {
+      long match = kept[i];
+      kept[i] = kept[j];
+      kept[j] = match;
+    }
+  }
+
+  /**
+   * A string stored the way the file stores string fields.
+   */
+  private static ByteBuffer stringField(String str) {
+    byte[] bytes = bytes(str);
+    ByteBuffer field = ByteBuffer.allocate(stringBytes(bytes));
+    putString(field, 0, bytes);
+    return field;
+  }
+
+  /**
+   * Compare two string fields the way `String.compareTo()` compares the
+   * strings, with missing values first. UTF-8 bytes sort in code point
+   * order, which is UTF-16's order too, except that UTF-16 stores the
+   * characters past U+FFFF as surrogates (from U+D800), so U+E000 to
+   * U+FFFF sort after them. Their UTF-8 starts with 0xEE or 0xEF, so
+   * where two strings first differ, those bytes are moved after the
+   * first bytes of the characters past U+FFFF (0xF0 to 0xF4).
+   */
+  private static int compareStrings(ByteBuffer a, int atA, ByteBuffer b, int atB) {
+    int lengthA = a.getInt(atA);
+    int lengthB = b.getInt(atB);
+    if (lengthA == MISSING || lengthB == MISSING) {
+      // `MISSING` is less than any length.
+      return Integer.compare(lengthA, lengthB);
+    }
+    int common = Math.min(lengthA, lengthB);
+    for (int i = 0; i < common; i++) {
+      int byA = Byte.toUnsignedInt(a.get(atA + LENGTH_BYTES + i));
+      int byB = Byte.toUnsignedInt(b.get(atB + LENGTH_BYTES + i));
+      if (byA != byB) {
+        return Integer.compare(inUtf16Order(byA), inUtf16Order(byB));
+      }
+    }
+    return Integer.compare(lengthA, lengthB);
+  }
+
+  private static int inUtf16Order(int utf8Byte) {
+    if (utf8Byte >= UTF8_E000 && utf8Byte < UTF8_10000) {
+      return utf8Byte - UTF8_E000 + UTF8_PAST_FIRST_BYTES;
+    }
+    return utf8Byte;
+  }
+
+  private int bodyOf(int record) {
+    int owner = record + LENGTH_BYTES + ID_BYTES + 1;
+    return nextString(nextString(owner));
+  }
+
+  // Ids compare as unsigned bytes, the same order as `ObjectId`s and their hex strings.
+  private int compareIds(int a, int b) {
+    for (int i = 0; i < ID_BYTES; i++) {
+      int byA = Byte.toUnsignedInt(file.get(a + LENGTH_BYTES + i));
+      int byB = Byte.toUnsignedInt(file.get(b + LENGTH_BYTES + i));
+      if (byA != byB) {
+        return Integer.compare(byA, byB);
+      }
+    }
+    return 0;
+  }
+
+  private int compareId(int record, byte[] id) {
+    for (int i = 0; i < ID_BYTES; i++) {
+      int byRecord = Byte.toUnsignedInt(file.get(record + LENGTH_BYTES + i));
+      int byId = Byte.toUnsignedInt(id[i]);
+      if (byRecord != byId) {
+        return Integer.compare(byRecord, byId);
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * The matching Todos have to be sorted before the first one can be
+   * returned, so this is just `find()` as a stream (which still only
+   * decodes the Todos it returns).
+   */
+  @Override
+  public Stream<Todo> stream(TodoQuery query) {
+    return find(query).stream();
+  }
+
+  private Todo decode(int record) {
+    decoded.increment();
+    int at = record + LENGTH_BYTES;
+    Todo todo = new Todo();
+    todo._id = new ObjectId(file.slice(at, ID_BYTES)).toHexString();
+    at += ID_BYTES;
+    todo.status = file.get(at) == 1;
+    at++;
+    todo.owner = readString(at);
+    at = nextString(at);
+    todo.category = readString(at);
+    at = nextString(at);
+    todo.body = readString(at);
+    return todo;
+  }
+
+  private String readString(int at) {
+    int length = file.getInt(at);
+    if (length == MISSING) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    file.get(at + LENGTH_BYTES, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private int nextString(int at) {
+    return at + LENGTH_BYTES + Math.max(0, file.getInt(at));
+  }
+
+  private int nextRecord(int record) {
+    return record + LENGTH_BYTES + file.getInt(record);
+  }
+
+  @Override
+  public void insert(Todo todo) {
+    source.insert(todo);
+    lock.writeLock().lock();
+    try {
+      append(todo);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public Map<Integer, String> insertAll(List<Todo> todos) {
+    Map<Integer, String> errors = source.insertAll(todos);
+    lock.writeLock().lock();
+    try {
+      for (int i = 0; i < todos.size(); i++) {
+        if (!errors.containsKey(i)) {
+          append(todos.get(i));
+        }
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+    return errors;
+  }
+
+  /**
+   * Append a record for the Todo, unless there's one with its id already.
+   * Callers must hold the write lock.
+   *
+   * @return whether the Todo was new to the snapshot
+   */
+  private boolean append(Todo todo) {
+    byte[] id = new ObjectId(todo._id).toByteArray();
+    if (slots[slotOf(id)] != 0) {
+      return false;
+    }
+    byte[] owner = bytes(todo.owner);
+    byte[] category = bytes(todo.category);
+    byte[] body = bytes(todo.body);
+    long recordBytes = (long) LENGTH_BYTES + ID_BYTES + 1
+      + stringBytes(owner) + stringBytes(category) + stringBytes(body);
+    ensureRoomFor(recordBytes);
+
+    int record = end;
+    int at = record;
+    file.putInt(at, (int) recordBytes - LENGTH_BYTES);
+    at += LENGTH_BYTES;
+    file.put(at, id);
+    at += ID_BYTES;
+    file.put(at, (byte) (todo.status ? 1 : 0));
+    at++;
+    at = putString(file, at, owner);
+    at = putString(file, at, category);
+    putString(file, at, body);
+
+    // Only now is the record part of the snapshot.
+    end = record + (int) recordBytes;
+    file.putInt(END_OFFSET, end);
+    index(record);
+    return true;
+  }
+
+  private static byte[] bytes(String str) {
+    return str == null ? null : str.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static int stringBytes(byte[] bytes) {
+    return LENGTH_BYTES + (bytes == null ? 0 : bytes.length);
+  }
+
+  private static int putString(ByteBuffer buffer, int at, byte[] bytes) {
+    if (bytes == null) {
+      buffer.putInt(at, MISSING);
+      return at + LENGTH_BYTES;
+    }
+    buffer.putInt(at, bytes.length);
+    buffer.put(at + LENGTH_BYTES, bytes);
+    return at + LENGTH_BYTES + bytes.length;
+  }
+
+  /**
+   * Make sure there's room for `bytes` more bytes after the last record,
+   * doubling the size of the file (and mapping it again) if there isn't.
+   */
+  private void ensureRoomFor(long bytes) {
+    long needed = end + bytes;
+    if (needed <= file.capacity()) {
+      return;
+    }
+    if (needed > Integer.MAX_VALUE) {
+      throw new IllegalStateException("The Todo snapshot is full");
+    }
+    long newSize = Math.min(Integer.MAX_VALUE, Math.max(needed, 2L * file.capacity()));
+    try {
+      file = channel.map(FileChannel.MapMode.READ_WRITE, 0, newSize);
+    } catch (IOException e) {
+      throw new IllegalStateException("Couldn't grow the Todo snapshot", e);
+    }
+  }
+
+  /**
+   * Add the record to the index by id, doubling the number of slots when
+   * more than half of them are in use.
+   */
+  private void index(int record) {
+    if (2 * (size + 1) > slots.length) {
+      int[] oldSlots = slots;
+      slots = new int[2 * oldSlots.length];
+      for (int oldRecord : oldSlots) {
+        if (oldRecord != 0) {
+          slots[emptySlotFor(oldRecord)] = oldRecord;
+        }
+      }
+    }
+    slots[emptySlotFor(record)] = record;
+    size++;
+  }
+
+  private int emptySlotFor(int record) {
+    int mask = slots.length - 1;
+    int hash = 1;
+    for (int i = 0; i < ID_BYTES; i++) {
+      hash = HASH_MULTIPLIER * hash + file.get(record + LENGTH_BYTES + i);
+    }
+    int slot = spread(hash) & mask;
+    while (slots[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  /**
+   * The slot with the record for the given id, or the (empty) slot where
+   * it would go.
+   */
+  private int slotOf(byte[] id) {
+    int mask = slots.length - 1;
+    int hash = 1;
+    for (byte b : id) {
+      hash = HASH_MULTIPLIER * hash + b;
+    }
+    int slot = spread(hash) & mask;
+    while (slots[slot] != 0 && !hasId(slots[slot], id)) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private boolean hasId(int record, byte[] id) {
+    for (int i = 0; i < ID_BYTES; i++) {
+      if (file.get(record + LENGTH_BYTES + i) != id[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Mix the high bits of the hash into the low ones, which pick the slot.
+  private static int spread(int hash) {
+    return hash ^ (hash >>> (Integer.SIZE / 2));
+  }
+
+  /**
+   * This is read from the source's category summary.
+   */
+  @Override
+  public List<TodoByCategory> categories(String sortBy, boolean descending) {
+    return source.categories(sortBy, descending);
+  }
+
+  /**
+   * This is counted from the snapshot rather than the source, so that the
+   * Todos a later `refresh()` brings in are exactly the ones it's missing.
+   */
+  @Override
+  public Map<String, Integer> ownerCounts() {
+    Map<String, Integer> counts = new HashMap<>();
+    lock.readLock().lock();
+    try {
+      for (int record = HEADER_BYTES; record < end; record = nextRecord(record)) {
+        String owner = readString(record + LENGTH_BYTES + ID_BYTES + 1);
+        if (owner != null) {
+          counts.merge(owner, 1, Integer::sum);
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    return counts;
+  }
+
+  @Override
+  public void declareIndexes(IndexRegistry registry) {
+    source.declareIndexes(registry);
+  }
+
+  /**
+   * Write any changes to the snapshot out to disk, and close the file.
+   *
+   * @throws IOException if the file can't be closed
+   */
+  @Override
+  public void close() throws IOException {
+    lock.writeLock().lock();
+    try {
+      file.force();
+      channel.close();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+}
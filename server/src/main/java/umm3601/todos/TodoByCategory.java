@@ -1,12 +1,16 @@
 package umm3601.todos;
 import java.util.List;
 
+/**
+ * The summary of one category of Todos kept in the `todosByCategory`
+ * collection: the category name, how many Todos it has, and the ids and
+ * bodies of its most recently added Todos.
+ */
 @SuppressWarnings("checkstyle:visibilitymodifier")
 public class TodoByCategory {
 
   @SuppressWarnings("checkstyle:membername")
   public String _id;
-  public int body;
-  public List<TodoIdBody> user;
-  public Object todos;
+  public int count;
+  public List<TodoIdBody> todos;
 }
@@ -0,0 +1,94 @@
+package umm3601.todos;
+
+import org.bson.BsonObjectId;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+import org.bson.BsonWriter;
+import org.bson.codecs.CollectibleCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.ObjectId;
+
+import umm3601.Codecs;
+
+/**
+ * Reads and writes `Todo`s directly from and to BSON.
+ *
+ * MongoJack turns each document into a stream of Jackson tokens and then
+ * binds those to a `Todo`, which allocates a good deal per document; this
+ * just reads the fields straight into a new `Todo`. Fields we don't know
+ * about are skipped, and missing ones are left at their defaults, which
+ * is what MongoJack does too.
+ *
+ * It's a `CollectibleCodec` so that the driver can give new Todos an
+ * `_id` when they're inserted, like MongoJack did.
+ */
+public class TodoCodec implements CollectibleCodec<Todo> {
+
+  @Override
+  public Todo decode(BsonReader reader, DecoderContext decoderContext) {
+    Todo todo = new Todo();
+    reader.readStartDocument();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      switch (reader.readName()) {
+        case "_id":
+          todo._id = Codecs.readId(reader);
+          break;
+        case "body":
+          todo.body = Codecs.readString(reader);
+          break;
+        case "status":
+          todo.status = Codecs.readBoolean(reader);
+          break;
+        case "owner":
+          todo.owner = Codecs.readString(reader);
+          break;
+        case "category":
+          todo.category = Codecs.readString(reader);
+          break;
+        default:
+          reader.skipValue();
+      }
+    }
+    reader.readEndDocument();
+    return todo;
+  }
+
+  @Override
+  public void encode(BsonWriter writer, Todo todo, EncoderContext encoderContext) {
+    writer.writeStartDocument();
+    Codecs.writeId(writer, todo._id);
+    Codecs.writeString(writer, "body", todo.body);
+    writer.writeBoolean("status", todo.status);
+    Codecs.writeString(writer, "owner", todo.owner);
+    Codecs.writeString(writer, "category", todo.category);
+    writer.writeEndDocument();
+  }
+
+  @Override
+  public Class<Todo> getEncoderClass() {
+    return Todo.class;
+  }
+
+  @Override
+  public Todo generateIdIfAbsentFromDocument(Todo todo) {
+    if (!documentHasId(todo)) {
+      todo._id = new ObjectId().toHexString();
+    }
+    return todo;
+  }
+
+  @Override
+  public boolean documentHasId(Todo todo) {
+    return todo._id != null;
+  }
+
+  @Override
+  public BsonValue getDocumentId(Todo todo) {
+    if (!documentHasId(todo)) {
+      throw new IllegalStateException("The todo does not have an _id");
+    }
+    return new BsonObjectId(new ObjectId(todo._id));
+  }
+}
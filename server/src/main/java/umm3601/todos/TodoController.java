@@ -1,30 +1,54 @@
 package umm3601.todos;
 
-import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
-import static com.mongodb.client.model.Filters.regex;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.bson.Document;
-import org.bson.UuidRepresentation;
+import org.bson.RawBsonDocument;
 import org.bson.conversions.Bson;
+import org.bson.json.JsonParseException;
 import org.bson.types.ObjectId;
-import org.mongojack.JacksonMongoCollection;
 
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
-import com.mongodb.client.model.Sorts;
+import com.mongodb.client.MongoIterable;
+import com.mongodb.client.model.Projections;
 
 import io.javalin.Javalin;
 import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
+import umm3601.BsonJson;
+import umm3601.Codecs;
+import umm3601.CollectionVersion;
+import umm3601.CompressedJsonCache;
 import umm3601.Controller;
+import umm3601.DatabaseGate;
+import umm3601.IndexRegistry;
+import umm3601.LruCache;
+import umm3601.Metrics;
+import umm3601.Publishers;
+import umm3601.SlowQueryLogger;
 
 /**
  * Controller that manages requests for info about Todos.
@@ -33,6 +57,10 @@ public class TodoController implements Controller {
 
   private static final String API_TODOS = "/api/todos";
   private static final String API_TODO_BY_ID = "/api/todos/{id}";
+  private static final String API_TODOS_BULK = "/api/todos/bulk";
+  private static final String API_TODOS_BY_CATEGORY = "/api/todosByCategory";
+  private static final String API_TODO_OWNERS = "/api/todos/owners";
+  private static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
 
   public static final String LIMIT_KEY = "limit";
   public static final String STATUS_KEY = "status";
@@ -40,9 +68,62 @@ public class TodoController implements Controller {
   public static final String OWNER_KEY = "owner";
   public static final String CATEGORY_KEY = "category";
   public static final String SORT_ORDER_KEY = "sortorder";
+  public static final String PAGE_SIZE_KEY = "pagesize";
+  public static final String PAGE_TOKEN_KEY = "after";
+  public static final String STREAM_KEY = "stream";
+  public static final String FIELDS_KEY = "fields";
+  public static final String PREFIX_KEY = "prefix";
+  // The fields of a Todo that can be asked for with `fields`
+  static final Set<String> TODO_FIELDS = Set.of("_id", OWNER_KEY, STATUS_KEY, BODY_CONTAINS_KEY, CATEGORY_KEY);
   public static final String CATEGORY_REGEX = "^(video games|homework|category|software design)$";
   //private static final String CATEGORY_REGEX = "^(video games|homework|groceries|software design)$";
-  private final JacksonMongoCollection<Todo> todoCollection;
+
+  static final int DEFAULT_PAGE_SIZE = 20;
+  static final int MAX_PAGE_SIZE = 1000;
+  static final int STREAM_BATCH_SIZE = 500;
+  static final int BULK_BATCH_SIZE = 1000;
+  // How many of the most recently added Todos each category summary keeps.
+  public static final int CATEGORY_PREVIEW_SIZE = 20;
+  // How many owners `/api/todos/owners` suggests, unless asked for more (or fewer).
+  static final int DEFAULT_OWNER_SUGGESTIONS = 10;
+  static final int MAX_OWNER_SUGGESTIONS = 100;
+
+  // Rough per-object overhead (in bytes) of a cached `Todo`, on top of
+  // the characters in its strings.
+  private static final int TODO_OVERHEAD_BYTES = 96;
+  public static final long DEFAULT_CACHE_BYTES = 16L * 1024 * 1024;
+  static final long RESPONSE_CACHE_BYTES = 4L * 1024 * 1024;
+  // How long a cached response is served for, in case something other
+  // than this server adds Todos.
+  static final Duration RESPONSE_CACHE_TTL = Duration.ofMinutes(1);
+
+  // Where the Todos are kept (see `TodoRepository`).
+  private final TodoRepository todoRepository;
+  // The rest of these are only used when the Todos are kept in Mongo, and
+  // are `null` otherwise.
+  // The `todos` collection, read as plain documents when only some fields are wanted.
+  private final MongoCollection<Document> todoDocuments;
+  // The same collection through the reactive driver, for the async read
+  // handlers, or `null` if all reads are served by the blocking handlers.
+  private final com.mongodb.reactivestreams.client.MongoCollection<Todo> asyncTodos;
+  // The same collection, read as raw BSON that's passed straight through
+  // to the response as JSON (see `BsonJson`), or `null` if the plain reads
+  // build `Todo`s as usual.
+  private final MongoCollection<RawBsonDocument> rawTodos;
+  private final LruCache<String, Todo> todoCache;
+  // Bumped on every write to `todos`, so GETs can be answered with 304s
+  // (see `CollectionVersion`).
+  private final CollectionVersion todoVersion = new CollectionVersion();
+  // Serialized (and gzipped) list responses, keyed by the version and the
+  // normalized query (see `CollectionVersion#cacheKey()`).
+  private final CompressedJsonCache responseCache = new CompressedJsonCache(RESPONSE_CACHE_BYTES, RESPONSE_CACHE_TTL);
+  // Every owner, with how many Todos they have, for `/api/todos/owners`.
+  // Counted once when the controller is made, and kept up to date as
+  // Todos are added through it.
+  private final OwnerTrie owners = new OwnerTrie();
+  // Taken around every blocking call to the repository or the driver, so
+  // only so many requests use the database at once (see `DatabaseGate`).
+  private DatabaseGate databaseGate = DatabaseGate.UNLIMITED;
 
   /**
    * Construct a controller for Todos.
@@ -50,11 +131,155 @@ public class TodoController implements Controller {
    * @param database the database containing Todo data
    */
   public TodoController(MongoDatabase database) {
-    todoCollection = JacksonMongoCollection.builder().build(
-        database,
-        "todos",
-        Todo.class,
-        UuidRepresentation.STANDARD);
+    this(database, newTodoCache(DEFAULT_CACHE_BYTES));
+  }
+
+  /**
+   * Construct a controller for Todos that serves repeated lookups by id
+   * from the given cache.
+   *
+   * @param database the database containing Todo data
+   * @param todoCache the cache of Todos by (hex string) id
+   */
+  public TodoController(MongoDatabase database, LruCache<String, Todo> todoCache) {
+    this(database, todoCache, null);
+  }
+
+  /**
+   * Construct a controller for Todos that serves the plain reads (`GET
+   * /api/todos` and `GET /api/todos/{id}`) asynchronously, through the
+   * reactive driver, so they don't hold a thread while waiting on Mongo.
+   *
+   * @param database the database containing Todo data
+   * @param todoCache the cache of Todos by (hex string) id
+   * @param asyncDatabase the same database through the reactive driver, or
+   *   `null` to serve every request with blocking handlers
+   */
+  public TodoController(MongoDatabase database, LruCache<String, Todo> todoCache,
+      com.mongodb.reactivestreams.client.MongoDatabase asyncDatabase) {
+    this(database, todoCache, asyncDatabase, false);
+  }
+
+  /**
+   * Construct a controller for Todos that (with `rawReads`) serves the
+   * plain reads by passing the stored BSON straight through to the
+   * response as JSON, without ever making `Todo`s out of it.
+   *
+   * Raw reads are blocking reads (and don't use `todoCache`, since they
+   * have no `Todo`s to cache), so with `rawReads` the async handlers
+   * aren't used even if there's an `asyncDatabase`.
+   *
+   * @param database the database containing Todo data
+   * @param todoCache the cache of Todos by (hex string) id
+   * @param asyncDatabase the same database through the reactive driver, or
+   *   `null` to serve every request with blocking handlers
+   * @param rawReads whether to pass the plain reads through as raw BSON
+   */
+  public TodoController(MongoDatabase database, LruCache<String, Todo> todoCache,
+      com.mongodb.reactivestreams.client.MongoDatabase asyncDatabase, boolean rawReads) {
+    this(new MongoTodoRepository(database), todoCache, database, asyncDatabase, rawReads);
+  }
+
+  /**
+   * Construct a controller for Todos kept in the given repository (say, an
+   * `InMemoryTodoRepository`, so no database is needed at all).
+   *
+   * Raw and async reads need Mongo, so they aren't available here, and
+   * when only some `fields` are asked for, the other fields are left out
+   * here rather than by the database.
+   *
+   * @param todoRepository where the Todos are kept
+   * @param todoCache the cache of Todos by (hex string) id
+   */
+  public TodoController(TodoRepository todoRepository, LruCache<String, Todo> todoCache) {
+    this(todoRepository, todoCache, null, null, false);
+  }
+
+  private TodoController(TodoRepository todoRepository, LruCache<String, Todo> todoCache, MongoDatabase database,
+      com.mongodb.reactivestreams.client.MongoDatabase asyncDatabase, boolean rawReads) {
+    this.todoRepository = todoRepository;
+    this.todoCache = todoCache;
+    todoRepository.ownerCounts().forEach(owners::add);
+    todoDocuments = database == null ? null : database.getCollection("todos");
+    rawTodos = rawReads ? database.getCollection("todos", RawBsonDocument.class) : null;
+
+    if (asyncDatabase == null) {
+      asyncTodos = null;
+    } else {
+      asyncTodos = asyncDatabase.getCollection("todos", Todo.class)
+        .withCodecRegistry(Codecs.registryWith(new TodoCodec()));
+    }
+  }
+
+  /**
+   * Set the JSON body of the response to be the list of Todo categories,
+   * each with the number of Todos in it and its most recently added Todos
+   * (see `TodoByCategory`).
+   *
+   * This is read from a summary that's kept up to date as Todos are
+   * added, so it costs the same no matter how many Todos there are.
+   *
+   * @param ctx a Javalin HTTP context that provides the query parameters
+   *   used to sort the results. We support either sorting by category name
+   *   (in either `asc` or `desc` order) or by the number of Todos in the
+   *   category (`count`, also in either `asc` or `desc` order).
+   */
+  public void getTodosGroupedByCategory(Context ctx) {
+    if (todoVersion.notModified(ctx, API_TODOS_BY_CATEGORY)) {
+      return;
+    }
+    String requestedSort = Objects.requireNonNullElse(ctx.queryParam("sortBy"), "_id");
+    String sortBy = requestedSort.equals(CATEGORY_KEY) ? "_id" : requestedSort;
+    String sortOrder = Objects.requireNonNullElse(ctx.queryParam("sortOrder"), "asc");
+
+    boolean descending = sortOrder.equals("desc");
+    ctx.json(databaseGate.call(() -> todoRepository.categories(sortBy, descending)));
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Set the JSON body of the response to be the owners whose names start
+   * with the `prefix` query parameter (ignoring case), in alphabetical
+   * order, each with how many Todos they have (see `OwnerCount`). This is
+   * for suggesting owners as someone types one in, so it's answered from
+   * the `OwnerTrie` in memory, rather than by running a regular expression
+   * over the whole collection the way the `owner` filter does.
+   *
+   * @param ctx a Javalin HTTP context with the `prefix` (default: everyone)
+   *   and `limit` (default `DEFAULT_OWNER_SUGGESTIONS`, at most
+   *   `MAX_OWNER_SUGGESTIONS`) query parameters
+   */
+  public void getOwners(Context ctx) {
+    String prefix = Objects.requireNonNullElse(ctx.queryParam(PREFIX_KEY), "");
+    int limit = DEFAULT_OWNER_SUGGESTIONS;
+    if (ctx.queryParamMap().containsKey(LIMIT_KEY)) {
+      limit = ctx.queryParamAsClass(LIMIT_KEY, Integer.class)
+        .check(it -> it > 0 && it <= MAX_OWNER_SUGGESTIONS,
+          "Owner limit must be between 1 and " + MAX_OWNER_SUGGESTIONS + ", you gave " + ctx.queryParam(LIMIT_KEY))
+        .get();
+    }
+
+    ctx.json(owners.withPrefix(prefix, limit));
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Make a cache of Todos by id that holds roughly `maxBytes` worth of Todos.
+   *
+   * @param maxBytes the approximate maximum size of the cached Todos
+   * @return an empty cache
+   */
+  public static LruCache<String, Todo> newTodoCache(long maxBytes) {
+    return new LruCache<>(maxBytes, TodoController::approximateSize);
+  }
+
+  private static long approximateSize(Todo todo) {
+    return TODO_OVERHEAD_BYTES + 2L * (length(todo._id) + length(todo.body) + length(todo.owner)
+      + length(todo.category));
+  }
+
+  private static int length(String str) {
+    return str == null ? 0 : str.length();
   }
 
   /**
@@ -64,14 +289,52 @@ public class TodoController implements Controller {
    * @param ctx a Javalin HTTP context
    */
   public void getTodo(Context ctx) {
-    String id = ctx.pathParam("id");
-    Todo todo;
+    ObjectId objectId = requestedId(ctx);
+    if (todoVersion.notModified(ctx, API_TODOS + "/" + objectId.toHexString())) {
+      return;
+    }
+    if (rawTodos != null) {
+      RawBsonDocument todo = databaseGate.call(() -> rawTodos.find(eq("_id", objectId)).first());
+      if (todo == null) {
+        throw new NotFoundResponse("The requested Todo was not found");
+      }
+      ctx.status(HttpStatus.OK);
+      BsonJson.send(ctx, out -> BsonJson.writeDocument(todo, out));
+      return;
+    }
+    // Repeated lookups of the same (hot) Todo are served from `todoCache`
+    // without a trip to the database.
+    Todo todo = todoCache.get(objectId.toHexString(), id -> databaseGate.call(() -> todoRepository.findById(id)));
+    sendTodo(ctx, todo);
+  }
+
+  /**
+   * The async version of `getTodo`, which looks the Todo up through the
+   * reactive driver (on a miss in `todoCache`).
+   *
+   * @param ctx a Javalin HTTP context
+   * @return a future that completes once the response has been set
+   */
+  public CompletableFuture<?> getTodoAsync(Context ctx) {
+    ObjectId objectId = requestedId(ctx);
+    if (todoVersion.notModified(ctx, API_TODOS + "/" + objectId.toHexString())) {
+      return CompletableFuture.completedFuture(null);
+    }
+    return todoCache
+      .getAsync(objectId.toHexString(), key -> Publishers.first(
+        asyncTodos.find(eq("_id", objectId)).comment(SlowQueryLogger.route(ctx)).first()))
+      .thenAccept(todo -> sendTodo(ctx, todo));
+  }
 
+  private ObjectId requestedId(Context ctx) {
     try {
-      todo = todoCollection.find(eq("_id", new ObjectId(id))).first();
+      return new ObjectId(ctx.pathParam("id"));
     } catch (IllegalArgumentException e) {
       throw new BadRequestResponse("The requested Todo id wasn't a legal Mongo Object ID.");
     }
+  }
+
+  private void sendTodo(Context ctx, Todo todo) {
     if (todo == null) {
       throw new NotFoundResponse("The requested Todo was not found");
     } else {
@@ -84,61 +347,334 @@ public class TodoController implements Controller {
    * Set the JSON body of the response to be a list of all the Todos returned from the database
    * that match any requested filters and ordering
    *
+   * If nothing has been written to the Todos since the client got the
+   * response to this same query, and it sends us that response's `ETag`
+   * in `If-None-Match`, we just answer 304 (Not Modified).
+   *
    * @param ctx a Javalin HTTP context
    */
   public void getTodos(Context ctx) {
-    Bson combinedFilter = constructFilter(ctx);
-    Bson sortingOrder = constructSortingOrder(ctx);
+    TodoQuery query = TodoQuery.from(ctx);
+    if (todoVersion.notModified(ctx, API_TODOS)) {
+      return;
+    }
 
-    ArrayList<Todo> matchingTodos = todoCollection
-      .find(combinedFilter)
-      .sort(sortingOrder)
-      .limit(limit(ctx))
-      .into(new ArrayList<>());
+    // Asking for a page size or passing a continuation token switches
+    // to keyset pagination, which returns a `TodoPage` instead of a
+    // bare list.
+    if (ctx.queryParamMap().containsKey(PAGE_SIZE_KEY) || ctx.queryParamMap().containsKey(PAGE_TOKEN_KEY)) {
+      getTodosPage(ctx, query);
+      return;
+    }
+
+    TodoQuery limited = query.limit(limit(ctx));
 
+    if (ctx.queryParamMap().containsKey(FIELDS_KEY)) {
+      getTodoFields(ctx, limited);
+      return;
+    }
 
-    ctx.json(matchingTodos);
+    if (rawTodos != null) {
+      getRawTodos(ctx, limited);
+      return;
+    }
 
     ctx.status(HttpStatus.OK);
+    if ("true".equals(ctx.queryParam(STREAM_KEY))) {
+      databaseGate.run(() -> streamJson(ctx, todoRepository.stream(limited)));
+      return;
+    }
+
+    // Identical queries that arrive together share one call of the
+    // repository (and one serialized response), and only that call takes
+    // the `databaseGate`.
+    responseCache.json(ctx, todoVersion.cacheKey(API_TODOS, limited.key()),
+      () -> databaseGate.call(() -> todoRepository.find(limited)));
   }
-// filtering the todos by status, body, category, and owner.
-// Implementing an api/todos?status=complete (or incomplete) endpoint
-// this will let us filter the todos and only return the complete (or incomplete) ones
 
-  private Bson constructFilter(Context ctx) {
-    List<Bson> filters = new ArrayList<>();
-    if (ctx.queryParamMap().containsKey(STATUS_KEY)) {
-      String statusParam = ctx.queryParam(STATUS_KEY);
-      boolean targetStatus;
-      if (statusParam.equalsIgnoreCase("complete") || statusParam.equalsIgnoreCase("true")) {
-        targetStatus = true;
-      } else if (statusParam.equalsIgnoreCase("incomplete") || statusParam.equalsIgnoreCase("false")) {
-        targetStatus = false;
+  /**
+   * The async version of `getTodos`, which runs the query through the
+   * reactive driver.
+   *
+   * Only plain lists of Todos are read asynchronously; pages, projections
+   * (`fields`), and streamed responses are handed to `getTodos`.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return a future that completes once the response has been set
+   */
+  public CompletableFuture<?> getTodosAsync(Context ctx) {
+    if (ctx.queryParamMap().containsKey(PAGE_SIZE_KEY) || ctx.queryParamMap().containsKey(PAGE_TOKEN_KEY)
+        || ctx.queryParamMap().containsKey(FIELDS_KEY) || "true".equals(ctx.queryParam(STREAM_KEY))) {
+      getTodos(ctx);
+      return CompletableFuture.completedFuture(null);
+    }
+
+    TodoQuery query = TodoQuery.from(ctx);
+    if (todoVersion.notModified(ctx, API_TODOS)) {
+      return CompletableFuture.completedFuture(null);
+    }
+    int limit = limit(ctx);
+
+    // The same key as `getTodos`, since it's the same response.
+    String key = todoVersion.cacheKey(API_TODOS, query.limit(limit).key());
+    ctx.status(HttpStatus.OK);
+    if (responseCache.sendCached(ctx, key)) {
+      return CompletableFuture.completedFuture(null);
+    }
+    return Publishers.toList(asyncTodos.find(query.filter()).sort(query.sort()).limit(limit)
+        .comment(SlowQueryLogger.route(ctx)))
+      .thenAccept(todos -> responseCache.send(ctx, key, todos));
+  }
+
+  /**
+   * Set the JSON body of the response to be the requested fields (and `_id`)
+   * of the Todos that match the requested filters and ordering.
+   *
+   * The `fields` query parameter is a comma-separated list of fields from
+   * `TODO_FIELDS`. With Mongo, the projection is done by the database, so
+   * the other fields are never read from disk, sent over the wire, or
+   * deserialized, and since the results are plain documents rather than
+   * `Todo`s, they're left out of the JSON response as well. Otherwise we
+   * leave them out of the response ourselves.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param query the query built from the request's query parameters
+   */
+  private void getTodoFields(Context ctx, TodoQuery query) {
+    List<String> fields = requestedFields(ctx);
+    ctx.status(HttpStatus.OK);
+    // Identical projections that arrive together share one query, like
+    // the plain lists in `getTodos`.
+    String key = todoVersion.cacheKey(API_TODOS, fields + " " + query.key());
+    if (todoDocuments == null) {
+      if ("true".equals(ctx.queryParam(STREAM_KEY))) {
+        databaseGate.run(() -> streamJson(ctx, todoRepository.stream(query).map(todo -> onlyFields(todo, fields))));
       } else {
-        throw new BadRequestResponse("Todo status must be 'complete', 'incomplete', 'true', or 'false'");
-        // Will throw an error if the status is not complete or incomplete
+        responseCache.json(ctx, key, () -> databaseGate.call(
+          () -> todoRepository.find(query).stream().map(todo -> onlyFields(todo, fields)).toList()));
       }
-      filters.add(eq(STATUS_KEY, targetStatus));
+      return;
     }
-    if (ctx.queryParamMap().containsKey(BODY_CONTAINS_KEY)) {
-      String targetContent = ctx.queryParam(BODY_CONTAINS_KEY);
-      Pattern pattern = Pattern.compile(targetContent, Pattern.CASE_INSENSITIVE);
-      filters.add(regex("body", pattern));
+
+    MongoIterable<Document> matchingTodos = todoDocuments
+      .find(query.filter())
+      .sort(query.sort())
+      .limit(query.limit())
+      .projection(Projections.include(fields))
+      .map(TodoController::withHexId);
+
+    if ("true".equals(ctx.queryParam(STREAM_KEY))) {
+      databaseGate.run(() -> streamJson(ctx, matchingTodos));
+    } else {
+      responseCache.json(ctx, key, () -> databaseGate.call(() -> matchingTodos.into(new ArrayList<>())));
+    }
+  }
+
+  /**
+   * The `_id` and the given fields of a Todo, as Mongo would project them.
+   */
+  private static Map<String, Object> onlyFields(Todo todo, List<String> fields) {
+    Map<String, Object> projected = new LinkedHashMap<>();
+    projected.put("_id", todo._id);
+    for (String field : fields) {
+      if (!field.equals("_id")) {
+        projected.put(field, sortValue(todo, field));
+      }
+    }
+    return projected;
+  }
+
+  /**
+   * Set the JSON body of the response to be the Todos that match the
+   * requested filters and ordering, passed straight through from BSON to
+   * JSON without making `Todo`s out of them. Unless the response is
+   * streamed, the JSON is encoded straight into the bytes the response
+   * cache keeps (see `CompressedJsonCache#writeJson()`).
+   *
+   * @param ctx a Javalin HTTP context
+   * @param query the query built from the request's query parameters
+   */
+  private void getRawTodos(Context ctx, TodoQuery query) {
+    FindIterable<RawBsonDocument> matchingTodos = rawTodos
+      .find(query.filter())
+      .sort(query.sort())
+      .limit(query.limit());
+
+    ctx.status(HttpStatus.OK);
+    if ("true".equals(ctx.queryParam(STREAM_KEY))) {
+      databaseGate.run(
+        () -> BsonJson.send(ctx, out -> BsonJson.writeArray(matchingTodos.batchSize(STREAM_BATCH_SIZE), out)));
+    } else {
+      responseCache.writeJson(ctx, todoVersion.cacheKey(API_TODOS + " raw", query.key()),
+        out -> databaseGate.run(() -> BsonJson.writeArray(matchingTodos, out)));
     }
+  }
 
-    if (ctx.queryParamMap().containsKey(OWNER_KEY)) {
-      String targetOwner = ctx.queryParam(OWNER_KEY);
-      filters.add(regex("owner", Pattern.compile(targetOwner, Pattern.CASE_INSENSITIVE)));
+  private List<String> requestedFields(Context ctx) {
+    List<String> fields = new ArrayList<>();
+    for (String field : ctx.queryParam(FIELDS_KEY).split(",")) {
+      String trimmed = field.trim();
+      if (!TODO_FIELDS.contains(trimmed)) {
+        throw new BadRequestResponse("Todo fields must be some of " + TODO_FIELDS + ", you gave " + field);
+      }
+      fields.add(trimmed);
     }
-    if (ctx.queryParamMap().containsKey(CATEGORY_KEY)) {
+    return fields;
+  }
 
-      Pattern pattern = Pattern.compile(Pattern.quote(ctx.queryParam(CATEGORY_KEY)), Pattern.CASE_INSENSITIVE);
-      filters.add(regex(CATEGORY_KEY, pattern));
+  /**
+   * Replace a document's `ObjectId` with its hex string, which is how
+   * `Todo` ids are sent to clients.
+   */
+  private static Document withHexId(Document todo) {
+    if (todo.get("_id") instanceof ObjectId) {
+      todo.put("_id", todo.getObjectId("_id").toHexString());
     }
+    return todo;
+  }
 
-    Bson combinedFilter = filters.isEmpty() ? new Document() : and(filters);
+  /**
+   * Write the results of a query to the response as a JSON array, one
+   * Todo at a time as they come off the Mongo cursor.
+   *
+   * Only one cursor batch is ever held in memory, so the heap used by the
+   * request stays bounded no matter how many Todos match, and the client
+   * starts receiving data as soon as the first batch arrives. The status
+   * has to be set before calling this, since the response is committed as
+   * soon as we start writing.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param todos the (not yet executed) query whose results we're writing
+   */
+  private void streamJson(Context ctx, MongoIterable<?> todos) {
+    MongoCursor<?> cursor = todos.batchSize(STREAM_BATCH_SIZE).cursor();
+    streamJson(ctx, StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED), false)
+      .onClose(cursor::close));
+  }
 
-    return combinedFilter;
+  /**
+   * Write a stream of Todos (or parts of them) to the response as a JSON
+   * array, and close the stream (and so any cursor it's reading) once
+   * we're done.
+   */
+  private static void streamJson(Context ctx, Stream<?> todos) {
+    try (todos) {
+      ctx.writeJsonStream(todos);
+    }
+  }
+
+  /**
+   * Set the JSON body of the response to be one page of the Todos that
+   * match the requested filters, along with a continuation token for the
+   * next page (or `null` if this was the last page).
+   *
+   * The continuation token records the sort key and `_id` of the last Todo
+   * on the page, and the next page picks up strictly after that pair. This
+   * means that every page is a single indexed range scan, so a deep page
+   * costs the same as the first one, and we never need to count the
+   * collection.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param query the query built from the request's query parameters
+   */
+  private void getTodosPage(Context ctx, TodoQuery query) {
+    String sortBy = query.sortBy();
+    boolean descending = query.descending();
+    int pageSize = pageSize(ctx);
+
+    Object lastKey = null;
+    String lastId = null;
+    if (ctx.queryParamMap().containsKey(PAGE_TOKEN_KEY)) {
+      Document token = decodePageToken(ctx.queryParam(PAGE_TOKEN_KEY), sortBy, descending);
+      lastKey = token.get("k");
+      lastId = token.getObjectId("i").toHexString();
+    }
+
+    // Ask for one extra Todo so we know whether there is a next page.
+    TodoQuery page = query.page(pageSize + 1, lastKey, lastId);
+    List<Todo> pageTodos = new ArrayList<>(databaseGate.call(() -> todoRepository.find(page)));
+
+    String next = null;
+    if (pageTodos.size() > pageSize) {
+      pageTodos.remove(pageSize);
+      next = encodePageToken(sortBy, descending, pageTodos.get(pageSize - 1));
+    }
+
+    ctx.json(new TodoPage(pageTodos, next));
+    ctx.status(HttpStatus.OK);
+  }
+
+  private int pageSize(Context ctx) {
+    if (!ctx.queryParamMap().containsKey(PAGE_SIZE_KEY)) {
+      return DEFAULT_PAGE_SIZE;
+    }
+    return ctx.queryParamAsClass(PAGE_SIZE_KEY, Integer.class)
+      .check(it -> it > 0 && it <= MAX_PAGE_SIZE,
+        "Todo page size must be between 1 and " + MAX_PAGE_SIZE + ", you gave " + ctx.queryParam(PAGE_SIZE_KEY))
+      .get();
+  }
+
+  /**
+   * Encode the position of a Todo in the given ordering as an opaque,
+   * URL-safe continuation token.
+   */
+  private String encodePageToken(String sortBy, boolean descending, Todo last) {
+    Document token = new Document("s", sortBy)
+      .append("d", descending)
+      .append("k", pageKey(last, sortBy))
+      .append("i", new ObjectId(last._id));
+    return Base64.getUrlEncoder().withoutPadding()
+      .encodeToString(token.toJson().getBytes(StandardCharsets.UTF_8));
+  }
+
+  private Document decodePageToken(String encoded, String sortBy, boolean descending) {
+    Document token;
+    try {
+      token = Document.parse(new String(Base64.getUrlDecoder().decode(encoded), StandardCharsets.UTF_8));
+    } catch (IllegalArgumentException | JsonParseException e) {
+      throw new BadRequestResponse("The requested Todo page token wasn't a legal page token.");
+    }
+    if (!(token.get("i") instanceof ObjectId)
+        || !sortBy.equals(token.get("s"))
+        || !Boolean.valueOf(descending).equals(token.get("d"))) {
+      throw new BadRequestResponse("The requested Todo page token doesn't match the requested ordering.");
+    }
+    return token;
+  }
+
+  private static Object pageKey(Todo todo, String sortBy) {
+    if (sortBy.equals("_id")) {
+      return new ObjectId(todo._id);
+    }
+    if (!TODO_FIELDS.contains(sortBy)) {
+      throw new BadRequestResponse("Todos can't be paged when ordered by " + sortBy);
+    }
+    return sortValue(todo, sortBy);
+  }
+
+  private static Object sortValue(Todo todo, String field) {
+    switch (field) {
+      case "_id":
+        return todo._id;
+      case OWNER_KEY:
+        return todo.owner;
+      case CATEGORY_KEY:
+        return todo.category;
+      case BODY_CONTAINS_KEY:
+        return todo.body;
+      default:
+        return todo.status;
+    }
+  }
+
+// filtering the todos by status, body, category, and owner.
+// Implementing an api/todos?status=complete (or incomplete) endpoint
+// this will let us filter the todos and only return the complete (or incomplete) ones
+// (This and `constructSortingOrder` are static and package-private so the
+// benchmarks in `src/jmh` can run them without a database.)
+
+  static Bson constructFilter(Context ctx) {
+    return TodoQuery.from(ctx).filter();
   }
 
  // String category = ctx.queryParamAsClass(CATEGORY_KEY, String.class)
@@ -147,6 +683,35 @@ public class TodoController implements Controller {
       // filters.add(eq(CATEGORY_KEY, category));
 
   public void addNewTodo(Context ctx) {
+    Todo newTodo = validatedTodo(ctx);
+
+    // Add the new user to the database
+    databaseGate.run(() -> todoRepository.insert(newTodo));
+    todoCache.invalidate(newTodo._id);
+    owners.add(newTodo.owner);
+    todoVersion.changed();
+    responseCache.invalidateAll();
+
+    // Set the JSON response to be the `_id` of the newly created user.
+    // This gives the client the opportunity to know the ID of the new user,
+    // which it can then use to perform further operations (e.g., a GET request
+    // to get and display the details of the new user).
+    ctx.json(Map.of("id", newTodo._id));
+    // 201 (`HttpStatus.CREATED`) is the HTTP code for when we successfully
+    // create a new resource (a user in this case).
+    // See, e.g., https://developer.mozilla.org/en-US/docs/Web/HTTP/Status
+    // for a description of the various response codes.
+    ctx.status(HttpStatus.CREATED);
+  }
+
+  /**
+   * The Todo in the body of a request, if it's legal to add.
+   *
+   * @param ctx a Javalin HTTP context whose body holds a Todo
+   * @return the Todo
+   * @throws BadRequestResponse if the Todo breaks any of the rules
+   */
+  static Todo validatedTodo(Context ctx) {
     /*
      * The follow chain of statements uses the Javalin validator system
      * to verify that instance of `User` provided in this context is
@@ -162,42 +727,208 @@ public class TodoController implements Controller {
      * `BadRequestResponse` with an appropriate error message.
      */
     String body = ctx.body();
-    Todo newTodo = ctx.bodyValidator(Todo.class)
-      .check(todo -> todo.owner != null && todo.owner.length() > 0,
-        "Todo must have a non-empty owner name; body was " + body)
-      .check(todo -> todo.category.matches(CATEGORY_REGEX),
-        "Todo must have a legal user category; body was " + body)
-      .check(todo -> todo.body != null && todo.body.length() > 0,
-        "Todo must have a non-empty description; body was " + body)
+    return ctx.bodyValidator(Todo.class)
+      .check(TodoController::hasOwner, OWNER_ERROR + "; body was " + body)
+      .check(TodoController::hasLegalCategory, CATEGORY_ERROR + "; body was " + body)
+      .check(TodoController::hasBody, BODY_ERROR + "; body was " + body)
       .get();
+  }
 
-    // Add the new user to the database
-    todoCollection.insertOne(newTodo);
+  // The rules a Todo has to follow to be added, shared by `addNewTodo`
+  // and `addNewTodos`.
+  private static final String OWNER_ERROR = "Todo must have a non-empty owner name";
+  private static final String CATEGORY_ERROR = "Todo must have a legal user category";
+  private static final String BODY_ERROR = "Todo must have a non-empty description";
+  private static final String ID_ERROR = "Todo's _id, if given, must be a 24-digit hex ObjectId";
 
-    // Set the JSON response to be the `_id` of the newly created user.
-    // This gives the client the opportunity to know the ID of the new user,
-    // which it can then use to perform further operations (e.g., a GET request
-    // to get and display the details of the new user).
-    ctx.json(Map.of("id", newTodo._id));
-    // 201 (`HttpStatus.CREATED`) is the HTTP code for when we successfully
-    // create a new resource (a user in this case).
-    // See, e.g., https://developer.mozilla.org/en-US/docs/Web/HTTP/Status
-    // for a description of the various response codes.
-    ctx.status(HttpStatus.CREATED);
+  private static boolean hasOwner(Todo todo) {
+    return todo.owner != null && todo.owner.length() > 0;
+  }
+
+  private static boolean hasLegalCategory(Todo todo) {
+    return todo.category != null && todo.category.matches(CATEGORY_REGEX);
   }
 
-  private Bson constructSortingOrder(Context ctx) {
+  private static boolean hasBody(Todo todo) {
+    return todo.body != null && todo.body.length() > 0;
+  }
+
+  // A bulk insert's Todos may bring their own `_id`s, which have to be
+  // legal `ObjectId`s or they'd fail the whole batch when it's written.
+  private static boolean hasLegalId(Todo todo) {
+    return todo._id == null || ObjectId.isValid(todo._id);
+  }
+
+  private static List<String> validationErrors(Todo todo) {
+    List<String> errors = new ArrayList<>();
+    if (!hasLegalId(todo)) {
+      errors.add(ID_ERROR);
+    }
+    if (!hasOwner(todo)) {
+      errors.add(OWNER_ERROR);
+    }
+    if (!hasLegalCategory(todo)) {
+      errors.add(CATEGORY_ERROR);
+    }
+    if (!hasBody(todo)) {
+      errors.add(BODY_ERROR);
+    }
+    return errors;
+  }
+
+  /**
+   * Bring in the Todos that were added to the database by something other
+   * than this server (another server, or the seed script), when the Todos
+   * are read from a copy of the database like `SnapshotTodoRepository`
+   * (see `TodoRepository#refresh()`).
+   *
+   * The new Todos are counted for their owners, and if there were any, the
+   * version is bumped and the cached responses are dropped, just as they
+   * are when Todos are added through this controller, so clients don't
+   * keep being told their stale lists are up to date.
+   *
+   * @return how many Todos were brought in
+   */
+  public int refreshTodos() {
+    int added = todoRepository.refresh(todo -> owners.add(todo.owner));
+    if (added > 0) {
+      todoVersion.changed();
+      responseCache.invalidateAll();
+    }
+    return added;
+  }
+
+  /**
+   * Add many new Todos at once, from either a JSON array of Todos or (with a
+   * `Content-Type` of `application/x-ndjson`) newline-delimited JSON, one
+   * Todo per line.
+   *
+   * Each Todo is checked against the same rules as `addNewTodo`. The legal
+   * ones are written in batches of `BULK_BATCH_SIZE` (which Mongo writes with
+   * an unordered `insertMany`), so one bad Todo doesn't stop the rest of its
+   * batch. Newline-delimited input is read a line at a time, so only one
+   * batch of Todos is held at once, but there's a result for every Todo
+   * sent, so the response (and the memory it takes) still grows with the
+   * size of the import.
+   *
+   * The response reports how many Todos were inserted and how many failed,
+   * along with a result for every Todo (in the order they were sent) that
+   * gives either its new `id` or the `errors` that kept it out of the
+   * database. The status is 201 if every Todo was added, and 207 (multi-status)
+   * otherwise.
+   *
+   * @param ctx a Javalin HTTP context whose body holds the Todos to add
+   * @throws IOException if the request body can't be read
+   */
+  public void addNewTodos(Context ctx) throws IOException {
+    BulkInsert bulk = new BulkInsert();
+
+    if (ctx.contentType() != null && ctx.contentType().startsWith(NDJSON_CONTENT_TYPE)) {
+      try (BufferedReader lines = new BufferedReader(
+          new InputStreamReader(ctx.bodyInputStream(), StandardCharsets.UTF_8))) {
+        for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+          if (!line.isBlank()) {
+            bulk.add(parseTodo(ctx, line));
+          }
+        }
+      }
+    } else {
+      Todo[] todos;
+      try {
+        todos = ctx.jsonMapper().fromJsonString(ctx.body(), Todo[].class);
+      } catch (Exception e) {
+        throw new BadRequestResponse("Bulk Todos must be a JSON array of Todos, or newline-delimited JSON");
+      }
+      for (Todo todo : todos) {
+        bulk.add(todo);
+      }
+    }
+    bulk.flush();
+
+    ctx.json(Map.of(
+      "inserted", bulk.inserted,
+      "failed", bulk.results.size() - bulk.inserted,
+      "results", bulk.results));
+    ctx.status(bulk.inserted == bulk.results.size() ? HttpStatus.CREATED : HttpStatus.MULTI_STATUS);
+  }
+
+  private static Todo parseTodo(Context ctx, String json) {
+    try {
+      return ctx.jsonMapper().fromJsonString(json, Todo.class);
+    } catch (Exception e) {
+      // Reported as an error for this line by `BulkInsert.add()`.
+      return null;
+    }
+  }
+
+  /**
+   * The state of one bulk insert: the batch waiting to be written and the
+   * results so far, in the order the Todos were sent.
+   */
+  private final class BulkInsert {
+    private final List<Map<String, Object>> results = new ArrayList<>();
+    private final List<Todo> batch = new ArrayList<>();
+    private final List<Integer> batchIndexes = new ArrayList<>();
+    private int inserted;
+
+    void add(Todo todo) {
+      int index = results.size();
+      // Hold this Todo's place in the results until it's been written.
+      results.add(null);
+      if (todo == null) {
+        results.set(index, Map.of("index", index, "errors", List.of("Todo wasn't legal JSON")));
+        return;
+      }
+      List<String> errors = validationErrors(todo);
+      if (!errors.isEmpty()) {
+        results.set(index, Map.of("index", index, "errors", errors));
+        return;
+      }
+      batch.add(todo);
+      batchIndexes.add(index);
+      if (batch.size() >= BULK_BATCH_SIZE) {
+        flush();
+      }
+    }
+
+    void flush() {
+      if (batch.isEmpty()) {
+        return;
+      }
+      Map<Integer, String> writeErrors = databaseGate.call(() -> todoRepository.insertAll(batch));
+      int added = 0;
+      for (int i = 0; i < batch.size(); i++) {
+        int index = batchIndexes.get(i);
+        if (writeErrors.containsKey(i)) {
+          results.set(index, Map.of("index", index, "errors", List.of(writeErrors.get(i))));
+        } else {
+          String id = batch.get(i)._id;
+          todoCache.invalidate(id);
+          owners.add(batch.get(i).owner);
+          results.set(index, Map.of("index", index, "id", id));
+          added++;
+        }
+      }
+      inserted += added;
+      if (added > 0) {
+        todoVersion.changed();
+        responseCache.invalidateAll();
+      }
+      batch.clear();
+      batchIndexes.clear();
+    }
+  }
+
+  static Bson constructSortingOrder(Context ctx) {
   // here we are specifying the order in which we want the return todos to be in
-    String sortBy = Objects.requireNonNullElse(ctx.queryParam("orderBy"), "owner");
-    String sortOrder = Objects.requireNonNullElse(ctx.queryParam("sortorder"), "asc");
-    Bson sortingOrder = sortOrder.equals("desc") ? Sorts.descending(sortBy) : Sorts.ascending(sortBy);
-    return sortingOrder;
+    return TodoQuery.from(ctx).sort();
   }
 //Implement an api/todos?limit=7 API endpoint, which lets you specify the maximum
 //number of todos that the server returns.
-//this is the method for limit, the limit is set to 0 (no limit)
+//this is the method for limit, the limit is set to 0 (no limit). Mongo treats
+//a limit of 0 as "no limit", so we don't need to count the collection to get one.
   private int limit(Context ctx) {
-    int targetLimit = (int) todoCollection.countDocuments();
+    int targetLimit = 0;
     if (ctx.queryParamMap().containsKey(LIMIT_KEY)) {
       while (true) {
         targetLimit = ctx.queryParamAsClass(LIMIT_KEY, Integer.class)
@@ -212,6 +943,40 @@ public class TodoController implements Controller {
   }
 
 
+  /**
+   * Declare the indexes that the repository's queries rely on (see
+   * `MongoTodoRepository#declareIndexes()`).
+   *
+   * @param registry the registry to declare the indexes in
+   */
+  @Override
+  public void declareIndexes(IndexRegistry registry) {
+    todoRepository.declareIndexes(registry);
+  }
+
+  /**
+   * Take `gate` around the controller's blocking database calls. The
+   * async handlers don't take it, since they don't hold a thread while
+   * they wait for a connection.
+   *
+   * @param gate the gate to take around database calls
+   */
+  @Override
+  public void useDatabaseGate(DatabaseGate gate) {
+    databaseGate = gate;
+  }
+
+  /**
+   * Add gauges for the cache of list responses: how many bytes it holds,
+   * and how many requests it serves.
+   *
+   * @param metrics the metrics to add the gauges to
+   */
+  @Override
+  public void addGauges(Metrics metrics) {
+    responseCache.addGauges(metrics, "todos");
+  }
+
   /**
    * Get a JSON response with a list of all the Todos.
    *
@@ -219,13 +984,28 @@ public class TodoController implements Controller {
    */
 
   public void addRoutes(Javalin server) {
-    // Get the specified Todo
-    server.get(API_TODO_BY_ID, this::getTodo);
+    // Suggest owners whose names start with some text (this has to come
+    // before `API_TODO_BY_ID`, or "owners" would be taken for an id)
+    server.get(API_TODO_OWNERS, this::getOwners);
 
-    // List Todos, filtered using query parameters
-    server.get(API_TODOS, this::getTodos);
+    if (asyncTodos == null || rawTodos != null) {
+      // Get the specified Todo
+      server.get(API_TODO_BY_ID, this::getTodo);
+
+      // List Todos, filtered using query parameters
+      server.get(API_TODOS, this::getTodos);
+    } else {
+      // The same two reads, without blocking a thread on Mongo
+      server.get(API_TODO_BY_ID, Controller.async(this::getTodoAsync));
+      server.get(API_TODOS, Controller.async(this::getTodosAsync));
+    }
 
     server.post(API_TODOS, this::addNewTodo);
 
+    // Add many Todos at once, from a JSON array or newline-delimited JSON
+    server.post(API_TODOS_BULK, this::addNewTodos);
+
+    // Get the number of Todos (and the most recent Todos) in each category
+    server.get(API_TODOS_BY_CATEGORY, this::getTodosGroupedByCategory);
   }
 }
@@ -0,0 +1,18 @@
+package umm3601.todos;
+
+import java.util.List;
+
+/**
+ * One page of Todos, along with the continuation token to pass as
+ * `after` to get the next page (`null` on the last page).
+ */
+@SuppressWarnings("checkstyle:visibilitymodifier")
+public class TodoPage {
+  public List<Todo> todos;
+  public String next;
+
+  public TodoPage(List<Todo> todos, String next) {
+    this.todos = todos;
+    this.next = next;
+  }
+}
@@ -0,0 +1,298 @@
+package umm3601.todos;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Filters.ne;
+import static com.mongodb.client.model.Filters.or;
+import static com.mongodb.client.model.Filters.regex;
+import static com.mongodb.client.model.Filters.text;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import com.mongodb.client.model.Sorts;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+
+/**
+ * What a request for a list of Todos asked for: which Todos (the filters),
+ * in what order, how many, and, for a page, where the page starts.
+ *
+ * `from()` reads (and checks) a query from a request's query parameters,
+ * so every `TodoRepository` answers the same query, whether it turns it
+ * into a Mongo filter and sort (with `filter()` and `sort()`) or runs it
+ * against the Todos it keeps in memory.
+ */
+public final class TodoQuery {
+
+  private static final String DEFAULT_SORT_FIELD = TodoController.OWNER_KEY;
+
+  // `null` for the filters that weren't asked for.
+  private final Boolean status;
+  private final String bodySearch;
+  private final Pattern owner;
+  private final Pattern category;
+
+  private final String sortBy;
+  private final boolean descending;
+  // Put the best matches for `bodySearch` first, instead of sorting by `sortBy`.
+  private final boolean byRelevance;
+  // At most this many Todos, or all of them if it's 0.
+  private final int limit;
+
+  // Pages are sorted by `sortBy` and then `_id`, and start strictly after
+  // the Todo with `afterKey` and `afterId` (or at the start, if `afterId`
+  // is `null`).
+  private final boolean paged;
+  private final Object afterKey;
+  private final String afterId;
+
+  @SuppressWarnings({"ParameterNumber"})
+  private TodoQuery(Boolean status, String bodySearch, Pattern owner, Pattern category, String sortBy,
+      boolean descending, boolean byRelevance, int limit, boolean paged, Object afterKey, String afterId) {
+    this.status = status;
+    this.bodySearch = bodySearch;
+    this.owner = owner;
+    this.category = category;
+    this.sortBy = sortBy;
+    this.descending = descending;
+    this.byRelevance = byRelevance;
+    this.limit = limit;
+    this.paged = paged;
+    this.afterKey = afterKey;
+    this.afterId = afterId;
+  }
+
+  /**
+   * The query for every Todo, in the default order.
+   *
+   * @return the query
+   */
+  public static TodoQuery all() {
+    return new TodoQuery(null, null, null, null, DEFAULT_SORT_FIELD, false, false, 0, false, null, null);
+  }
+
+  /**
+   * The query for every Todo, in the order of their ids (which, since
+   * `ObjectId`s start with a timestamp, is roughly the order they were
+   * added in). Paging through it (with `page()`) visits every Todo once.
+   *
+   * @return the query
+   */
+  public static TodoQuery inIdOrder() {
+    return new TodoQuery(null, null, null, null, "_id", false, false, 0, false, null, null);
+  }
+
+  /**
+   * Read the filters and ordering from a request's query parameters:
+   *
+   *   - `status` is `complete` (or `true`) or `incomplete` (or `false`).
+   *   - `body` searches the bodies for words (through Mongo's text index).
+   *   - `owner` is a (case-insensitive) regular expression to find in the owner.
+   *   - `category` is (case-insensitive) text to find in the category.
+   *   - `orderBy` (default `owner`) and `sortorder` (`asc` or `desc`) give
+   *     the order; body searches are ordered by relevance unless `orderBy`
+   *     is given.
+   *
+   * The `limit` and page parameters are read by the controller, and added
+   * with `limit()` and `page()`.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return the query
+   * @throws BadRequestResponse if the status isn't one of the legal ones
+   */
+  public static TodoQuery from(Context ctx) {
+    Boolean status = null;
+    if (ctx.queryParamMap().containsKey(TodoController.STATUS_KEY)) {
+      String statusParam = ctx.queryParam(TodoController.STATUS_KEY);
+      if (statusParam.equalsIgnoreCase("complete") || statusParam.equalsIgnoreCase("true")) {
+        status = true;
+      } else if (statusParam.equalsIgnoreCase("incomplete") || statusParam.equalsIgnoreCase("false")) {
+        status = false;
+      } else {
+        throw new BadRequestResponse("Todo status must be 'complete', 'incomplete', 'true', or 'false'");
+      }
+    }
+    String bodySearch = null;
+    if (ctx.queryParamMap().containsKey(TodoController.BODY_CONTAINS_KEY)) {
+      bodySearch = ctx.queryParam(TodoController.BODY_CONTAINS_KEY);
+    }
+    Pattern owner = null;
+    if (ctx.queryParamMap().containsKey(TodoController.OWNER_KEY)) {
+      owner = Pattern.compile(ctx.queryParam(TodoController.OWNER_KEY), Pattern.CASE_INSENSITIVE);
+    }
+    Pattern category = null;
+    if (ctx.queryParamMap().containsKey(TodoController.CATEGORY_KEY)) {
+      category = Pattern.compile(Pattern.quote(ctx.queryParam(TodoController.CATEGORY_KEY)),
+        Pattern.CASE_INSENSITIVE);
+    }
+
+    String sortBy = Objects.requireNonNullElse(ctx.queryParam("orderBy"), DEFAULT_SORT_FIELD);
+    boolean descending = Objects.requireNonNullElse(ctx.queryParam(TodoController.SORT_ORDER_KEY), "asc")
+      .equals("desc");
+    // When searching the bodies, put the best matches first unless
+    // a specific order was asked for.
+    boolean byRelevance = bodySearch != null && ctx.queryParam("orderBy") == null;
+    return new TodoQuery(status, bodySearch, owner, category, sortBy, descending, byRelevance, 0,
+      false, null, null);
+  }
+
+  /**
+   * This query, but for at most `limit` Todos.
+   *
+   * @param limit the most Todos to return, or 0 for all of them
+   * @return the limited query
+   */
+  public TodoQuery limit(int limit) {
+    return new TodoQuery(status, bodySearch, owner, category, sortBy, descending, byRelevance, limit,
+      paged, afterKey, afterId);
+  }
+
+  /**
+   * This query, but for one page of (at most `size`) Todos, ordered by
+   * `sortBy()` and then `_id`, starting after the Todo with the given sort
+   * key and id.
+   *
+   * @param size the most Todos to return
+   * @param lastKey the `sortBy()` field of the last Todo on the previous page
+   * @param lastId the id of the last Todo on the previous page, or `null` for the first page
+   * @return the page's query
+   */
+  public TodoQuery page(int size, Object lastKey, String lastId) {
+    return new TodoQuery(status, bodySearch, owner, category, sortBy, descending, false, size,
+      true, lastKey, lastId);
+  }
+
+  public Boolean status() {
+    return status;
+  }
+
+  public String bodySearch() {
+    return bodySearch;
+  }
+
+  public Pattern owner() {
+    return owner;
+  }
+
+  public Pattern category() {
+    return category;
+  }
+
+  public String sortBy() {
+    return sortBy;
+  }
+
+  public boolean descending() {
+    return descending;
+  }
+
+  public boolean byRelevance() {
+    return byRelevance;
+  }
+
+  public int limit() {
+    return limit;
+  }
+
+  public boolean paged() {
+    return paged;
+  }
+
+  public Object afterKey() {
+    return afterKey;
+  }
+
+  public String afterId() {
+    return afterId;
+  }
+
+  /**
+   * The Mongo filter for this query.
+   *
+   * Body searches go through the text index on `body` (see
+   * `MongoTodoRepository#declareIndexes()`) rather than a regex, so they
+   * can be served from the index, and so users can't hand us an expensive
+   * regular expression to run.
+   *
+   * @return the filter
+   */
+  public Bson filter() {
+    List<Bson> filters = new ArrayList<>();
+    if (status != null) {
+      filters.add(eq(TodoController.STATUS_KEY, status));
+    }
+    if (bodySearch != null) {
+      filters.add(text(bodySearch));
+    }
+    if (owner != null) {
+      filters.add(regex(TodoController.OWNER_KEY, owner));
+    }
+    if (category != null) {
+      filters.add(regex(TodoController.CATEGORY_KEY, category));
+    }
+    if (paged && afterId != null) {
+      filters.add(afterPage());
+    }
+    return filters.isEmpty() ? new Document() : and(filters);
+  }
+
+  /**
+   * The filter that selects everything strictly after the last Todo on the
+   * previous page, in this query's order.
+   *
+   * Missing (`null`) sort keys come first in ascending order and last
+   * in descending order, which is why they need their own cases here.
+   */
+  private Bson afterPage() {
+    ObjectId lastId = new ObjectId(afterId);
+    Bson sameKey = eq(sortBy, afterKey);
+    Bson laterId = descending ? lt("_id", lastId) : gt("_id", lastId);
+
+    if (afterKey == null) {
+      return descending ? and(sameKey, laterId) : or(and(sameKey, laterId), ne(sortBy, null));
+    }
+    if (descending) {
+      return or(lt(sortBy, afterKey), and(sameKey, laterId), eq(sortBy, null));
+    }
+    return or(gt(sortBy, afterKey), and(sameKey, laterId));
+  }
+
+  /**
+   * A string that's the same for queries that are the same, however they
+   * were written: the Mongo filter and sort (as JSON), and the limit. For
+   * example, `?status=complete` and `?status=true` have the same key, and
+   * so does `?owner=b&sortorder=asc`.
+   *
+   * @return the key
+   */
+  public String key() {
+    return filter().toBsonDocument().toJson() + " " + sort().toBsonDocument().toJson() + " " + limit;
+  }
+
+  /**
+   * The Mongo sort for this query.
+   *
+   * @return the sort
+   */
+  public Bson sort() {
+    if (byRelevance) {
+      return Sorts.metaTextScore("score");
+    }
+    if (paged) {
+      // `_id` breaks ties between Todos with the same sort key, so the order
+      // (and therefore the page boundaries) is always well defined.
+      return descending ? Sorts.descending(sortBy, "_id") : Sorts.ascending(sortBy, "_id");
+    }
+    return descending ? Sorts.descending(sortBy) : Sorts.ascending(sortBy);
+  }
+}
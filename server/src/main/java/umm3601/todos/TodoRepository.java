@@ -0,0 +1,102 @@
+package umm3601.todos;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import umm3601.IndexRegistry;
+
+/**
+ * Where `TodoController` keeps its Todos.
+ *
+ * `MongoTodoRepository` keeps them in the `todos` collection, and
+ * `InMemoryTodoRepository` keeps them on the heap (with its own indexes),
+ * for small deployments, read-heavy nodes, and tests and benchmarks that
+ * shouldn't need a running database.
+ */
+public interface TodoRepository {
+
+  /**
+   * The Todo with the given id.
+   *
+   * @param id the Todo's (hex string) id
+   * @return the Todo, or `null` if there isn't one with that id
+   */
+  Todo findById(String id);
+
+  /**
+   * The Todos that match a query, in the query's order.
+   *
+   * @param query the filters, order, and limit (or page)
+   * @return the matching Todos
+   */
+  List<Todo> find(TodoQuery query);
+
+  /**
+   * The Todos that match a query, in the query's order, a few at a time
+   * rather than all at once. The stream has to be closed once it's done
+   * with, since it may be holding a database cursor open.
+   *
+   * @param query the filters, order, and limit
+   * @return the matching Todos
+   */
+  Stream<Todo> stream(TodoQuery query);
+
+  /**
+   * Add a Todo, giving it a new id if it doesn't already have one.
+   *
+   * @param todo the Todo to add
+   */
+  void insert(Todo todo);
+
+  /**
+   * Add some Todos (giving them new ids if they need them). A Todo that
+   * can't be added doesn't keep the others from being added.
+   *
+   * @param todos the Todos to add
+   * @return why each Todo that couldn't be added wasn't, by its index in `todos`
+   */
+  Map<Integer, String> insertAll(List<Todo> todos);
+
+  /**
+   * Every category, with how many Todos are in it and its most recently
+   * added Todos (see `TodoByCategory`).
+   *
+   * @param sortBy `_id` (the category) or `count`
+   * @param descending whether to sort in descending order
+   * @return the categories
+   */
+  List<TodoByCategory> categories(String sortBy, boolean descending);
+
+  /**
+   * Every owner, with how many Todos they have. Todos without an owner
+   * aren't counted.
+   *
+   * @return the number of Todos of each owner, by owner
+   */
+  Map<String, Integer> ownerCounts();
+
+  /**
+   * Bring in the Todos that were added to the database by something other
+   * than this repository (another server, or the seed script), passing
+   * each of them to `added`. Only a copy of the database, like
+   * `SnapshotTodoRepository`, has anything to bring in; the default
+   * implementation brings in nothing.
+   *
+   * @param added called with each Todo that was brought in
+   * @return how many Todos were brought in
+   */
+  default int refresh(Consumer<Todo> added) {
+    return 0;
+  }
+
+  /**
+   * Declare the database indexes this repository's queries rely on, if it
+   * has any.
+   *
+   * @param registry the registry to declare the indexes in
+   */
+  default void declareIndexes(IndexRegistry registry) {
+  }
+}
@@ -0,0 +1,21 @@
+package umm3601.user;
+
+import java.util.List;
+
+/**
+ * One page of the users (their ids and names) in a company, in order of
+ * name, along with the continuation token to pass as `after` to get the
+ * next page (`null` on the last page).
+ */
+@SuppressWarnings("checkstyle:visibilitymodifier")
+public class CompanyMembers {
+  public String company;
+  public List<UserIdName> users;
+  public String next;
+
+  public CompanyMembers(String company, List<UserIdName> users, String next) {
+    this.company = company;
+    this.users = users;
+    this.next = next;
+  }
+}
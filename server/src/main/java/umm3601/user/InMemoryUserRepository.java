@@ -0,0 +1,284 @@
+package umm3601.user;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+import org.bson.types.ObjectId;
+
+import umm3601.InMemoryIndex;
+
+/**
+ * Keeps users on the heap, with secondary indexes on `role`, `age`, and
+ * `company`, so it can answer `UserQuery`s without a database.
+ *
+ * The `role` and `age` filters are single lookups in their indexes; the
+ * `company` filter is a pattern, so it's checked against each distinct
+ * company once, rather than against every user. When there's more than
+ * one filter, we start from the smallest set of matching ids and check
+ * those against the rest. The `company` index also gives us the users
+ * grouped by company without having to look at the other users.
+ *
+ * Many requests can read at once, but writes wait for them to finish (and
+ * hold off new ones), so a reader never sees a half-updated index. The
+ * stored users are handed out as they are, so callers mustn't change them.
+ */
+public class InMemoryUserRepository implements UserRepository {
+
+  // The order of the users in a company: by name, and then by id.
+  private static final Comparator<User> BY_NAME = Comparator
+    .comparing((User user) -> user.name, InMemoryIndex::compareValues)
+    .thenComparing(user -> user._id);
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  // Every user, by id, in the order they were added.
+  private final Map<String, User> byId = new LinkedHashMap<>();
+  private final InMemoryIndex<String> byRole = new InMemoryIndex<>();
+  private final InMemoryIndex<Integer> byAge = new InMemoryIndex<>();
+  private final InMemoryIndex<String> byCompany = new InMemoryIndex<>();
+
+  /**
+   * An empty repository.
+   */
+  public InMemoryUserRepository() {
+  }
+
+  /**
+   * A repository that starts out with the given users.
+   *
+   * @param users the users to start with
+   */
+  public InMemoryUserRepository(Collection<User> users) {
+    for (User user : users) {
+      insert(user);
+    }
+  }
+
+  /**
+   * How many users there are.
+   *
+   * @return the number of users
+   */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return byId.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public User findById(String id) {
+    lock.readLock().lock();
+    try {
+      return byId.get(id);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public List<User> find(UserQuery query) {
+    List<User> users = new ArrayList<>();
+    lock.readLock().lock();
+    try {
+      for (String id : candidates(query)) {
+        users.add(byId.get(id));
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    users.sort(order(query.sortBy(), query.descending()));
+    return users;
+  }
+
+  /**
+   * Since the users are already in memory, this is just `find()` as a stream.
+   */
+  @Override
+  public Stream<User> stream(UserQuery query) {
+    return find(query).stream();
+  }
+
+  /**
+   * The ids of the users that pass the query's filters.
+   */
+  private Collection<String> candidates(UserQuery query) {
+    List<Set<String>> matches = new ArrayList<>();
+    if (query.age() != null) {
+      matches.add(byAge.get(query.age()));
+    }
+    if (query.company() != null) {
+      matches.add(byCompany.matching(company -> query.company().matcher(company).find()));
+    }
+    if (query.role() != null) {
+      matches.add(byRole.get(query.role()));
+    }
+    return matches.isEmpty() ? byId.keySet() : InMemoryIndex.intersect(matches);
+  }
+
+  /**
+   * The order Mongo would sort by: the sort key (with missing values
+   * first), then `_id` to break ties, both reversed when descending.
+   */
+  private static Comparator<User> order(String sortBy, boolean descending) {
+    Comparator<User> order = (a, b) -> InMemoryIndex.compareValues(sortValue(a, sortBy), sortValue(b, sortBy));
+    order = order.thenComparing(user -> user._id);
+    return descending ? order.reversed() : order;
+  }
+
+  /**
+   * The field a user is sorted by. Fields users don't have are missing
+   * (`null`) for every user, as they would be in Mongo.
+   */
+  private static Comparable<?> sortValue(User user, String sortBy) {
+    switch (sortBy) {
+      case "_id":
+        return user._id;
+      case "name":
+        return user.name;
+      case UserController.AGE_KEY:
+        return user.age;
+      case UserController.COMPANY_KEY:
+        return user.company;
+      case "email":
+        return user.email;
+      case "avatar":
+        return user.avatar;
+      case UserController.ROLE_KEY:
+        return user.role;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Adds a copy of the user, so changing them afterwards doesn't leave the
+   * indexes out of date, and gives the user their new id.
+   *
+   * @throws IllegalArgumentException if the user's id isn't a legal
+   *   `ObjectId`, or is already taken
+   */
+  @Override
+  public void insert(User user) {
+    lock.writeLock().lock();
+    try {
+      if (user._id == null) {
+        user._id = new ObjectId().toHexString();
+      } else if (!ObjectId.isValid(user._id)) {
+        throw new IllegalArgumentException("User id " + user._id + " isn't a legal Mongo Object ID");
+      } else if (byId.containsKey(user._id)) {
+        throw new IllegalArgumentException("There is already a user with id " + user._id);
+      }
+
+      User stored = new User();
+      stored._id = user._id;
+      stored.name = user.name;
+      stored.age = user.age;
+      stored.company = user.company;
+      stored.email = user.email;
+      stored.avatar = user.avatar;
+      stored.role = user.role;
+
+      byId.put(stored._id, stored);
+      byRole.add(stored.role, stored._id);
+      byAge.add(stored.age, stored._id);
+      byCompany.add(stored.company, stored._id);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public boolean delete(String id) {
+    lock.writeLock().lock();
+    try {
+      User removed = byId.remove(id);
+      if (removed == null) {
+        return false;
+      }
+      byRole.remove(removed.role, id);
+      byAge.remove(removed.age, id);
+      byCompany.remove(removed.company, id);
+      return true;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Built from the `company` index: a company's count is the size of its
+   * set of ids, and its preview is the first of those users by name.
+   */
+  @Override
+  public List<UserByCompany> groupByCompany(String sortBy, boolean descending, int skip, int limit) {
+    List<UserByCompany> companies = new ArrayList<>();
+    lock.readLock().lock();
+    try {
+      for (Map.Entry<String, Set<String>> entry : byCompany.entries()) {
+        UserByCompany company = new UserByCompany();
+        company._id = entry.getKey();
+        company.count = entry.getValue().size();
+        company.users = entry.getValue().stream()
+          .map(byId::get)
+          .sorted(BY_NAME)
+          .limit(UserController.COMPANY_PREVIEW_SIZE)
+          .map(InMemoryUserRepository::idName)
+          .toList();
+        companies.add(company);
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    Comparator<UserByCompany> order = "count".equals(sortBy)
+      ? Comparator.comparingInt(company -> company.count)
+      : (a, b) -> InMemoryIndex.compareValues(a._id, b._id);
+    order = order.thenComparing((a, b) -> InMemoryIndex.compareValues(a._id, b._id));
+    companies.sort(descending ? order.reversed() : order);
+    return page(companies, skip, limit);
+  }
+
+  private static List<UserByCompany> page(List<UserByCompany> companies, int skip, int limit) {
+    int from = Math.min(skip, companies.size());
+    int to = limit == 0 ? companies.size() : Math.min(from + limit, companies.size());
+    return companies.subList(from, to);
+  }
+
+  /**
+   * Looked up in the `company` index, and then sorted by name.
+   */
+  @Override
+  public List<UserIdName> companyMembers(String company, int limit, String afterName, String afterId) {
+    User after = new User();
+    after.name = afterName;
+    after._id = afterId;
+    lock.readLock().lock();
+    try {
+      return byCompany.get(company).stream()
+        .map(byId::get)
+        .filter(user -> afterId == null || BY_NAME.compare(user, after) > 0)
+        .sorted(BY_NAME)
+        .limit(limit)
+        .map(InMemoryUserRepository::idName)
+        .toList();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private static UserIdName idName(User user) {
+    UserIdName idName = new UserIdName();
+    idName._id = user._id;
+    idName.name = user.name;
+    return idName;
+  }
+}
@@ -0,0 +1,301 @@
+package umm3601.user;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Filters.lte;
+import static com.mongodb.client.model.Filters.or;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.mongojack.JacksonMongoCollection;
+
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.PushOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+
+import umm3601.Codecs;
+import umm3601.IndexRegistry;
+
+/**
+ * Keeps users in Mongo's `users` collection, along with the
+ * `usersByCompany` summary of them.
+ */
+public class MongoUserRepository implements UserRepository {
+
+  public static final String COMPANY_SUMMARY_COLLECTION = "usersByCompany";
+
+  private static final int STREAM_BATCH_SIZE = 500;
+
+  // The order of the users in a company, and of each company's preview.
+  private static final Document BY_NAME = new Document("name", 1).append("_id", 1);
+
+  // Read and written with `UserCodec`, rather than through MongoJack.
+  private final MongoCollection<User> userCollection;
+  // The same collection, read as plain documents when only the names are wanted.
+  private final MongoCollection<Document> userDocuments;
+
+  // The `usersByCompany` summary collection, which is kept up to date as
+  // users are added and deleted instead of being recomputed on every
+  // request. We write to it as plain documents, and read it back (through
+  // MongoJack) as `UserByCompany`s.
+  private final MongoCollection<Document> companySummary;
+  private final JacksonMongoCollection<UserByCompany> companySummaryReader;
+
+  /**
+   * Keep users in the given database.
+   *
+   * @param database the database containing user data
+   */
+  public MongoUserRepository(MongoDatabase database) {
+    userCollection = database.getCollection("users", User.class)
+      .withCodecRegistry(Codecs.registryWith(new UserCodec()));
+    userDocuments = database.getCollection("users");
+
+    companySummary = database.getCollection(COMPANY_SUMMARY_COLLECTION);
+    companySummaryReader = JacksonMongoCollection.builder().build(
+        database,
+        COMPANY_SUMMARY_COLLECTION,
+        UserByCompany.class,
+        UuidRepresentation.STANDARD);
+    reconcileCompanySummary(database);
+  }
+
+  /**
+   * Bring the `usersByCompany` summary back in line with the `users`
+   * collection, in case users were added or deleted by something other
+   * than this server.
+   *
+   * This groups all the users by company, and `$merge`s the groups into
+   * the summary, replacing the ones that are there, so readers never see a
+   * half-built summary. It's run when a repository is created, and then
+   * every so often (see `Main`); in between, `insert()` and `delete()`
+   * keep the summary up to date themselves.
+   *
+   * `$merge` can't remove companies that no longer have any users, so
+   * those are then looked up (one `$lookup` on the `{company}` index per
+   * company) and deleted. Each is only deleted if its count hasn't changed
+   * since, so a user added to it in the meantime isn't lost. A user added
+   * to (or deleted from) a company while its group is being replaced can
+   * be, though, until the next time the summary is reconciled.
+   *
+   * @param database the database containing user data
+   */
+  public static void reconcileCompanySummary(MongoDatabase database) {
+    database.getCollection("users").aggregate(List.of(
+      // Project the fields we want to use in the next step, i.e., the _id, name, and company fields
+      new Document("$project", new Document("_id", 1).append("name", 1).append(UserController.COMPANY_KEY, 1)),
+      // Group the users by company, and count the number of users in each company
+      new Document("$group", new Document("_id", "$" + UserController.COMPANY_KEY)
+        // Count the number of users in each company
+        .append("count", new Document("$sum", 1))
+        // Keep the names and IDs of (only) the first few users in each
+        // company, so a big company doesn't make for a huge document
+        .append("users", new Document("$topN", new Document("n", UserController.COMPANY_PREVIEW_SIZE)
+          .append("sortBy", BY_NAME)
+          .append("output", new Document("_id", "$_id").append("name", "$name"))))),
+      new Document("$merge", new Document("into", COMPANY_SUMMARY_COLLECTION)
+        .append("on", "_id")
+        .append("whenMatched", "replace")
+        .append("whenNotMatched", "insert"))
+    )).toCollection();
+
+    MongoCollection<Document> summary = database.getCollection(COMPANY_SUMMARY_COLLECTION);
+    List<Document> emptyCompanies = summary.aggregate(List.of(
+      new Document("$lookup", new Document("from", "users")
+        .append("localField", "_id")
+        .append("foreignField", UserController.COMPANY_KEY)
+        .append("pipeline", List.of(new Document("$limit", 1), new Document("$project", new Document("_id", 1))))
+        .append("as", "members")),
+      new Document("$match", new Document("members", List.of())),
+      new Document("$project", new Document("count", 1))
+    )).into(new ArrayList<>());
+    for (Document company : emptyCompanies) {
+      summary.deleteOne(and(eq("_id", company.get("_id")), eq("count", company.get("count"))));
+    }
+  }
+
+  @Override
+  public User findById(String id) {
+    return userCollection.find(eq("_id", new ObjectId(id))).first();
+  }
+
+  private FindIterable<User> query(UserQuery query) {
+    return userCollection
+      .find(query.filter())
+      .sort(query.sort());
+  }
+
+  @Override
+  public List<User> find(UserQuery query) {
+    return query(query).into(new ArrayList<>());
+  }
+
+  /**
+   * The users come off a Mongo cursor, `STREAM_BATCH_SIZE` at a time, and
+   * closing the stream closes the cursor.
+   */
+  @Override
+  public Stream<User> stream(UserQuery query) {
+    MongoCursor<User> cursor = query(query).batchSize(STREAM_BATCH_SIZE).cursor();
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED), false)
+      .onClose(cursor::close);
+  }
+
+  /**
+   * The user is also added to their company's group in the
+   * `usersByCompany` summary, with a single upsert that bumps its count
+   * and keeps them in its preview if they're one of its first users by
+   * name.
+   */
+  @Override
+  public void insert(User user) {
+    userCollection.insertOne(user);
+    companySummary.updateOne(
+      eq("_id", user.company),
+      Updates.combine(
+        Updates.inc("count", 1),
+        Updates.pushEach("users", List.of(new Document("_id", new ObjectId(user._id)).append("name", user.name)),
+          new PushOptions().sort(BY_NAME).slice(UserController.COMPANY_PREVIEW_SIZE))),
+      new UpdateOptions().upsert(true));
+  }
+
+  /**
+   * The user is also taken out of their company's group in the
+   * `usersByCompany` summary, and the group is deleted if that was its
+   * last user. If they were in the group's preview, and the company has
+   * more users than are left in it, the preview is refilled from the
+   * `{company, name, _id}` index.
+   */
+  @Override
+  public boolean delete(String id) {
+    ObjectId objectId = new ObjectId(id);
+    User deleted = userCollection.findOneAndDelete(eq("_id", objectId));
+    if (deleted == null) {
+      return false;
+    }
+    Document company = companySummary.findOneAndUpdate(
+      eq("_id", deleted.company),
+      Updates.combine(
+        Updates.inc("count", -1),
+        Updates.pull("users", new Document("_id", objectId))),
+      new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER));
+    if (company == null) {
+      return true;
+    }
+    int count = company.getInteger("count");
+    if (count <= 0) {
+      companySummary.deleteOne(and(eq("_id", deleted.company), lte("count", 0)));
+    } else if (company.getList("users", Document.class).size() < Math.min(count, UserController.COMPANY_PREVIEW_SIZE)) {
+      List<Document> preview = new ArrayList<>();
+      for (UserIdName member : companyMembers(deleted.company, UserController.COMPANY_PREVIEW_SIZE, null, null)) {
+        preview.add(new Document("_id", new ObjectId(member._id)).append("name", member.name));
+      }
+      // Only if no one has been added or deleted since, who might be missing from `preview`
+      companySummary.updateOne(and(eq("_id", deleted.company), eq("count", count)), Updates.set("users", preview));
+    }
+    return true;
+  }
+
+  /**
+   * This is read straight from the `usersByCompany` summary collection,
+   * rather than grouping all the users again.
+   */
+  @Override
+  public List<UserByCompany> groupByCompany(String sortBy, boolean descending, int skip, int limit) {
+    return companySummaryReader
+      .find()
+      .sort(companyOrder(sortBy, descending))
+      .skip(skip)
+      .limit(limit)
+      .into(new ArrayList<>());
+  }
+
+  /**
+   * The order of the companies in the `usersByCompany` summary: by
+   * `sortBy`, and then by name (in the same direction, as
+   * `InMemoryUserRepository` does).
+   *
+   * @param sortBy `_id` (the company) or `count`
+   * @param descending whether to sort in descending order
+   * @return the sort
+   */
+  public static Bson companyOrder(String sortBy, boolean descending) {
+    Bson order = descending ? Sorts.descending(sortBy) : Sorts.ascending(sortBy);
+    if ("_id".equals(sortBy)) {
+      return order;
+    }
+    return Sorts.orderBy(order, descending ? Sorts.descending("_id") : Sorts.ascending("_id"));
+  }
+
+  /**
+   * A range scan of the `{company, name, _id}` index, starting just after
+   * the given user.
+   */
+  @Override
+  public List<UserIdName> companyMembers(String company, int limit, String afterName, String afterId) {
+    Bson filter = eq(UserController.COMPANY_KEY, company);
+    if (afterId != null) {
+      filter = and(filter, or(gt("name", afterName), and(eq("name", afterName), gt("_id", new ObjectId(afterId)))));
+    }
+    List<UserIdName> members = new ArrayList<>();
+    for (Document user : userDocuments.find(filter).projection(Projections.include("name")).sort(BY_NAME)
+        .limit(limit)) {
+      UserIdName member = new UserIdName();
+      member._id = user.getObjectId("_id").toHexString();
+      member.name = user.getString("name");
+      members.add(member);
+    }
+    return members;
+  }
+
+  /**
+   * Declare the indexes that `UserQuery` and `groupByCompany` rely on.
+   *
+   *   - `{role, age}` serves filtering on role, or on role and age.
+   *   - `{company, name, _id}` serves paging through a company's users in
+   *     order of name, and finding the companies with no users left when
+   *     the company summary is reconciled.
+   *   - `{name}` serves the default ordering (by name).
+   *
+   * `UserQuery` matches the company with a case-insensitive regular
+   * expression, which no index can seek on, so filtering users by company
+   * scans the collection (and is reported as unindexed when the server
+   * starts).
+   *
+   * @param registry the registry to declare the indexes in
+   */
+  @Override
+  public void declareIndexes(IndexRegistry registry) {
+    registry.declareIndexes(userCollection,
+      new IndexModel(Indexes.ascending(UserController.ROLE_KEY, UserController.AGE_KEY)),
+      new IndexModel(Indexes.ascending(UserController.COMPANY_KEY, "name", "_id")),
+      new IndexModel(Indexes.ascending("name")));
+
+    registry.declareQueryShape(userCollection, UserController.ROLE_KEY);
+    registry.declareQueryShape(userCollection, UserController.ROLE_KEY, UserController.AGE_KEY);
+    registry.declareQueryShape(userCollection, UserController.AGE_KEY);
+    registry.declareQueryShape(userCollection, UserController.COMPANY_KEY);
+    registry.declareRegexQueryShape(userCollection, List.of(UserController.COMPANY_KEY));
+    registry.declareQueryShape(userCollection, "name");
+  }
+}
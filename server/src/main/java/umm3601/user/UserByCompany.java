@@ -2,6 +2,11 @@ package umm3601.user;
 
 import java.util.List;
 
+/**
+ * A company, with how many users are in it and (as a preview) the first
+ * `UserController.COMPANY_PREVIEW_SIZE` of them by name. The rest can be
+ * paged through at `/api/usersByCompany/{company}`.
+ */
 @SuppressWarnings("checkstyle:visibilitymodifier")
 public class UserByCompany {
   // Ignore Checkstyle warning about the identifier name.
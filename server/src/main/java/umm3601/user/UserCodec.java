@@ -0,0 +1,94 @@
+package umm3601.user;
+
+import org.bson.BsonObjectId;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+import org.bson.BsonWriter;
+import org.bson.codecs.CollectibleCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.ObjectId;
+
+import umm3601.Codecs;
+
+/**
+ * Reads and writes `User`s directly from and to BSON, without MongoJack's
+ * trip through Jackson; see `TodoCodec`, which works the same way.
+ */
+public class UserCodec implements CollectibleCodec<User> {
+
+  @Override
+  public User decode(BsonReader reader, DecoderContext decoderContext) {
+    User user = new User();
+    reader.readStartDocument();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      switch (reader.readName()) {
+        case "_id":
+          user._id = Codecs.readId(reader);
+          break;
+        case "name":
+          user.name = Codecs.readString(reader);
+          break;
+        case "age":
+          user.age = Codecs.readInt(reader);
+          break;
+        case "company":
+          user.company = Codecs.readString(reader);
+          break;
+        case "email":
+          user.email = Codecs.readString(reader);
+          break;
+        case "avatar":
+          user.avatar = Codecs.readString(reader);
+          break;
+        case "role":
+          user.role = Codecs.readString(reader);
+          break;
+        default:
+          reader.skipValue();
+      }
+    }
+    reader.readEndDocument();
+    return user;
+  }
+
+  @Override
+  public void encode(BsonWriter writer, User user, EncoderContext encoderContext) {
+    writer.writeStartDocument();
+    Codecs.writeId(writer, user._id);
+    Codecs.writeString(writer, "name", user.name);
+    writer.writeInt32("age", user.age);
+    Codecs.writeString(writer, "company", user.company);
+    Codecs.writeString(writer, "email", user.email);
+    Codecs.writeString(writer, "avatar", user.avatar);
+    Codecs.writeString(writer, "role", user.role);
+    writer.writeEndDocument();
+  }
+
+  @Override
+  public Class<User> getEncoderClass() {
+    return User.class;
+  }
+
+  @Override
+  public User generateIdIfAbsentFromDocument(User user) {
+    if (!documentHasId(user)) {
+      user._id = new ObjectId().toHexString();
+    }
+    return user;
+  }
+
+  @Override
+  public boolean documentHasId(User user) {
+    return user._id != null;
+  }
+
+  @Override
+  public BsonValue getDocumentId(User user) {
+    if (!documentHasId(user)) {
+      throw new IllegalStateException("The user does not have an _id");
+    }
+    return new BsonObjectId(new ObjectId(user._id));
+  }
+}
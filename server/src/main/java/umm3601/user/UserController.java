@@ -1,34 +1,53 @@
 package umm3601.user;
 
-import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
-import static com.mongodb.client.model.Filters.regex;
 
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.bson.Document;
-import org.bson.UuidRepresentation;
+import org.bson.RawBsonDocument;
 import org.bson.conversions.Bson;
+import org.bson.json.JsonParseException;
 import org.bson.types.ObjectId;
-import org.mongojack.JacksonMongoCollection;
 
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
-import com.mongodb.client.model.Sorts;
-import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.MongoIterable;
+import com.mongodb.client.model.Projections;
 
 import io.javalin.Javalin;
 import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
+import umm3601.BsonJson;
+import umm3601.Codecs;
+import umm3601.CollectionVersion;
+import umm3601.CompressedJsonCache;
 import umm3601.Controller;
+import umm3601.DatabaseGate;
+import umm3601.IndexRegistry;
+import umm3601.LruCache;
+import umm3601.Metrics;
+import umm3601.Publishers;
+import umm3601.SlowQueryLogger;
 
 /**
  * Controller that manages requests for info about users.
@@ -37,16 +56,69 @@ public class UserController implements Controller {
 
   private static final String API_USERS = "/api/users";
   private static final String API_USER_BY_ID = "/api/users/{id}";
+  private static final String API_USERS_BY_COMPANY = "/api/usersByCompany";
+  private static final String API_COMPANY_MEMBERS = "/api/usersByCompany/{company}";
   static final String AGE_KEY = "age";
   static final String COMPANY_KEY = "company";
   static final String ROLE_KEY = "role";
   static final String SORT_ORDER_KEY = "sortorder";
-
-  private static final int REASONABLE_AGE_LIMIT = 150;
-  private static final String ROLE_REGEX = "^(admin|editor|viewer)$";
+  static final String STREAM_KEY = "stream";
+  static final String FIELDS_KEY = "fields";
+  static final String PAGE_SIZE_KEY = "pagesize";
+  static final String PAGE_KEY = "page";
+  static final String PAGE_TOKEN_KEY = "after";
+  // The fields of a user that can be asked for with `fields`
+  static final Set<String> USER_FIELDS = Set.of("_id", "name", AGE_KEY, COMPANY_KEY, "email", "avatar", ROLE_KEY);
+
+  static final int REASONABLE_AGE_LIMIT = 150;
+  private static final int STREAM_BATCH_SIZE = 500;
+  static final int DEFAULT_PAGE_SIZE = 20;
+  static final int MAX_PAGE_SIZE = 1000;
+  // The last page of companies that can be asked for (so the number of
+  // companies to skip fits in an `int`).
+  static final int MAX_COMPANY_PAGE = Integer.MAX_VALUE / MAX_PAGE_SIZE;
+  // How many of its users (the first, by name) each company summary keeps.
+  static final int COMPANY_PREVIEW_SIZE = 10;
+
+  // Rough per-object overhead (in bytes) of a cached `User`, on top of
+  // the characters in its strings.
+  private static final int USER_OVERHEAD_BYTES = 112;
+  static final long DEFAULT_CACHE_BYTES = 16L * 1024 * 1024;
+  static final long RESPONSE_CACHE_BYTES = 4L * 1024 * 1024;
+  // How long a cached response is served for, in case something other
+  // than this server changes the users.
+  static final Duration RESPONSE_CACHE_TTL = Duration.ofMinutes(1);
+  static final String ROLE_REGEX = "^(admin|editor|viewer)$";
   public static final String EMAIL_REGEX = "^[a-zA-Z0-9_!#$%&'*+/=?`{|}~^.-]+@[a-zA-Z0-9.-]+$";
 
-  private final JacksonMongoCollection<User> userCollection;
+  // Where the users are kept (see `UserRepository`).
+  private final UserRepository userRepository;
+  // The rest of these are only used when the users are kept in Mongo, and
+  // are `null` otherwise.
+  // The `users` collection, read as plain documents when only some fields are wanted.
+  private final MongoCollection<Document> userDocuments;
+  // The same collection through the reactive driver, for the async read
+  // handlers, or `null` if all reads are served by the blocking handlers.
+  private final com.mongodb.reactivestreams.client.MongoCollection<User> asyncUsers;
+  // The same collection, read as raw BSON that's passed straight through
+  // to the response as JSON (see `BsonJson`), or `null` if the plain reads
+  // build `User`s as usual.
+  private final MongoCollection<RawBsonDocument> rawUsers;
+  // The `usersByCompany` summary (see `MongoUserRepository`), read the
+  // same way, or `null` along with `rawUsers`.
+  private final MongoCollection<RawBsonDocument> rawCompanies;
+
+  // Users we've recently looked up by id, keyed by their (hex string) id.
+  private final LruCache<String, User> userCache;
+  // Bumped on every write to `users`, so GETs can be answered with 304s
+  // (see `CollectionVersion`).
+  private final CollectionVersion userVersion = new CollectionVersion();
+  // Serialized (and gzipped) list responses, keyed by the version and the
+  // normalized query (see `CollectionVersion#cacheKey()`).
+  private final CompressedJsonCache responseCache = new CompressedJsonCache(RESPONSE_CACHE_BYTES, RESPONSE_CACHE_TTL);
+  // Taken around every blocking call to the repository or the driver, so
+  // only so many requests use the database at once (see `DatabaseGate`).
+  private DatabaseGate databaseGate = DatabaseGate.UNLIMITED;
 
   /**
    * Construct a controller for users.
@@ -54,11 +126,104 @@ public class UserController implements Controller {
    * @param database the database containing user data
    */
   public UserController(MongoDatabase database) {
-    userCollection = JacksonMongoCollection.builder().build(
-        database,
-        "users",
-        User.class,
-        UuidRepresentation.STANDARD);
+    this(database, newUserCache(DEFAULT_CACHE_BYTES));
+  }
+
+  /**
+   * Construct a controller for users that serves repeated lookups by id
+   * from the given cache.
+   *
+   * @param database the database containing user data
+   * @param userCache the cache of users by (hex string) id
+   */
+  public UserController(MongoDatabase database, LruCache<String, User> userCache) {
+    this(database, userCache, null);
+  }
+
+  /**
+   * Construct a controller for users that serves the plain reads (`GET
+   * /api/users` and `GET /api/users/{id}`) asynchronously, through the
+   * reactive driver, so they don't hold a thread while waiting on Mongo.
+   *
+   * @param database the database containing user data
+   * @param userCache the cache of users by (hex string) id
+   * @param asyncDatabase the same database through the reactive driver, or
+   *   `null` to serve every request with blocking handlers
+   */
+  public UserController(MongoDatabase database, LruCache<String, User> userCache,
+      com.mongodb.reactivestreams.client.MongoDatabase asyncDatabase) {
+    this(database, userCache, asyncDatabase, false);
+  }
+
+  /**
+   * Construct a controller for users that (with `rawReads`) serves the
+   * plain reads, and the users grouped by company, by passing the BSON
+   * from Mongo straight through to the response as JSON.
+   *
+   * As with `TodoController`, raw reads are blocking and don't use
+   * `userCache`, so they take the place of the async handlers.
+   *
+   * @param database the database containing user data
+   * @param userCache the cache of users by (hex string) id
+   * @param asyncDatabase the same database through the reactive driver, or
+   *   `null` to serve every request with blocking handlers
+   * @param rawReads whether to pass the plain reads through as raw BSON
+   */
+  public UserController(MongoDatabase database, LruCache<String, User> userCache,
+      com.mongodb.reactivestreams.client.MongoDatabase asyncDatabase, boolean rawReads) {
+    this(new MongoUserRepository(database), userCache, database, asyncDatabase, rawReads);
+  }
+
+  /**
+   * Construct a controller for users kept in the given repository (say, an
+   * `InMemoryUserRepository`, so no database is needed at all).
+   *
+   * Raw and async reads need Mongo, so they aren't available here, and
+   * when only some `fields` are asked for, the other fields are left out
+   * here rather than by the database.
+   *
+   * @param userRepository where the users are kept
+   * @param userCache the cache of users by (hex string) id
+   */
+  public UserController(UserRepository userRepository, LruCache<String, User> userCache) {
+    this(userRepository, userCache, null, null, false);
+  }
+
+  private UserController(UserRepository userRepository, LruCache<String, User> userCache, MongoDatabase database,
+      com.mongodb.reactivestreams.client.MongoDatabase asyncDatabase, boolean rawReads) {
+    this.userRepository = userRepository;
+    this.userCache = userCache;
+    userDocuments = database == null ? null : database.getCollection("users");
+    rawUsers = rawReads ? database.getCollection("users", RawBsonDocument.class) : null;
+    rawCompanies = rawReads
+      ? database.getCollection(MongoUserRepository.COMPANY_SUMMARY_COLLECTION, RawBsonDocument.class)
+      : null;
+
+    if (asyncDatabase == null) {
+      asyncUsers = null;
+    } else {
+      asyncUsers = asyncDatabase.getCollection("users", User.class)
+        .withCodecRegistry(Codecs.registryWith(new UserCodec()));
+    }
+  }
+
+  /**
+   * Make a cache of users by id that holds roughly `maxBytes` worth of users.
+   *
+   * @param maxBytes the approximate maximum size of the cached users
+   * @return an empty cache
+   */
+  public static LruCache<String, User> newUserCache(long maxBytes) {
+    return new LruCache<>(maxBytes, UserController::approximateSize);
+  }
+
+  private static long approximateSize(User user) {
+    return USER_OVERHEAD_BYTES + 2L * (length(user._id) + length(user.name) + length(user.company)
+      + length(user.email) + length(user.avatar) + length(user.role));
+  }
+
+  private static int length(String str) {
+    return str == null ? 0 : str.length();
   }
 
   /**
@@ -68,14 +233,52 @@ public class UserController implements Controller {
    * @param ctx a Javalin HTTP context
    */
   public void getUser(Context ctx) {
-    String id = ctx.pathParam("id");
-    User user;
+    ObjectId objectId = requestedId(ctx);
+    if (userVersion.notModified(ctx, API_USERS + "/" + objectId.toHexString())) {
+      return;
+    }
+    if (rawUsers != null) {
+      RawBsonDocument user = databaseGate.call(() -> rawUsers.find(eq("_id", objectId)).first());
+      if (user == null) {
+        throw new NotFoundResponse("The requested user was not found");
+      }
+      ctx.status(HttpStatus.OK);
+      BsonJson.send(ctx, out -> BsonJson.writeDocument(user, out));
+      return;
+    }
+    // Repeated lookups of the same (hot) user are served from `userCache`
+    // without a trip to the database.
+    User user = userCache.get(objectId.toHexString(), id -> databaseGate.call(() -> userRepository.findById(id)));
+    sendUser(ctx, user);
+  }
+
+  /**
+   * The async version of `getUser`, which looks the user up through the
+   * reactive driver (on a miss in `userCache`).
+   *
+   * @param ctx a Javalin HTTP context
+   * @return a future that completes once the response has been set
+   */
+  public CompletableFuture<?> getUserAsync(Context ctx) {
+    ObjectId objectId = requestedId(ctx);
+    if (userVersion.notModified(ctx, API_USERS + "/" + objectId.toHexString())) {
+      return CompletableFuture.completedFuture(null);
+    }
+    return userCache
+      .getAsync(objectId.toHexString(), key -> Publishers.first(
+        asyncUsers.find(eq("_id", objectId)).comment(SlowQueryLogger.route(ctx)).first()))
+      .thenAccept(user -> sendUser(ctx, user));
+  }
 
+  private ObjectId requestedId(Context ctx) {
     try {
-      user = userCollection.find(eq("_id", new ObjectId(id))).first();
+      return new ObjectId(ctx.pathParam("id"));
     } catch (IllegalArgumentException e) {
       throw new BadRequestResponse("The requested user id wasn't a legal Mongo Object ID.");
     }
+  }
+
+  private void sendUser(Context ctx, User user) {
     if (user == null) {
       throw new NotFoundResponse("The requested user was not found");
     } else {
@@ -88,28 +291,233 @@ public class UserController implements Controller {
    * Set the JSON body of the response to be a list of all the users returned from the database
    * that match any requested filters and ordering
    *
+   * If nothing has been written to the users since the client got the
+   * response to this same query, and it sends us that response's `ETag`
+   * in `If-None-Match`, we just answer 304 (Not Modified).
+   *
    * @param ctx a Javalin HTTP context
    */
   public void getUsers(Context ctx) {
-    Bson combinedFilter = constructFilter(ctx);
-    Bson sortingOrder = constructSortingOrder(ctx);
+    UserQuery query = UserQuery.from(ctx);
+    if (userVersion.notModified(ctx, API_USERS)) {
+      return;
+    }
+
+    // With `?fields=...` we only fetch (and send) some of each user's fields.
+    if (ctx.queryParamMap().containsKey(FIELDS_KEY)) {
+      getUserFields(ctx, query);
+      return;
+    }
+
+    // With raw reads, the users go straight from BSON to JSON.
+    if (rawUsers != null) {
+      getRawUsers(ctx, query);
+      return;
+    }
+
+    // With `?stream=true` we write the users out as they come off the
+    // database cursor instead of collecting them into a list first.
+    if ("true".equals(ctx.queryParam(STREAM_KEY))) {
+      ctx.status(HttpStatus.OK);
+      databaseGate.run(() -> streamJson(ctx, userRepository.stream(query)));
+      return;
+    }
+
+    // Explicitly set the context status to OK
+    ctx.status(HttpStatus.OK);
 
+    // Set the JSON body of the response to be the list of users returned by the database.
     // All three of the find, sort, and into steps happen "in parallel" inside the
     // database system. So MongoDB is going to find the users with the specified
     // properties, return those sorted in the specified manner, and put the
-    // results into an initially empty ArrayList.
-    ArrayList<User> matchingUsers = userCollection
-      .find(combinedFilter)
-      .sort(sortingOrder)
-      .into(new ArrayList<>());
+    // results into an initially empty ArrayList. If we've already got the
+    // response to this query, `responseCache` sends that instead, without
+    // running the query (or taking the `databaseGate`) at all.
+    responseCache.json(ctx, userVersion.cacheKey(API_USERS, query.key()),
+      () -> databaseGate.call(() -> userRepository.find(query)));
+  }
 
-    // Set the JSON body of the response to be the list of users returned by the database.
-    // According to the Javalin documentation (https://javalin.io/documentation#context),
-    // this calls result(jsonString), and also sets content type to json
-    ctx.json(matchingUsers);
+  /**
+   * The async version of `getUsers`, which runs the query through the
+   * reactive driver.
+   *
+   * Only plain lists of users are read asynchronously; projections
+   * (`fields`) and streamed responses are handed to `getUsers`.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return a future that completes once the response has been set
+   */
+  public CompletableFuture<?> getUsersAsync(Context ctx) {
+    if (ctx.queryParamMap().containsKey(FIELDS_KEY) || "true".equals(ctx.queryParam(STREAM_KEY))) {
+      getUsers(ctx);
+      return CompletableFuture.completedFuture(null);
+    }
+
+    UserQuery query = UserQuery.from(ctx);
+    if (userVersion.notModified(ctx, API_USERS)) {
+      return CompletableFuture.completedFuture(null);
+    }
+
+    // The same key as `getUsers`, since it's the same response.
+    String key = userVersion.cacheKey(API_USERS, query.key());
+    ctx.status(HttpStatus.OK);
+    if (responseCache.sendCached(ctx, key)) {
+      return CompletableFuture.completedFuture(null);
+    }
+    return Publishers.toList(asyncUsers.find(query.filter()).sort(query.sort())
+        .comment(SlowQueryLogger.route(ctx)))
+      .thenAccept(users -> responseCache.send(ctx, key, users));
+  }
+
+  /**
+   * Set the JSON body of the response to be the requested fields (and `_id`)
+   * of the users that match the requested filters and ordering.
+   *
+   * The `fields` query parameter is a comma-separated list of fields from
+   * `USER_FIELDS`. With Mongo, the projection is done by the database, so
+   * the other fields (like the `avatar` URLs and emails that list views
+   * don't show) are never read from disk, sent over the wire, or
+   * deserialized, and since the results are plain documents rather than
+   * `User`s, they're left out of the JSON response as well. Otherwise we
+   * leave them out of the response ourselves.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param query the query built from the request's query parameters
+   */
+  private void getUserFields(Context ctx, UserQuery query) {
+    List<String> fields = requestedFields(ctx);
+    ctx.status(HttpStatus.OK);
+    String key = userVersion.cacheKey(API_USERS, fields + " " + query.key());
+    if (userDocuments == null) {
+      if ("true".equals(ctx.queryParam(STREAM_KEY))) {
+        databaseGate.run(() -> streamJson(ctx, userRepository.stream(query).map(user -> onlyFields(user, fields))));
+      } else {
+        responseCache.json(ctx, key, () -> databaseGate.call(
+          () -> userRepository.find(query).stream().map(user -> onlyFields(user, fields)).toList()));
+      }
+      return;
+    }
+
+    MongoIterable<Document> matchingUsers = userDocuments
+      .find(query.filter())
+      .sort(query.sort())
+      .projection(Projections.include(fields))
+      .map(UserController::withHexId);
+
+    if ("true".equals(ctx.queryParam(STREAM_KEY))) {
+      databaseGate.run(() -> streamJson(ctx, matchingUsers));
+    } else {
+      responseCache.json(ctx, key, () -> databaseGate.call(() -> matchingUsers.into(new ArrayList<>())));
+    }
+  }
+
+  /**
+   * Set the JSON body of the response to be the users that match the
+   * requested filters and ordering, passed straight through from BSON to
+   * JSON without making `User`s out of them. Unless the response is
+   * streamed, the JSON is encoded straight into the bytes the response
+   * cache keeps (see `CompressedJsonCache#writeJson()`).
+   *
+   * @param ctx a Javalin HTTP context
+   * @param query the query built from the request's query parameters
+   */
+  private void getRawUsers(Context ctx, UserQuery query) {
+    FindIterable<RawBsonDocument> matchingUsers = rawUsers
+      .find(query.filter())
+      .sort(query.sort());
 
-    // Explicitly set the context status to OK
     ctx.status(HttpStatus.OK);
+    if ("true".equals(ctx.queryParam(STREAM_KEY))) {
+      databaseGate.run(
+        () -> BsonJson.send(ctx, out -> BsonJson.writeArray(matchingUsers.batchSize(STREAM_BATCH_SIZE), out)));
+    } else {
+      responseCache.writeJson(ctx, userVersion.cacheKey(API_USERS + " raw", query.key()),
+        out -> databaseGate.run(() -> BsonJson.writeArray(matchingUsers, out)));
+    }
+  }
+
+  private List<String> requestedFields(Context ctx) {
+    List<String> fields = new ArrayList<>();
+    for (String field : ctx.queryParam(FIELDS_KEY).split(",")) {
+      String trimmed = field.trim();
+      if (!USER_FIELDS.contains(trimmed)) {
+        throw new BadRequestResponse("User fields must be some of " + USER_FIELDS + "; you provided " + field);
+      }
+      fields.add(trimmed);
+    }
+    return fields;
+  }
+
+  /**
+   * The `_id` and the given fields of a user, as Mongo would project them.
+   */
+  private static Map<String, Object> onlyFields(User user, List<String> fields) {
+    Map<String, Object> projected = new LinkedHashMap<>();
+    projected.put("_id", user._id);
+    for (String field : fields) {
+      if (!field.equals("_id")) {
+        projected.put(field, fieldValue(user, field));
+      }
+    }
+    return projected;
+  }
+
+  private static Object fieldValue(User user, String field) {
+    switch (field) {
+      case "name":
+        return user.name;
+      case AGE_KEY:
+        return user.age;
+      case COMPANY_KEY:
+        return user.company;
+      case "email":
+        return user.email;
+      case "avatar":
+        return user.avatar;
+      default:
+        return user.role;
+    }
+  }
+
+  /**
+   * Replace a document's `ObjectId` with its hex string, which is how
+   * user ids are sent to clients.
+   */
+  private static Document withHexId(Document user) {
+    if (user.get("_id") instanceof ObjectId) {
+      user.put("_id", user.getObjectId("_id").toHexString());
+    }
+    return user;
+  }
+
+  /**
+   * Write the results of a query to the response as a JSON array, one
+   * user at a time as they come off the Mongo cursor.
+   *
+   * Only one cursor batch is ever held in memory, so the heap used by the
+   * request stays bounded no matter how many users match, and the client
+   * starts receiving data as soon as the first batch arrives. The status
+   * has to be set before calling this, since the response is committed as
+   * soon as we start writing.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param users the (not yet executed) query whose results we're writing
+   */
+  private void streamJson(Context ctx, MongoIterable<?> users) {
+    MongoCursor<?> cursor = users.batchSize(STREAM_BATCH_SIZE).cursor();
+    streamJson(ctx, StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED), false)
+      .onClose(cursor::close));
+  }
+
+  /**
+   * Write a stream of users (or parts of them) to the response as a JSON
+   * array, and close the stream (and so any cursor it's reading) once
+   * we're done.
+   */
+  private static void streamJson(Context ctx, Stream<?> users) {
+    try (users) {
+      ctx.writeJsonStream(users);
+    }
   }
 
   /**
@@ -125,32 +533,8 @@ public class UserController implements Controller {
    * @return a Bson filter document that can be used in the `find` method
    *   to filter the database collection of users
    */
-  private Bson constructFilter(Context ctx) {
-    List<Bson> filters = new ArrayList<>(); // start with an empty list of filters
-
-    if (ctx.queryParamMap().containsKey(AGE_KEY)) {
-      int targetAge = ctx.queryParamAsClass(AGE_KEY, Integer.class)
-        .check(it -> it > 0, "User's age must be greater than zero; you provided " + ctx.queryParam(AGE_KEY))
-        .check(it -> it < REASONABLE_AGE_LIMIT,
-          "User's age must be less than " + REASONABLE_AGE_LIMIT + "; you provided " + ctx.queryParam(AGE_KEY))
-        .get();
-      filters.add(eq(AGE_KEY, targetAge));
-    }
-    if (ctx.queryParamMap().containsKey(COMPANY_KEY)) {
-      Pattern pattern = Pattern.compile(Pattern.quote(ctx.queryParam(COMPANY_KEY)), Pattern.CASE_INSENSITIVE);
-      filters.add(regex(COMPANY_KEY, pattern));
-    }
-    if (ctx.queryParamMap().containsKey(ROLE_KEY)) {
-      String role = ctx.queryParamAsClass(ROLE_KEY, String.class)
-        .check(it -> it.matches(ROLE_REGEX), "User must have a legal user role")
-        .get();
-      filters.add(eq(ROLE_KEY, role));
-    }
-
-    // Combine the list of filters into a single filtering document.
-    Bson combinedFilter = filters.isEmpty() ? new Document() : and(filters);
-
-    return combinedFilter;
+  static Bson constructFilter(Context ctx) {
+    return UserQuery.from(ctx).filter();
   }
 
   /**
@@ -168,78 +552,144 @@ public class UserController implements Controller {
    * @return a Bson sorting document that can be used in the `sort` method
    *  to sort the database collection of users
    */
-  private Bson constructSortingOrder(Context ctx) {
+  static Bson constructSortingOrder(Context ctx) {
     // Sort the results. Use the `sortby` query param (default "name")
     // as the field to sort by, and the query param `sortorder` (default
     // "asc") to specify the sort order.
-    String sortBy = Objects.requireNonNullElse(ctx.queryParam("sortby"), "name");
-    String sortOrder = Objects.requireNonNullElse(ctx.queryParam("sortorder"), "asc");
-    Bson sortingOrder = sortOrder.equals("desc") ?  Sorts.descending(sortBy) : Sorts.ascending(sortBy);
-    return sortingOrder;
+    return UserQuery.from(ctx).sort();
   }
 
   /**
-   * Set the JSON body of the response to be a list of all the user names and IDs
-   * returned from the database, grouped by company
+   * Set the JSON body of the response to be a list of the companies, each
+   * with the number of users in it and the names and IDs of its first
+   * `COMPANY_PREVIEW_SIZE` users (by name)
    *
    * This "returns" a list of user names and IDs, grouped by company in the JSON
    * body of the response. The user names and IDs are stored in `UserIdName` objects,
    * and the company name, the number of users in that company, and the list of user
-   * names and IDs are stored in `UserByCompany` objects.
+   * names and IDs are stored in `UserByCompany` objects. The rest of a company's
+   * users can be paged through with `getCompanyMembers`.
    *
    * @param ctx a Javalin HTTP context that provides the query parameters
    *   used to sort the results. We support either sorting by company name
    *   (in either `asc` or `desc` order) or by the number of users in the
-   *   company (`count`, also in either `asc` or `desc` order).
+   *   company (`count`, also in either `asc` or `desc` order). With
+   *   `pagesize` (default `DEFAULT_PAGE_SIZE`) or `page` (counting from 0)
+   *   only that page of the companies is returned.
    */
   public void getUsersGroupedByCompany(Context ctx) {
+    if (userVersion.notModified(ctx, API_USERS_BY_COMPANY)) {
+      return;
+    }
     // We'll support sorting the results either by company name (in either `asc` or `desc` order)
     // or by the number of users in the company (`count`, also in either `asc` or `desc` order).
-    String sortBy = Objects.requireNonNullElse(ctx.queryParam("sortBy"), "_id");
-    if (sortBy.equals("company")) {
-      sortBy = "_id";
-    }
-    String sortOrder = Objects.requireNonNullElse(ctx.queryParam("sortOrder"), "asc");
-    Bson sortingOrder = sortOrder.equals("desc") ?  Sorts.descending(sortBy) : Sorts.ascending(sortBy);
-
-    // The `UserByCompany` class is a simple class that has fields for the company
-    // name, the number of users in that company, and a list of user names and IDs
-    // (using the `UserIdName` class to store the user names and IDs).
-    // We're going to use the aggregation pipeline to group users by company, and
-    // then count the number of users in each company. We'll also collect the user
-    // names and IDs for each user in each company. We'll then convert the results
-    // of the aggregation pipeline to `UserByCompany` objects.
-
-    ArrayList<UserByCompany> matchingUsers = userCollection
-      // The following aggregation pipeline groups users by company, and
-      // then counts the number of users in each company. It also collects
-      // the user names and IDs for each user in each company.
-      .aggregate(
-        List.of(
-          // Project the fields we want to use in the next step, i.e., the _id, name, and company fields
-          new Document("$project", new Document("_id", 1).append("name", 1).append("company", 1)),
-          // Group the users by company, and count the number of users in each company
-          new Document("$group", new Document("_id", "$company")
-            // Count the number of users in each company
-            .append("count", new Document("$sum", 1))
-            // Collect the user names and IDs for each user in each company
-            .append("users", new Document("$push", new Document("_id", "$_id").append("name", "$name")))),
-          // Sort the results. Use the `sortby` query param (default "company")
-          // as the field to sort by, and the query param `sortorder` (default
-          // "asc") to specify the sort order.
-          new Document("$sort", sortingOrder)
-        ),
-        // Convert the results of the aggregation pipeline to UserGroupResult objects
-        // (i.e., a list of UserGroupResult objects). It is necessary to have a Java type
-        // to convert the results to, and the JacksonMongoCollection will do this for us.
-        UserByCompany.class
-      )
-      .into(new ArrayList<>());
-
-    ctx.json(matchingUsers);
+    String requestedSort = Objects.requireNonNullElse(ctx.queryParam("sortBy"), "_id");
+    String sortBy = requestedSort.equals("company") ? "_id" : requestedSort;
+    boolean descending = Objects.requireNonNullElse(ctx.queryParam("sortOrder"), "asc").equals("desc");
+
+    // All the companies, unless a page of them was asked for.
+    int pageLimit = 0;
+    int pageSkip = 0;
+    if (ctx.queryParamMap().containsKey(PAGE_SIZE_KEY) || ctx.queryParamMap().containsKey(PAGE_KEY)) {
+      pageLimit = pageSize(ctx);
+      if (ctx.queryParamMap().containsKey(PAGE_KEY)) {
+        pageSkip = ctx.queryParamAsClass(PAGE_KEY, Integer.class)
+          .check(it -> it >= 0 && it <= MAX_COMPANY_PAGE,
+            "Company page must be between 0 and " + MAX_COMPANY_PAGE + ", you gave " + ctx.queryParam(PAGE_KEY))
+          .get() * pageLimit;
+      }
+    }
+    int skip = pageSkip;
+    int limit = pageLimit;
+
+    // The groups are read from a summary that's kept up to date as users
+    // are added and deleted, repeated requests are served from
+    // `responseCache` without reading it again, and identical requests that
+    // arrive together share one read.
+    ctx.status(HttpStatus.OK);
+    String query = sortBy + " " + descending + " " + skip + " " + limit;
+    if (rawUsers != null) {
+      Bson sortingOrder = MongoUserRepository.companyOrder(sortBy, descending);
+      responseCache.writeJson(ctx, userVersion.cacheKey(API_USERS_BY_COMPANY + " raw", query),
+        out -> databaseGate.run(
+          () -> BsonJson.writeArray(rawCompanies.find().sort(sortingOrder).skip(skip).limit(limit), out)));
+    } else {
+      responseCache.json(ctx, userVersion.cacheKey(API_USERS_BY_COMPANY, query),
+        () -> databaseGate.call(() -> userRepository.groupByCompany(sortBy, descending, skip, limit)));
+    }
+  }
+
+  /**
+   * Set the JSON body of the response to be one page of the users in the
+   * company given by the `company` path parameter, in order of name, along
+   * with a continuation token for the next page (or `null` if this was the
+   * last page; see `CompanyMembers`).
+   *
+   * Like the Todo pages, the token records the name and `_id` of the last
+   * user on the page, and the next page picks up strictly after them, so
+   * every page is a single range scan of the `{company, name, _id}` index.
+   *
+   * @param ctx a Javalin HTTP context, with the `pagesize` (default
+   *   `DEFAULT_PAGE_SIZE`) and `after` (a continuation token) query parameters
+   */
+  public void getCompanyMembers(Context ctx) {
+    String company = ctx.pathParam(COMPANY_KEY);
+    if (userVersion.notModified(ctx, API_USERS_BY_COMPANY + "/" + company)) {
+      return;
+    }
+    int pageSize = pageSize(ctx);
+    Document token = ctx.queryParamMap().containsKey(PAGE_TOKEN_KEY)
+      ? decodePageToken(ctx.queryParam(PAGE_TOKEN_KEY))
+      : null;
+    String lastName = token == null ? null : token.getString("n");
+    String lastId = token == null ? null : token.getObjectId("i").toHexString();
+
+    // Ask for one extra user so we know whether there is a next page.
+    List<UserIdName> members = new ArrayList<>(
+      databaseGate.call(() -> userRepository.companyMembers(company, pageSize + 1, lastName, lastId)));
+    String next = null;
+    if (members.size() > pageSize) {
+      members.remove(pageSize);
+      next = encodePageToken(members.get(pageSize - 1));
+    }
+
+    ctx.json(new CompanyMembers(company, members, next));
     ctx.status(HttpStatus.OK);
   }
 
+  private int pageSize(Context ctx) {
+    if (!ctx.queryParamMap().containsKey(PAGE_SIZE_KEY)) {
+      return DEFAULT_PAGE_SIZE;
+    }
+    return ctx.queryParamAsClass(PAGE_SIZE_KEY, Integer.class)
+      .check(it -> it > 0 && it <= MAX_PAGE_SIZE,
+        "Page size must be between 1 and " + MAX_PAGE_SIZE + ", you gave " + ctx.queryParam(PAGE_SIZE_KEY))
+      .get();
+  }
+
+  /**
+   * Encode the position of a user in a company as an opaque, URL-safe
+   * continuation token.
+   */
+  private static String encodePageToken(UserIdName last) {
+    Document token = new Document("n", last.name).append("i", new ObjectId(last._id));
+    return Base64.getUrlEncoder().withoutPadding()
+      .encodeToString(token.toJson().getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static Document decodePageToken(String encoded) {
+    Document token;
+    try {
+      token = Document.parse(new String(Base64.getUrlDecoder().decode(encoded), StandardCharsets.UTF_8));
+    } catch (IllegalArgumentException | JsonParseException e) {
+      throw new BadRequestResponse("The requested page token wasn't a legal page token.");
+    }
+    if (!(token.get("i") instanceof ObjectId) || !(token.get("n") instanceof String)) {
+      throw new BadRequestResponse("The requested page token wasn't a legal page token.");
+    }
+    return token;
+  }
+
   /**
    * Add a new user using information from the context
    * (as long as the information gives "legal" values to User fields)
@@ -248,6 +698,38 @@ public class UserController implements Controller {
    *  in the JSON body of the request
    */
   public void addNewUser(Context ctx) {
+    User newUser = validatedUser(ctx);
+
+    // Generate a user avatar (you won't need this part for todos)
+    newUser.avatar = generateAvatar(newUser.email);
+
+    // Add the new user to the database
+    databaseGate.run(() -> userRepository.insert(newUser));
+    userVersion.changed();
+    responseCache.invalidateAll();
+    userCache.invalidate(newUser._id);
+
+    // Set the JSON response to be the `_id` of the newly created user.
+    // This gives the client the opportunity to know the ID of the new user,
+    // which it can then use to perform further operations (e.g., a GET request
+    // to get and display the details of the new user).
+    ctx.json(Map.of("id", newUser._id));
+    // 201 (`HttpStatus.CREATED`) is the HTTP code for when we successfully
+    // create a new resource (a user in this case).
+    // See, e.g., https://developer.mozilla.org/en-US/docs/Web/HTTP/Status
+    // for a description of the various response codes.
+    ctx.status(HttpStatus.CREATED);
+  }
+
+  /**
+   * The user in the body of a request, if it's legal to add.
+   *
+   * @param ctx a Javalin HTTP context that provides the user info
+   *  in the JSON body of the request
+   * @return the user
+   * @throws BadRequestResponse if the user breaks any of the rules
+   */
+  static User validatedUser(Context ctx) {
     /*
      * The follow chain of statements uses the Javalin validator system
      * to verify that instance of `User` provided in this context is
@@ -263,7 +745,7 @@ public class UserController implements Controller {
      * `BadRequestResponse` with an appropriate error message.
      */
     String body = ctx.body();
-    User newUser = ctx.bodyValidator(User.class)
+    return ctx.bodyValidator(User.class)
       .check(usr -> usr.name != null && usr.name.length() > 0,
         "User must have a non-empty user name; body was " + body)
       .check(usr -> usr.email.matches(EMAIL_REGEX),
@@ -277,23 +759,6 @@ public class UserController implements Controller {
       .check(usr -> usr.company != null && usr.company.length() > 0,
         "User must have a non-empty company name; body was " + body)
       .get();
-
-    // Generate a user avatar (you won't need this part for todos)
-    newUser.avatar = generateAvatar(newUser.email);
-
-    // Add the new user to the database
-    userCollection.insertOne(newUser);
-
-    // Set the JSON response to be the `_id` of the newly created user.
-    // This gives the client the opportunity to know the ID of the new user,
-    // which it can then use to perform further operations (e.g., a GET request
-    // to get and display the details of the new user).
-    ctx.json(Map.of("id", newUser._id));
-    // 201 (`HttpStatus.CREATED`) is the HTTP code for when we successfully
-    // create a new resource (a user in this case).
-    // See, e.g., https://developer.mozilla.org/en-US/docs/Web/HTTP/Status
-    // for a description of the various response codes.
-    ctx.status(HttpStatus.CREATED);
   }
 
   /**
@@ -303,9 +768,13 @@ public class UserController implements Controller {
    */
   public void deleteUser(Context ctx) {
     String id = ctx.pathParam("id");
-    DeleteResult deleteResult = userCollection.deleteOne(eq("_id", new ObjectId(id)));
+    ObjectId objectId = new ObjectId(id);
+    boolean deleted = databaseGate.call(() -> userRepository.delete(objectId.toHexString()));
+    userVersion.changed();
+    responseCache.invalidateAll();
+    userCache.invalidate(objectId.toHexString());
     // We should have deleted 1 or 0 users, depending on whether `id` is a valid user ID.
-    if (deleteResult.getDeletedCount() != 1) {
+    if (!deleted) {
       ctx.status(HttpStatus.NOT_FOUND);
       throw new NotFoundResponse(
         "Was unable to delete ID "
@@ -356,6 +825,40 @@ public class UserController implements Controller {
     return result.toString();
   }
 
+  /**
+   * Declare the indexes that the repository's queries rely on (see
+   * `MongoUserRepository#declareIndexes()`).
+   *
+   * @param registry the registry to declare the indexes in
+   */
+  @Override
+  public void declareIndexes(IndexRegistry registry) {
+    userRepository.declareIndexes(registry);
+  }
+
+  /**
+   * Take `gate` around the controller's blocking database calls. The
+   * async handlers don't take it, since they don't hold a thread while
+   * they wait for a connection.
+   *
+   * @param gate the gate to take around database calls
+   */
+  @Override
+  public void useDatabaseGate(DatabaseGate gate) {
+    databaseGate = gate;
+  }
+
+  /**
+   * Add gauges for the cache of list responses: how many bytes it holds,
+   * and how many requests it serves.
+   *
+   * @param metrics the metrics to add the gauges to
+   */
+  @Override
+  public void addGauges(Metrics metrics) {
+    responseCache.addGauges(metrics, "users");
+  }
+
   /**
    * Sets up routes for the `user` collection endpoints.
    * A UserController instance handles the user endpoints,
@@ -369,6 +872,8 @@ public class UserController implements Controller {
    *      - `age`, `company`, and `name` are optional query parameters
    *   - `GET /api/usersByCompany`
    *     - Get user names and IDs, possibly filtered, grouped by company
+   *   - `GET /api/usersByCompany/:company?pagesize=NUMBER&after=TOKEN`
+   *     - Page through the user names and IDs in a company
    *   - `DELETE /api/users/:id`
    *      - Delete the specified user
    *   - `POST /api/users`
@@ -386,14 +891,23 @@ public class UserController implements Controller {
    */
   @Override
   public void addRoutes(Javalin server) {
-    // Get the specified user
-    server.get(API_USER_BY_ID, this::getUser);
+    if (asyncUsers == null || rawUsers != null) {
+      // Get the specified user
+      server.get(API_USER_BY_ID, this::getUser);
 
-    // List users, filtered using query parameters
-    server.get(API_USERS, this::getUsers);
+      // List users, filtered using query parameters
+      server.get(API_USERS, this::getUsers);
+    } else {
+      // The same two reads, without blocking a thread on Mongo
+      server.get(API_USER_BY_ID, Controller.async(this::getUserAsync));
+      server.get(API_USERS, Controller.async(this::getUsersAsync));
+    }
 
     // Get the users, possibly filtered, grouped by company
-    server.get("/api/usersByCompany", this::getUsersGroupedByCompany);
+    server.get(API_USERS_BY_COMPANY, this::getUsersGroupedByCompany);
+
+    // Page through the users in a company
+    server.get(API_COMPANY_MEMBERS, this::getCompanyMembers);
 
     // Add new user with the user info being in the JSON body
     // of the HTTP request
@@ -0,0 +1,156 @@
+package umm3601.user;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.regex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import com.mongodb.client.model.Sorts;
+
+import io.javalin.http.Context;
+
+/**
+ * What a request for a list of users asked for: which users (the
+ * filters), and in what order.
+ *
+ * `from()` reads (and checks) a query from a request's query parameters,
+ * so every `UserRepository` answers the same query, whether it turns it
+ * into a Mongo filter and sort (with `filter()` and `sort()`) or runs it
+ * against the users it keeps in memory.
+ */
+public final class UserQuery {
+
+  private static final String DEFAULT_SORT_FIELD = "name";
+
+  // `null` for the filters that weren't asked for.
+  private final Integer age;
+  private final Pattern company;
+  private final String role;
+
+  private final String sortBy;
+  private final boolean descending;
+
+  private UserQuery(Integer age, Pattern company, String role, String sortBy, boolean descending) {
+    this.age = age;
+    this.company = company;
+    this.role = role;
+    this.sortBy = sortBy;
+    this.descending = descending;
+  }
+
+  /**
+   * The query for every user, in the default order (by name).
+   *
+   * @return the query
+   */
+  public static UserQuery all() {
+    return new UserQuery(null, null, null, DEFAULT_SORT_FIELD, false);
+  }
+
+  /**
+   * Read the filters and ordering from a request's query parameters:
+   *
+   *   - `age` is an exact age, which has to be between 0 and 150.
+   *   - `company` is (case-insensitive) text to find in the company name.
+   *   - `role` is exactly `admin`, `editor`, or `viewer`.
+   *   - `sortby` (default `name`) and `sortorder` (`asc` or `desc`) give
+   *     the order.
+   *
+   * @param ctx a Javalin HTTP context, which contains the query parameters
+   * @return the query
+   * @throws io.javalin.validation.ValidationException if the age or role isn't legal
+   */
+  public static UserQuery from(Context ctx) {
+    Integer age = null;
+    if (ctx.queryParamMap().containsKey(UserController.AGE_KEY)) {
+      age = ctx.queryParamAsClass(UserController.AGE_KEY, Integer.class)
+        .check(it -> it > 0,
+          "User's age must be greater than zero; you provided " + ctx.queryParam(UserController.AGE_KEY))
+        .check(it -> it < UserController.REASONABLE_AGE_LIMIT,
+          "User's age must be less than " + UserController.REASONABLE_AGE_LIMIT + "; you provided "
+            + ctx.queryParam(UserController.AGE_KEY))
+        .get();
+    }
+    Pattern company = null;
+    if (ctx.queryParamMap().containsKey(UserController.COMPANY_KEY)) {
+      company = Pattern.compile(Pattern.quote(ctx.queryParam(UserController.COMPANY_KEY)),
+        Pattern.CASE_INSENSITIVE);
+    }
+    String role = null;
+    if (ctx.queryParamMap().containsKey(UserController.ROLE_KEY)) {
+      role = ctx.queryParamAsClass(UserController.ROLE_KEY, String.class)
+        .check(it -> it.matches(UserController.ROLE_REGEX), "User must have a legal user role")
+        .get();
+    }
+
+    String sortBy = Objects.requireNonNullElse(ctx.queryParam("sortby"), DEFAULT_SORT_FIELD);
+    boolean descending = Objects.requireNonNullElse(ctx.queryParam(UserController.SORT_ORDER_KEY), "asc")
+      .equals("desc");
+    return new UserQuery(age, company, role, sortBy, descending);
+  }
+
+  public Integer age() {
+    return age;
+  }
+
+  public Pattern company() {
+    return company;
+  }
+
+  public String role() {
+    return role;
+  }
+
+  public String sortBy() {
+    return sortBy;
+  }
+
+  public boolean descending() {
+    return descending;
+  }
+
+  /**
+   * The Mongo filter for this query.
+   *
+   * @return the filter
+   */
+  public Bson filter() {
+    List<Bson> filters = new ArrayList<>();
+    if (age != null) {
+      filters.add(eq(UserController.AGE_KEY, age));
+    }
+    if (company != null) {
+      filters.add(regex(UserController.COMPANY_KEY, company));
+    }
+    if (role != null) {
+      filters.add(eq(UserController.ROLE_KEY, role));
+    }
+    return filters.isEmpty() ? new Document() : and(filters);
+  }
+
+  /**
+   * A string that's the same for queries that are the same, however they
+   * were written: the Mongo filter and sort, as JSON.
+   *
+   * @return the key
+   */
+  public String key() {
+    return filter().toBsonDocument().toJson() + " " + sort().toBsonDocument().toJson();
+  }
+
+  /**
+   * The Mongo sort for this query.
+   *
+   * @return the sort
+   */
+  public Bson sort() {
+    return descending ? Sorts.descending(sortBy) : Sorts.ascending(sortBy);
+  }
+}
@@ -0,0 +1,105 @@
+package umm3601.user;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import umm3601.IndexRegistry;
+
+/**
+ * Where `UserController` keeps its users.
+ *
+ * `MongoUserRepository` keeps them in the `users` collection, and
+ * `InMemoryUserRepository` keeps them on the heap (with its own indexes),
+ * for small deployments, read-heavy nodes, and tests and benchmarks that
+ * shouldn't need a running database.
+ */
+public interface UserRepository {
+
+  /**
+   * The user with the given id.
+   *
+   * @param id the user's (hex string) id
+   * @return the user, or `null` if there isn't one with that id
+   */
+  User findById(String id);
+
+  /**
+   * The users that match a query, in the query's order.
+   *
+   * @param query the filters and order
+   * @return the matching users
+   */
+  List<User> find(UserQuery query);
+
+  /**
+   * The users that match a query, in the query's order, a few at a time
+   * rather than all at once. The stream has to be closed once it's done
+   * with, since it may be holding a database cursor open.
+   *
+   * @param query the filters and order
+   * @return the matching users
+   */
+  Stream<User> stream(UserQuery query);
+
+  /**
+   * Add a user, giving them a new id if they don't already have one.
+   *
+   * @param user the user to add
+   */
+  void insert(User user);
+
+  /**
+   * Remove the user with the given id.
+   *
+   * @param id the user's (hex string) id
+   * @return whether there was a user with that id to remove
+   */
+  boolean delete(String id);
+
+  /**
+   * Every company, with how many users are in it and the ids and names of
+   * the first few of them (see `UserByCompany`).
+   *
+   * @param sortBy `_id` (the company) or `count`
+   * @param descending whether to sort in descending order
+   * @return the companies
+   */
+  default List<UserByCompany> groupByCompany(String sortBy, boolean descending) {
+    return groupByCompany(sortBy, descending, 0, 0);
+  }
+
+  /**
+   * One page of the companies, with how many users are in each and the ids
+   * and names of the first few of them (see `UserByCompany`). Companies
+   * with the same `sortBy` are ordered by name (in the same direction), so
+   * the pages don't overlap.
+   *
+   * @param sortBy `_id` (the company) or `count`
+   * @param descending whether to sort in descending order
+   * @param skip how many companies to skip
+   * @param limit the most companies to return, or 0 for all of them
+   * @return the companies
+   */
+  List<UserByCompany> groupByCompany(String sortBy, boolean descending, int skip, int limit);
+
+  /**
+   * The ids and names of the users in a company, in order of name (and
+   * then id), starting after the given user.
+   *
+   * @param company the company
+   * @param limit the most users to return
+   * @param afterName the name of the user to start after, or `null` to start at the first user
+   * @param afterId the (hex string) id of the user to start after, or `null` to start at the first user
+   * @return the users
+   */
+  List<UserIdName> companyMembers(String company, int limit, String afterName, String afterId);
+
+  /**
+   * Declare the database indexes this repository's queries rely on, if it
+   * has any.
+   *
+   * @param registry the registry to declare the indexes in
+   */
+  default void declareIndexes(IndexRegistry registry) {
+  }
+}
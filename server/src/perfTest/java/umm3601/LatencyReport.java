@@ -0,0 +1,176 @@
+package umm3601;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * The latencies of a load test, by endpoint, and how they compare to a
+ * baseline.
+ *
+ * Results are written as a tab-separated table (one row per endpoint,
+ * plus one for all of them together) that's easy to read, diff, and
+ * load back in as a baseline, along with each endpoint's full HdrHistogram
+ * percentile distribution (a `.hgrm` file, which the HdrHistogram plotter
+ * can draw).
+ */
+public class LatencyReport {
+
+  // The row for every request, regardless of endpoint.
+  static final String ALL = "ALL";
+
+  // The percentiles we report, and the ones we compare against baselines
+  // (the 99.9th percentile and the max are too noisy for that).
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+  private static final int COMPARED_PERCENTILES = 3;
+  // The column of the results table the percentiles start in.
+  private static final int FIRST_PERCENTILE_COLUMN = 3;
+
+  // Latencies are recorded in microseconds, up to a minute.
+  private static final long HIGHEST_MICROS = TimeUnit.MINUTES.toMicros(1);
+  private static final int SIGNIFICANT_DIGITS = 3;
+  private static final double MICROS_PER_MILLI = 1000.0;
+
+  // A percentile has to get this much slower (in milliseconds), as well as
+  // slower by the tolerance, to count as a regression; below that it's noise.
+  private static final double NOISE_FLOOR_MILLIS = 1.0;
+
+  private final Map<String, Endpoint> endpoints = new ConcurrentSkipListMap<>();
+
+  /**
+   * Record a request.
+   *
+   * @param endpoint the endpoint, like `GET /api/todos/{id}`
+   * @param latencyNanos how long the request took, from when it was
+   *   _supposed_ to be sent
+   * @param succeeded whether it got a 2xx response
+   */
+  public void record(String endpoint, long latencyNanos, boolean succeeded) {
+    long micros = Math.min(TimeUnit.NANOSECONDS.toMicros(latencyNanos), HIGHEST_MICROS);
+    for (String name : new String[] {endpoint, ALL}) {
+      Endpoint stats = endpoints.computeIfAbsent(name, n -> new Endpoint());
+      stats.latencies.recordValue(micros);
+      if (!succeeded) {
+        stats.errors.increment();
+      }
+    }
+  }
+
+  /**
+   * Write the results table, and each endpoint's percentile distribution,
+   * to a directory.
+   *
+   * @param directory where to write them
+   * @param name the name of the results table (and prefix of the distributions)
+   * @return the path of the results table
+   * @throws IOException if they can't be written
+   */
+  public Path write(Path directory, String name) throws IOException {
+    Files.createDirectories(directory);
+    Path results = directory.resolve(name + ".tsv");
+    try (PrintStream out = new PrintStream(Files.newOutputStream(results), false, StandardCharsets.UTF_8)) {
+      out.println(header());
+      endpoints.forEach((endpoint, stats) -> out.println(row(endpoint, stats)));
+    }
+    for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+      String slug = entry.getKey().replaceAll("[^A-Za-z0-9]+", "-").replaceAll("-$", "");
+      try (PrintStream out = new PrintStream(
+          Files.newOutputStream(directory.resolve(name + "-" + slug + ".hgrm")), false, StandardCharsets.UTF_8)) {
+        entry.getValue().latencies.outputPercentileDistribution(out, MICROS_PER_MILLI);
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Print the results table.
+   *
+   * @param out where to print it
+   */
+  public void print(PrintStream out) {
+    out.println(header());
+    endpoints.forEach((endpoint, stats) -> out.println(row(endpoint, stats)));
+  }
+
+  private static String header() {
+    StringBuilder header = new StringBuilder("endpoint\tcount\terrors");
+    for (double percentile : PERCENTILES) {
+      header.append("\tp").append(format(percentile).replace(".", "")).append("_ms");
+    }
+    return header.append("\tmax_ms").toString();
+  }
+
+  private static String row(String endpoint, Endpoint stats) {
+    Histogram latencies = stats.latencies;
+    StringBuilder row = new StringBuilder(endpoint)
+      .append('\t').append(latencies.getTotalCount())
+      .append('\t').append(stats.errors.sum());
+    for (double percentile : PERCENTILES) {
+      row.append('\t').append(format(latencies.getValueAtPercentile(percentile) / MICROS_PER_MILLI));
+    }
+    return row.append('\t').append(format(latencies.getMaxValue() / MICROS_PER_MILLI)).toString();
+  }
+
+  private static String format(double value) {
+    return String.format(Locale.ROOT, "%.3f", value).replaceAll("\\.?0+$", "");
+  }
+
+  /**
+   * Compare these results to a baseline (written by `write()` on an
+   * earlier run), and describe every regression: a compared percentile
+   * that got slower by more than `tolerance` (and by more than a
+   * millisecond), or an endpoint that started failing.
+   *
+   * @param baseline the baseline results table
+   * @param tolerance how much slower (e.g., 0.2 for 20%) a percentile can get
+   * @return descriptions of the regressions, if there were any
+   * @throws IOException if the baseline can't be read
+   */
+  public List<String> regressionsFrom(Path baseline, double tolerance) throws IOException {
+    Map<String, String[]> baselineRows = new HashMap<>();
+    for (String line : Files.readAllLines(baseline)) {
+      String[] columns = line.split("\t");
+      baselineRows.put(columns[0], columns);
+    }
+
+    List<String> regressions = new ArrayList<>();
+    endpoints.forEach((endpoint, stats) -> {
+      String[] before = baselineRows.get(endpoint);
+      if (before == null) {
+        return;
+      }
+      String[] now = row(endpoint, stats).split("\t");
+      if (Long.parseLong(before[2]) == 0 && Long.parseLong(now[2]) > 0) {
+        regressions.add(endpoint + ": " + now[2] + " errors, where the baseline had none");
+      }
+      for (int i = 0; i < COMPARED_PERCENTILES; i++) {
+        int column = FIRST_PERCENTILE_COLUMN + i;
+        double was = Double.parseDouble(before[column]);
+        double is = Double.parseDouble(now[column]);
+        if (is > was * (1 + tolerance) && is - was > NOISE_FLOOR_MILLIS) {
+          regressions.add(String.format(Locale.ROOT, "%s: p%s went from %s ms to %s ms",
+            endpoint, format(PERCENTILES[i]), before[column], now[column]));
+        }
+      }
+    });
+    return regressions;
+  }
+
+  private static final class Endpoint {
+    private final Histogram latencies = new ConcurrentHistogram(HIGHEST_MICROS, SIGNIFICANT_DIGITS);
+    private final LongAdder errors = new LongAdder();
+  }
+}
@@ -0,0 +1,100 @@
+package umm3601;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.List;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoDatabase;
+
+/**
+ * An end-to-end load test: seed a database with made-up todos and users,
+ * start a real `Server` on it, drive a mix of requests at it at a fixed
+ * rate (see `Workload`), and report the latency percentiles of each
+ * endpoint (see `LatencyReport`).
+ *
+ * This is what `./gradlew perfTest` runs; see `build.gradle` for the
+ * properties that configure it. If there's a baseline from an earlier
+ * run, the results are compared against it, and the run fails if any
+ * endpoint got slower than the tolerance allows.
+ *
+ * It needs a `mongod` (at `MONGO_ADDR`, like the server) and port 4567,
+ * and it replaces everything in the `MONGO_DB` database (by default
+ * `perf`), so don't point it at a database you care about.
+ */
+public final class LoadTest {
+
+  private static final int DEFAULT_RATE = 200;
+  private static final int DEFAULT_SECONDS = 60;
+  private static final int DEFAULT_WARMUP_SECONDS = 15;
+  private static final int DEFAULT_TODOS = 10_000;
+  private static final int DEFAULT_USERS = 5_000;
+  private static final double DEFAULT_TOLERANCE = 0.2;
+
+  private LoadTest() {
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    int rate = Integer.getInteger("perfRate", DEFAULT_RATE);
+    Duration duration = Duration.ofSeconds(Integer.getInteger("perfSeconds", DEFAULT_SECONDS));
+    Duration warmup = Duration.ofSeconds(Integer.getInteger("perfWarmupSeconds", DEFAULT_WARMUP_SECONDS));
+    int todos = Integer.getInteger("perfTodos", DEFAULT_TODOS);
+    int users = Integer.getInteger("perfUsers", DEFAULT_USERS);
+    boolean useVirtualThreads = Boolean.getBoolean("perfVirtualThreads");
+    Path resultsDirectory = Path.of(System.getProperty("perfResults", "build/perf"));
+    Path baseline = Path.of(System.getProperty("perfBaseline", "perf-baseline.tsv"));
+    double tolerance = Double.parseDouble(System.getProperty("perfTolerance", String.valueOf(DEFAULT_TOLERANCE)));
+
+    String mongoAddr = Main.getEnvOrDefault("MONGO_ADDR", "localhost");
+    String databaseName = Main.getEnvOrDefault("MONGO_DB", "perf");
+    int poolSize = Server.DEFAULT_MONGO_POOL_SIZE;
+
+    // Seed the data, then start the server the same way `Main` does.
+    Metrics metrics = new Metrics();
+    SlowQueryLogger slowQueries = new SlowQueryLogger(SlowQueryLogger.DEFAULT_THRESHOLD_MILLIS);
+    MongoClient mongoClient = Server.configureDatabase(mongoAddr, poolSize, metrics.mongoPoolListener(),
+      slowQueries);
+    MongoDatabase database = mongoClient.getDatabase(databaseName);
+    System.out.printf("Seeding %s with %d todos and %d users%n", databaseName, todos, users);
+    SyntheticData data = SyntheticData.seed(database, todos, users);
+    new Server(mongoClient, Main.getControllers(database, null), useVirtualThreads, poolSize, metrics, slowQueries)
+      .startServer();
+
+    String threads = useVirtualThreads ? "virtual" : "platform";
+    System.out.printf("Sending %d requests/second on %s threads for %s (after a %s warmup)%n",
+      rate, threads, duration, warmup);
+    LatencyReport report = new LatencyReport();
+    int unfinished = new Workload("http://localhost:" + Server.SERVER_PORT, data, report)
+      .run(rate, warmup, duration);
+
+    report.print(System.out);
+    Path results = report.write(resultsDirectory, "results-" + threads);
+    System.out.println("Results written to " + results);
+
+    int status = 0;
+    if (unfinished > 0) {
+      System.out.println(unfinished + " requests never finished");
+      status = 1;
+    }
+    if (Boolean.getBoolean("perfSaveBaseline")) {
+      Files.copy(results, baseline, StandardCopyOption.REPLACE_EXISTING);
+      System.out.println("Saved the results as the baseline " + baseline);
+    } else if (Files.exists(baseline)) {
+      List<String> regressions = report.regressionsFrom(baseline, tolerance);
+      if (regressions.isEmpty()) {
+        System.out.println("No regressions from the baseline " + baseline);
+      } else {
+        System.out.println("Regressions from the baseline " + baseline + ":");
+        regressions.forEach(regression -> System.out.println("  " + regression));
+        status = 1;
+      }
+    } else {
+      System.out.println("No baseline at " + baseline + "; save one with -PperfSaveBaseline=true");
+    }
+    // This also stops the server (see `Server#configureShutdowns()`).
+    System.exit(status);
+  }
+}
@@ -0,0 +1,181 @@
+package umm3601;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+/**
+ * A made-up set of todos and users for load tests, and random requests
+ * (ids, filters, and new items) that fit it.
+ *
+ * Everything is made from a fixed seed, so two runs with the same sizes
+ * test the same data.
+ */
+public class SyntheticData {
+
+  static final long SEED = 3601;
+
+  private static final int BATCH_SIZE = 1000;
+  private static final String[] OWNERS = {"Blanche", "Fry", "Barry", "Workman", "Dawn", "Roberta"};
+  private static final String[] CATEGORIES = {"video games", "homework", "software design"};
+  private static final String[] COMPANIES = {"OHMNET", "IBM", "FROLIX", "PLASMOS", "BITREX", "ZYTREX", "QUINEX"};
+  private static final String[] ROLES = {"admin", "editor", "viewer"};
+  private static final String[] WORDS = (
+    "lorem ipsum dolor sit amet consectetur adipiscing elit sed do eiusmod tempor incididunt ut labore "
+    + "et dolore magna aliqua ut enim ad minim veniam quis nostrud exercitation ullamco laboris nisi").split(" ");
+  private static final int MAX_BODY_WORDS = 40;
+  private static final int MIN_AGE = 18;
+  private static final int AGE_RANGE = 60;
+
+  private final List<String> todoIds = new ArrayList<>();
+  private final List<String> userIds = new ArrayList<>();
+
+  /**
+   * Replace the todos and users in a database with made-up ones.
+   *
+   * @param database the database to seed
+   * @param todos how many todos to make
+   * @param users how many users to make
+   * @return the made-up data
+   */
+  public static SyntheticData seed(MongoDatabase database, int todos, int users) {
+    SyntheticData data = new SyntheticData();
+    Random random = new Random(SEED);
+
+    MongoCollection<Document> todoCollection = database.getCollection("todos");
+    todoCollection.drop();
+    List<Document> batch = new ArrayList<>();
+    for (int i = 0; i < todos; i++) {
+      ObjectId id = new ObjectId();
+      data.todoIds.add(id.toHexString());
+      batch.add(data.todo(random).append("_id", id));
+      flushIfFull(todoCollection, batch, i == todos - 1);
+    }
+
+    MongoCollection<Document> userCollection = database.getCollection("users");
+    userCollection.drop();
+    for (int i = 0; i < users; i++) {
+      ObjectId id = new ObjectId();
+      data.userIds.add(id.toHexString());
+      batch.add(data.user(random).append("_id", id));
+      flushIfFull(userCollection, batch, i == users - 1);
+    }
+    return data;
+  }
+
+  private static void flushIfFull(MongoCollection<Document> collection, List<Document> batch, boolean last) {
+    if (batch.size() >= BATCH_SIZE || (last && !batch.isEmpty())) {
+      collection.insertMany(batch);
+      batch.clear();
+    }
+  }
+
+  private static String pick(String[] choices, Random random) {
+    return choices[random.nextInt(choices.length)];
+  }
+
+  private static String encode(String value) {
+    return URLEncoder.encode(value, StandardCharsets.UTF_8);
+  }
+
+  private Document todo(Random random) {
+    StringBuilder body = new StringBuilder();
+    for (int words = 1 + random.nextInt(MAX_BODY_WORDS); words > 0; words--) {
+      body.append(pick(WORDS, random)).append(words > 1 ? " " : ".");
+    }
+    return new Document("owner", pick(OWNERS, random))
+      .append("status", random.nextBoolean())
+      .append("body", body.toString())
+      .append("category", pick(CATEGORIES, random));
+  }
+
+  private Document user(Random random) {
+    String name = pick(OWNERS, random) + " " + pick(WORDS, random);
+    String company = pick(COMPANIES, random);
+    String email = name.replace(' ', '.').toLowerCase() + "@" + company.toLowerCase() + ".com";
+    return new Document("name", name)
+      .append("age", MIN_AGE + random.nextInt(AGE_RANGE))
+      .append("company", company)
+      .append("email", email)
+      .append("role", pick(ROLES, random))
+      .append("avatar", "https://gravatar.com/avatar/?d=identicon");
+  }
+
+  /**
+   * The id of a random seeded todo.
+   */
+  String todoId(Random random) {
+    return todoIds.get(random.nextInt(todoIds.size()));
+  }
+
+  /**
+   * The id of a random seeded user.
+   */
+  String userId(Random random) {
+    return userIds.get(random.nextInt(userIds.size()));
+  }
+
+  /**
+   * A random (URL-encoded) `GET /api/todos` query string: a filter on the
+   * owner, status, and/or category, sometimes with a limit or a different order.
+   */
+  String todoQuery(Random random) {
+    List<String> params = new ArrayList<>();
+    if (random.nextBoolean()) {
+      params.add("owner=" + encode(pick(OWNERS, random)));
+    }
+    if (random.nextBoolean()) {
+      params.add("status=" + (random.nextBoolean() ? "complete" : "incomplete"));
+    }
+    if (random.nextBoolean()) {
+      params.add("category=" + encode(pick(CATEGORIES, random)));
+    }
+    if (random.nextBoolean()) {
+      params.add("limit=" + (1 + random.nextInt(MAX_BODY_WORDS)));
+    }
+    if (random.nextBoolean()) {
+      params.add("orderBy=category");
+    }
+    return String.join("&", params);
+  }
+
+  /**
+   * A random (URL-encoded) `GET /api/users` query string: a filter on the
+   * company, role, and/or age.
+   */
+  String userQuery(Random random) {
+    List<String> params = new ArrayList<>();
+    if (random.nextBoolean()) {
+      params.add("company=" + encode(pick(COMPANIES, random)));
+    }
+    if (random.nextBoolean()) {
+      params.add("role=" + pick(ROLES, random));
+    }
+    if (random.nextInt(AGE_RANGE) == 0) {
+      params.add("age=" + (MIN_AGE + random.nextInt(AGE_RANGE)));
+    }
+    return String.join("&", params);
+  }
+
+  /**
+   * The JSON body of a random `POST /api/todos`.
+   */
+  String newTodoJson(Random random) {
+    return todo(random).toJson();
+  }
+
+  /**
+   * The JSON body of a random `POST /api/users`.
+   */
+  String newUserJson(Random random) {
+    return user(random).toJson();
+  }
+}
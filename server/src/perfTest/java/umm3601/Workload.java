@@ -0,0 +1,194 @@
+package umm3601;
+
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A mix of requests sent to the server at a fixed rate.
+ *
+ * Requests are sent on a schedule (an "open" workload), not when the
+ * previous one finishes, and each request's latency is measured from when
+ * it was _supposed_ to be sent. So if the server stalls, the requests that
+ * should have gone out during the stall count the time they spent waiting,
+ * just like real users' requests would, instead of the stall quietly
+ * slowing the test down (coordinated omission).
+ */
+public class Workload {
+
+  // The relative weights of the kinds of request.
+  private static final int LIST_TODOS = 30;
+  private static final int GET_TODO = 20;
+  private static final int LIST_USERS = 15;
+  private static final int GET_USER = 10;
+  private static final int USERS_BY_COMPANY = 5;
+  private static final int CREATE_TODO = 8;
+  private static final int CREATE_USER = 6;
+  private static final int DELETE_USER = 6;
+
+  // How long we wait for the last requests to finish.
+  private static final Duration DRAIN_TIMEOUT = Duration.ofSeconds(30);
+  private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+  private static final Pattern NEW_ID = Pattern.compile("\"id\"\\s*:\\s*\"([0-9a-f]+)\"");
+
+  private final HttpClient client = HttpClient.newBuilder()
+    .version(HttpClient.Version.HTTP_1_1)
+    .connectTimeout(REQUEST_TIMEOUT)
+    .build();
+  private final String baseUrl;
+  private final SyntheticData data;
+  private final LatencyReport report;
+  private final Random random = new Random(SyntheticData.SEED);
+
+  // Users this workload created, which it can delete later.
+  private final Queue<String> createdUsers = new ConcurrentLinkedQueue<>();
+
+  /**
+   * Construct a workload.
+   *
+   * @param baseUrl the server's URL, like `http://localhost:4567`
+   * @param data the data the server was seeded with, for picking ids and filters
+   * @param report where to record the latencies
+   */
+  public Workload(String baseUrl, SyntheticData data, LatencyReport report) {
+    this.baseUrl = baseUrl;
+    this.data = data;
+    this.report = report;
+  }
+
+  /**
+   * Send requests at a fixed rate, recording the latencies of the ones
+   * sent after the warmup.
+   *
+   * @param requestsPerSecond how many requests to send each second
+   * @param warmup how long to send requests before recording them
+   * @param duration how long to send (and record) requests after the warmup
+   * @return how many requests hadn't finished by the time we gave up waiting
+   * @throws InterruptedException if we're interrupted while waiting for them
+   */
+  public int run(int requestsPerSecond, Duration warmup, Duration duration) throws InterruptedException {
+    long intervalNanos = TimeUnit.SECONDS.toNanos(1) / requestsPerSecond;
+    long start = System.nanoTime();
+    long measureFrom = start + warmup.toNanos();
+    long end = measureFrom + duration.toNanos();
+
+    List<CompletableFuture<?>> inFlight = new ArrayList<>();
+    for (long intended = start; intended < end; intended += intervalNanos) {
+      long wait = intended - System.nanoTime();
+      if (wait > 0) {
+        LockSupport.parkNanos(wait);
+      }
+      inFlight.add(send(nextRequest(), intended, intended >= measureFrom));
+    }
+
+    CompletableFuture<Void> all = CompletableFuture.allOf(inFlight.toArray(new CompletableFuture<?>[0]));
+    try {
+      all.get(DRAIN_TIMEOUT.toSeconds(), TimeUnit.SECONDS);
+    } catch (TimeoutException | ExecutionException e) {
+      // Unfinished requests are reported below; failed ones were recorded as errors.
+    }
+    return (int) inFlight.stream().filter(future -> !future.isDone()).count();
+  }
+
+  private CompletableFuture<?> send(Request request, long intended, boolean recorded) {
+    return client.sendAsync(request.http, HttpResponse.BodyHandlers.ofString())
+      .whenComplete((response, error) -> {
+        long latency = System.nanoTime() - intended;
+        boolean succeeded = error == null
+          && response.statusCode() >= HttpURLConnection.HTTP_OK
+          && response.statusCode() < HttpURLConnection.HTTP_MULT_CHOICE;
+        if (recorded) {
+          report.record(request.endpoint, latency, succeeded);
+        }
+        if (succeeded && request.createsUser) {
+          Matcher id = NEW_ID.matcher(response.body());
+          if (id.find()) {
+            createdUsers.add(id.group(1));
+          }
+        }
+      });
+  }
+
+  /**
+   * Pick the next request, according to the weights.
+   */
+  private Request nextRequest() {
+    int pick = random.nextInt(LIST_TODOS + GET_TODO + LIST_USERS + GET_USER + USERS_BY_COMPANY
+      + CREATE_TODO + CREATE_USER + DELETE_USER);
+    if (pick < LIST_TODOS) {
+      return get("GET /api/todos", "/api/todos?" + data.todoQuery(random));
+    }
+    pick -= LIST_TODOS;
+    if (pick < GET_TODO) {
+      return get("GET /api/todos/{id}", "/api/todos/" + data.todoId(random));
+    }
+    pick -= GET_TODO;
+    if (pick < LIST_USERS) {
+      return get("GET /api/users", "/api/users?" + data.userQuery(random));
+    }
+    pick -= LIST_USERS;
+    if (pick < GET_USER) {
+      return get("GET /api/users/{id}", "/api/users/" + data.userId(random));
+    }
+    pick -= GET_USER;
+    if (pick < USERS_BY_COMPANY) {
+      return get("GET /api/usersByCompany", "/api/usersByCompany");
+    }
+    pick -= USERS_BY_COMPANY;
+    if (pick < CREATE_TODO) {
+      return post("POST /api/todos", "/api/todos", data.newTodoJson(random), false);
+    }
+    pick -= CREATE_TODO;
+    // Delete a user we made earlier, if there are any left; otherwise make one.
+    String deletable = pick >= CREATE_USER ? createdUsers.poll() : null;
+    if (deletable == null) {
+      return post("POST /api/users", "/api/users", data.newUserJson(random), true);
+    }
+    return new Request("DELETE /api/users/{id}",
+      builder("/api/users/" + URLEncoder.encode(deletable, StandardCharsets.UTF_8)).DELETE().build(), false);
+  }
+
+  private HttpRequest.Builder builder(String path) {
+    return HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(REQUEST_TIMEOUT);
+  }
+
+  private Request get(String endpoint, String path) {
+    return new Request(endpoint, builder(path).GET().build(), false);
+  }
+
+  private Request post(String endpoint, String path, String json, boolean createsUser) {
+    return new Request(endpoint, builder(path)
+      .header("Content-Type", "application/json")
+      .POST(HttpRequest.BodyPublishers.ofString(json))
+      .build(), createsUser);
+  }
+
+  private static final class Request {
+    private final String endpoint;
+    private final HttpRequest http;
+    private final boolean createsUser;
+
+    Request(String endpoint, HttpRequest http, boolean createsUser) {
+      this.endpoint = endpoint;
+      this.http = http;
+      this.createsUser = createsUser;
+    }
+  }
+}
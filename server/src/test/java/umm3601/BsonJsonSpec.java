@@ -0,0 +1,126 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+import io.javalin.json.JavalinJackson;
+
+/**
+ * Tests that `BsonJson` writes the same JSON the clients would get from
+ * Javalin's mapper.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class BsonJsonSpec {
+
+  private static final ObjectId ID = new ObjectId("588935f57546a2daea44de7c");
+
+  private static RawBsonDocument raw(Document document) {
+    return new RawBsonDocument(document, new DocumentCodec());
+  }
+
+  private static String toJson(List<RawBsonDocument> documents) {
+    StringWriter out = new StringWriter();
+    BsonJson.writeArray(documents, out);
+    return out.toString();
+  }
+
+  @Test
+  void writesObjectIdsAsHexStringsAndNumbersAsNumbers() {
+    RawBsonDocument todo = raw(new Document("_id", ID)
+      .append("owner", "Blanche")
+      .append("status", false)
+      .append("age", 25)
+      .append("big", 12_345_678_901L)
+      .append("users", List.of(new Document("_id", ID).append("name", "Fry"))));
+
+    StringWriter out = new StringWriter();
+    BsonJson.writeDocument(todo, out);
+
+    Map<?, ?> json = new JavalinJackson().fromJsonString(out.toString(), Map.class);
+    assertEquals("588935f57546a2daea44de7c", json.get("_id"));
+    assertEquals("Blanche", json.get("owner"));
+    assertEquals(false, json.get("status"));
+    assertEquals(25, json.get("age"));
+    assertEquals(12_345_678_901L, json.get("big"));
+    assertEquals(List.of(Map.of("_id", "588935f57546a2daea44de7c", "name", "Fry")), json.get("users"));
+  }
+
+  @Test
+  void writesArraysOfDocuments() {
+    assertEquals("[]", toJson(List.of()));
+    String json = toJson(List.of(raw(new Document("n", 1)), raw(new Document("n", 2))));
+    assertEquals(List.of(Map.of("n", 1), Map.of("n", 2)), new JavalinJackson().fromJsonString(json, List.class));
+  }
+
+  @Test
+  void closesCursorsEvenWhenWritingFails() {
+    AtomicBoolean closed = new AtomicBoolean();
+    Iterable<RawBsonDocument> cursor = () -> new ClosingIterator(List.of(raw(new Document("n", 1))), closed);
+    Writer broken = new Writer() {
+      @Override
+      public void write(char[] chars, int offset, int length) throws IOException {
+        throw new IOException("The client went away");
+      }
+
+      @Override
+      public void flush() {
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+
+    assertThrows(UncheckedIOException.class, () -> BsonJson.writeArray(cursor, broken));
+    assertTrue(closed.get());
+
+    closed.set(false);
+    BsonJson.writeArray(cursor, new StringWriter());
+    assertTrue(closed.get());
+  }
+
+  /**
+   * Stands in for a Mongo cursor, which is an iterator that needs closing.
+   */
+  private static final class ClosingIterator implements Iterator<RawBsonDocument>, Closeable {
+    private final Iterator<RawBsonDocument> documents;
+    private final AtomicBoolean closed;
+
+    ClosingIterator(List<RawBsonDocument> documents, AtomicBoolean closed) {
+      this.documents = documents.iterator();
+      this.closed = closed;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return documents.hasNext();
+    }
+
+    @Override
+    public RawBsonDocument next() {
+      return documents.next();
+    }
+
+    @Override
+    public void close() {
+      closed.set(true);
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Tests the entity tags and `If-None-Match` handling of `CollectionVersion`.
+ */
+class CollectionVersionSpec {
+
+  @Mock
+  private Context ctx;
+
+  private CollectionVersion version;
+
+  @BeforeEach
+  void setupEach() {
+    MockitoAnnotations.openMocks(this);
+    version = new CollectionVersion();
+  }
+
+  @Test
+  void tagsDependOnTheQueryButNotItsParameterOrder() {
+    Map<String, List<String>> ownerThenStatus = new LinkedHashMap<>();
+    ownerThenStatus.put("owner", List.of("Fry"));
+    ownerThenStatus.put("status", List.of("true"));
+    Map<String, List<String>> statusThenOwner = new LinkedHashMap<>();
+    statusThenOwner.put("status", List.of("true"));
+    statusThenOwner.put("owner", List.of("Fry"));
+
+    String tag = version.entityTag("/api/todos", ownerThenStatus);
+    assertTrue(tag.startsWith("W/\""));
+    assertEquals(tag, version.entityTag("/api/todos", statusThenOwner));
+    assertNotEquals(tag, version.entityTag("/api/todos", Map.of("owner", List.of("Fry"))));
+    assertNotEquals(tag, version.entityTag("/api/todosByCategory", ownerThenStatus));
+  }
+
+  @Test
+  void changesMakeOldTagsStale() {
+    String before = version.entityTag("/api/users", Map.of());
+    version.changed();
+
+    assertEquals(1, version.version());
+    assertNotEquals(before, version.entityTag("/api/users", Map.of()));
+  }
+
+  @Test
+  void cacheKeysDependOnTheResourceQueryAndVersion() {
+    String key = version.cacheKey("/api/todos", "{\"status\": true}");
+    assertEquals(key, version.cacheKey("/api/todos", "{\"status\": true}"));
+    assertNotEquals(key, version.cacheKey("/api/users", "{\"status\": true}"));
+    assertNotEquals(key, version.cacheKey("/api/todos", "{}"));
+
+    version.changed();
+    assertNotEquals(key, version.cacheKey("/api/todos", "{\"status\": true}"));
+  }
+
+  @Test
+  void differentInstancesHandOutDifferentTags() {
+    // E.g., the same server before and after a restart.
+    assertNotEquals(version.entityTag("/api/users", Map.of()),
+      new CollectionVersion().entityTag("/api/users", Map.of()));
+  }
+
+  @Test
+  void answersAMatchingIfNoneMatchWithNotModified() {
+    String tag = version.entityTag("/api/users", Map.of());
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn("W/\"something-else\", " + tag);
+
+    assertTrue(version.notModified(ctx, "/api/users"));
+    verify(ctx).header(Header.ETAG, tag);
+    verify(ctx).status(HttpStatus.NOT_MODIFIED);
+  }
+
+  @Test
+  void comparesTagsWeakly() {
+    String tag = version.entityTag("/api/users", Map.of());
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn(tag.substring(2));
+
+    assertTrue(version.notModified(ctx, "/api/users"));
+  }
+
+  @Test
+  void anyTagMatchesAStar() {
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn("*");
+
+    assertTrue(version.notModified(ctx, "/api/users"));
+  }
+
+  @Test
+  void tagsButDoesNotAnswerOtherRequests() {
+    String tag = version.entityTag("/api/users", Map.of());
+
+    assertFalse(version.notModified(ctx, "/api/users"));
+
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn(tag);
+    version.changed();
+    assertFalse(version.notModified(ctx, "/api/users"));
+
+    verify(ctx).header(Header.ETAG, tag);
+    verify(ctx, never()).status(HttpStatus.NOT_MODIFIED);
+  }
+}
@@ -0,0 +1,340 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import io.javalin.http.ContentType;
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+import io.javalin.json.JavalinJackson;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Tests the content negotiation and caching of `CompressedJsonCache`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class CompressedJsonCacheSpec {
+
+  @Mock
+  private Context ctx;
+
+  @Mock
+  private HttpServletResponse res;
+
+  // What's been written to the (mock) servlet response.
+  private ByteArrayOutputStream written;
+
+  private CompressedJsonCache cache;
+
+  @BeforeEach
+  void setupEach() throws IOException {
+    MockitoAnnotations.openMocks(this);
+    written = new ByteArrayOutputStream();
+    when(ctx.res()).thenReturn(res);
+    when(ctx.jsonMapper()).thenReturn(new JavalinJackson());
+    ServletOutputStream out = new ServletOutputStream() {
+      @Override
+      public void write(int b) {
+        written.write(b);
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener writeListener) {
+      }
+    };
+    when(res.getOutputStream()).thenReturn(out);
+    cache = new CompressedJsonCache(1024 * 1024);
+  }
+
+  private static List<String> bigList() {
+    List<String> owners = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      owners.add("owner number " + i);
+    }
+    return owners;
+  }
+
+  private static String gunzip(byte[] gzipped) throws IOException {
+    try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+
+  private static byte[] json(Object value) {
+    return new JavalinJackson().toJsonString(value, value.getClass()).getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Test
+  void sendsAndCachesPlainJsonForClientsThatDoNotAcceptGzip() {
+    AtomicInteger queries = new AtomicInteger();
+
+    for (int i = 0; i < 2; i++) {
+      cache.json(ctx, "key", () -> {
+        queries.incrementAndGet();
+        return bigList();
+      });
+    }
+
+    assertEquals(1, queries.get());
+    verify(ctx, times(2)).contentType(ContentType.APPLICATION_JSON);
+    verify(ctx, times(2)).result(json(bigList()));
+    verify(ctx, times(2)).header(Header.VARY, Header.ACCEPT_ENCODING);
+    verify(ctx, never()).json(any());
+    verify(res, never()).setHeader(Header.CONTENT_ENCODING, "gzip");
+    assertEquals(1, cache.hits());
+  }
+
+  @Test
+  void clientsThatDoAndDoNotAcceptGzipShareAnEntry() throws IOException {
+    AtomicInteger queries = new AtomicInteger();
+    cache.json(ctx, "key", () -> {
+      queries.incrementAndGet();
+      return bigList();
+    });
+
+    when(ctx.header(Header.ACCEPT_ENCODING)).thenReturn("gzip");
+    cache.json(ctx, "key", () -> {
+      queries.incrementAndGet();
+      return bigList();
+    });
+
+    assertEquals(1, queries.get());
+    verify(ctx).result(json(bigList()));
+    assertEquals(new JavalinJackson().toJsonString(bigList(), List.class), gunzip(written.toByteArray()));
+    assertEquals(1, cache.size());
+    assertEquals(1, cache.hits());
+  }
+
+  @Test
+  void gzipsLargeResponsesAndServesRepeatsFromTheCache() throws IOException {
+    when(ctx.header(Header.ACCEPT_ENCODING)).thenReturn("gzip, deflate, br");
+    AtomicInteger queries = new AtomicInteger();
+
+    cache.json(ctx, "key", () -> {
+      queries.incrementAndGet();
+      return bigList();
+    });
+    byte[] first = written.toByteArray();
+    written.reset();
+    cache.json(ctx, "key", () -> {
+      queries.incrementAndGet();
+      return bigList();
+    });
+
+    assertEquals(1, queries.get());
+    assertArrayEquals(first, written.toByteArray());
+    assertEquals(new JavalinJackson().toJsonString(bigList(), List.class), gunzip(first));
+    verify(res, times(2)).setHeader(Header.CONTENT_ENCODING, "gzip");
+    verify(ctx, never()).json(any());
+
+    // Both the plain and the gzipped JSON are kept.
+    assertEquals(1, cache.size());
+    assertEquals(json(bigList()).length + first.length, cache.bytes());
+    assertEquals(1, cache.hits());
+    assertEquals(1, cache.misses());
+  }
+
+  @Test
+  void sendsSmallResponsesUncompressed() {
+    when(ctx.header(Header.ACCEPT_ENCODING)).thenReturn("gzip");
+
+    cache.json(ctx, "key", () -> List.of("Blanche", "Fry"));
+
+    verify(ctx).contentType(ContentType.APPLICATION_JSON);
+    verify(ctx).result("[\"Blanche\",\"Fry\"]".getBytes(StandardCharsets.UTF_8));
+    assertEquals(0, written.size());
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  void differentKeysAreCachedSeparately() {
+    when(ctx.header(Header.ACCEPT_ENCODING)).thenReturn("gzip");
+
+    cache.json(ctx, "version 1", CompressedJsonCacheSpec::bigList);
+    cache.json(ctx, "version 2", CompressedJsonCacheSpec::bigList);
+
+    assertEquals(2, cache.size());
+    assertEquals(2, cache.misses());
+  }
+
+  @Test
+  void concurrentIdenticalQueriesShareOneCallAndOneCompressedResponse() throws Exception {
+    when(ctx.header(Header.ACCEPT_ENCODING)).thenReturn("gzip");
+    AtomicInteger queries = new AtomicInteger();
+    CountDownLatch release = new CountDownLatch(1);
+    Runnable request = () -> cache.json(ctx, "1 /api/todos status=true", () -> {
+      queries.incrementAndGet();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+      return bigList();
+    });
+
+    ExecutorService pool = Executors.newFixedThreadPool(3);
+    try {
+      List<Future<?>> requests = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+        requests.add(pool.submit(request));
+      }
+      while (cache.sharedResponses() < 2) {
+        Thread.sleep(1);
+      }
+      release.countDown();
+      for (Future<?> finished : requests) {
+        finished.get();
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+
+    assertEquals(1, queries.get());
+    verify(res, times(3)).setHeader(Header.CONTENT_ENCODING, "gzip");
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  void writesDropEveryCachedResponse() {
+    when(ctx.header(Header.ACCEPT_ENCODING)).thenReturn("gzip");
+    cache.json(ctx, "version 1", CompressedJsonCacheSpec::bigList);
+    cache.json(ctx, "version 1", CompressedJsonCacheSpec::bigList);
+    assertEquals(0.5, cache.hitRatio());
+
+    cache.invalidateAll();
+
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.bytes());
+  }
+
+  @Test
+  void reportsHowBigItIsAndHowWellItsDoing() {
+    when(ctx.header(Header.ACCEPT_ENCODING)).thenReturn("gzip");
+    Metrics metrics = new Metrics();
+    cache.addGauges(metrics, "todos");
+    for (int i = 0; i < 4; i++) {
+      cache.json(ctx, "key", CompressedJsonCacheSpec::bigList);
+    }
+
+    String rendered = metrics.render();
+    assertTrue(rendered.contains("todos_response_cache_bytes " + cache.bytes() + "\n"));
+    assertTrue(rendered.contains("todos_response_cache_entries 1\n"));
+    assertTrue(rendered.contains(
+      "# TYPE todos_response_cache_hits_total counter\ntodos_response_cache_hits_total 3\n"));
+    assertTrue(rendered.contains("todos_response_cache_misses_total 1\n"));
+    assertTrue(rendered.contains("todos_response_cache_hit_ratio_percent 75\n"));
+  }
+
+  @Test
+  void cachesWrittenJsonForClientsThatDoNotAcceptGzip() {
+    AtomicInteger writes = new AtomicInteger();
+
+    for (int i = 0; i < 2; i++) {
+      cache.writeJson(ctx, "key", out -> {
+        writes.incrementAndGet();
+        writeQuietly(out, "[\"Blanche\",\"Fry\"]");
+      });
+    }
+
+    assertEquals(1, writes.get());
+    verify(ctx, times(2)).contentType(ContentType.APPLICATION_JSON);
+    verify(ctx, times(2)).result("[\"Blanche\",\"Fry\"]".getBytes(StandardCharsets.UTF_8));
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  void gzipsAndCachesWrittenJson() throws IOException {
+    when(ctx.header(Header.ACCEPT_ENCODING)).thenReturn("gzip");
+    String json = new JavalinJackson().toJsonString(bigList(), List.class);
+    AtomicInteger writes = new AtomicInteger();
+
+    cache.writeJson(ctx, "key", out -> {
+      writes.incrementAndGet();
+      writeQuietly(out, json);
+    });
+    byte[] first = written.toByteArray();
+    written.reset();
+    cache.writeJson(ctx, "key", out -> writes.incrementAndGet());
+
+    assertEquals(1, writes.get());
+    assertEquals(json, gunzip(first));
+    assertArrayEquals(first, written.toByteArray());
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  void writesJsonTooBigToCacheStraightToTheResponse() throws IOException {
+    when(ctx.outputStream()).thenReturn(res.getOutputStream());
+    cache = new CompressedJsonCache(100);
+    String json = new JavalinJackson().toJsonString(bigList(), List.class);
+
+    cache.writeJson(ctx, "key", out -> writeQuietly(out, json));
+
+    verify(ctx).contentType(ContentType.APPLICATION_JSON);
+    verify(ctx, never()).result(any(byte[].class));
+    assertEquals(json, written.toString(StandardCharsets.UTF_8));
+    assertEquals(0, cache.size());
+  }
+
+  private static void writeQuietly(Writer out, String json) {
+    try {
+      out.write(json);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Test
+  void understandsAcceptEncoding() {
+    assertTrue(CompressedJsonCache.acceptsGzip("gzip"));
+    assertTrue(CompressedJsonCache.acceptsGzip("br;q=1.0, GZIP;q=0.5"));
+    assertTrue(CompressedJsonCache.acceptsGzip("*"));
+    assertFalse(CompressedJsonCache.acceptsGzip(null));
+    assertFalse(CompressedJsonCache.acceptsGzip("br, deflate"));
+    assertFalse(CompressedJsonCache.acceptsGzip("gzip;q=0"));
+    assertFalse(CompressedJsonCache.acceptsGzip("identity, gzip; q=0.0"));
+  }
+
+  @Test
+  void gzipShrinksRepetitiveJson() throws IOException {
+    String json = new JavalinJackson().toJsonString(bigList(), List.class);
+    byte[] gzipped = CompressedJsonCache.gzip(json);
+
+    assertTrue(gzipped.length < json.length() / 2);
+    assertEquals(json, gunzip(gzipped));
+  }
+}
@@ -0,0 +1,58 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+
+/**
+ * Tests the wrapping of async handlers by `Controller.async()`.
+ */
+class ControllerSpec {
+
+  @Mock
+  private Context ctx;
+
+  @Captor
+  private ArgumentCaptor<Supplier<? extends CompletableFuture<?>>> futureCaptor;
+
+  @BeforeEach
+  void setupEach() {
+    MockitoAnnotations.openMocks(this);
+  }
+
+  @Test
+  void handsTheFutureToJavalin() throws Exception {
+    CompletableFuture<String> response = new CompletableFuture<>();
+
+    Controller.async(context -> response).handle(ctx);
+
+    verify(ctx).future(futureCaptor.capture());
+    assertSame(response, futureCaptor.getValue().get());
+  }
+
+  @Test
+  void exceptionsThrownBeforeTheFutureArePassedOn() {
+    assertThrows(BadRequestResponse.class, () -> {
+      Controller.async(context -> {
+        throw new BadRequestResponse("Illegal query parameter");
+      }).handle(ctx);
+    });
+
+    verify(ctx, never()).future(any());
+  }
+}
@@ -0,0 +1,97 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import io.javalin.http.ServiceUnavailableResponse;
+
+/**
+ * Tests that `DatabaseGate` lets the right amount of work through.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class DatabaseGateSpec {
+
+  /**
+   * Start some work that holds one of the gate's permits until `release`
+   * is counted down.
+   */
+  private static CompletableFuture<Void> hold(DatabaseGate gate, CountDownLatch release) {
+    return CompletableFuture.runAsync(() -> gate.run(() -> {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+    }));
+  }
+
+  private static void awaitInFlight(DatabaseGate gate, int inFlight) throws InterruptedException {
+    while (gate.inFlight() < inFlight) {
+      Thread.sleep(1);
+    }
+  }
+
+  @Test
+  void turnsAwayWorkOnceItIsFull() throws Exception {
+    DatabaseGate gate = new DatabaseGate(2, 10);
+    CountDownLatch release = new CountDownLatch(1);
+    CompletableFuture<Void> first = hold(gate, release);
+    CompletableFuture<Void> second = hold(gate, release);
+    awaitInFlight(gate, 2);
+
+    assertThrows(ServiceUnavailableResponse.class, () -> {
+      gate.call(() -> "never run");
+    });
+    assertEquals(2, gate.inFlight());
+
+    release.countDown();
+    first.get(5, TimeUnit.SECONDS);
+    second.get(5, TimeUnit.SECONDS);
+    assertEquals(0, gate.inFlight());
+  }
+
+  @Test
+  void givesBackPermitsWhenTheWorkFails() {
+    DatabaseGate gate = new DatabaseGate(1, 10);
+
+    assertThrows(IllegalStateException.class, () -> {
+      gate.run(() -> {
+        throw new IllegalStateException("the query failed");
+      });
+    });
+
+    assertEquals(0, gate.inFlight());
+    assertEquals("ran", gate.call(() -> "ran"));
+  }
+
+  @Test
+  void waitingWorkGetsInWhenOtherWorkFinishes() throws Exception {
+    DatabaseGate gate = new DatabaseGate(1, 10_000);
+    CountDownLatch release = new CountDownLatch(1);
+    CompletableFuture<Void> holder = hold(gate, release);
+    awaitInFlight(gate, 1);
+
+    CompletableFuture<String> waiter = CompletableFuture.supplyAsync(() -> gate.call(() -> "got in"));
+    while (gate.waiting() == 0) {
+      Thread.sleep(1);
+    }
+    release.countDown();
+
+    assertEquals("got in", waiter.get(5, TimeUnit.SECONDS));
+    holder.get(5, TimeUnit.SECONDS);
+    assertEquals(0, gate.inFlight());
+    assertEquals(0, gate.waiting());
+  }
+
+  @Test
+  void anUnlimitedGateRunsEverything() {
+    assertEquals("ran", DatabaseGate.UNLIMITED.call(() -> "ran"));
+    assertEquals(0, DatabaseGate.UNLIMITED.inFlight());
+  }
+}
@@ -0,0 +1,141 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+
+/**
+ * Tests that the `IndexRegistry` creates the declared indexes and
+ * reports query shapes that no index serves.
+ */
+class IndexRegistrySpec {
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  private MongoCollection<Document> widgets;
+  private MongoCollection<Document> gadgets;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoClient = MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .build());
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  @BeforeEach
+  void setupEach() {
+    widgets = db.getCollection("widgets");
+    gadgets = db.getCollection("gadgets");
+    widgets.drop();
+    gadgets.drop();
+    widgets.insertOne(new Document("color", "red").append("size", 1));
+    gadgets.insertOne(new Document("name", "sprocket"));
+  }
+
+  private List<List<String>> indexKeys(MongoCollection<Document> collection) {
+    List<List<String>> keys = new ArrayList<>();
+    for (Document index : collection.listIndexes()) {
+      keys.add(new ArrayList<>(index.get("key", Document.class).keySet()));
+    }
+    return keys;
+  }
+
+  @Test
+  void createsDeclaredIndexesOnEveryCollection() {
+    IndexRegistry registry = new IndexRegistry();
+    registry.declareIndexes(widgets, new IndexModel(Indexes.ascending("color", "size")));
+    registry.declareIndexes(gadgets, new IndexModel(Indexes.ascending("name")));
+
+    List<String> unindexed = registry.reconcile();
+
+    assertTrue(unindexed.isEmpty());
+    assertTrue(indexKeys(widgets).contains(List.of("color", "size")));
+    assertTrue(indexKeys(gadgets).contains(List.of("name")));
+  }
+
+  @Test
+  void reportsQueryShapesWithoutAnIndex() {
+    IndexRegistry registry = new IndexRegistry();
+    registry.declareIndexes(widgets, new IndexModel(Indexes.ascending("color", "size")));
+    // Served by the leading field(s) of the compound index.
+    registry.declareQueryShape(widgets, "color");
+    registry.declareQueryShape(widgets, "size", "color");
+    // Not a prefix of any index.
+    registry.declareQueryShape(widgets, "size");
+    // `_id` always has an index.
+    registry.declareQueryShape(gadgets, "_id");
+    registry.declareQueryShape(gadgets, "name");
+
+    List<String> unindexed = registry.reconcile();
+
+    assertEquals(List.of("test.widgets [size]", "test.gadgets [name]"), unindexed);
+  }
+
+  @Test
+  void onlyCountsTheFieldsAnIndexCanSeekOn() {
+    IndexRegistry registry = new IndexRegistry();
+    registry.declareIndexes(widgets, new IndexModel(Indexes.ascending("color", "size")));
+    // The index narrows the query down by color, and the size is matched
+    // against the entries it finds.
+    registry.declareRegexQueryShape(widgets, List.of("size"), "color");
+    // The index would have to be scanned in full.
+    registry.declareRegexQueryShape(widgets, List.of("color"));
+
+    List<String> unindexed = registry.reconcile();
+
+    assertEquals(List.of("test.widgets [color]"), unindexed);
+  }
+
+  @Test
+  void keepsGoingWhenAnIndexCantBeCreated() {
+    // An index with the same keys but different options can't be created.
+    widgets.createIndex(Indexes.ascending("color"), new IndexOptions().name("colorful"));
+
+    IndexRegistry registry = new IndexRegistry();
+    registry.declareIndexes(widgets, new IndexModel(Indexes.ascending("color"), new IndexOptions().unique(true)));
+    registry.declareIndexes(gadgets, new IndexModel(Indexes.ascending("name")));
+    registry.declareQueryShape(widgets, "color");
+
+    List<String> unindexed = registry.reconcile();
+
+    // The existing index still serves `color`, and the other collection
+    // was reconciled anyway.
+    assertTrue(unindexed.isEmpty());
+    assertTrue(indexKeys(gadgets).contains(List.of("name")));
+  }
+
+  @Test
+  void reconcilingNothingDoesNothing() {
+    assertTrue(new IndexRegistry().reconcile().isEmpty());
+  }
+}
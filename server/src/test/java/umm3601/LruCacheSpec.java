@@ -0,0 +1,191 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the eviction, invalidation, and bookkeeping of `LruCache`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class LruCacheSpec {
+
+  @Test
+  void loadsOnMissAndServesHitsFromTheCache() {
+    LruCache<String, String> cache = new LruCache<>(10);
+    AtomicInteger loads = new AtomicInteger();
+
+    assertEquals("A", cache.get("a", key -> {
+      loads.incrementAndGet();
+      return key.toUpperCase();
+    }));
+    assertEquals("A", cache.get("a", key -> {
+      loads.incrementAndGet();
+      return "not cached";
+    }));
+
+    assertEquals(1, loads.get());
+    assertEquals(1, cache.hits());
+    assertEquals(1, cache.misses());
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  void doesNotCacheMissingValues() {
+    LruCache<String, String> cache = new LruCache<>(10);
+
+    assertNull(cache.get("a", key -> null));
+    assertEquals("A", cache.get("a", key -> "A"));
+
+    assertEquals(2, cache.misses());
+  }
+
+  @Test
+  void evictsLeastRecentlyUsedEntries() {
+    LruCache<String, String> cache = new LruCache<>(2);
+    cache.get("a", key -> "A");
+    cache.get("b", key -> "B");
+    // Touch "a" so that "b" becomes the least recently used.
+    cache.get("a", key -> "not cached");
+    cache.get("c", key -> "C");
+
+    assertEquals(2, cache.size());
+    assertEquals(1, cache.evictions());
+    assertEquals("A", cache.get("a", key -> "reloaded"));
+    assertEquals("reloaded", cache.get("b", key -> "reloaded"));
+  }
+
+  @Test
+  void boundsTheTotalWeight() {
+    LruCache<String, String> cache = new LruCache<>(10, String::length);
+    cache.get("a", key -> "aaaa");
+    cache.get("b", key -> "bbbb");
+    assertEquals(8, cache.weight());
+
+    // Adding 6 more takes us to 14, so "a" has to go.
+    cache.get("c", key -> "cccccc");
+    assertEquals(10, cache.weight());
+    assertEquals(2, cache.size());
+
+    // Something heavier than the whole cache isn't kept at all.
+    assertEquals("dddddddddddd", cache.get("d", key -> "dddddddddddd"));
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.weight());
+  }
+
+  @Test
+  void invalidationForcesAReload() {
+    LruCache<String, String> cache = new LruCache<>(10, String::length);
+    cache.get("a", key -> "old");
+    cache.invalidate("a");
+
+    assertEquals(0, cache.weight());
+    assertEquals("new", cache.get("a", key -> "new"));
+    assertEquals(3, cache.weight());
+
+    cache.invalidateAll();
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.weight());
+  }
+
+  @Test
+  void loadsThatRaceAnInvalidationAreNotCached() {
+    LruCache<String, String> cache = new LruCache<>(10);
+
+    // The data for "a" changes while we're loading the old version.
+    assertEquals("stale", cache.get("a", key -> {
+      cache.invalidate(key);
+      return "stale";
+    }));
+
+    assertEquals(0, cache.size());
+    assertEquals("fresh", cache.get("a", key -> "fresh"));
+  }
+
+  @Test
+  void canLookUpAndAddValuesWithoutALoader() {
+    LruCache<String, String> cache = new LruCache<>(10, String::length);
+
+    assertNull(cache.getIfPresent("a"));
+    cache.put("a", "aaaa");
+    cache.put("a", "aaaaaa");
+    assertEquals("aaaaaa", cache.getIfPresent("a"));
+
+    assertEquals(6, cache.weight());
+    assertEquals(1, cache.hits());
+    assertEquals(1, cache.misses());
+
+    cache.put("b", "bbbbbb");
+    assertNull(cache.getIfPresent("a"));
+    assertEquals(1, cache.evictions());
+  }
+
+  @Test
+  void loadsAsynchronouslyOnMissAndServesHitsFromTheCache() throws Exception {
+    LruCache<String, String> cache = new LruCache<>(10);
+    CompletableFuture<String> pending = new CompletableFuture<>();
+
+    CompletableFuture<String> first = cache.getAsync("a", key -> pending);
+    // Nothing is cached until the load completes.
+    assertEquals(0, cache.size());
+    pending.complete("A");
+
+    assertEquals("A", first.get());
+    assertEquals("A", cache.getAsync("a", key -> CompletableFuture.completedFuture("not cached")).get());
+    assertEquals(1, cache.hits());
+    assertEquals(1, cache.misses());
+  }
+
+  @Test
+  void asyncLoadsThatRaceAnInvalidationAreNotCached() throws Exception {
+    LruCache<String, String> cache = new LruCache<>(10);
+    CompletableFuture<String> pending = new CompletableFuture<>();
+
+    CompletableFuture<String> stale = cache.getAsync("a", key -> pending);
+    cache.invalidate("a");
+    pending.complete("stale");
+
+    assertEquals("stale", stale.get());
+    assertEquals(0, cache.size());
+    assertNull(cache.getAsync("b", key -> CompletableFuture.completedFuture(null)).get());
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  void expiresEntriesOnceTheyreOlderThanTheirTimeToLive() {
+    AtomicLong now = new AtomicLong(-5_000_000_000L);
+    LruCache<String, String> cache = new LruCache<>(100, value -> value.length(), Duration.ofSeconds(10), now::get);
+    cache.put("a", "A");
+    now.addAndGet(5_000_000_000L);
+    cache.put("b", "BB");
+
+    // "a" is 9.999... seconds old; still alive
+    now.addAndGet(4_999_999_999L);
+    assertEquals("A", cache.getIfPresent("a"));
+    now.addAndGet(2);
+    assertNull(cache.getIfPresent("a"));
+    assertEquals("BB", cache.get("b", key -> "reloaded"));
+    assertEquals("reloaded", cache.get("a", key -> "reloaded"));
+
+    assertEquals(1, cache.expirations());
+    assertEquals("BB".length() + "reloaded".length(), cache.weight());
+  }
+
+  @Test
+  void entriesWithoutATimeToLiveNeverExpire() {
+    AtomicLong now = new AtomicLong(Long.MAX_VALUE - 1);
+    LruCache<String, String> cache = new LruCache<>(100, value -> 1, null, now::get);
+    cache.put("a", "A");
+    // Even when the clock wraps around
+    now.addAndGet(10);
+
+    assertEquals("A", cache.getIfPresent("a"));
+    assertEquals(0, cache.expirations());
+  }
+}
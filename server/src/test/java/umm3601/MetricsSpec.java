@@ -0,0 +1,131 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+
+/**
+ * Tests the recording and Prometheus output of `Metrics`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class MetricsSpec {
+
+  @Mock
+  private Context ctx;
+
+  private Metrics metrics;
+
+  @BeforeEach
+  void setupEach() {
+    MockitoAnnotations.openMocks(this);
+    metrics = new Metrics();
+  }
+
+  private void request(HandlerType method, String route, int status, float millis) {
+    when(ctx.method()).thenReturn(method);
+    when(ctx.endpointHandlerPath()).thenReturn(route);
+    when(ctx.statusCode()).thenReturn(status);
+    metrics.requestStarted(ctx);
+    metrics.requestFinished(ctx, millis);
+  }
+
+  @Test
+  void countsRequestsByRouteAndStatus() {
+    request(HandlerType.GET, "/api/todos/{id}", 200, 1);
+    request(HandlerType.GET, "/api/todos/{id}", 200, 1);
+    request(HandlerType.GET, "/api/todos/{id}", 404, 1);
+    request(HandlerType.POST, "/api/todos", 201, 1);
+
+    String output = metrics.render();
+
+    assertTrue(output.contains("# TYPE http_requests_total counter\n"));
+    assertTrue(output.contains("http_requests_total{method=\"GET\",route=\"/api/todos/{id}\",status=\"200\"} 2\n"));
+    assertTrue(output.contains("http_requests_total{method=\"GET\",route=\"/api/todos/{id}\",status=\"404\"} 1\n"));
+    assertTrue(output.contains("http_requests_total{method=\"POST\",route=\"/api/todos\",status=\"201\"} 1\n"));
+  }
+
+  @Test
+  void keepsACumulativeLatencyHistogram() {
+    request(HandlerType.GET, "/api/users", 200, 3);
+    request(HandlerType.GET, "/api/users", 200, 40);
+    request(HandlerType.GET, "/api/users", 200, 60_000);
+
+    String output = metrics.render();
+    String labels = "method=\"GET\",route=\"/api/users\"";
+
+    assertTrue(output.contains("# TYPE http_request_duration_seconds histogram\n"));
+    assertTrue(output.contains("http_request_duration_seconds_bucket{" + labels + ",le=\"0.005\"} 1\n"));
+    assertTrue(output.contains("http_request_duration_seconds_bucket{" + labels + ",le=\"0.025\"} 1\n"));
+    assertTrue(output.contains("http_request_duration_seconds_bucket{" + labels + ",le=\"0.05\"} 2\n"));
+    assertTrue(output.contains("http_request_duration_seconds_bucket{" + labels + ",le=\"10.0\"} 2\n"));
+    assertTrue(output.contains("http_request_duration_seconds_bucket{" + labels + ",le=\"+Inf\"} 3\n"));
+    assertTrue(output.contains("http_request_duration_seconds_sum{" + labels + "} 60.043"));
+    assertTrue(output.contains("http_request_duration_seconds_count{" + labels + "} 3\n"));
+  }
+
+  @Test
+  void recordsRequestsThatMatchedNoEndpointTogether() {
+    request(HandlerType.GET, "", 404, 1);
+    when(ctx.endpointHandlerPath()).thenThrow(new IllegalStateException("No endpoint"));
+    metrics.requestStarted(ctx);
+    metrics.requestFinished(ctx, 1f);
+
+    assertTrue(metrics.render()
+      .contains("http_requests_total{method=\"GET\",route=\"" + Metrics.UNMATCHED_ROUTE + "\",status=\"404\"} 2\n"));
+  }
+
+  @Test
+  void tracksRequestsInFlight() {
+    metrics.requestStarted(ctx);
+    metrics.requestStarted(ctx);
+    assertTrue(metrics.render().contains("\nhttp_requests_in_flight 2\n"));
+
+    request(HandlerType.GET, "/api/users", 200, 1);
+    metrics.requestFinished(ctx, 1f);
+    assertTrue(metrics.render().contains("\nhttp_requests_in_flight 1\n"));
+  }
+
+  @Test
+  void readsGaugesWhenScraped() {
+    QueuedThreadPool threadPool = new QueuedThreadPool(50);
+    metrics.threadPool(threadPool);
+    metrics.gauge("answer", "The answer", () -> 42);
+
+    String output = metrics.render();
+
+    assertTrue(output.contains("# HELP answer The answer\n# TYPE answer gauge\nanswer 42\n"));
+    assertTrue(output.contains("\njetty_threads_max 50\n"));
+    assertTrue(output.contains("\nmongodb_pool_connections 0\n"));
+  }
+
+  @Test
+  void reportsCountersWithTheirTotalSuffix() {
+    metrics.counter("answers", "Answers given", () -> 42);
+
+    assertTrue(metrics.render().contains("# HELP answers_total Answers given\n"
+      + "# TYPE answers_total counter\nanswers_total 42\n"));
+  }
+
+  @Test
+  void servesTheTextFormat() {
+    metrics.serve(ctx);
+
+    verify(ctx).contentType(Metrics.CONTENT_TYPE);
+    verify(ctx).result(metrics.render());
+  }
+
+  @Test
+  void escapesLabelValues() {
+    assertEquals("a\\\\b\\\"c\\nd", Metrics.escape("a\\b\"c\nd"));
+  }
+}
@@ -0,0 +1,46 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionClosedEvent;
+import com.mongodb.event.ConnectionCreatedEvent;
+
+/**
+ * Tests the connection pool gauges kept by `MongoPoolMetrics`.
+ */
+class MongoPoolMetricsSpec {
+
+  @Test
+  void tracksConnectionsAndCheckouts() {
+    Metrics metrics = new Metrics();
+    MongoPoolMetrics pool = metrics.mongoPoolListener();
+
+    pool.connectionCreated(mock(ConnectionCreatedEvent.class));
+    pool.connectionCreated(mock(ConnectionCreatedEvent.class));
+    pool.connectionClosed(mock(ConnectionClosedEvent.class));
+    // Three operations ask for a connection; one gets it, one gives up,
+    // and one is still waiting.
+    pool.connectionCheckOutStarted(mock(ConnectionCheckOutStartedEvent.class));
+    pool.connectionCheckOutStarted(mock(ConnectionCheckOutStartedEvent.class));
+    pool.connectionCheckOutStarted(mock(ConnectionCheckOutStartedEvent.class));
+    pool.connectionCheckedOut(mock(ConnectionCheckedOutEvent.class));
+    pool.connectionCheckOutFailed(mock(ConnectionCheckOutFailedEvent.class));
+
+    String output = metrics.render();
+    assertTrue(output.contains("\nmongodb_pool_connections 1\n"));
+    assertTrue(output.contains("\nmongodb_pool_connections_checked_out 1\n"));
+    assertTrue(output.contains("\nmongodb_pool_wait_queue 1\n"));
+    assertTrue(output.contains(
+      "# TYPE mongodb_pool_checkout_failures_total counter\nmongodb_pool_checkout_failures_total 1\n"));
+
+    pool.connectionCheckedIn(mock(ConnectionCheckedInEvent.class));
+    assertTrue(metrics.render().contains("\nmongodb_pool_connections_checked_out 0\n"));
+  }
+}
@@ -0,0 +1,63 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscription;
+
+/**
+ * Tests the conversion of `Publisher`s into futures by `Publishers`.
+ */
+class PublishersSpec {
+
+  /**
+   * A publisher that emits the given items (once they're requested), and
+   * then either completes or fails with `error`.
+   */
+  private static <T> Publisher<T> publisherOf(List<T> items, Throwable error) {
+    return subscriber -> subscriber.onSubscribe(new Subscription() {
+      @Override
+      public void request(long n) {
+        items.forEach(subscriber::onNext);
+        if (error == null) {
+          subscriber.onComplete();
+        } else {
+          subscriber.onError(error);
+        }
+      }
+
+      @Override
+      public void cancel() {
+      }
+    });
+  }
+
+  @Test
+  void collectsEverythingThatIsPublished() throws Exception {
+    assertEquals(List.of("Blanche", "Fry"), Publishers.toList(publisherOf(List.of("Blanche", "Fry"), null)).get());
+  }
+
+  @Test
+  void firstIsNullForAnEmptyPublisher() throws Exception {
+    assertEquals("Blanche", Publishers.first(publisherOf(List.of("Blanche", "Fry"), null)).get());
+    assertNull(Publishers.first(publisherOf(List.<String>of(), null)).get());
+  }
+
+  @Test
+  void failsWhenThePublisherDoes() {
+    IllegalStateException failure = new IllegalStateException("Lost the connection");
+
+    ExecutionException exception = assertThrows(ExecutionException.class, () -> {
+      Publishers.toList(publisherOf(List.of("Blanche"), failure)).get();
+    });
+
+    assertSame(failure, exception.getCause());
+  }
+}
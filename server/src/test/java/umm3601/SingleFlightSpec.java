@@ -0,0 +1,124 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that `SingleFlight` shares work between concurrent calls for the
+ * same key, and only between those.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class SingleFlightSpec {
+
+  private SingleFlight<String, Integer> flights;
+  private ExecutorService pool;
+
+  // Released to let the first call's work finish.
+  private CountDownLatch release;
+  private CountDownLatch started;
+  private AtomicInteger runs;
+
+  @BeforeEach
+  void setupEach() {
+    flights = new SingleFlight<>();
+    pool = Executors.newFixedThreadPool(4);
+    release = new CountDownLatch(1);
+    started = new CountDownLatch(1);
+    runs = new AtomicInteger();
+  }
+
+  @AfterEach
+  void shutDownPool() {
+    pool.shutdownNow();
+  }
+
+  /**
+   * Work that counts its runs, and doesn't finish until `release` is released.
+   */
+  private Integer slowWork(int result) {
+    runs.incrementAndGet();
+    started.countDown();
+    try {
+      release.await();
+    } catch (InterruptedException e) {
+      throw new IllegalStateException(e);
+    }
+    return result;
+  }
+
+  private void waitForSharedCalls(long count) throws InterruptedException {
+    while (flights.shared() < count) {
+      Thread.sleep(1);
+    }
+  }
+
+  @Test
+  void concurrentCallsForTheSameKeyShareOneRun() throws Exception {
+    Future<Integer> first = pool.submit(() -> flights.run("status=true", () -> slowWork(42)));
+    started.await();
+    List<Future<Integer>> others = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      others.add(pool.submit(() -> flights.run("status=true", () -> slowWork(0))));
+    }
+    waitForSharedCalls(3);
+    release.countDown();
+
+    assertEquals(42, first.get());
+    for (Future<Integer> other : others) {
+      assertEquals(42, other.get());
+    }
+    assertEquals(1, runs.get());
+    assertEquals(4, flights.calls());
+  }
+
+  @Test
+  void callsForOtherKeysDontWait() {
+    pool.submit(() -> flights.run("status=true", () -> slowWork(42)));
+
+    assertEquals(7, flights.run("status=false", () -> 7));
+    assertEquals(0, flights.shared());
+    release.countDown();
+  }
+
+  @Test
+  void finishedWorkIsntReused() {
+    assertEquals(1, flights.run("key", () -> runs.incrementAndGet()));
+    assertEquals(2, flights.run("key", () -> runs.incrementAndGet()));
+    assertEquals(0, flights.shared());
+  }
+
+  @Test
+  void everyWaitingCallGetsTheSameException() throws Exception {
+    IllegalStateException failure = new IllegalStateException("The database is down");
+    Future<Integer> first = pool.submit(() -> flights.run("key", () -> {
+      slowWork(0);
+      throw failure;
+    }));
+    started.await();
+    Future<Integer> other = pool.submit(() -> flights.run("key", () -> 0));
+    waitForSharedCalls(1);
+    release.countDown();
+
+    ExecutionException firstFailure = assertThrows(ExecutionException.class, first::get);
+    ExecutionException otherFailure = assertThrows(ExecutionException.class, other::get);
+    assertSame(failure, firstFailure.getCause());
+    assertSame(failure, otherFailure.getCause());
+
+    // The failure isn't remembered either.
+    assertEquals(3, flights.run("key", () -> 3));
+  }
+}
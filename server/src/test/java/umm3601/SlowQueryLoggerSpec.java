@@ -0,0 +1,202 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+
+/**
+ * Tests the timing, shapes, and route tracking of `SlowQueryLogger`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class SlowQueryLoggerSpec {
+
+  private List<String> logged;
+  private SlowQueryLogger slowQueries;
+
+  @BeforeEach
+  void setupEach() {
+    logged = new ArrayList<>();
+    slowQueries = new SlowQueryLogger(100, logged::add);
+  }
+
+  private static CommandStartedEvent started(int requestId, String json) {
+    CommandStartedEvent event = mock(CommandStartedEvent.class);
+    BsonDocument command = BsonDocument.parse(json);
+    when(event.getRequestId()).thenReturn(requestId);
+    when(event.getCommand()).thenReturn(command);
+    when(event.getCommandName()).thenReturn(command.getFirstKey());
+    return event;
+  }
+
+  private static CommandSucceededEvent succeeded(int requestId, long millis, String response) {
+    CommandSucceededEvent event = mock(CommandSucceededEvent.class);
+    when(event.getRequestId()).thenReturn(requestId);
+    when(event.getElapsedTime(TimeUnit.NANOSECONDS)).thenReturn(TimeUnit.MILLISECONDS.toNanos(millis));
+    when(event.getResponse()).thenReturn(BsonDocument.parse(response));
+    return event;
+  }
+
+  @Test
+  void logsSlowCommandsWithTheirShapeAndRoute() {
+    Context ctx = mock(Context.class);
+    when(ctx.method()).thenReturn(HandlerType.GET);
+    when(ctx.path()).thenReturn("/api/todos");
+    when(ctx.endpointHandlerPath()).thenReturn("/api/todos");
+    slowQueries.requestStarted(ctx);
+
+    slowQueries.commandStarted(started(1,
+      "{find: 'todos', filter: {$and: [{status: true}, {owner: {$regex: 'fry', $options: 'i'}}]}, sort: {owner: 1}}"));
+    slowQueries.commandSucceeded(succeeded(1, 250, "{cursor: {firstBatch: [{}, {}, {}], id: 0}, ok: 1}"));
+    slowQueries.requestFinished(ctx);
+
+    assertEquals(1, logged.size());
+    String entry = logged.get(0);
+    assertTrue(entry.startsWith("Slow Mongo command: find todos took 250 ms (route GET /api/todos)"));
+    // (The `$regex` is parsed as a regular expression value, which is what
+    // the driver sends for `Filters.regex()`.)
+    assertTrue(entry.contains("shape {\"filter\": {\"$and\": [{\"status\": \"?\"}, {\"owner\": \"?\"}]}}"));
+    assertTrue(entry.contains("sort {\"owner\": 1}"));
+    assertTrue(entry.endsWith("3 docs returned"));
+    // The values we searched for aren't logged.
+    assertFalse(entry.contains("fry"));
+  }
+
+  @Test
+  void logsTheRouteRatherThanThePath() {
+    Context ctx = mock(Context.class);
+    when(ctx.method()).thenReturn(HandlerType.GET);
+    when(ctx.path()).thenReturn("/api/todos/588935f57546a2daea44de7c");
+    when(ctx.endpointHandlerPath()).thenReturn("/api/todos/{id}");
+    slowQueries.requestStarted(ctx);
+
+    slowQueries.commandStarted(started(1, "{find: 'todos', filter: {_id: 'x'}}"));
+    slowQueries.commandSucceeded(succeeded(1, 250, "{cursor: {firstBatch: [{}], id: 0}, ok: 1}"));
+    slowQueries.requestFinished(ctx);
+
+    assertEquals(1, logged.size());
+    assertTrue(logged.get(0).contains("(route GET /api/todos/{id})"));
+    assertFalse(logged.get(0).contains("588935f57546a2daea44de7c"));
+  }
+
+  @Test
+  void logsAsyncCommandsWithTheRouteThatSentThem() throws InterruptedException {
+    // This thread is handling a request for users...
+    Context ctx = mock(Context.class);
+    when(ctx.method()).thenReturn(HandlerType.GET);
+    when(ctx.endpointHandlerPath()).thenReturn("/api/users");
+    slowQueries.requestStarted(ctx);
+
+    // ...while the reactive driver sends a todo request's commands from
+    // one of its own threads, with the route as their comment.
+    when(ctx.endpointHandlerPath()).thenReturn("/api/todos");
+    String route = SlowQueryLogger.route(ctx);
+    Thread driver = new Thread(() -> {
+      slowQueries.commandStarted(started(1, "{find: 'todos', filter: {status: true}, comment: '" + route + "'}"));
+      slowQueries.commandSucceeded(succeeded(1, 250, "{cursor: {firstBatch: [], id: 5}, ok: 1}"));
+      slowQueries.commandStarted(started(2, "{getMore: 5, collection: 'todos', comment: '" + route + "'}"));
+      slowQueries.commandSucceeded(succeeded(2, 250, "{cursor: {nextBatch: [], id: 0}, ok: 1}"));
+      // A command without a comment isn't given some other request's route.
+      slowQueries.commandStarted(started(3, "{find: 'users', filter: {}}"));
+      slowQueries.commandSucceeded(succeeded(3, 250, "{cursor: {firstBatch: [], id: 0}, ok: 1}"));
+    });
+    driver.start();
+    driver.join();
+    slowQueries.requestFinished(ctx);
+
+    assertEquals(3, logged.size());
+    assertTrue(logged.get(0).contains("(route GET /api/todos)"));
+    assertTrue(logged.get(1).startsWith("Slow Mongo command: getMore took 250 ms (route GET /api/todos)"));
+    assertTrue(logged.get(2).contains("(route " + SlowQueryLogger.NO_ROUTE + ")"));
+  }
+
+  @Test
+  void doesNotLogFastCommands() {
+    slowQueries.commandStarted(started(1, "{find: 'users', filter: {}}"));
+    slowQueries.commandSucceeded(succeeded(1, 5, "{cursor: {firstBatch: [], id: 0}, ok: 1}"));
+
+    assertTrue(logged.isEmpty());
+  }
+
+  @Test
+  void logsSlowFailuresWithoutARoute() {
+    CommandFailedEvent failed = mock(CommandFailedEvent.class);
+    when(failed.getRequestId()).thenReturn(7);
+    when(failed.getElapsedTime(TimeUnit.NANOSECONDS)).thenReturn(TimeUnit.SECONDS.toNanos(2));
+    when(failed.getThrowable()).thenReturn(new IllegalStateException("Timed out"));
+
+    slowQueries.commandStarted(started(7, "{aggregate: 'users', pipeline: [{$match: {company: 'OHMNET'}}]}"));
+    slowQueries.commandFailed(failed);
+
+    assertEquals(1, logged.size());
+    assertTrue(logged.get(0).contains("(route " + SlowQueryLogger.NO_ROUTE + ")"));
+    assertTrue(logged.get(0).contains("{\"pipeline\": [{\"$match\": {\"company\": \"?\"}}]}"));
+    assertTrue(logged.get(0).endsWith("failed with java.lang.IllegalStateException: Timed out"));
+  }
+
+  @Test
+  void shapesKeepPipelineSortsButNotValues() {
+    assertEquals(BsonDocument.parse("{pipeline: [{$match: {owner: {$in: '?'}}}, {$sort: {owner: 1}}]}"),
+      SlowQueryLogger.shapeOf(BsonDocument.parse(
+        "{aggregate: 'todos', pipeline: [{$match: {owner: {$in: ['Fry', 'Blanche']}}}, {$sort: {owner: 1}}]}")));
+    assertNull(SlowQueryLogger.shapeOf(BsonDocument.parse("{ping: 1}")));
+  }
+
+  @Test
+  void countsDocumentsReturned() {
+    assertEquals(2, SlowQueryLogger.documentsReturned(BsonDocument.parse("{cursor: {nextBatch: [{}, {}]}}")));
+    assertEquals(5, SlowQueryLogger.documentsReturned(BsonDocument.parse("{n: 5, ok: 1}")));
+    assertEquals(0, SlowQueryLogger.documentsReturned(BsonDocument.parse("{ok: 1}")));
+  }
+
+  @Test
+  void timesTheDriversRealCommands() {
+    // With a threshold of 0 every command is "slow".
+    SlowQueryLogger everything = new SlowQueryLogger(0, logged::add);
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+    try (MongoClient client = MongoClients.create(MongoClientSettings.builder()
+        .applyToClusterSettings(builder -> builder.hosts(List.of(new ServerAddress(mongoAddr))))
+        .addCommandListener(everything)
+        .build())) {
+      MongoCollection<Document> things = client.getDatabase("test").getCollection("slowQueryThings");
+      things.drop();
+      things.insertMany(List.of(new Document("name", "a"), new Document("name", "b")));
+      things.find(Filters.eq("name", "a")).sort(Sorts.ascending("name")).into(new ArrayList<>());
+      things.drop();
+    }
+
+    String find = logged.stream().filter(entry -> entry.contains("find slowQueryThings")).findFirst().get();
+    assertTrue(find.contains("{\"filter\": {\"name\": \"?\"}}"));
+    assertTrue(find.contains("sort {\"name\": 1}"));
+    assertTrue(find.endsWith("1 docs returned"));
+
+    Metrics metrics = new Metrics();
+    everything.addGauges(metrics);
+    assertTrue(metrics.render().contains("\nmongodb_commands_slow_total " + logged.size() + "\n"));
+  }
+}
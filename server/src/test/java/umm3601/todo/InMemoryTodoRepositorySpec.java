@@ -0,0 +1,216 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.javalin.http.Context;
+import umm3601.Codecs;
+import umm3601.todos.InMemoryTodoRepository;
+import umm3601.todos.Todo;
+import umm3601.todos.TodoByCategory;
+import umm3601.todos.TodoCodec;
+import umm3601.todos.TodoController;
+import umm3601.todos.TodoQuery;
+
+/**
+ * Tests that `InMemoryTodoRepository` answers queries the way Mongo would.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class InMemoryTodoRepositorySpec {
+
+  private InMemoryTodoRepository repository;
+
+  private static Todo todo(String id, String owner, boolean status, String category, String body) {
+    Todo todo = new Todo();
+    todo._id = id;
+    todo.owner = owner;
+    todo.status = status;
+    todo.category = category;
+    todo.body = body;
+    return todo;
+  }
+
+  /**
+   * The query a request with the given query parameters would make.
+   */
+  private static TodoQuery query(String... params) {
+    Context ctx = mock(Context.class);
+    Map<String, List<String>> queryParams = new HashMap<>();
+    for (int i = 0; i < params.length; i += 2) {
+      queryParams.put(params[i], List.of(params[i + 1]));
+      when(ctx.queryParam(params[i])).thenReturn(params[i + 1]);
+    }
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    return TodoQuery.from(ctx);
+  }
+
+  private static List<String> owners(List<Todo> todos) {
+    return todos.stream().map(todo -> todo.owner).collect(Collectors.toList());
+  }
+
+  @BeforeEach
+  void setupEach() {
+    repository = new InMemoryTodoRepository(List.of(
+      todo("58af3a600343927e48e87211", "Fry", false, "video games", "Play the new game"),
+      todo("58af3a600343927e48e87212", "Blanche", true, "homework", "Do the homework, all the homework"),
+      todo("58af3a600343927e48e87213", "Dawn", true, "homework", "Read for the homework"),
+      todo("58af3a600343927e48e87214", "Barry", false, "software design", "Design the game"),
+      todo("58af3a600343927e48e87215", null, true, "homework", "Nobody's homework")));
+  }
+
+  @Test
+  void findsTodosById() {
+    assertEquals("Dawn", repository.findById("58af3a600343927e48e87213").owner);
+    assertNull(repository.findById("58af3a600343927e48e87299"));
+  }
+
+  @Test
+  void sortsByOwnerWithMissingOwnersFirst() {
+    assertEquals(
+      Arrays.asList(null, "Barry", "Blanche", "Dawn", "Fry"),
+      owners(repository.find(TodoQuery.all())));
+    assertEquals(
+      Arrays.asList("Fry", "Dawn", "Blanche", "Barry", null),
+      owners(repository.find(query(TodoController.SORT_ORDER_KEY, "desc"))));
+    assertEquals(List.of("Fry", "Dawn"), owners(repository.find(query(TodoController.SORT_ORDER_KEY, "desc")
+      .limit(2))));
+  }
+
+  @Test
+  void filtersOnEveryIndexedField() {
+    assertEquals(3, repository.find(query(TodoController.STATUS_KEY, "complete")).size());
+    // Owners are matched with an (unanchored, case-insensitive) regular expression
+    assertEquals(List.of("Barry", "Blanche"), owners(repository.find(query(TodoController.OWNER_KEY, "^b"))));
+    // Categories are matched as (case-insensitive) text
+    assertEquals(List.of("Barry"), owners(repository.find(query(TodoController.CATEGORY_KEY, "DESIGN"))));
+    assertEquals(List.of("Blanche", "Dawn"), owners(repository.find(query(
+      TodoController.STATUS_KEY, "true",
+      TodoController.CATEGORY_KEY, "homework",
+      TodoController.OWNER_KEY, "a"))));
+    assertEquals(List.of(), repository.find(query(
+      TodoController.STATUS_KEY, "false",
+      TodoController.CATEGORY_KEY, "homework")));
+  }
+
+  @Test
+  void searchesBodiesForWordsAndPutsTheBestMatchesFirst() {
+    // Dawn's body has both words. Blanche's has "homework" twice, but that
+    // only counts once, so she ties with the owner-less Todo (and comes
+    // first, in `_id` order).
+    assertEquals(Arrays.asList("Dawn", "Blanche", null),
+      owners(repository.find(query(TodoController.BODY_CONTAINS_KEY, "homework read"))));
+    assertEquals(List.of("Fry", "Barry"),
+      owners(repository.find(query(TodoController.BODY_CONTAINS_KEY, "GAME"))));
+    // Asking for an order overrides the relevance order
+    assertEquals(List.of("Fry", "Barry"), owners(repository.find(query(
+      TodoController.BODY_CONTAINS_KEY, "game",
+      "orderBy", "owner",
+      TodoController.SORT_ORDER_KEY, "desc"))));
+  }
+
+  @Test
+  void pagesPickUpStrictlyAfterTheLastTodo() {
+    for (String order : List.of("asc", "desc")) {
+      for (String sortBy : List.of("owner", "status", "_id")) {
+        TodoQuery query = query("orderBy", sortBy, TodoController.SORT_ORDER_KEY, order);
+        List<Todo> all = repository.find(query);
+
+        List<Todo> paged = new ArrayList<>();
+        List<Todo> page = repository.find(query.page(2, null, null));
+        while (!page.isEmpty()) {
+          paged.addAll(page);
+          Todo last = page.get(page.size() - 1);
+          Object lastKey = new ObjectId(last._id);
+          if (sortBy.equals("owner")) {
+            lastKey = last.owner;
+          } else if (sortBy.equals("status")) {
+            lastKey = last.status;
+          }
+          page = repository.find(query.page(2, lastKey, last._id));
+        }
+        assertEquals(all, paged, sortBy + " " + order);
+      }
+    }
+  }
+
+  @Test
+  void streamsWhatItFinds() {
+    try (Stream<Todo> todos = repository.stream(query(TodoController.STATUS_KEY, "false"))) {
+      assertEquals(List.of("Barry", "Fry"), owners(todos.collect(Collectors.toList())));
+    }
+  }
+
+  @Test
+  void insertsCopiesWithNewIds() {
+    Todo newTodo = todo(null, "Sam", false, "homework", "Start the lab");
+    repository.insert(newTodo);
+
+    assertNotNull(newTodo._id);
+    // Changing the Todo afterwards doesn't change (or un-index) the stored one.
+    newTodo.owner = "Pat";
+    assertEquals("Sam", repository.findById(newTodo._id).owner);
+    assertEquals(List.of("Sam"), owners(repository.find(query(TodoController.OWNER_KEY, "sam"))));
+    assertEquals(6, repository.size());
+  }
+
+  @Test
+  void reportsTodosThatCantBeInsertedByIndex() {
+    Map<Integer, String> errors = repository.insertAll(List.of(
+      todo(null, "Sam", false, "homework", "Start the lab"),
+      todo("58af3a600343927e48e87211", "Sam", false, "homework", "Taken id"),
+      todo("not an id", "Sam", false, "homework", "Bad id")));
+
+    assertEquals(Map.of(1, "There is already a Todo with id 58af3a600343927e48e87211",
+      2, "Todo id not an id isn't a legal Mongo Object ID"), errors);
+    assertEquals(6, repository.size());
+    assertThrows(IllegalArgumentException.class,
+      () -> repository.insert(todo("58af3a600343927e48e87211", "Sam", false, "homework", "Taken id")));
+  }
+
+  @Test
+  void summarizesCategoriesWithTheirMostRecentTodos() {
+    for (int i = 0; i < TodoController.CATEGORY_PREVIEW_SIZE; i++) {
+      repository.insert(todo(null, "Sam", false, "homework", "Homework " + i));
+    }
+
+    List<TodoByCategory> byCount = repository.categories("count", true);
+    assertEquals(List.of("homework", "video games", "software design"),
+      byCount.stream().map(category -> category._id).collect(Collectors.toList()));
+    TodoByCategory homework = byCount.get(0);
+    assertEquals(TodoController.CATEGORY_PREVIEW_SIZE + 3, homework.count);
+    assertEquals(TodoController.CATEGORY_PREVIEW_SIZE, homework.todos.size());
+    assertEquals("Homework " + (TodoController.CATEGORY_PREVIEW_SIZE - 1),
+      homework.todos.get(TodoController.CATEGORY_PREVIEW_SIZE - 1).body);
+
+    assertEquals(List.of("homework", "software design", "video games"),
+      repository.categories("_id", false).stream().map(category -> category._id).collect(Collectors.toList()));
+  }
+
+  @Test
+  void loadsTheSeedFormat() {
+    String json = "[{\"_id\": {\"$oid\": \"58af3a600343927e48e8720f\"}, \"owner\": \"Blanche\", \"status\": false,"
+      + " \"body\": \"In sunt ex non tempor\", \"category\": \"software design\"}]";
+    InMemoryTodoRepository seeded = new InMemoryTodoRepository(Codecs.readJsonArray(json, new TodoCodec()));
+
+    Todo blanche = seeded.findById("58af3a600343927e48e8720f");
+    assertEquals("Blanche", blanche.owner);
+    assertTrue(seeded.find(query(TodoController.STATUS_KEY, "complete")).isEmpty());
+  }
+}
@@ -0,0 +1,97 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import umm3601.todos.OwnerCount;
+import umm3601.todos.OwnerTrie;
+
+/**
+ * Tests that `OwnerTrie` finds the owners with a prefix, in order, with
+ * the right counts, even while owners are being added.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class OwnerTrieSpec {
+
+  private OwnerTrie trie;
+
+  @BeforeEach
+  void setupEach() {
+    trie = new OwnerTrie();
+    trie.add("Fry");
+    trie.add("Blanche");
+    trie.add("Barry", 3);
+    trie.add("Blanche");
+    trie.add("barb");
+  }
+
+  private static List<String> names(List<OwnerCount> owners) {
+    return owners.stream().map(owner -> owner.owner).toList();
+  }
+
+  @Test
+  void findsOwnersWithAPrefixIgnoringCase() {
+    assertEquals(List.of("barb", "Barry"), names(trie.withPrefix("BAR", 10)));
+    assertEquals(List.of("Blanche"), names(trie.withPrefix("bl", 10)));
+    assertEquals(List.of("Fry"), names(trie.withPrefix("fry", 10)));
+    assertEquals(List.of(), names(trie.withPrefix("fryer", 10)));
+    assertEquals(List.of(), names(trie.withPrefix("z", 10)));
+  }
+
+  @Test
+  void listsOwnersAlphabeticallyUpToTheLimit() {
+    assertEquals(List.of("barb", "Barry", "Blanche", "Fry"), names(trie.withPrefix("", 10)));
+    assertEquals(List.of("barb", "Barry"), names(trie.withPrefix("b", 2)));
+  }
+
+  @Test
+  void countsEachOwnersTodos() {
+    List<OwnerCount> owners = trie.withPrefix("b", 10);
+    assertEquals(List.of(1, 3, 2), owners.stream().map(owner -> owner.count).toList());
+  }
+
+  @Test
+  void ignoresTodosWithoutOwners() {
+    trie.add(null);
+    trie.add("");
+    assertEquals(4, trie.withPrefix("", 10).size());
+  }
+
+  @Test
+  void canBeReadWhileOwnersAreAdded() throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> writers = new ArrayList<>();
+      for (int w = 0; w < 4; w++) {
+        writers.add(pool.submit(() -> {
+          for (int i = 0; i < 1000; i++) {
+            trie.add("Owner " + i);
+          }
+        }));
+      }
+      // Reading alongside the writers never fails, or sees too many owners.
+      while (!writers.stream().allMatch(Future::isDone)) {
+        assertTrue(trie.withPrefix("owner", 50).size() <= 50);
+      }
+      for (Future<?> writer : writers) {
+        writer.get();
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+
+    List<OwnerCount> owners = trie.withPrefix("Owner ", 2000);
+    assertEquals(1000, owners.size());
+    assertEquals(List.of(4), owners.stream().map(owner -> owner.count).distinct().toList());
+    assertEquals(List.of("Owner 999"), names(trie.withPrefix("owner 999", 10)));
+  }
+}
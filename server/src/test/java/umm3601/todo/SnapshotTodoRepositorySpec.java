@@ -0,0 +1,264 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+import io.javalin.http.HttpStatus;
+import umm3601.todos.InMemoryTodoRepository;
+import umm3601.todos.OwnerCount;
+import umm3601.todos.SnapshotTodoRepository;
+import umm3601.todos.Todo;
+import umm3601.todos.TodoController;
+import umm3601.todos.TodoQuery;
+
+/**
+ * Tests that `SnapshotTodoRepository` keeps an up-to-date copy of the Todos
+ * in its source, answers queries from it the same way the source would,
+ * and keeps it across restarts.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class SnapshotTodoRepositorySpec {
+
+  @TempDir
+  private Path tempDir;
+
+  private Path snapshotFile;
+  private InMemoryTodoRepository source;
+  private SnapshotTodoRepository snapshot;
+
+  private static Todo todo(String id, String owner, boolean status, String category, String body) {
+    Todo todo = new Todo();
+    todo._id = id;
+    todo.owner = owner;
+    todo.status = status;
+    todo.category = category;
+    todo.body = body;
+    return todo;
+  }
+
+  private static TodoQuery query(String... params) {
+    Context ctx = mock(Context.class);
+    Map<String, List<String>> queryParams = new HashMap<>();
+    for (int i = 0; i < params.length; i += 2) {
+      queryParams.put(params[i], List.of(params[i + 1]));
+      when(ctx.queryParam(params[i])).thenReturn(params[i + 1]);
+    }
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    return TodoQuery.from(ctx);
+  }
+
+  @BeforeEach
+  void setupEach() throws IOException {
+    source = new InMemoryTodoRepository(List.of(
+      todo("58af3a600343927e48e87211", "Fry", false, "video games", "Play the new game"),
+      todo("58af3a600343927e48e87212", "Blanche", true, "homework", "Do the homework, all the homework"),
+      todo("58af3a600343927e48e87213", "Dawn", true, "homework", "Read for the homework"),
+      todo("58af3a600343927e48e87214", "Barry", false, "software design", "Design the café's game ☕"),
+      todo("58af3a600343927e48e87215", null, true, "homework", null)));
+    snapshotFile = tempDir.resolve("todos.snapshot");
+    snapshot = new SnapshotTodoRepository(source, snapshotFile);
+  }
+
+  @AfterEach
+  void closeSnapshot() throws IOException {
+    snapshot.close();
+  }
+
+  @Test
+  void answersQueriesLikeItsSource() {
+    assertEquals(5, snapshot.refresh());
+
+    for (TodoQuery query : List.of(
+        TodoQuery.all(),
+        query(TodoController.SORT_ORDER_KEY, "desc"),
+        query(TodoController.STATUS_KEY, "complete", TodoController.CATEGORY_KEY, "HOMEWORK"),
+        query(TodoController.OWNER_KEY, "^b"),
+        query(TodoController.BODY_CONTAINS_KEY, "homework game"),
+        query("orderBy", "body").limit(2),
+        TodoQuery.all().page(2, "Blanche", "58af3a600343927e48e87212"))) {
+      assertEquals(source.find(query), snapshot.find(query));
+    }
+
+    Todo barry = snapshot.findById("58af3a600343927e48e87214");
+    assertEquals("Barry", barry.owner);
+    assertFalse(barry.status);
+    assertEquals("software design", barry.category);
+    assertEquals("Design the café's game ☕", barry.body);
+    Todo nobody = snapshot.findById("58af3a600343927e48e87215");
+    assertNull(nobody.owner);
+    assertNull(nobody.body);
+    assertNull(snapshot.findById("58af3a600343927e48e87299"));
+  }
+
+  @Test
+  void sortsStringsTheWayJavaDoes() {
+    snapshot.refresh();
+    // In UTF-8 the private use character sorts before the emoji, but in
+    // Java's UTF-16 (where the emoji is a surrogate pair) it sorts after.
+    snapshot.insert(todo("58af3a600343927e48e87216", " private", false, "other", "A"));
+    snapshot.insert(todo("58af3a600343927e48e87217", "😀 emoji", false, "other", "B"));
+
+    for (TodoQuery query : List.of(
+        TodoQuery.all(),
+        query(TodoController.SORT_ORDER_KEY, "desc").limit(3),
+        TodoQuery.all().page(3, "😀 emoji", "58af3a600343927e48e87217"))) {
+      assertEquals(source.find(query), snapshot.find(query));
+    }
+  }
+
+  @Test
+  void onlyCopiesNewTodosWhenRefreshing() {
+    snapshot.refresh();
+    Todo added = todo(null, "Sam", false, "homework", "Start the lab");
+    source.insert(added);
+
+    // Not in the snapshot until it's refreshed
+    assertNull(snapshot.findById(added._id));
+    assertEquals(1, snapshot.refresh());
+    assertEquals("Sam", snapshot.findById(added._id).owner);
+    assertEquals(0, snapshot.refresh());
+    assertEquals(6, snapshot.size());
+  }
+
+  @Test
+  void writesToTheSourceAndTheSnapshot() {
+    snapshot.refresh();
+    Todo added = todo(null, "Sam", false, "homework", "Start the lab");
+    snapshot.insert(added);
+
+    assertNotNull(source.findById(added._id));
+    assertEquals("Start the lab", snapshot.findById(added._id).body);
+
+    Map<Integer, String> errors = snapshot.insertAll(List.of(
+      todo(null, "Pat", true, "homework", "Finish the lab"),
+      todo("58af3a600343927e48e87211", "Pat", true, "homework", "Taken id")));
+    assertEquals(List.of(1), new ArrayList<>(errors.keySet()));
+    assertEquals("Play the new game", snapshot.findById("58af3a600343927e48e87211").body);
+
+    assertEquals(0, snapshot.refresh());
+    assertEquals(7, snapshot.size());
+  }
+
+  @Test
+  void startsWarmFromTheFile() throws IOException {
+    snapshot.refresh();
+    snapshot.close();
+
+    // Even with nothing to refresh from, the Todos are all still there.
+    snapshot = new SnapshotTodoRepository(new InMemoryTodoRepository(), snapshotFile);
+    assertEquals(5, snapshot.size());
+    assertEquals("Dawn", snapshot.findById("58af3a600343927e48e87213").owner);
+    assertEquals(source.find(TodoQuery.all()), snapshot.find(TodoQuery.all()));
+  }
+
+  @Test
+  void growsAsTodosAreAdded() throws IOException {
+    String longBody = "Lorem ipsum dolor sit amet ".repeat(20);
+    List<Todo> many = new ArrayList<>();
+    for (int i = 0; i < 2500; i++) {
+      many.add(todo(null, "Owner " + i, i % 2 == 0, "homework", longBody + i));
+    }
+    source.insertAll(many);
+
+    // More Todos than fit in the initial file, or index, or one refresh batch.
+    assertEquals(2505, snapshot.refresh());
+    assertEquals(1252, snapshot.find(query(TodoController.STATUS_KEY, "incomplete")).size());
+    snapshot.close();
+
+    snapshot = new SnapshotTodoRepository(source, snapshotFile);
+    assertEquals(2505, snapshot.size());
+    for (Todo todo : many) {
+      assertEquals(todo.body, snapshot.findById(todo._id).body);
+    }
+  }
+
+  @Test
+  void onlyDecodesTheTodosAQueryReturns() {
+    List<Todo> many = new ArrayList<>();
+    for (int i = 0; i < 2500; i++) {
+      many.add(todo(null, "Owner " + i, i % 2 == 0, "homework", "Todo number " + i));
+    }
+    source.insertAll(many);
+    snapshot.refresh();
+
+    for (TodoQuery query : List.of(
+        query(TodoController.STATUS_KEY, "incomplete").limit(20),
+        query(TodoController.SORT_ORDER_KEY, "desc").limit(20),
+        query(TodoController.BODY_CONTAINS_KEY, "number 7").limit(20),
+        TodoQuery.all().page(20, "Owner 1", many.get(1)._id))) {
+      long before = snapshot.decoded();
+      List<Todo> todos = snapshot.find(query);
+      assertEquals(20, todos.size());
+      assertEquals(20, snapshot.decoded() - before);
+      assertEquals(source.find(query), todos);
+    }
+  }
+
+  @Test
+  void theControllerHearsAboutRefreshedTodos() {
+    snapshot.refresh();
+    TodoController controller = new TodoController(snapshot, TodoController.newTodoCache(1_000_000));
+    Context ctx = mock(Context.class);
+    when(ctx.queryParamMap()).thenReturn(Map.of());
+    controller.getTodosGroupedByCategory(ctx);
+    ArgumentCaptor<String> tag = ArgumentCaptor.forClass(String.class);
+    verify(ctx).header(ArgumentMatchers.eq(Header.ETAG), tag.capture());
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn(tag.getValue());
+
+    // Nothing new, so the client's list is still up to date.
+    assertEquals(0, controller.refreshTodos());
+    controller.getTodosGroupedByCategory(ctx);
+    verify(ctx).status(HttpStatus.NOT_MODIFIED);
+
+    // Added by another server (or the seed script).
+    source.insert(todo(null, "Sam", false, "homework", "Start the lab"));
+    source.insert(todo(null, "Sam", true, "homework", "Finish the lab"));
+    clearInvocations(ctx);
+    assertEquals(2, controller.refreshTodos());
+    controller.getTodosGroupedByCategory(ctx);
+    verify(ctx, never()).status(HttpStatus.NOT_MODIFIED);
+
+    clearInvocations(ctx);
+    when(ctx.queryParam(TodoController.PREFIX_KEY)).thenReturn("sa");
+    controller.getOwners(ctx);
+    ArgumentCaptor<Object> owners = ArgumentCaptor.forClass(Object.class);
+    verify(ctx).json(owners.capture());
+    List<?> suggested = (List<?>) owners.getValue();
+    assertEquals(1, suggested.size());
+    assertEquals("Sam", ((OwnerCount) suggested.get(0)).owner);
+    assertEquals(2, ((OwnerCount) suggested.get(0)).count);
+  }
+
+  @Test
+  void refusesFilesThatArentSnapshots() throws IOException {
+    Path notASnapshot = tempDir.resolve("notes.txt");
+    Files.writeString(notASnapshot, "These are some notes, and not a snapshot of any Todos.");
+
+    assertThrows(IOException.class, () -> new SnapshotTodoRepository(source, notASnapshot));
+  }
+}
@@ -0,0 +1,120 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonObjectId;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+import umm3601.todos.Todo;
+import umm3601.todos.TodoCodec;
+
+/**
+ * Tests that `TodoCodec` reads and writes Todos the way MongoJack did.
+ */
+class TodoCodecSpec {
+
+  private final TodoCodec codec = new TodoCodec();
+
+  private Todo decode(String json) {
+    return codec.decode(new BsonDocumentReader(BsonDocument.parse(json)), DecoderContext.builder().build());
+  }
+
+  private BsonDocument encode(Todo todo) {
+    BsonDocument document = new BsonDocument();
+    codec.encode(new BsonDocumentWriter(document), todo, EncoderContext.builder().build());
+    return document;
+  }
+
+  @Test
+  void decodesEveryField() {
+    Todo todo = decode("""
+      {"_id": {"$oid": "588935f57546a2daea44de7c"}, "owner": "Blanche", "status": false,
+       "body": "In sunt ex non tempor cillum commodo amet incididunt.", "category": "software design"}
+      """);
+
+    assertEquals("588935f57546a2daea44de7c", todo._id);
+    assertEquals("Blanche", todo.owner);
+    assertFalse(todo.status);
+    assertEquals("In sunt ex non tempor cillum commodo amet incididunt.", todo.body);
+    assertEquals("software design", todo.category);
+  }
+
+  @Test
+  void skipsUnknownFieldsAndLeavesMissingOnesAlone() {
+    Todo todo = decode("""
+      {"_id": "not-an-object-id", "owner": "Fry", "tags": ["a", {"b": 1}], "status": true, "category": null}
+      """);
+
+    assertEquals("not-an-object-id", todo._id);
+    assertEquals("Fry", todo.owner);
+    assertTrue(todo.status);
+    assertNull(todo.body);
+    assertNull(todo.category);
+  }
+
+  @Test
+  void readsValuesStoredAsOtherTypesTheWayJacksonDoes() {
+    assertTrue(decode("{\"status\": \"true\"}").status);
+    assertFalse(decode("{\"status\": \"false\"}").status);
+    assertTrue(decode("{\"status\": 1}").status);
+    assertFalse(decode("{\"status\": {\"$numberLong\": \"0\"}}").status);
+    assertFalse(decode("{\"status\": null}").status);
+
+    Todo todo = decode("{\"owner\": 3601, \"category\": true, \"body\": 1.5}");
+    assertEquals("3601", todo.owner);
+    assertEquals("true", todo.category);
+    assertEquals("1.5", todo.body);
+    assertEquals("12345678901", decode("{\"owner\": {\"$numberLong\": \"12345678901\"}}").owner);
+  }
+
+  @Test
+  void encodesTheIdAsAnObjectId() {
+    Todo todo = new Todo();
+    todo._id = "588935f57546a2daea44de7c";
+    todo.owner = "Barry";
+    todo.status = true;
+    todo.body = "Nisi sit non non sunt veniam pariatur.";
+
+    BsonDocument document = encode(todo);
+
+    assertEquals(BsonDocument.parse("""
+      {"_id": {"$oid": "588935f57546a2daea44de7c"}, "body": "Nisi sit non non sunt veniam pariatur.",
+       "status": true, "owner": "Barry", "category": null}
+      """), document);
+    Todo decoded = decode(document.toJson());
+    assertEquals(todo._id, decoded._id);
+    assertEquals(todo.body, decoded.body);
+  }
+
+  @Test
+  void leavesOutTheIdUntilItHasOne() {
+    Todo todo = new Todo();
+    todo.owner = "Dawn";
+
+    assertFalse(encode(todo).containsKey("_id"));
+    assertFalse(codec.documentHasId(todo));
+    assertThrows(IllegalStateException.class, () -> codec.getDocumentId(todo));
+
+    assertSame(todo, codec.generateIdIfAbsentFromDocument(todo));
+    assertNotNull(todo._id);
+    assertTrue(codec.documentHasId(todo));
+    assertEquals(new BsonObjectId(new ObjectId(todo._id)), codec.getDocumentId(todo));
+
+    String id = todo._id;
+    codec.generateIdIfAbsentFromDocument(todo);
+    assertEquals(id, todo._id);
+    assertEquals(Todo.class, codec.getEncoderClass());
+  }
+}
@@ -1,18 +1,26 @@
 package umm3601.todo;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
 
 import org.bson.Document;
 import org.bson.types.ObjectId;
 import org.junit.jupiter.api.AfterAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -20,9 +28,18 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
 import org.mockito.Captor;
 import org.mockito.Mock;
 import static com.mongodb.client.model.Filters.eq;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import org.mockito.MockitoAnnotations;
@@ -33,9 +50,14 @@ import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Indexes;
 
+import io.javalin.Javalin;
 import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import io.javalin.http.HandlerType;
+import io.javalin.http.Header;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
 import io.javalin.json.JavalinJackson;
@@ -43,8 +65,17 @@ import io.javalin.validation.BodyValidator;
 import io.javalin.validation.Validation;
 import io.javalin.validation.ValidationException;
 import io.javalin.validation.Validator;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import umm3601.DatabaseGate;
+import umm3601.IndexRegistry;
+import umm3601.LruCache;
+import umm3601.todos.InMemoryTodoRepository;
+import umm3601.todos.OwnerCount;
 import umm3601.todos.Todo;
+import umm3601.todos.TodoByCategory;
 import umm3601.todos.TodoController;
+import umm3601.todos.TodoPage;
 
 /**
  * Tests the logic of the UserController
@@ -76,18 +107,28 @@ class TodoControllerSpec {
   private static MongoClient mongoClient;
   private static MongoDatabase db;
 
+  // The same database through the reactive driver, for the async handlers.
+  private static com.mongodb.reactivestreams.client.MongoClient asyncMongoClient;
+  private static com.mongodb.reactivestreams.client.MongoDatabase asyncDb;
+
   @Mock
   private Context ctx;
 
-  @Captor
-  private ArgumentCaptor<ArrayList<Todo>> todoArrayListCaptor;
-
   @Captor
   private ArgumentCaptor<Todo> todoCaptor;
 
   @Captor
   private ArgumentCaptor<Map<String, String>> mapCaptor;
 
+  @Captor
+  private ArgumentCaptor<TodoPage> todoPageCaptor;
+
+  @Captor
+  private ArgumentCaptor<String> etagCaptor;
+
+  @Captor
+  private ArgumentCaptor<byte[]> resultCaptor;
+
   /**
    * Sets up (the connection to the) DB once; that connection and DB will
    * then be (re)used for all the tests, and closed in the `teardown()`
@@ -107,12 +148,37 @@ class TodoControllerSpec {
             .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
             .build());
     db = mongoClient.getDatabase("test");
+
+    asyncMongoClient = com.mongodb.reactivestreams.client.MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .build());
+    asyncDb = asyncMongoClient.getDatabase("test");
   }
 
   @AfterAll
   static void teardown() {
     db.drop();
     mongoClient.close();
+    asyncMongoClient.close();
+  }
+
+  /**
+   * The (last) JSON a handler sent through its `CompressedJsonCache`, which
+   * sends the bytes it cached (with `ctx.result()`), rather than handing
+   * Javalin a list to serialize.
+   */
+  private String sentJson() {
+    verify(ctx, atLeastOnce()).result(resultCaptor.capture());
+    return new String(resultCaptor.getValue(), StandardCharsets.UTF_8);
+  }
+
+  private List<Todo> sentTodos() {
+    return List.of(javalinJackson.fromJsonString(sentJson(), Todo[].class));
+  }
+
+  private TodoController asyncTodoController() {
+    return new TodoController(db, TodoController.newTodoCache(TodoController.DEFAULT_CACHE_BYTES), asyncDb);
   }
 
   @BeforeEach
@@ -120,6 +186,10 @@ class TodoControllerSpec {
     // Reset our mock context and argument captor (declared with Mockito
     // annotations @Mock and @Captor)
     MockitoAnnotations.openMocks(this);
+    // The cached list responses are serialized with the context's mapper.
+    when(ctx.jsonMapper()).thenReturn(javalinJackson);
+    // The async reads tag their queries with the route (see `SlowQueryLogger`).
+    when(ctx.method()).thenReturn(HandlerType.GET);
 
     // Setup database
     MongoCollection<Document> todoDocuments = db.getCollection("todos");
@@ -150,6 +220,10 @@ class TodoControllerSpec {
 
     todoDocuments.insertMany(testTodos);
     todoDocuments.insertOne(sam);
+    // Body searches need the text index the controller declares.
+    todoDocuments.createIndex(Indexes.text(TodoController.BODY_CONTAINS_KEY));
+    // The category summary is only rebuilt from the todos when there isn't one.
+    db.getCollection("todosByCategory").drop();
 
     todoController = new TodoController(db);
   }
@@ -160,15 +234,131 @@ class TodoControllerSpec {
     when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
     todoController.getTodos(ctx);
 
-    verify(ctx).json(todoArrayListCaptor.capture());
+    List<Todo> todos = sentTodos();
     verify(ctx).status(HttpStatus.OK);
 
     System.err.println(db.getCollection("todos").countDocuments());
-    System.err.println(todoArrayListCaptor.getValue().size());
+    System.err.println(todos.size());
 
     assertEquals(
         db.getCollection("todos").countDocuments(),
-        todoArrayListCaptor.getValue().size());
+        todos.size());
+  }
+
+  @Test
+  void canGetTodosWithoutADatabase() throws IOException {
+    Todo fry = new Todo();
+    fry.owner = "Fry";
+    fry.status = false;
+    fry.category = "video games";
+    fry.body = "Play the new game";
+    Todo blanche = new Todo();
+    blanche.owner = "Blanche";
+    blanche.status = true;
+    blanche.category = "homework";
+    blanche.body = "Do the homework";
+    TodoController inMemoryController = new TodoController(
+      new InMemoryTodoRepository(List.of(fry, blanche)),
+      TodoController.newTodoCache(TodoController.DEFAULT_CACHE_BYTES));
+
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+    inMemoryController.getTodos(ctx);
+
+    List<Todo> todos = sentTodos();
+    verify(ctx).status(HttpStatus.OK);
+    assertEquals(List.of("Blanche", "Fry"), todos.stream().map(todo -> todo.owner).toList());
+
+    when(ctx.pathParam("id")).thenReturn(fry._id);
+    inMemoryController.getTodo(ctx);
+    verify(ctx).json(todoCaptor.capture());
+    assertEquals("Play the new game", todoCaptor.getValue().body);
+  }
+
+  @Test
+  void declaresIndexesForItsQueries() {
+    IndexRegistry registry = new IndexRegistry();
+    todoController.declareIndexes(registry);
+
+    // Owner and category are case-insensitive matches, which no index can
+    // serve; the rest of the query shapes are the prefix of some index.
+    assertEquals(List.of("test.todos [owner]", "test.todos [category]"), registry.reconcile());
+  }
+
+  @Test
+  void canGetOnlySomeTodoFields() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(TodoController.FIELDS_KEY, Arrays.asList(new String[] {"owner, category"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(TodoController.FIELDS_KEY)).thenReturn("owner, category");
+
+    todoController.getTodos(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+
+    List<Document> todos = List.of(javalinJackson.fromJsonString(sentJson(), Document[].class));
+    assertEquals(4, todos.size());
+    // Still sorted by owner by default
+    Document sam = todos.get(3);
+    assertEquals(Set.of("_id", "owner", "category"), sam.keySet());
+    assertEquals("Sam", sam.get("owner"));
+    assertEquals(samsId.toHexString(), sam.get("_id"));
+  }
+
+  @Test
+  void canStreamOnlySomeTodoFields() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(TodoController.FIELDS_KEY, Arrays.asList(new String[] {"status"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(TodoController.FIELDS_KEY)).thenReturn("status");
+    when(ctx.queryParam(TodoController.STREAM_KEY)).thenReturn("true");
+
+    List<Object> streamed = new ArrayList<>();
+    doAnswer(invocation -> {
+      Stream<?> stream = invocation.getArgument(0);
+      stream.forEach(streamed::add);
+      return null;
+    }).when(ctx).writeJsonStream(any());
+
+    todoController.getTodos(ctx);
+
+    assertEquals(4, streamed.size());
+    for (Object todo : streamed) {
+      assertEquals(Set.of("_id", "status"), ((Document) todo).keySet());
+    }
+  }
+
+  @Test
+  void rejectsUnknownTodoFields() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(TodoController.FIELDS_KEY, Arrays.asList(new String[] {"owner,password"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(TodoController.FIELDS_KEY)).thenReturn("owner,password");
+
+    assertThrows(BadRequestResponse.class, () -> {
+      todoController.getTodos(ctx);
+    });
+  }
+
+  @Test
+  void canStreamAllTodos() throws IOException {
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+    when(ctx.queryParam(TodoController.STREAM_KEY)).thenReturn("true");
+
+    // Drain the stream handed to `writeJsonStream` the way Javalin would,
+    // so we can see what would have been written to the response.
+    List<Object> streamed = new ArrayList<>();
+    doAnswer(invocation -> {
+      Stream<?> stream = invocation.getArgument(0);
+      stream.forEach(streamed::add);
+      return null;
+    }).when(ctx).writeJsonStream(any());
+
+    todoController.getTodos(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    verify(ctx, never()).json(any());
+    assertEquals(db.getCollection("todos").countDocuments(), streamed.size());
+    assertEquals("Blanche", ((Todo) streamed.get(0)).owner);
   }
 
   /**
@@ -306,11 +496,11 @@ class TodoControllerSpec {
 
     todoController.getTodos(ctx);
 
-    verify(ctx).json(todoArrayListCaptor.capture());
+    List<Todo> todos = sentTodos();
     verify(ctx).status(HttpStatus.OK);
 
     // Confirm that all the users passed to `json` work for OHMNET.
-    for (Todo todo : todoArrayListCaptor.getValue()) {
+    for (Todo todo : todos) {
       assertEquals("true", todo.category);
     }
   }
@@ -331,11 +521,11 @@ class TodoControllerSpec {
 
     todoController.getTodos(ctx);
 
-    verify(ctx).json(todoArrayListCaptor.capture());
+    List<Todo> todos = sentTodos();
     verify(ctx).status(HttpStatus.OK);
 
     // Confirm that all the users passed to `json` work for OHMNET.
-    for (Todo todo : todoArrayListCaptor.getValue()) {
+    for (Todo todo : todos) {
       assertEquals(targetOwner, todo.owner);
     }
   }
@@ -356,15 +546,61 @@ class TodoControllerSpec {
 
     todoController.getTodos(ctx);
 
-    verify(ctx).json(todoArrayListCaptor.capture());
+    List<Todo> todos = sentTodos();
     verify(ctx).status(HttpStatus.OK);
 
     // Confirm that all the users passed to `json` work for OHMNET.
-    for (Todo todo : todoArrayListCaptor.getValue()) {
+    for (Todo todo : todos) {
       assertEquals(targetOwner, todo.body);
     }
   }
 
+  @Test
+  void bodySearchPutsBestMatchesFirst() throws IOException {
+    db.getCollection("todos").insertMany(List.of(
+      new Document()
+        .append("owner", "Kris")
+        .append("category", "homework")
+        .append("status", false)
+        .append("body", "start the history essay, then homework"),
+      new Document()
+        .append("owner", "Lee")
+        .append("category", "homework")
+        .append("status", false)
+        .append("body", "homework homework homework")));
+
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(TodoController.BODY_CONTAINS_KEY, Arrays.asList(new String[] {"homework"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(TodoController.BODY_CONTAINS_KEY)).thenReturn("homework");
+
+    todoController.getTodos(ctx);
+
+    List<Todo> todos = sentTodos();
+    verify(ctx).status(HttpStatus.OK);
+
+    // All three todos that mention homework, with the one that
+    // is nothing but homework first.
+    assertEquals(3, todos.size());
+    assertEquals("Lee", todos.get(0).owner);
+  }
+
+  @Test
+  void bodySearchDoesNotRunRegularExpressions() throws IOException {
+    // A pattern like this can take exponential time as a regex;
+    // as a text search it's just a few (unmatched) words.
+    String pattern = "(a+)+$";
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(TodoController.BODY_CONTAINS_KEY, Arrays.asList(new String[] {pattern}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(TodoController.BODY_CONTAINS_KEY)).thenReturn(pattern);
+
+    todoController.getTodos(ctx);
+
+    List<Todo> todos = sentTodos();
+    assertEquals(0, todos.size());
+  }
+
   @Test
   void canGetTodosWithStatus() throws IOException {
     Boolean targetOwner = true;
@@ -385,11 +621,11 @@ class TodoControllerSpec {
 
     todoController.getTodos(ctx);
 
-    verify(ctx).json(todoArrayListCaptor.capture());
+    List<Todo> todos = sentTodos();
     verify(ctx).status(HttpStatus.OK);
 
     // Confirm that all the users passed to `json` work for OHMNET.
-    for (Todo todo : todoArrayListCaptor.getValue()) {
+    for (Todo todo : todos) {
       assertEquals(targetOwner, todo.status);
     }
   }
@@ -410,11 +646,11 @@ class TodoControllerSpec {
 
     todoController.getTodos(ctx);
 
-    verify(ctx).json(todoArrayListCaptor.capture());
+    List<Todo> todos = sentTodos();
     verify(ctx).status(HttpStatus.OK);
 
     // Confirm that all the users passed to `json` work for OHMNET.
-    for (Todo todo : todoArrayListCaptor.getValue()) {
+    for (Todo todo : todos) {
       assertEquals(targetCategory, todo.category);
     }
   }
@@ -436,11 +672,106 @@ class TodoControllerSpec {
     when(ctx.queryParam(TodoController.LIMIT_KEY)).thenReturn(limitString);
 
     todoController.getTodos(ctx);
-    verify(ctx).json(todoArrayListCaptor.capture());
+    List<Todo> todos = sentTodos();
     verify(ctx).status(HttpStatus.OK);
 
     // Confirm that there are only 2 values returned since we limited to 2.
-    assertEquals(2, todoArrayListCaptor.getValue().size());
+    assertEquals(2, todos.size());
+  }
+
+  @Test
+  void canPageThroughTodos() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(TodoController.PAGE_SIZE_KEY, Arrays.asList(new String[] {"2"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    Validation validation = new Validation();
+    when(ctx.queryParamAsClass(TodoController.PAGE_SIZE_KEY, Integer.class))
+      .thenAnswer(invocation -> validation.validator(TodoController.PAGE_SIZE_KEY, Integer.class, "2"));
+
+    // The first page should be the first two owners alphabetically,
+    // and should tell us where to pick up for the next page.
+    todoController.getTodos(ctx);
+    verify(ctx).json(todoPageCaptor.capture());
+    TodoPage firstPage = todoPageCaptor.getValue();
+    assertEquals(2, firstPage.todos.size());
+    assertEquals("Blanche", firstPage.todos.get(0).owner);
+    assertEquals("Dawn", firstPage.todos.get(1).owner);
+    assertNotNull(firstPage.next);
+
+    // Following the token should give us the remaining two, and no
+    // further token since that's the end of the list.
+    queryParams.put(TodoController.PAGE_TOKEN_KEY, Arrays.asList(new String[] {firstPage.next}));
+    when(ctx.queryParam(TodoController.PAGE_TOKEN_KEY)).thenReturn(firstPage.next);
+    todoController.getTodos(ctx);
+    verify(ctx, times(2)).json(todoPageCaptor.capture());
+    TodoPage secondPage = todoPageCaptor.getValue();
+    assertEquals(2, secondPage.todos.size());
+    assertEquals("Fry", secondPage.todos.get(0).owner);
+    assertEquals("Sam", secondPage.todos.get(1).owner);
+    assertNull(secondPage.next);
+    verify(ctx, times(2)).status(HttpStatus.OK);
+  }
+
+  @Test
+  void canPageThroughTodosDescending() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(TodoController.PAGE_SIZE_KEY, Arrays.asList(new String[] {"3"}));
+    queryParams.put(TodoController.SORT_ORDER_KEY, Arrays.asList(new String[] {"desc"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(TodoController.SORT_ORDER_KEY)).thenReturn("desc");
+    Validation validation = new Validation();
+    when(ctx.queryParamAsClass(TodoController.PAGE_SIZE_KEY, Integer.class))
+      .thenAnswer(invocation -> validation.validator(TodoController.PAGE_SIZE_KEY, Integer.class, "3"));
+
+    todoController.getTodos(ctx);
+    verify(ctx).json(todoPageCaptor.capture());
+    String next = todoPageCaptor.getValue().next;
+    assertEquals("Sam", todoPageCaptor.getValue().todos.get(0).owner);
+
+    queryParams.put(TodoController.PAGE_TOKEN_KEY, Arrays.asList(new String[] {next}));
+    when(ctx.queryParam(TodoController.PAGE_TOKEN_KEY)).thenReturn(next);
+
+    todoController.getTodos(ctx);
+    verify(ctx, times(2)).json(todoPageCaptor.capture());
+    assertEquals(1, todoPageCaptor.getValue().todos.size());
+    assertEquals("Blanche", todoPageCaptor.getValue().todos.get(0).owner);
+    assertNull(todoPageCaptor.getValue().next);
+  }
+
+  @Test
+  void rejectsIllegalPageToken() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(TodoController.PAGE_TOKEN_KEY, Arrays.asList(new String[] {"not a token!"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(TodoController.PAGE_TOKEN_KEY)).thenReturn("not a token!");
+
+    Throwable exception = assertThrows(BadRequestResponse.class, () -> {
+      todoController.getTodos(ctx);
+    });
+    assertEquals("The requested Todo page token wasn't a legal page token.", exception.getMessage());
+  }
+
+  @Test
+  void rejectsPageTokenForAnotherOrdering() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(TodoController.PAGE_SIZE_KEY, Arrays.asList(new String[] {"1"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    Validation validation = new Validation();
+    when(ctx.queryParamAsClass(TodoController.PAGE_SIZE_KEY, Integer.class))
+      .thenAnswer(invocation -> validation.validator(TodoController.PAGE_SIZE_KEY, Integer.class, "1"));
+
+    todoController.getTodos(ctx);
+    verify(ctx).json(todoPageCaptor.capture());
+    String next = todoPageCaptor.getValue().next;
+
+    // Reuse the token, but now ask for the todos ordered by category.
+    queryParams.put(TodoController.PAGE_TOKEN_KEY, Arrays.asList(new String[] {next}));
+    when(ctx.queryParam(TodoController.PAGE_TOKEN_KEY)).thenReturn(next);
+    when(ctx.queryParam("orderBy")).thenReturn(TodoController.CATEGORY_KEY);
+
+    assertThrows(BadRequestResponse.class, () -> {
+      todoController.getTodos(ctx);
+    });
   }
 
   // @Test
@@ -486,6 +817,290 @@ class TodoControllerSpec {
   //   assertEquals(samsId.toHexString(), userCaptor.getValue()._id);
   // }
 
+  @Test
+  void getTodoWithExistentId() throws IOException {
+    String id = samsId.toHexString();
+    when(ctx.pathParam("id")).thenReturn(id);
+
+    todoController.getTodo(ctx);
+
+    verify(ctx).json(todoCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    assertEquals("Sam", todoCaptor.getValue().owner);
+    assertEquals(id, todoCaptor.getValue()._id);
+  }
+
+  @Test
+  void getTodoServesRepeatedLookupsFromTheCache() throws IOException {
+    LruCache<String, Todo> cache = TodoController.newTodoCache(TodoController.DEFAULT_CACHE_BYTES);
+    todoController = new TodoController(db, cache);
+    String id = samsId.toHexString();
+    when(ctx.pathParam("id")).thenReturn(id);
+
+    todoController.getTodo(ctx);
+    // Once it's cached, we don't need the database to find Sam's todo.
+    db.getCollection("todos").deleteOne(eq("_id", samsId));
+    todoController.getTodo(ctx);
+
+    verify(ctx, times(2)).json(todoCaptor.capture());
+    assertEquals("Sam", todoCaptor.getValue().owner);
+    assertEquals(1, cache.hits());
+    assertEquals(1, cache.misses());
+  }
+
+  @Test
+  void getTodosAnswersRepeatedQueriesWithNotModified() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(TodoController.CATEGORY_KEY, Arrays.asList(new String[] {"homework"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(TodoController.CATEGORY_KEY)).thenReturn("homework");
+
+    todoController.getTodos(ctx);
+    verify(ctx).header(ArgumentMatchers.eq(Header.ETAG), etagCaptor.capture());
+
+    // The client asks again, with the tag it was given.
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn(etagCaptor.getValue());
+    todoController.getTodos(ctx);
+
+    verify(ctx).status(HttpStatus.NOT_MODIFIED);
+    // Only the first request was answered with a body.
+    verify(ctx, times(1)).result(ArgumentMatchers.any(byte[].class));
+  }
+
+  @Test
+  void queriesWrittenDifferentlyShareACachedResponse() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(TodoController.STATUS_KEY, Arrays.asList(new String[] {"true"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(TodoController.STATUS_KEY)).thenReturn("true");
+    todoController.getTodos(ctx);
+    String first = sentJson();
+
+    // Gone from the database, but `?status=complete` is the same query.
+    db.getCollection("todos").deleteMany(new Document());
+    when(ctx.queryParam(TodoController.STATUS_KEY)).thenReturn("complete");
+    todoController.getTodos(ctx);
+
+    assertEquals(first, sentJson());
+    assertEquals("Sam", sentTodos().get(0).owner);
+  }
+
+  @Test
+  void cachedResponsesDoNotTakeTheDatabaseGate() throws IOException {
+    DatabaseGate gate = spy(new DatabaseGate(1, 10));
+    todoController.useDatabaseGate(gate);
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+
+    todoController.getTodos(ctx);
+    todoController.getTodos(ctx);
+
+    // Only the first request went to the database.
+    verify(gate, times(1)).call(any());
+    assertEquals(0, gate.inFlight());
+    assertEquals(db.getCollection("todos").countDocuments(), sentTodos().size());
+  }
+
+  @Test
+  void addingATodoMakesOldTagsStale() throws IOException {
+    todoController.getTodosGroupedByCategory(ctx);
+    verify(ctx).header(ArgumentMatchers.eq(Header.ETAG), etagCaptor.capture());
+    String oldTag = etagCaptor.getValue();
+
+    String newTodoJson = """
+      {"owner": "Ike", "category": "video games", "status": false, "body": "Beat the final boss"}
+      """;
+    when(ctx.bodyValidator(Todo.class))
+      .thenReturn(new BodyValidator<Todo>(newTodoJson, Todo.class,
+                    () -> javalinJackson.fromJsonString(newTodoJson, Todo.class)));
+    todoController.addNewTodo(ctx);
+
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn(oldTag);
+    todoController.getTodosGroupedByCategory(ctx);
+
+    verify(ctx, never()).status(HttpStatus.NOT_MODIFIED);
+    verify(ctx, times(2)).json(todoByCategoryListCaptor.capture());
+    assertEquals(2, todoByCategoryListCaptor.getValue().get(1).count);
+  }
+
+  @Test
+  void canGetAllTodosAsync() throws Exception {
+    todoController = asyncTodoController();
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+
+    todoController.getTodosAsync(ctx).get();
+
+    verify(ctx).status(HttpStatus.OK);
+    List<Todo> todos = sentTodos();
+    assertEquals(4, todos.size());
+    // Still sorted by owner by default
+    assertEquals("Blanche", todos.get(0).owner);
+    assertEquals("Sam", todos.get(3).owner);
+    assertEquals(samsId.toHexString(), todos.get(3)._id);
+  }
+
+  @Test
+  void canGetTodosWithOwnerAsync() throws Exception {
+    todoController = asyncTodoController();
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(TodoController.OWNER_KEY, Arrays.asList(new String[] {"fry"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(TodoController.OWNER_KEY)).thenReturn("fry");
+
+    todoController.getTodosAsync(ctx).get();
+
+    List<Todo> todos = sentTodos();
+    assertEquals(1, todos.size());
+    assertEquals("Fry", todos.get(0).owner);
+  }
+
+  @Test
+  void asyncTodoListsHandPagesToTheBlockingHandler() throws Exception {
+    todoController = asyncTodoController();
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(TodoController.PAGE_SIZE_KEY, Arrays.asList(new String[] {"2"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParamAsClass(TodoController.PAGE_SIZE_KEY, Integer.class))
+      .thenReturn(new Validation().validator(TodoController.PAGE_SIZE_KEY, Integer.class, "2"));
+
+    assertTrue(todoController.getTodosAsync(ctx).isDone());
+
+    verify(ctx).json(todoPageCaptor.capture());
+    assertEquals(2, todoPageCaptor.getValue().todos.size());
+  }
+
+  @Test
+  void getTodoAsyncWithExistentId() throws Exception {
+    todoController = asyncTodoController();
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+
+    todoController.getTodoAsync(ctx).get();
+
+    verify(ctx).json(todoCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    assertEquals("Sam", todoCaptor.getValue().owner);
+  }
+
+  @Test
+  void getTodoAsyncWithNonexistentId() throws Exception {
+    todoController = asyncTodoController();
+    when(ctx.pathParam("id")).thenReturn("588935f5c668650dc77df581");
+
+    ExecutionException exception = assertThrows(ExecutionException.class, () -> {
+      todoController.getTodoAsync(ctx).get();
+    });
+
+    assertTrue(exception.getCause() instanceof NotFoundResponse);
+  }
+
+  @Test
+  void addsAsyncRoutesWhenItHasAnAsyncDatabase() {
+    Javalin mockServer = mock(Javalin.class);
+
+    asyncTodoController().addRoutes(mockServer);
+
+    verify(mockServer, times(4)).get(any(), any());
+    verify(mockServer, times(2)).post(any(), any());
+  }
+
+  private TodoController rawTodoController() {
+    return new TodoController(db, TodoController.newTodoCache(TodoController.DEFAULT_CACHE_BYTES), asyncDb, true);
+  }
+
+  /**
+   * Collect what a handler writes straight to the response (as raw reads do).
+   */
+  private ByteArrayOutputStream captureOutput() {
+    ByteArrayOutputStream written = new ByteArrayOutputStream();
+    when(ctx.outputStream()).thenReturn(new ServletOutputStream() {
+      @Override
+      public void write(int b) {
+        written.write(b);
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener writeListener) {
+      }
+    });
+    return written;
+  }
+
+  @Test
+  void rawReadsPassTodosStraightThroughAsJson() {
+    todoController = rawTodoController();
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+
+    todoController.getTodos(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    verify(ctx, never()).json(any());
+    List<?> todos = javalinJackson.fromJsonString(sentJson(), List.class);
+    assertEquals(4, todos.size());
+    // Still sorted by owner, with the ids as hex strings
+    assertEquals("Blanche", ((Map<?, ?>) todos.get(0)).get("owner"));
+    assertEquals(samsId.toHexString(), ((Map<?, ?>) todos.get(3)).get("_id"));
+  }
+
+  @Test
+  void rawReadsCanStreamFilteredTodos() {
+    todoController = rawTodoController();
+    ByteArrayOutputStream written = captureOutput();
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(TodoController.CATEGORY_KEY, Arrays.asList(new String[] {"homework"}));
+    queryParams.put(TodoController.STREAM_KEY, Arrays.asList(new String[] {"true"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(TodoController.CATEGORY_KEY)).thenReturn("homework");
+    when(ctx.queryParam(TodoController.STREAM_KEY)).thenReturn("true");
+
+    todoController.getTodos(ctx);
+
+    verify(ctx, never()).writeJsonStream(any());
+    List<?> todos = javalinJackson.fromJsonString(written.toString(StandardCharsets.UTF_8), List.class);
+    assertEquals(3, todos.size());
+  }
+
+  @Test
+  void rawReadsPassOneTodoStraightThroughAsJson() {
+    todoController = rawTodoController();
+    ByteArrayOutputStream written = captureOutput();
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+
+    todoController.getTodo(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    Map<?, ?> todo = javalinJackson.fromJsonString(written.toString(StandardCharsets.UTF_8), Map.class);
+    assertEquals("Sam", todo.get("owner"));
+    assertEquals(true, todo.get("status"));
+    assertEquals(samsId.toHexString(), todo.get("_id"));
+  }
+
+  @Test
+  void rawReadsOfNonexistentTodosAreNotFound() {
+    todoController = rawTodoController();
+    when(ctx.pathParam("id")).thenReturn("588935f5c668650dc77df581");
+
+    assertThrows(NotFoundResponse.class, () -> todoController.getTodo(ctx));
+  }
+
+  @Test
+  void rawReadsUseTheBlockingRoutesEvenWithAnAsyncDatabase() throws Exception {
+    Javalin mockServer = mock(Javalin.class);
+    ArgumentCaptor<Handler> listTodos = ArgumentCaptor.forClass(Handler.class);
+    ByteArrayOutputStream written = captureOutput();
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+
+    rawTodoController().addRoutes(mockServer);
+    verify(mockServer).get(ArgumentMatchers.eq("/api/todos"), listTodos.capture());
+    listTodos.getValue().handle(ctx);
+
+    verify(ctx, never()).future(any());
+    assertTrue(written.size() > 0);
+  }
+
   @Test
   void getTodoWithBadId() throws IOException {
     when(ctx.pathParam("id")).thenReturn("bad");
@@ -566,6 +1181,287 @@ class TodoControllerSpec {
 
   }
 
+  @Captor
+  private ArgumentCaptor<List<OwnerCount>> ownersCaptor;
+
+  private List<String> suggestedOwners(String prefix) {
+    when(ctx.queryParam(TodoController.PREFIX_KEY)).thenReturn(prefix);
+    todoController.getOwners(ctx);
+    verify(ctx, times(1)).json(ownersCaptor.capture());
+    List<String> owners = ownersCaptor.getValue().stream().map(owner -> owner.owner).toList();
+    clearInvocations(ctx);
+    return owners;
+  }
+
+  @Test
+  void suggestsOwnersWithAPrefix() {
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+
+    assertEquals(List.of("Blanche", "Dawn", "Fry", "Sam"), suggestedOwners(null));
+    assertEquals(List.of("Dawn"), suggestedOwners("da"));
+    assertEquals(List.of(), suggestedOwners("Dx"));
+
+    when(ctx.queryParam(TodoController.PREFIX_KEY)).thenReturn("F");
+    todoController.getOwners(ctx);
+    verify(ctx).json(ownersCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    assertEquals(1, ownersCaptor.getValue().get(0).count);
+  }
+
+  @Test
+  void addedTodosAreSuggestedStraightAway() {
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+    Todo newTodo = new Todo();
+    newTodo.owner = "Sandy";
+    newTodo.status = false;
+    newTodo.body = "Water the plants";
+    newTodo.category = "homework";
+    String newTodoJson = javalinJackson.toJsonString(newTodo, Todo.class);
+    when(ctx.bodyValidator(Todo.class))
+      .thenReturn(new BodyValidator<Todo>(newTodoJson, Todo.class,
+                    () -> javalinJackson.fromJsonString(newTodoJson, Todo.class)));
+
+    todoController.addNewTodo(ctx);
+    clearInvocations(ctx);
+
+    assertEquals(List.of("Sam", "Sandy"), suggestedOwners("s"));
+  }
+
+  @Test
+  void limitsHowManyOwnersAreSuggested() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(TodoController.LIMIT_KEY, List.of("2"));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParamAsClass(TodoController.LIMIT_KEY, Integer.class))
+      .thenReturn(new Validation().validator(TodoController.LIMIT_KEY, Integer.class, "2"));
+
+    assertEquals(List.of("Blanche", "Dawn"), suggestedOwners(""));
+
+    when(ctx.queryParamAsClass(TodoController.LIMIT_KEY, Integer.class))
+      .thenReturn(new Validation().validator(TodoController.LIMIT_KEY, Integer.class, "1000"));
+    assertThrows(ValidationException.class, () -> todoController.getOwners(ctx));
+  }
+
+  @Captor
+  private ArgumentCaptor<Map<String, Object>> bulkResultCaptor;
+
+  @Test
+  void addTodosFromJsonArray() throws IOException {
+    String newTodosJson = """
+      [
+        {"owner": "Ike", "category": "homework", "status": false, "body": "Study for the exam"},
+        {"owner": "", "category": "homework", "status": false, "body": "Nobody's todo"},
+        {"owner": "Soren", "category": "software design", "status": true, "body": "Draw the diagrams"}
+      ]
+      """;
+    when(ctx.body()).thenReturn(newTodosJson);
+    when(ctx.jsonMapper()).thenReturn(javalinJackson);
+
+    todoController.addNewTodos(ctx);
+
+    verify(ctx).json(bulkResultCaptor.capture());
+    // One of the three wasn't legal, so this is only a partial success.
+    verify(ctx).status(HttpStatus.MULTI_STATUS);
+
+    Map<String, Object> report = bulkResultCaptor.getValue();
+    assertEquals(2, report.get("inserted"));
+    assertEquals(1, report.get("failed"));
+
+    List<?> results = (List<?>) report.get("results");
+    assertEquals(3, results.size());
+    Map<?, ?> ike = (Map<?, ?>) results.get(0);
+    Map<?, ?> nobody = (Map<?, ?>) results.get(1);
+    Map<?, ?> soren = (Map<?, ?>) results.get(2);
+    assertEquals(1, nobody.get("index"));
+    assertTrue(nobody.get("errors").toString().contains("non-empty owner name"));
+
+    // The legal ones were added with the ids we were told about.
+    Document addedIke = db.getCollection("todos")
+        .find(eq("_id", new ObjectId((String) ike.get("id")))).first();
+    assertEquals("Study for the exam", addedIke.get("body"));
+    Document addedSoren = db.getCollection("todos")
+        .find(eq("_id", new ObjectId((String) soren.get("id")))).first();
+    assertEquals("Soren", addedSoren.get("owner"));
+    assertEquals(6, db.getCollection("todos").countDocuments());
+  }
+
+  @Test
+  void addTodosFromNewlineDelimitedJson() throws IOException {
+    String newTodosNdjson = """
+      {"owner": "Ike", "category": "homework", "status": false, "body": "Study for the exam"}
+
+      {"owner": "Soren", "category": "software design", "status": true, "body": "Draw the diagrams"}
+      """;
+    when(ctx.contentType()).thenReturn("application/x-ndjson");
+    when(ctx.bodyInputStream()).thenReturn(new ByteArrayInputStream(newTodosNdjson.getBytes(StandardCharsets.UTF_8)));
+    when(ctx.jsonMapper()).thenReturn(javalinJackson);
+
+    todoController.addNewTodos(ctx);
+
+    verify(ctx).json(bulkResultCaptor.capture());
+    verify(ctx).status(HttpStatus.CREATED);
+    // The blank line is skipped rather than counted as a todo.
+    assertEquals(2, bulkResultCaptor.getValue().get("inserted"));
+    assertEquals(0, bulkResultCaptor.getValue().get("failed"));
+    assertEquals(6, db.getCollection("todos").countDocuments());
+  }
+
+  @Test
+  void addTodosReportsUnparseableLines() throws IOException {
+    String newTodosNdjson = """
+      {"owner": "Ike", "category": "homework", "status": false, "body": "Study for the exam"}
+      {"owner": "Soren", "category":
+      """;
+    when(ctx.contentType()).thenReturn("application/x-ndjson");
+    when(ctx.bodyInputStream()).thenReturn(new ByteArrayInputStream(newTodosNdjson.getBytes(StandardCharsets.UTF_8)));
+    when(ctx.jsonMapper()).thenReturn(javalinJackson);
+
+    todoController.addNewTodos(ctx);
+
+    verify(ctx).json(bulkResultCaptor.capture());
+    verify(ctx).status(HttpStatus.MULTI_STATUS);
+    List<?> results = (List<?>) bulkResultCaptor.getValue().get("results");
+    assertTrue(((Map<?, ?>) results.get(1)).get("errors").toString().contains("legal JSON"));
+  }
+
+  @Test
+  void addTodosReportsIllegalIdsWithoutChangingTheTodos() throws IOException {
+    todoController.getTodosGroupedByCategory(ctx);
+    verify(ctx).header(ArgumentMatchers.eq(Header.ETAG), etagCaptor.capture());
+    String oldTag = etagCaptor.getValue();
+
+    String newTodosJson = """
+      [{"_id": "not-an-id", "owner": "Ike", "category": "homework", "body": "Study for the exam"}]
+      """;
+    when(ctx.body()).thenReturn(newTodosJson);
+    when(ctx.jsonMapper()).thenReturn(javalinJackson);
+    todoController.addNewTodos(ctx);
+
+    // The category summary was the first response; the report is the second.
+    verify(ctx, times(2)).json(bulkResultCaptor.capture());
+    verify(ctx).status(HttpStatus.MULTI_STATUS);
+    assertEquals(0, bulkResultCaptor.getValue().get("inserted"));
+    List<?> results = (List<?>) bulkResultCaptor.getValue().get("results");
+    assertTrue(((Map<?, ?>) results.get(0)).get("errors").toString().contains("ObjectId"));
+    assertEquals(4, db.getCollection("todos").countDocuments());
+
+    // Nothing was added, so the old tag is still good.
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn(oldTag);
+    todoController.getTodosGroupedByCategory(ctx);
+    verify(ctx).status(HttpStatus.NOT_MODIFIED);
+  }
+
+  @Test
+  void addTodosWithIllegalJsonArray() throws IOException {
+    when(ctx.body()).thenReturn("[{\"owner\": ");
+    when(ctx.jsonMapper()).thenReturn(javalinJackson);
+
+    assertThrows(BadRequestResponse.class, () -> {
+      todoController.addNewTodos(ctx);
+    });
+    assertEquals(4, db.getCollection("todos").countDocuments());
+  }
+
+  @Captor
+  private ArgumentCaptor<ArrayList<TodoByCategory>> todoByCategoryListCaptor;
+
+  @Test
+  void canGetTodosGroupedByCategory() {
+    when(ctx.queryParam("sortBy")).thenReturn("category");
+    when(ctx.queryParam("sortOrder")).thenReturn("asc");
+    todoController.getTodosGroupedByCategory(ctx);
+
+    verify(ctx).json(todoByCategoryListCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+
+    ArrayList<TodoByCategory> result = todoByCategoryListCaptor.getValue();
+    assertEquals(2, result.size());
+    assertEquals("homework", result.get(0)._id);
+    assertEquals(3, result.get(0).count);
+    assertEquals(3, result.get(0).todos.size());
+    assertEquals("video games", result.get(1)._id);
+    assertEquals(1, result.get(1).count);
+  }
+
+  @Test
+  void addingTodosKeepsTheCategorySummaryCurrent() throws IOException {
+    String newTodoJson = """
+      {"owner": "Ike", "category": "video games", "status": false, "body": "Beat the final boss"}
+      """;
+    when(ctx.bodyValidator(Todo.class))
+      .thenReturn(new BodyValidator<Todo>(newTodoJson, Todo.class,
+                    () -> javalinJackson.fromJsonString(newTodoJson, Todo.class)));
+    todoController.addNewTodo(ctx);
+
+    String newTodosJson = """
+      [
+        {"owner": "Ike", "category": "software design", "status": false, "body": "Write the tests"},
+        {"owner": "Soren", "category": "video games", "status": true, "body": "Speedrun it"}
+      ]
+      """;
+    when(ctx.body()).thenReturn(newTodosJson);
+    when(ctx.jsonMapper()).thenReturn(javalinJackson);
+    todoController.addNewTodos(ctx);
+
+    when(ctx.queryParam("sortBy")).thenReturn("count");
+    when(ctx.queryParam("sortOrder")).thenReturn("desc");
+    todoController.getTodosGroupedByCategory(ctx);
+
+    verify(ctx).json(todoByCategoryListCaptor.capture());
+    ArrayList<TodoByCategory> result = todoByCategoryListCaptor.getValue();
+    assertEquals(3, result.size());
+    assertEquals("homework", result.get(0)._id);
+    assertEquals(3, result.get(0).count);
+    assertEquals("video games", result.get(1)._id);
+    assertEquals(3, result.get(1).count);
+    // The newest video games todo is last in the preview.
+    assertEquals("Speedrun it", result.get(1).todos.get(2).body);
+    assertEquals("software design", result.get(2)._id);
+    assertEquals(1, result.get(2).count);
+  }
+
+  @Test
+  void categorySummaryIsOnlyRebuiltWhenMissing() {
+    // Not added through the controller, so it's not in the summary.
+    db.getCollection("todos").insertOne(new Document()
+        .append("owner", "Ike")
+        .append("category", "video games")
+        .append("body", "Beat the final boss"));
+
+    new TodoController(db).getTodosGroupedByCategory(ctx);
+    db.getCollection("todosByCategory").drop();
+    new TodoController(db).getTodosGroupedByCategory(ctx);
+
+    verify(ctx, times(2)).json(todoByCategoryListCaptor.capture());
+    List<ArrayList<TodoByCategory>> results = todoByCategoryListCaptor.getAllValues();
+    assertEquals(1, results.get(0).get(1).count);
+    assertEquals(2, results.get(1).get(1).count);
+  }
+
+  @Test
+  void categorySummaryOnlyKeepsTheMostRecentTodos() throws IOException {
+    StringBuilder newTodosJson = new StringBuilder("[");
+    for (int i = 0; i < TodoController.CATEGORY_PREVIEW_SIZE + 5; i++) {
+      newTodosJson.append(i == 0 ? "" : ",")
+        .append("{\"owner\": \"Ike\", \"category\": \"homework\", \"body\": \"todo ")
+        .append(i)
+        .append("\"}");
+    }
+    String json = newTodosJson.append("]").toString();
+    when(ctx.body()).thenReturn(json);
+    when(ctx.jsonMapper()).thenReturn(javalinJackson);
+    todoController.addNewTodos(ctx);
+
+    todoController.getTodosGroupedByCategory(ctx);
+
+    verify(ctx).json(todoByCategoryListCaptor.capture());
+    TodoByCategory homework = todoByCategoryListCaptor.getValue().get(0);
+    assertEquals(TodoController.CATEGORY_PREVIEW_SIZE + 8, homework.count);
+    assertEquals(TodoController.CATEGORY_PREVIEW_SIZE, homework.todos.size());
+    assertEquals("todo " + (TodoController.CATEGORY_PREVIEW_SIZE + 4),
+      homework.todos.get(TodoController.CATEGORY_PREVIEW_SIZE - 1).body);
+  }
+
   @Test
   void addEmptyCategoryTodo() throws IOException {
     // Create a new user JSON string to add.
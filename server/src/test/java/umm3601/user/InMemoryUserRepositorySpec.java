@@ -0,0 +1,165 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.javalin.http.Context;
+import io.javalin.validation.Validation;
+import io.javalin.validation.ValidationException;
+
+/**
+ * Tests that `InMemoryUserRepository` answers queries the way Mongo would.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class InMemoryUserRepositorySpec {
+
+  private InMemoryUserRepository repository;
+
+  private static User user(String id, String name, int age, String company, String role) {
+    User user = new User();
+    user._id = id;
+    user.name = name;
+    user.age = age;
+    user.company = company;
+    user.email = name.toLowerCase() + "@example.com";
+    user.role = role;
+    return user;
+  }
+
+  /**
+   * The query a request with the given query parameters would make.
+   */
+  private static UserQuery query(String... params) {
+    Context ctx = mock(Context.class);
+    Map<String, List<String>> queryParams = new HashMap<>();
+    for (int i = 0; i < params.length; i += 2) {
+      String key = params[i];
+      String value = params[i + 1];
+      queryParams.put(key, List.of(value));
+      when(ctx.queryParam(key)).thenReturn(value);
+    }
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    Validation validation = new Validation();
+    when(ctx.queryParamAsClass(UserController.AGE_KEY, Integer.class)).thenAnswer(invocation ->
+      validation.validator(UserController.AGE_KEY, Integer.class, ctx.queryParam(UserController.AGE_KEY)));
+    when(ctx.queryParamAsClass(UserController.ROLE_KEY, String.class)).thenAnswer(invocation ->
+      validation.validator(UserController.ROLE_KEY, String.class, ctx.queryParam(UserController.ROLE_KEY)));
+    return UserQuery.from(ctx);
+  }
+
+  private static List<String> names(List<User> users) {
+    return users.stream().map(user -> user.name).collect(Collectors.toList());
+  }
+
+  @BeforeEach
+  void setupEach() {
+    repository = new InMemoryUserRepository(List.of(
+      user("588935f57546a2daea44de7c", "Chris", 25, "UMM", "admin"),
+      user("588935f57546a2daea44de7d", "Pat", 37, "IBM", "editor"),
+      user("588935f57546a2daea44de7e", "Jamie", 37, "Frogs, Inc.", "viewer"),
+      user("588935f57546a2daea44de7f", "Sam", 45, "OHMNET", "admin")));
+  }
+
+  @Test
+  void sortsByNameByDefault() {
+    assertEquals(List.of("Chris", "Jamie", "Pat", "Sam"), names(repository.find(UserQuery.all())));
+    assertEquals(List.of("Sam", "Jamie", "Pat", "Chris"), names(repository.find(query(
+      "sortby", UserController.AGE_KEY,
+      UserController.SORT_ORDER_KEY, "desc"))));
+  }
+
+  @Test
+  void filtersOnEveryIndexedField() {
+    assertEquals(List.of("Jamie", "Pat"), names(repository.find(query(UserController.AGE_KEY, "37"))));
+    assertEquals(List.of("Chris", "Sam"), names(repository.find(query(UserController.ROLE_KEY, "admin"))));
+    // Companies are matched as (case-insensitive) text, not as patterns
+    assertEquals(List.of("Chris", "Pat", "Sam"), names(repository.find(query(UserController.COMPANY_KEY, "m"))));
+    assertEquals(List.of(), names(repository.find(query(UserController.COMPANY_KEY, "*"))));
+    assertEquals(List.of("Sam"), names(repository.find(query(
+      UserController.ROLE_KEY, "admin",
+      UserController.COMPANY_KEY, "net"))));
+    assertEquals(List.of(), names(repository.find(query(
+      UserController.ROLE_KEY, "admin",
+      UserController.AGE_KEY, "37"))));
+  }
+
+  @Test
+  void checksTheFiltersLikeTheController() {
+    assertThrows(ValidationException.class, () -> query(UserController.AGE_KEY, "200"));
+    assertThrows(ValidationException.class, () -> query(UserController.ROLE_KEY, "owner"));
+  }
+
+  @Test
+  void deletesUsersFromEveryIndex() {
+    assertTrue(repository.delete("588935f57546a2daea44de7d"));
+    assertFalse(repository.delete("588935f57546a2daea44de7d"));
+
+    assertNull(repository.findById("588935f57546a2daea44de7d"));
+    assertEquals(List.of("Jamie"), names(repository.find(query(UserController.AGE_KEY, "37"))));
+    assertEquals(List.of(), names(repository.find(query(UserController.ROLE_KEY, "editor"))));
+    assertEquals(3, repository.size());
+  }
+
+  @Test
+  void insertsCopiesWithNewIds() {
+    User newUser = user(null, "Kim", 25, "UMM", "viewer");
+    repository.insert(newUser);
+
+    newUser.company = "IBM";
+    assertEquals("UMM", repository.findById(newUser._id).company);
+    assertEquals(List.of("Chris", "Kim"), names(repository.find(query(UserController.AGE_KEY, "25"))));
+    assertThrows(IllegalArgumentException.class,
+      () -> repository.insert(user("588935f57546a2daea44de7c", "Kim", 25, "UMM", "viewer")));
+  }
+
+  @Test
+  void groupsUsersByCompany() {
+    repository.insert(user(null, "Kim", 25, "UMM", "viewer"));
+    repository.delete("588935f57546a2daea44de7d");
+
+    List<UserByCompany> byCount = repository.groupByCompany("count", true);
+    assertEquals(List.of("UMM", "OHMNET", "Frogs, Inc."),
+      byCount.stream().map(company -> company._id).collect(Collectors.toList()));
+    assertEquals(2, byCount.get(0).count);
+    assertEquals(List.of("Chris", "Kim"),
+      byCount.get(0).users.stream().map(user -> user.name).collect(Collectors.toList()));
+
+    assertEquals(List.of("Frogs, Inc.", "OHMNET", "UMM"), repository.groupByCompany("_id", false).stream()
+      .map(company -> company._id).collect(Collectors.toList()));
+  }
+
+  @Test
+  void pagesThroughCompaniesAndTheirUsers() {
+    for (int i = 11; i >= 0; i--) {
+      repository.insert(user(null, String.format("Frog %02d", i), 2, "Frogs, Inc.", "viewer"));
+    }
+
+    UserByCompany frogs = repository.groupByCompany("count", true, 0, 1).get(0);
+    assertEquals(13, frogs.count);
+    assertEquals(UserController.COMPANY_PREVIEW_SIZE, frogs.users.size());
+    assertEquals("Frog 00", frogs.users.get(0).name);
+    assertEquals(List.of("IBM", "OHMNET", "UMM"), repository.groupByCompany("_id", false, 1, 5).stream()
+      .map(company -> company._id).collect(Collectors.toList()));
+
+    List<UserIdName> page = repository.companyMembers("Frogs, Inc.", 5, null, null);
+    assertEquals("Frog 04", page.get(4).name);
+    UserIdName last = page.get(4);
+    page = repository.companyMembers("Frogs, Inc.", 5, last.name, last._id);
+    assertEquals(List.of("Frog 05", "Frog 06", "Frog 07", "Frog 08", "Frog 09"),
+      page.stream().map(user -> user.name).collect(Collectors.toList()));
+    assertEquals(List.of(), repository.companyMembers("Nobody", 5, null, null));
+  }
+}
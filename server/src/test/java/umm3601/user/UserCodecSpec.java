@@ -0,0 +1,106 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonObjectId;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that `UserCodec` reads and writes users the way MongoJack did.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class UserCodecSpec {
+
+  private final UserCodec codec = new UserCodec();
+
+  private User decode(String json) {
+    return codec.decode(new BsonDocumentReader(BsonDocument.parse(json)), DecoderContext.builder().build());
+  }
+
+  @Test
+  void decodesEveryField() {
+    User user = decode("""
+      {"_id": {"$oid": "588935f57546a2daea44de7c"}, "name": "Chris", "age": 25, "company": "UMM",
+       "email": "chris@this.that", "role": "admin", "avatar": "https://gravatar.com/avatar/?d=identicon"}
+      """);
+
+    assertEquals("588935f57546a2daea44de7c", user._id);
+    assertEquals("Chris", user.name);
+    assertEquals(25, user.age);
+    assertEquals("UMM", user.company);
+    assertEquals("chris@this.that", user.email);
+    assertEquals("admin", user.role);
+    assertEquals("https://gravatar.com/avatar/?d=identicon", user.avatar);
+  }
+
+  @Test
+  void readsAgesHoweverTheyWereStored() {
+    assertEquals(37, decode("{\"age\": {\"$numberLong\": \"37\"}}").age);
+    assertEquals(37, decode("{\"age\": 37.0}").age);
+    assertEquals(37, decode("{\"age\": \"37\"}").age);
+    assertEquals(0, decode("{\"age\": null}").age);
+    assertEquals(0, decode("{\"name\": \"Pat\"}").age);
+  }
+
+  @Test
+  void skipsUnknownFieldsAndLeavesMissingOnesAlone() {
+    User user = decode("{\"name\": \"Jamie\", \"nickname\": \"J\", \"friends\": [1, 2], \"email\": null}");
+
+    assertNull(user._id);
+    assertEquals("Jamie", user.name);
+    assertNull(user.email);
+    assertNull(user.company);
+  }
+
+  @Test
+  void encodesAndDecodesTheSameUser() {
+    User user = new User();
+    user._id = "588935f57546a2daea44de7c";
+    user.name = "Pat";
+    user.age = 37;
+    user.company = "IBM";
+    user.email = "pat@something.com";
+    user.role = "editor";
+
+    BsonDocument document = new BsonDocument();
+    codec.encode(new BsonDocumentWriter(document), user, EncoderContext.builder().build());
+
+    assertEquals(new ObjectId(user._id), document.getObjectId("_id").getValue());
+    assertTrue(document.isNull("avatar"));
+    User decoded = decode(document.toJson());
+    assertEquals(user._id, decoded._id);
+    assertEquals(user.name, decoded.name);
+    assertEquals(user.age, decoded.age);
+    assertEquals(user.company, decoded.company);
+    assertEquals(user.email, decoded.email);
+    assertEquals(user.role, decoded.role);
+    assertNull(decoded.avatar);
+  }
+
+  @Test
+  void generatesAnIdOnlyIfThereIsNone() {
+    User user = new User();
+    assertFalse(codec.documentHasId(user));
+    assertThrows(IllegalStateException.class, () -> codec.getDocumentId(user));
+
+    codec.generateIdIfAbsentFromDocument(user);
+    assertNotNull(user._id);
+    assertEquals(new BsonObjectId(new ObjectId(user._id)), codec.getDocumentId(user));
+
+    String id = user._id;
+    codec.generateIdIfAbsentFromDocument(user);
+    assertEquals(id, user._id);
+    assertEquals(User.class, codec.getEncoderClass());
+  }
+}
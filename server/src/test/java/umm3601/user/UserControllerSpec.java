@@ -8,11 +8,16 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -20,7 +25,10 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.bson.Document;
 import org.bson.types.ObjectId;
@@ -29,6 +37,7 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
 import org.mockito.ArgumentMatcher;
 import org.mockito.Captor;
 import org.mockito.Mock;
@@ -47,6 +56,8 @@ import com.mongodb.client.MongoDatabase;
 import io.javalin.Javalin;
 import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import io.javalin.http.Header;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
 import io.javalin.json.JavalinJackson;
@@ -55,6 +66,10 @@ import io.javalin.validation.Validation;
 import io.javalin.validation.ValidationError;
 import io.javalin.validation.ValidationException;
 import io.javalin.validation.Validator;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import umm3601.IndexRegistry;
+import umm3601.LruCache;
 
 /**
  * Tests the logic of the UserController
@@ -86,6 +101,10 @@ class UserControllerSpec {
   private static MongoClient mongoClient;
   private static MongoDatabase db;
 
+  // The same database through the reactive driver, for the async handlers.
+  private static com.mongodb.reactivestreams.client.MongoClient asyncMongoClient;
+  private static com.mongodb.reactivestreams.client.MongoDatabase asyncDb;
+
   // Used to translate between JSON and POJOs.
   private static JavalinJackson javalinJackson = new JavalinJackson();
 
@@ -93,7 +112,7 @@ class UserControllerSpec {
   private Context ctx;
 
   @Captor
-  private ArgumentCaptor<ArrayList<User>> userArrayListCaptor;
+  private ArgumentCaptor<byte[]> resultCaptor;
 
   @Captor
   private ArgumentCaptor<User> userCaptor;
@@ -101,6 +120,9 @@ class UserControllerSpec {
   @Captor
   private ArgumentCaptor<Map<String, String>> mapCaptor;
 
+  @Captor
+  private ArgumentCaptor<String> etagCaptor;
+
   /**
    * Sets up (the connection to the) DB once; that connection and DB will
    * then be (re)used for all the tests, and closed in the `teardown()`
@@ -120,12 +142,23 @@ class UserControllerSpec {
             .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
             .build());
     db = mongoClient.getDatabase("test");
+
+    asyncMongoClient = com.mongodb.reactivestreams.client.MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .build());
+    asyncDb = asyncMongoClient.getDatabase("test");
   }
 
   @AfterAll
   static void teardown() {
     db.drop();
     mongoClient.close();
+    asyncMongoClient.close();
+  }
+
+  private UserController asyncUserController() {
+    return new UserController(db, UserController.newUserCache(UserController.DEFAULT_CACHE_BYTES), asyncDb);
   }
 
   @BeforeEach
@@ -133,6 +166,10 @@ class UserControllerSpec {
     // Reset our mock context and argument captor (declared with Mockito
     // annotations @Mock and @Captor)
     MockitoAnnotations.openMocks(this);
+    // The cached list responses are serialized with the context's mapper.
+    when(ctx.jsonMapper()).thenReturn(javalinJackson);
+    // The async reads tag their queries with the route (see `SlowQueryLogger`).
+    when(ctx.method()).thenReturn(HandlerType.GET);
 
     // Setup database
     MongoCollection<Document> userDocuments = db.getCollection("users");
@@ -188,6 +225,20 @@ class UserControllerSpec {
     verify(mockServer, Mockito.atLeastOnce()).delete(any(), any());
   }
 
+  /**
+   * The (last) JSON a handler sent through its `CompressedJsonCache`, which
+   * sends the bytes it cached (with `ctx.result()`), rather than handing
+   * Javalin a list to serialize.
+   */
+  private String sentJson() {
+    verify(ctx, Mockito.atLeastOnce()).result(resultCaptor.capture());
+    return new String(resultCaptor.getValue(), StandardCharsets.UTF_8);
+  }
+
+  private List<User> sentUsers() {
+    return List.of(javalinJackson.fromJsonString(sentJson(), User[].class));
+  }
+
   @Test
   void canGetAllUsers() throws IOException {
     // When something asks the (mocked) context for the queryParamMap,
@@ -199,27 +250,18 @@ class UserControllerSpec {
     // (which will, indeed, ask the context for its queryParamMap)
     userController.getUsers(ctx);
 
-    // We are going to capture an argument to a function, and the type of
-    // that argument will be of type ArrayList<User> (we said so earlier
-    // using a Mockito annotation like this):
-    // @Captor
-    // private ArgumentCaptor<ArrayList<User>> userArrayListCaptor;
-    // We only want to declare that captor once and let the annotation
-    // help us accomplish reassignment of the value for the captor
-    // We reset the values of our annotated declarations using the command
-    // `MockitoAnnotations.openMocks(this);` in our @BeforeEach
-
-    // Specifically, we want to pay attention to the ArrayList<User> that
-    // is passed as input when ctx.json is called --- what is the argument
-    // that was passed? We capture it and can refer to it later.
-    verify(ctx).json(userArrayListCaptor.capture());
+    // The list of users goes through the controller's response cache,
+    // which sends the JSON it cached (with `ctx.result()`) rather than
+    // passing the list to `ctx.json()`. `sentUsers()` captures that JSON
+    // and turns it back into a list of users we can check.
+    List<User> users = sentUsers();
     verify(ctx).status(HttpStatus.OK);
 
     // Check that the database collection holds the same number of documents
     // as the size of the captured List<User>
     assertEquals(
         db.getCollection("users").countDocuments(),
-        userArrayListCaptor.getValue().size());
+        users.size());
   }
 
   /**
@@ -242,11 +284,11 @@ class UserControllerSpec {
    *      with the (`String`) parameter value `"37"`.
    *    - We then call `userController.getUsers(ctx)` to run the code
    *      being tested with the constructed context `ctx`.
-   *    - We also use the `userListArrayCaptor` (defined above)
-   *      to capture the `ArrayList<User>` that the code under test
-   *      passes to `ctx.json(…)`. We can then confirm that the
-   *      correct list of users (i.e., all the users with age 37)
-   *      is passed in to be returned in the context.
+   *    - We also use `sentUsers()` (defined above) to capture the
+   *      JSON that the code under test sends with `ctx.result(…)`,
+   *      as a list of users. We can then confirm that the correct
+   *      list of users (i.e., all the users with age 37) is
+   *      returned in the context.
    *    - Now we can use a variety of assertions to confirm that
    *      the code under test did the "right" thing:
    *       - Confirm that the list of users has length 2
@@ -255,6 +297,72 @@ class UserControllerSpec {
    *
    * @throws IOException
    */
+  @Test
+  void declaresIndexesForItsQueries() {
+    IndexRegistry registry = new IndexRegistry();
+    userController.declareIndexes(registry);
+
+    // Filtering on age alone isn't the prefix of any index, and no index
+    // can serve the case-insensitive match on company.
+    assertEquals(List.of("test.users [age]", "test.users [company]"), registry.reconcile());
+  }
+
+  @Test
+  void canGetOnlySomeUserFields() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.FIELDS_KEY, Arrays.asList(new String[] {"name,company"}));
+    queryParams.put(UserController.COMPANY_KEY, Arrays.asList(new String[] {"OHMNET"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(UserController.FIELDS_KEY)).thenReturn("name,company");
+    when(ctx.queryParam(UserController.COMPANY_KEY)).thenReturn("OHMNET");
+
+    userController.getUsers(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+
+    // Jamie and Sam, without their emails or avatars.
+    List<Document> users = List.of(javalinJackson.fromJsonString(sentJson(), Document[].class));
+    assertEquals(2, users.size());
+    assertEquals("Jamie", users.get(0).get("name"));
+    assertEquals(Set.of("_id", "name", "company"), users.get(1).keySet());
+    assertEquals(samsId.toHexString(), users.get(1).get("_id"));
+  }
+
+  @Test
+  void rejectsUnknownUserFields() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.FIELDS_KEY, Arrays.asList(new String[] {"name,salary"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(UserController.FIELDS_KEY)).thenReturn("name,salary");
+
+    assertThrows(BadRequestResponse.class, () -> {
+      userController.getUsers(ctx);
+    });
+  }
+
+  @Test
+  void canStreamAllUsers() throws IOException {
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+    when(ctx.queryParam(UserController.STREAM_KEY)).thenReturn("true");
+
+    // Drain the stream handed to `writeJsonStream` the way Javalin would,
+    // so we can see what would have been written to the response.
+    List<Object> streamed = new ArrayList<>();
+    doAnswer(invocation -> {
+      Stream<?> stream = invocation.getArgument(0);
+      stream.forEach(streamed::add);
+      return null;
+    }).when(ctx).writeJsonStream(any());
+
+    userController.getUsers(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    verify(ctx, never()).json(any());
+    assertEquals(db.getCollection("users").countDocuments(), streamed.size());
+    // Users are sorted by name by default, so Chris comes first.
+    assertEquals("Chris", ((User) streamed.get(0)).name);
+  }
+
   @Test
   void canGetUsersWithAge37() throws IOException {
     // We'll need both `String` and `Integer` representations of
@@ -290,18 +398,18 @@ class UserControllerSpec {
 
     // Confirm that the code being tested calls `ctx.json(…)`, and capture whatever
     // is passed in as the argument when `ctx.json()` is called.
-    verify(ctx).json(userArrayListCaptor.capture());
+    List<User> users = sentUsers();
     // Confirm that the code under test calls `ctx.status(HttpStatus.OK)` is called.
     verify(ctx).status(HttpStatus.OK);
 
     // Confirm that we get back two users.
-    assertEquals(2, userArrayListCaptor.getValue().size());
+    assertEquals(2, users.size());
     // Confirm that both users have age 37.
-    for (User user : userArrayListCaptor.getValue()) {
+    for (User user : users) {
       assertEquals(targetAge, user.age);
     }
     // Generate a list of the names of the returned users.
-    List<String> names = userArrayListCaptor.getValue().stream().map(user -> user.name).collect(Collectors.toList());
+    List<String> names = users.stream().map(user -> user.name).collect(Collectors.toList());
     // Confirm that the returned `names` contain the two names of the
     // 37-year-olds.
     assertTrue(names.contains("Jamie"));
@@ -504,11 +612,11 @@ class UserControllerSpec {
 
     userController.getUsers(ctx);
 
-    verify(ctx).json(userArrayListCaptor.capture());
+    List<User> users = sentUsers();
     verify(ctx).status(HttpStatus.OK);
 
     // Confirm that all the users passed to `json` work for OHMNET.
-    for (User user : userArrayListCaptor.getValue()) {
+    for (User user : users) {
       assertEquals("OHMNET", user.company);
     }
   }
@@ -522,11 +630,11 @@ class UserControllerSpec {
 
     userController.getUsers(ctx);
 
-    verify(ctx).json(userArrayListCaptor.capture());
+    List<User> users = sentUsers();
     verify(ctx).status(HttpStatus.OK);
 
     // Confirm that all the users passed to `json` work for OHMNET.
-    for (User user : userArrayListCaptor.getValue()) {
+    for (User user : users) {
       assertEquals("OHMNET", user.company);
     }
   }
@@ -546,9 +654,9 @@ class UserControllerSpec {
 
     userController.getUsers(ctx);
 
-    verify(ctx).json(userArrayListCaptor.capture());
+    List<User> users = sentUsers();
     verify(ctx).status(HttpStatus.OK);
-    assertEquals(2, userArrayListCaptor.getValue().size());
+    assertEquals(2, users.size());
   }
 
   @Test
@@ -572,10 +680,10 @@ class UserControllerSpec {
 
     userController.getUsers(ctx);
 
-    verify(ctx).json(userArrayListCaptor.capture());
+    List<User> users = sentUsers();
     verify(ctx).status(HttpStatus.OK);
-    assertEquals(1, userArrayListCaptor.getValue().size());
-    for (User user : userArrayListCaptor.getValue()) {
+    assertEquals(1, users.size());
+    for (User user : users) {
       assertEquals(targetCompanyString, user.company);
       assertEquals(targetAge, user.age);
     }
@@ -594,6 +702,213 @@ class UserControllerSpec {
     assertEquals(samsId.toHexString(), userCaptor.getValue()._id);
   }
 
+  @Test
+  void getUserServesRepeatedLookupsFromTheCache() throws IOException {
+    LruCache<String, User> cache = UserController.newUserCache(UserController.DEFAULT_CACHE_BYTES);
+    userController = new UserController(db, cache);
+    String id = samsId.toHexString();
+    when(ctx.pathParam("id")).thenReturn(id);
+
+    userController.getUser(ctx);
+    // Change Sam behind the controller's back; the cached copy is still served.
+    db.getCollection("users").updateOne(eq("_id", samsId), new Document("$set", new Document("name", "Samantha")));
+    userController.getUser(ctx);
+
+    verify(ctx, Mockito.times(2)).json(userCaptor.capture());
+    assertEquals("Sam", userCaptor.getValue().name);
+    assertEquals(1, cache.hits());
+    assertEquals(1, cache.misses());
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  void deletingAUserRemovesItFromTheCache() throws IOException {
+    LruCache<String, User> cache = UserController.newUserCache(UserController.DEFAULT_CACHE_BYTES);
+    userController = new UserController(db, cache);
+    String id = samsId.toHexString();
+    when(ctx.pathParam("id")).thenReturn(id);
+
+    userController.getUser(ctx);
+    assertEquals(1, cache.size());
+
+    userController.deleteUser(ctx);
+    assertEquals(0, cache.size());
+
+    // The next lookup goes back to the database, which no longer has Sam.
+    assertThrows(NotFoundResponse.class, () -> {
+      userController.getUser(ctx);
+    });
+  }
+
+  @Test
+  void getUsersAnswersRepeatedQueriesWithNotModified() throws IOException {
+    userController.getUsers(ctx);
+    verify(ctx).header(ArgumentMatchers.eq(Header.ETAG), etagCaptor.capture());
+
+    // The client asks again, with the tag it was given.
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn(etagCaptor.getValue());
+    userController.getUsers(ctx);
+
+    verify(ctx).status(HttpStatus.NOT_MODIFIED);
+    // Only the first request was answered with a body.
+    verify(ctx, Mockito.times(1)).result(any(byte[].class));
+  }
+
+  @Test
+  void deletingAUserMakesOldTagsStale() throws IOException {
+    String id = samsId.toHexString();
+    when(ctx.pathParam("id")).thenReturn(id);
+
+    userController.getUser(ctx);
+    verify(ctx).header(ArgumentMatchers.eq(Header.ETAG), etagCaptor.capture());
+
+    userController.deleteUser(ctx);
+
+    // Sam's old tag is stale, so we go back to the database, which no longer has Sam.
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn(etagCaptor.getValue());
+    assertThrows(NotFoundResponse.class, () -> {
+      userController.getUser(ctx);
+    });
+    verify(ctx, never()).status(HttpStatus.NOT_MODIFIED);
+  }
+
+  @Test
+  void canGetAllUsersAsync() throws Exception {
+    userController = asyncUserController();
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+
+    userController.getUsersAsync(ctx).get();
+
+    List<User> users = sentUsers();
+    verify(ctx).status(HttpStatus.OK);
+    assertEquals(db.getCollection("users").countDocuments(), users.size());
+    assertEquals("Chris", users.get(0).name);
+  }
+
+  @Test
+  void asyncUserListsHandProjectionsToTheBlockingHandler() throws Exception {
+    userController = asyncUserController();
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.FIELDS_KEY, Arrays.asList(new String[] {"name"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(UserController.FIELDS_KEY)).thenReturn("name");
+
+    assertTrue(userController.getUsersAsync(ctx).isDone());
+
+    Document user = javalinJackson.fromJsonString(sentJson(), Document[].class)[0];
+    assertEquals(Set.of("_id", "name"), user.keySet());
+  }
+
+  @Test
+  void getUserAsyncWithExistentId() throws Exception {
+    userController = asyncUserController();
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+
+    userController.getUserAsync(ctx).get();
+
+    verify(ctx).json(userCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    assertEquals("Sam", userCaptor.getValue().name);
+    assertEquals(samsId.toHexString(), userCaptor.getValue()._id);
+  }
+
+  @Test
+  void getUserAsyncWithNonexistentId() throws Exception {
+    userController = asyncUserController();
+    when(ctx.pathParam("id")).thenReturn("588935f5c668650dc77df581");
+
+    ExecutionException exception = assertThrows(ExecutionException.class, () -> {
+      userController.getUserAsync(ctx).get();
+    });
+
+    assertTrue(exception.getCause() instanceof NotFoundResponse);
+  }
+
+  @Test
+  void addsAsyncRoutesWhenItHasAnAsyncDatabase() {
+    Javalin mockServer = mock(Javalin.class);
+    asyncUserController().addRoutes(mockServer);
+    verify(mockServer, Mockito.times(4)).get(any(), any());
+  }
+
+  private UserController rawUserController() {
+    return new UserController(db, UserController.newUserCache(UserController.DEFAULT_CACHE_BYTES), asyncDb, true);
+  }
+
+  /**
+   * Collect what a handler writes straight to the response (as raw reads do).
+   */
+  private ByteArrayOutputStream captureOutput() {
+    ByteArrayOutputStream written = new ByteArrayOutputStream();
+    when(ctx.outputStream()).thenReturn(new ServletOutputStream() {
+      @Override
+      public void write(int b) {
+        written.write(b);
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener writeListener) {
+      }
+    });
+    return written;
+  }
+
+  @Test
+  void rawReadsPassUsersStraightThroughAsJson() {
+    userController = rawUserController();
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+
+    userController.getUsers(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    verify(ctx, never()).json(any());
+    List<?> users = javalinJackson.fromJsonString(sentJson(), List.class);
+    assertEquals(4, users.size());
+    // Sorted by name, with the ids as hex strings
+    Map<?, ?> sam = (Map<?, ?>) users.get(3);
+    assertEquals("Sam", sam.get("name"));
+    assertEquals(45, sam.get("age"));
+    assertEquals(samsId.toHexString(), sam.get("_id"));
+  }
+
+  @Test
+  void rawReadsPassOneUserStraightThroughAsJson() {
+    userController = rawUserController();
+    ByteArrayOutputStream written = captureOutput();
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+
+    userController.getUser(ctx);
+
+    Map<?, ?> sam = javalinJackson.fromJsonString(written.toString(StandardCharsets.UTF_8), Map.class);
+    assertEquals("sam@frogs.com", sam.get("email"));
+
+    when(ctx.pathParam("id")).thenReturn("588935f5c668650dc77df581");
+    assertThrows(NotFoundResponse.class, () -> userController.getUser(ctx));
+  }
+
+  @Test
+  void rawReadsPassUsersGroupedByCompanyStraightThroughAsJson() {
+    userController = rawUserController();
+    when(ctx.queryParam("sortBy")).thenReturn("count");
+    when(ctx.queryParam("sortOrder")).thenReturn("desc");
+
+    userController.getUsersGroupedByCompany(ctx);
+
+    verify(ctx, never()).json(any());
+    List<?> companies = javalinJackson.fromJsonString(sentJson(), List.class);
+    assertEquals(3, companies.size());
+    Map<?, ?> ohmnet = (Map<?, ?>) companies.get(0);
+    assertEquals("OHMNET", ohmnet.get("_id"));
+    assertEquals(2, ohmnet.get("count"));
+    List<?> members = (List<?>) ohmnet.get("users");
+    assertTrue(members.contains(Map.of("_id", samsId.toHexString(), "name", "Sam")));
+  }
+
   @Test
   void getUserWithBadId() throws IOException {
     when(ctx.pathParam("id")).thenReturn("bad");
@@ -617,8 +932,9 @@ class UserControllerSpec {
     assertEquals("The requested user was not found", exception.getMessage());
   }
 
-  @Captor
-  private ArgumentCaptor<ArrayList<UserByCompany>> userByCompanyListCaptor;
+  private List<UserByCompany> sentCompanies() {
+    return List.of(javalinJackson.fromJsonString(sentJson(), UserByCompany[].class));
+  }
 
   @Test
   void testGetUsersGroupedByCompany() {
@@ -626,11 +942,8 @@ class UserControllerSpec {
     when(ctx.queryParam("sortOrder")).thenReturn("asc");
     userController.getUsersGroupedByCompany(ctx);
 
-    // Capture the argument to `ctx.json()`
-    verify(ctx).json(userByCompanyListCaptor.capture());
-
-    // Get the value that was passed to `ctx.json()`
-    ArrayList<UserByCompany> result = userByCompanyListCaptor.getValue();
+    // Get the companies that were sent
+    List<UserByCompany> result = sentCompanies();
 
     // There are 3 companies in the test data, so we should have 3 entries in the
     // result.
@@ -663,11 +976,8 @@ class UserControllerSpec {
     when(ctx.queryParam("sortOrder")).thenReturn("desc");
     userController.getUsersGroupedByCompany(ctx);
 
-    // Capture the argument to `ctx.json()`
-    verify(ctx).json(userByCompanyListCaptor.capture());
-
-    // Get the value that was passed to `ctx.json()`
-    ArrayList<UserByCompany> result = userByCompanyListCaptor.getValue();
+    // Get the companies that were sent
+    List<UserByCompany> result = sentCompanies();
 
     // There are 3 companies in the test data, so we should have 3 entries in the
     // result.
@@ -692,11 +1002,8 @@ class UserControllerSpec {
     when(ctx.queryParam("sortOrder")).thenReturn("asc");
     userController.getUsersGroupedByCompany(ctx);
 
-    // Capture the argument to `ctx.json()`
-    verify(ctx).json(userByCompanyListCaptor.capture());
-
-    // Get the value that was passed to `ctx.json()`
-    ArrayList<UserByCompany> result = userByCompanyListCaptor.getValue();
+    // Get the companies that were sent
+    List<UserByCompany> result = sentCompanies();
 
     // There are 3 companies in the test data, so we should have 3 entries in the
     // result.
@@ -723,6 +1030,195 @@ class UserControllerSpec {
     assertEquals(2, ohmnet.count);
   }
 
+  /**
+   * The companies (by name) and how many users each has, as
+   * `getUsersGroupedByCompany` reports them.
+   */
+  private Map<String, Integer> companyCounts() {
+    when(ctx.queryParam("sortBy")).thenReturn("company");
+    userController.getUsersGroupedByCompany(ctx);
+    Map<String, Integer> counts = new HashMap<>();
+    for (UserByCompany company : sentCompanies()) {
+      counts.put(company._id, company.count);
+    }
+    return counts;
+  }
+
+  @Test
+  void addingAndDeletingUsersKeepsTheCompanySummaryCurrent() throws IOException {
+    String newUserJson = """
+      {"name": "Ike", "age": 30, "company": "Frogs, Inc.", "email": "ike@frogs.com", "role": "editor"}
+      """;
+    when(ctx.bodyValidator(User.class))
+      .thenReturn(new BodyValidator<User>(newUserJson, User.class,
+                    () -> javalinJackson.fromJsonString(newUserJson, User.class)));
+    userController.addNewUser(ctx);
+    verify(ctx).json(mapCaptor.capture());
+    String ikesId = mapCaptor.getValue().get("id");
+
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+    userController.deleteUser(ctx);
+
+    assertEquals(Map.of("Frogs, Inc.", 1, "IBM", 1, "OHMNET", 1, "UMM", 1), companyCounts());
+    Document frogs = db.getCollection(MongoUserRepository.COMPANY_SUMMARY_COLLECTION)
+      .find(eq("_id", "Frogs, Inc.")).first();
+    assertEquals(List.of(new Document("_id", new ObjectId(ikesId)).append("name", "Ike")), frogs.get("users"));
+
+    // Deleting a company's last user deletes the company.
+    when(ctx.pathParam("id")).thenReturn(ikesId);
+    userController.deleteUser(ctx);
+    assertEquals(Map.of("IBM", 1, "OHMNET", 1, "UMM", 1), companyCounts());
+  }
+
+  @Test
+  void reconcilingTheCompanySummaryCatchesUpWithOtherWriters() {
+    // Users added and deleted behind the controller's back
+    MongoCollection<Document> userDocuments = db.getCollection("users");
+    userDocuments.insertOne(new Document("name", "Ike").append("company", "Frogs, Inc."));
+    userDocuments.deleteMany(eq("company", "UMM"));
+    userDocuments.deleteOne(eq("_id", samsId));
+    assertEquals(Map.of("IBM", 1, "OHMNET", 2, "UMM", 1), companyCounts());
+
+    MongoUserRepository.reconcileCompanySummary(db);
+
+    assertEquals(Map.of("Frogs, Inc.", 1, "IBM", 1, "OHMNET", 1), companyCounts());
+  }
+
+  /**
+   * Add a dozen users, Frog 00 to Frog 11, to "Frogs, Inc.", and make a
+   * new controller, so they're in its company summary.
+   */
+  private void addFrogs() {
+    List<Document> frogs = new ArrayList<>();
+    for (int i = 11; i >= 0; i--) {
+      frogs.add(new Document("name", String.format("Frog %02d", i)).append("company", "Frogs, Inc.")
+        .append("age", 2).append("email", "frog@frogs.com").append("role", "viewer"));
+    }
+    db.getCollection("users").insertMany(frogs);
+    userController = new UserController(db);
+  }
+
+  private UserByCompany frogsInc() {
+    return companies().stream().filter(company -> company._id.equals("Frogs, Inc.")).findFirst().get();
+  }
+
+  private List<UserByCompany> companies() {
+    clearInvocations(ctx);
+    userController.getUsersGroupedByCompany(ctx);
+    return sentCompanies();
+  }
+
+  private static List<String> names(List<UserIdName> users) {
+    return users.stream().map(user -> user.name).toList();
+  }
+
+  @Test
+  void companiesOnlyPreviewTheirFirstUsers() throws IOException {
+    addFrogs();
+    UserByCompany frogs = frogsInc();
+    assertEquals(12, frogs.count);
+    assertEquals(UserController.COMPANY_PREVIEW_SIZE, frogs.users.size());
+    assertEquals("Frog 00", frogs.users.get(0).name);
+    assertEquals("Frog 09", frogs.users.get(9).name);
+
+    clearInvocations(ctx);
+    String newUserJson = """
+      {"name": "Ace", "age": 3, "company": "Frogs, Inc.", "email": "ace@frogs.com", "role": "editor"}
+      """;
+    when(ctx.bodyValidator(User.class))
+      .thenReturn(new BodyValidator<User>(newUserJson, User.class,
+                    () -> javalinJackson.fromJsonString(newUserJson, User.class)));
+    userController.addNewUser(ctx);
+    verify(ctx).json(mapCaptor.capture());
+    String acesId = mapCaptor.getValue().get("id");
+
+    frogs = frogsInc();
+    assertEquals(13, frogs.count);
+    assertEquals(List.of("Ace", "Frog 00"), names(frogs.users.subList(0, 2)));
+    assertEquals(UserController.COMPANY_PREVIEW_SIZE, frogs.users.size());
+
+    // Deleting Ace makes room for Frog 09 again.
+    when(ctx.pathParam("id")).thenReturn(acesId);
+    userController.deleteUser(ctx);
+    frogs = frogsInc();
+    assertEquals(12, frogs.count);
+    assertEquals(UserController.COMPANY_PREVIEW_SIZE, frogs.users.size());
+    assertEquals("Frog 09", frogs.users.get(9).name);
+  }
+
+  @Test
+  void canGetAPageOfCompanies() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.PAGE_SIZE_KEY, List.of("2"));
+    queryParams.put(UserController.PAGE_KEY, List.of("1"));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    Validation validation = new Validation();
+    when(ctx.queryParamAsClass(UserController.PAGE_SIZE_KEY, Integer.class))
+      .thenReturn(validation.validator(UserController.PAGE_SIZE_KEY, Integer.class, "2"));
+    when(ctx.queryParamAsClass(UserController.PAGE_KEY, Integer.class))
+      .thenReturn(validation.validator(UserController.PAGE_KEY, Integer.class, "1"));
+
+    when(ctx.queryParam("sortBy")).thenReturn("company");
+    assertEquals(List.of("UMM"), companies().stream().map(company -> company._id).toList());
+
+    // Companies with the same count are ordered by name (in the same direction).
+    when(ctx.queryParam("sortBy")).thenReturn("count");
+    assertEquals(List.of("OHMNET"), companies().stream().map(company -> company._id).toList());
+    when(ctx.queryParam("sortOrder")).thenReturn("desc");
+    assertEquals(List.of("IBM"), companies().stream().map(company -> company._id).toList());
+  }
+
+  @Captor
+  private ArgumentCaptor<CompanyMembers> companyMembersCaptor;
+
+  @Test
+  void canPageThroughTheUsersInACompany() {
+    addFrogs();
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.PAGE_SIZE_KEY, List.of("5"));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParamAsClass(UserController.PAGE_SIZE_KEY, Integer.class))
+      .thenReturn(new Validation().validator(UserController.PAGE_SIZE_KEY, Integer.class, "5"));
+    when(ctx.pathParam(UserController.COMPANY_KEY)).thenReturn("Frogs, Inc.");
+
+    List<String> seen = new ArrayList<>();
+    String next = null;
+    int pages = 0;
+    do {
+      if (next != null) {
+        queryParams.put(UserController.PAGE_TOKEN_KEY, List.of(next));
+        when(ctx.queryParam(UserController.PAGE_TOKEN_KEY)).thenReturn(next);
+      }
+      clearInvocations(ctx);
+      userController.getCompanyMembers(ctx);
+      verify(ctx).json(companyMembersCaptor.capture());
+      verify(ctx).status(HttpStatus.OK);
+      CompanyMembers page = companyMembersCaptor.getValue();
+      assertEquals("Frogs, Inc.", page.company);
+      seen.addAll(names(page.users));
+      next = page.next;
+      pages++;
+    } while (next != null);
+
+    assertEquals(3, pages);
+    List<String> allFrogs = new ArrayList<>();
+    for (int i = 0; i < 12; i++) {
+      allFrogs.add(String.format("Frog %02d", i));
+    }
+    assertEquals(allFrogs, seen);
+  }
+
+  @Test
+  void companyMembersRejectBadPageTokens() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.PAGE_TOKEN_KEY, List.of("not a token!"));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(UserController.PAGE_TOKEN_KEY)).thenReturn("not a token!");
+    when(ctx.pathParam(UserController.COMPANY_KEY)).thenReturn("OHMNET");
+
+    assertThrows(BadRequestResponse.class, () -> userController.getCompanyMembers(ctx));
+  }
+
   @Test
   void addUser() throws IOException {
     // Create a new user to add